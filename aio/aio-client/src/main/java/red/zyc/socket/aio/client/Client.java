@@ -1,6 +1,12 @@
 package red.zyc.socket.aio.client;
 
 import lombok.extern.slf4j.Slf4j;
+import red.zyc.socket.core.codec.Frame;
+import red.zyc.socket.core.codec.FrameDecoder;
+import red.zyc.socket.core.heartbeat.Heartbeat;
+import red.zyc.socket.core.message.Message;
+import red.zyc.socket.core.message.MessageDecoder;
+import red.zyc.socket.core.message.MessageEncoder;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -8,7 +14,6 @@ import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.locks.LockSupport;
 
@@ -53,6 +58,11 @@ public class Client implements CompletionHandler<Integer, Integer> {
      */
     private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_CAPACITY);
 
+    /**
+     * 响应帧解码器
+     */
+    private final FrameDecoder decoder = new FrameDecoder();
+
     /**
      * 网络地址
      */
@@ -72,8 +82,14 @@ public class Client implements CompletionHandler<Integer, Integer> {
             // 阻塞直到与服务端建立连接
             socketChannel.connect(new InetSocketAddress(SERVER_HOST, SERVER_PORT)).get();
 
-            // 连接建立后往服务端写信息
-            socketChannel.write(ByteBuffer.wrap("我是客户端".getBytes()), WRITE_COMPLETED, new Client(socketChannel));
+            // 连接建立后往服务端写一个ECHO请求
+            byte[] body = "我是客户端".getBytes(StandardCharsets.UTF_8);
+            ByteBuffer request = new MessageEncoder()
+                    .wrap(ByteBuffer.allocate(Message.frameLength(1, body.length)), Frame.REQUEST, 1, Message.ECHO)
+                    .field(body)
+                    .finish()
+                    .flip();
+            socketChannel.write(request, WRITE_COMPLETED, new Client(socketChannel));
 
             // 阻塞main线程避免AsynchronousSocketChannel被try with resource关闭
             LockSupport.park();
@@ -89,12 +105,15 @@ public class Client implements CompletionHandler<Integer, Integer> {
             // 数据写完之后继续读服务端发送过来的信息
             if (event == WRITE_COMPLETED) {
                 socketChannel.read(readBuffer, READ_COMPLETED, this);
-
-                // 数据读完之后断开连接
             } else {
-                log.info("来自服务端{}的消息: {}", serverAddress(), StandardCharsets.UTF_8.decode(simpleDecode()));
-                LockSupport.unpark(clientThread);
-                disconnect();
+                try {
+                    decoder.decode(readBuffer.flip(), this::received);
+                } finally {
+                    readBuffer.clear();
+                }
+                if (socketChannel.isOpen()) {
+                    socketChannel.read(readBuffer, READ_COMPLETED, this);
+                }
             }
         }
     }
@@ -118,13 +137,20 @@ public class Client implements CompletionHandler<Integer, Integer> {
     }
 
     /**
-     * @return 服务端返回的信息
+     * 处理服务端发送的帧，收到响应之后断开连接，收到心跳则回复心跳
+     *
+     * @param frame 帧
      */
-    private ByteBuffer simpleDecode() {
-        try {
-            return ByteBuffer.wrap(Arrays.copyOfRange(readBuffer.array(), 0, readBuffer.position()));
-        } finally {
-            readBuffer.clear();
+    private void received(Frame frame) {
+        switch (frame.type()) {
+            case Frame.RESPONSE -> {
+                MessageDecoder message = new MessageDecoder().wrap(frame.payload());
+                log.info("来自服务端{}的消息: {}", serverAddress(), StandardCharsets.UTF_8.decode(message.field(0)));
+                LockSupport.unpark(clientThread);
+                disconnect();
+            }
+            case Frame.PING -> socketChannel.write(Heartbeat.pong(frame.correlationId()));
+            default -> log.info("来自服务端{}的帧: {}", serverAddress(), frame.type());
         }
     }
 
@@ -1,36 +1,113 @@
 package red.zyc.socket.aio.server;
 
 import lombok.extern.slf4j.Slf4j;
+import red.zyc.socket.core.ServerException;
+import red.zyc.socket.core.chat.ChatHandler;
+import red.zyc.socket.core.concurrent.NamedThreadFactory;
+import red.zyc.socket.core.jfr.AcceptEvent;
+import red.zyc.socket.core.transport.Handler;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.AsynchronousChannelGroup;
 import java.nio.channels.AsynchronousServerSocketChannel;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
+import java.util.concurrent.Executors;
 
 /**
- * 用来接收SocketChannel接收器
+ * 用来接收SocketChannel接收器。<br><br>
+ * 服务端使用自己创建的{@link AsynchronousChannelGroup}而不是jvm默认的通道组，所有的accept、read、write完成回调都在这个通道组的线程中执行，
+ * 可以通过以下系统属性配置：
+ * <ul>
+ *     <li>socket.aio.group：通道组类型，fixed为固定大小的线程池，cached为按需创建线程的线程池，默认为fixed</li>
+ *     <li>socket.aio.group.threads：fixed通道组的线程数或cached通道组的初始线程数，默认为cpu核数</li>
+ * </ul>
  *
  * @author zyc
  */
 @Slf4j
 public class Acceptor implements CompletionHandler<AsynchronousSocketChannel, AsynchronousServerSocketChannel> {
 
-    private static final int LISTEN = 9002;
+    static final int LISTEN = 9002;
+
+    /**
+     * 通道组类型
+     */
+    private static final String GROUP_TYPE = System.getProperty("socket.aio.group", "fixed");
+
+    /**
+     * 通道组线程数
+     */
+    private static final int GROUP_THREADS = Integer.getInteger("socket.aio.group.threads", Runtime.getRuntime().availableProcessors());
+
+    /**
+     * 业务逻辑
+     */
+    private final Handler handler;
+
+    private Acceptor(Handler handler) {
+        this.handler = handler;
+    }
 
     public static void main(String[] args) throws IOException, InterruptedException {
-        try (AsynchronousServerSocketChannel server = AsynchronousServerSocketChannel.open().bind(new InetSocketAddress(LISTEN))) {
+        serve(LISTEN, new ChatHandler());
+    }
+
+    /**
+     * 启动服务端，方法会一直阻塞直到当前线程被中断
+     *
+     * @param port    监听的端口
+     * @param handler 业务逻辑
+     * @throws IOException          io异常
+     * @throws InterruptedException 当前线程被中断
+     */
+    static void serve(int port, Handler handler) throws IOException, InterruptedException {
+        AsynchronousChannelGroup group = openChannelGroup();
+        try (AsynchronousServerSocketChannel server = AsynchronousServerSocketChannel.open(group).bind(new InetSocketAddress(port))) {
             Thread.currentThread().setName("Acceptor");
-            server.accept(server, new Acceptor());
+            log.info("aio服务端已启动，通道组类型: {}，线程数: {}，业务处理方式: {}", GROUP_TYPE, GROUP_THREADS, Connection.PROCESS_INLINE ? "inline" : "executor");
+            server.accept(server, new Acceptor(handler));
             Thread.currentThread().join();
+        } finally {
+            group.shutdownNow();
         }
     }
 
+    /**
+     * @return 根据系统属性创建的通道组
+     * @throws IOException io异常
+     */
+    private static AsynchronousChannelGroup openChannelGroup() throws IOException {
+        return switch (GROUP_TYPE) {
+            case "fixed" -> AsynchronousChannelGroup.withFixedThreadPool(GROUP_THREADS, new NamedThreadFactory("AioGroup"));
+            case "cached" -> AsynchronousChannelGroup.withCachedThreadPool(Executors.newCachedThreadPool(new NamedThreadFactory("AioGroup")), GROUP_THREADS);
+            default -> throw new ServerException(String.format("不支持的通道组类型: %s", GROUP_TYPE));
+        };
+    }
+
     @Override
     public void completed(AsynchronousSocketChannel client, AsynchronousServerSocketChannel server) {
 
         // 接收到SocketChannel后将其包装成Connection进行读写交替直到通道关闭，注意read、write都是异步执行的
-        new Connection(client).read();
+        AcceptEvent event = new AcceptEvent();
+        event.begin();
+        try {
+            client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(client, handler);
+            Connection.ACCESS_LOG.accepted(connection.getUuid(), connection.getPackedAddress());
+            connection.connected();
+            connection.read();
+            event.commit(connection.getInetSocketAddress(), true);
+        } catch (IOException e) {
+            log.error("获取客户端地址失败", e);
+            try {
+                client.close();
+            } catch (IOException ex) {
+                log.error(ex.getMessage(), ex);
+            }
+        }
 
         // 递归accept下一个SocketChannel
         server.accept(server, this);
@@ -0,0 +1,35 @@
+package red.zyc.socket.aio.server;
+
+import red.zyc.socket.core.transport.Handler;
+import red.zyc.socket.core.transport.Transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * 基于aio的传输层
+ *
+ * @author zyc
+ */
+public class AioTransport implements Transport {
+
+    @Override
+    public String name() {
+        return "aio";
+    }
+
+    @Override
+    public int defaultPort() {
+        return Acceptor.LISTEN;
+    }
+
+    @Override
+    public void serve(int port, Handler handler) throws IOException {
+        try {
+            Acceptor.serve(port, handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+    }
+}
@@ -1,32 +1,52 @@
 package red.zyc.socket.aio.server;
 
 import lombok.Getter;
-import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import red.zyc.socket.core.cache.ResponseCache;
+import red.zyc.socket.core.codec.CodecException;
+import red.zyc.socket.core.codec.Frame;
+import red.zyc.socket.core.codec.FrameDecoder;
+import red.zyc.socket.core.concurrent.NamedThreadFactory;
+import red.zyc.socket.core.heartbeat.Heartbeat;
+import red.zyc.socket.core.jfr.ReadEvent;
+import red.zyc.socket.core.jfr.WriteEvent;
+import red.zyc.socket.core.limit.RateLimiter;
+import red.zyc.socket.core.limit.TokenBucket;
+import red.zyc.socket.core.log.AccessLog;
+import red.zyc.socket.core.transport.AbstractConnection;
+import red.zyc.socket.core.transport.Handler;
+import red.zyc.socket.core.transport.HandlerTask;
+import red.zyc.socket.core.transport.RequestBatcher;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
-import java.time.LocalDateTime;
+import java.util.ArrayDeque;
 import java.util.Arrays;
-import java.util.UUID;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * 第一个类型参数代表读或写成功字节数，第二个类型参数代表当前触发的事件，比如读已完成、写已完成。
+ * 第一个类型参数代表读成功的字节数，第二个类型参数没有用到。<br><br>
+ * 读和写是互相独立的：读完成之后立即发起下一次读，不需要等待本次请求的响应写完，所以客户端可以连续发送多个请求；
+ * 业务线程产生的响应先放入{@link #writeQueue}，同一时刻只有一个写操作在进行，
+ * 每次写操作会通过聚集写把队列中所有的响应一起写入SocketChannel，没有写完的部分在写完成回调中继续写。
  *
  * @author zyc
  * @see CompletionHandler
  */
 @Slf4j
 @Getter
-@Setter
-public class Connection implements CompletionHandler<Integer, Integer> {
+public class Connection extends AbstractConnection implements CompletionHandler<Integer, Void>, Heartbeat.Peer {
 
     /**
      * 读缓冲大小1024 (1 KiB)
@@ -34,93 +54,202 @@ public class Connection implements CompletionHandler<Integer, Integer> {
     private static final int BUFFER_CAPACITY = 1 << 10;
 
     /**
-     * 读已完成
+     * 一次聚集写最多写入的响应数
      */
-    private static final int READ_COMPLETED = 1;
+    private static final int MAX_GATHERING_BUFFERS = 64;
 
     /**
-     * 写已完成
+     * 每个连接还没有处理完的请求数与还没有写完的帧数之和的上限，超过之后暂停读，直到降到一半再恢复，
+     * 避免只发送不读取的客户端让服务端的响应无限堆积
      */
-    private static final int WRITE_COMPLETED = 2;
+    private static final int MAX_PENDING_REQUESTS = Integer.getInteger("socket.aio.maxPendingRequests", 128);
 
     /**
-     * 处理业务逻辑的线程池
+     * 写队列中还没有写完的帧数上限，超过之后认为客户端已经不再读取，直接断开连接。
+     * 暂停读只能限制客户端自己的请求产生的响应，房间广播等其它连接写来的帧只能通过这个上限约束
      */
-    private static final ThreadPoolExecutor PROCESS_EXECUTOR = new ThreadPoolExecutor(100, 100, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>(1000), new NamedThreadFactory("Process"), new RejectedRequestHandler());
+    private static final int MAX_QUEUED_FRAMES = Integer.getInteger("socket.aio.maxQueuedFrames", 4096);
 
     /**
-     * 当前连接的id
+     * 是否直接在通道组的完成回调线程中执行业务逻辑，通过系统属性socket.aio.process=inline开启。
+     * 业务逻辑很轻且不会阻塞时，省去一次线程切换比交给业务线程池更快；业务逻辑会阻塞时应当使用业务线程池，否则会占满通道组线程导致所有连接都无法读写。
      */
-    private final String id;
+    static final boolean PROCESS_INLINE = "inline".equals(System.getProperty("socket.aio.process", "executor"));
 
     /**
-     * 读取请求数据的字节缓冲对象
+     * 处理业务逻辑的线程池，inline模式下直接在调用线程执行
+     */
+    private static final Executor PROCESS_EXECUTOR = PROCESS_INLINE ? Runnable::run : HandlerTask.newExecutor();
+
+    /**
+     * 访问日志
+     */
+    static final AccessLog ACCESS_LOG = AccessLog.open("aio-server");
+
+    /**
+     * 连接级别和客户端ip级别的请求限流器，在请求提交到业务线程池之前检查
+     */
+    private static final RateLimiter RATE_LIMITER = RateLimiter.create();
+
+    /**
+     * 延迟处理被限流请求的调度线程池
+     */
+    private static final ScheduledExecutorService THROTTLE_SCHEDULER = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("Throttle"));
+
+    /**
+     * 读取请求数据的字节缓冲对象，同一时刻只有一个读操作，所以不需要同步
      */
     private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_CAPACITY);
 
+    /**
+     * 请求帧解码器，只会在读完成回调中访问，同一时刻只有一个读操作，所以不需要同步
+     */
+    private final FrameDecoder decoder = new FrameDecoder();
+
+    /**
+     * 因为限流而暂缓提交到业务线程池的请求帧。只会在读完成回调和限流调度线程中访问，
+     * 有请求被限流时读是暂停的，所以两者不会同时访问
+     */
+    private final Deque<Frame> throttledFrames = new ArrayDeque<>();
+
+    /**
+     * 把请求提交到业务线程池，业务逻辑支持批量处理时一次读回调中解码出的请求作为一个任务提交。
+     * 和{@link #throttledFrames}一样只会在读完成回调和限流调度线程中访问
+     */
+    private final RequestBatcher batcher;
+
+    /**
+     * 最近一次被限流的请求需要等待的纳秒数
+     */
+    private long throttleNanos;
+
     /**
      * 服务端与客户端的socket通道
      */
     private final AsynchronousSocketChannel socketChannel;
 
     /**
-     * 连接创建时间
+     * 当前连接的请求限流令牌桶，未开启限流时为null
+     */
+    private final TokenBucket tokenBucket;
+
+    /**
+     * 待写入SocketChannel的响应，任意线程都可以往队列中添加
+     */
+    private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 是否有一个写操作正在进行。AsynchronousSocketChannel同一时刻只允许一个写操作，否则会抛出WritePendingException
+     */
+    private final AtomicBoolean writing = new AtomicBoolean();
+
+    /**
+     * 正在进行的写操作写入的响应，只会被持有{@link #writing}的线程访问
+     */
+    private final ByteBuffer[] gathering = new ByteBuffer[MAX_GATHERING_BUFFERS];
+
+    /**
+     * 正在进行的写操作的jfr事件，没有开启记录时为null，只会被持有{@link #writing}的线程访问
      */
-    private final LocalDateTime createdTime;
+    private WriteEvent writeEvent;
 
     /**
-     * 请求数据，当前线程读取请求成功能够立马对业务线程可见
+     * 已经读取但还没有处理完的请求数加上已经放入写队列但还没有写完的帧数。读到请求时加一，请求{@link #handled 处理结束}时减一，
+     * 不依赖业务逻辑是否回复；每个帧放入写队列时加一，写完时减一，所以客户端不读取响应时计数也会一直增长
      */
-    private volatile ByteBuffer request;
+    private final AtomicInteger pendingRequests = new AtomicInteger();
 
     /**
-     * 响应数据，业务线程写入响应成功能够立马对当前线程可见
+     * 已经放入写队列但还没有写完的帧数，超过{@link #MAX_QUEUED_FRAMES}时断开连接
      */
-    private volatile ByteBuffer response;
+    private final AtomicInteger queuedFrames = new AtomicInteger();
 
-    public Connection(AsynchronousSocketChannel socketChannel) {
-        this.id = UUID.randomUUID().toString();
+    /**
+     * 是否因为{@link #pendingRequests}达到上限而暂停了读
+     */
+    private final AtomicBoolean readSuspended = new AtomicBoolean();
+
+    /**
+     * 写完成回调
+     */
+    private final CompletionHandler<Long, Integer> writeHandler = new WriteHandler();
+
+    /**
+     * 连接空闲检测
+     */
+    private final Heartbeat heartbeat;
+
+    public Connection(AsynchronousSocketChannel socketChannel, Handler handler) throws IOException {
+        super((InetSocketAddress) socketChannel.getRemoteAddress(), handler);
         this.socketChannel = socketChannel;
-        this.createdTime = LocalDateTime.now();
+        this.batcher = new RequestBatcher(PROCESS_EXECUTOR, handler);
+        this.tokenBucket = RATE_LIMITER.newConnectionBucket();
+        this.heartbeat = Heartbeat.start(this);
     }
 
     /**
-     * 与此连接关联的SocketChannel读写操作成功时的回调方法
+     * 与此连接关联的SocketChannel读操作成功时的回调方法
      *
-     * @param result 读取或写入的字节数
-     * @param event  触发该方法的事件，读完成还是写完成
+     * @param result     读取的字节数
+     * @param attachment 没有用到
      */
     @Override
-    public void completed(Integer result, Integer event) {
+    public void completed(Integer result, Void attachment) {
 
         // 客户端已关闭
         if (result == -1) {
-            log.info("客户端{}已关闭", clientAddress());
+            ACCESS_LOG.disconnected(getUuid(), getPackedAddress());
             disconnect();
-        } else {
+            return;
+        }
+        heartbeat.touch();
 
-            // 数据读完之后将读取到的数据提交到业务线程池执行
-            if (event == READ_COMPLETED) {
-                request = simpleDecode();
-                PROCESS_EXECUTOR.execute(new ProcessTask(this));
+        // 解码出所有完整的帧，请求帧提交到业务线程池执行
+        ReadEvent event = new ReadEvent();
+        event.begin();
+        try {
+            decoder.decode(readBuffer.flip(), this::dispatch);
+        } catch (CodecException e) {
+            log.error("客户端{}发送的数据不合法: {}", clientAddress(), e.getMessage());
+            disconnect();
+            return;
+        } finally {
+            readBuffer.clear();
+            batcher.flush();
+        }
+        event.commit(this, result);
 
-                // 数据写完之后继续执行下一次读
-            } else {
-                read();
-            }
+        // 有请求被限流时延迟提交被限流的请求，并且在这段时间内暂停读，数据会留在tcp接收缓冲区中由tcp流控反压客户端
+        if (throttledFrames.isEmpty()) {
+            readIfAllowed();
+        } else {
+            THROTTLE_SCHEDULER.schedule(this::resumeThrottled, throttleNanos, TimeUnit.NANOSECONDS);
         }
     }
 
     /**
-     * 与此连接关联的SocketChannel读写操作失败时的回调方法
+     * 与此连接关联的SocketChannel读操作失败时的回调方法
      *
-     * @param t     失败的原因
-     * @param event 触发该方法的事件，读还是写
+     * @param t          失败的原因
+     * @param attachment 没有用到
      */
     @Override
-    public void failed(Throwable t, Integer event) {
-        log.error("读写客户端{}发生异常时连接[{}]触发的事件为: [{}]", clientAddress(), id, event, t);
-        readBuffer.clear();
+    public void failed(Throwable t, Void attachment) {
+        if (!isClosed()) {
+            log.error("读取客户端{}的数据发生异常，连接[{}]已断开", clientAddress(), getId(), t);
+        }
+        disconnect();
+    }
+
+    @Override
+    public void ping(ByteBuffer ping) {
+        write(ping);
+    }
+
+    @Override
+    public void expired() {
+        log.info("客户端{}超过{}毫秒没有发送任何数据，连接已断开", clientAddress(), Heartbeat.TIMEOUT_MILLIS);
+        ACCESS_LOG.disconnected(getUuid(), getPackedAddress());
         disconnect();
     }
 
@@ -128,20 +257,65 @@ public class Connection implements CompletionHandler<Integer, Integer> {
      * 将与此连接关联的SocketChannel中的数据读取到缓冲区。read方法是异步执行的。
      */
     public void read() {
-        socketChannel.read(readBuffer, READ_COMPLETED, this);
+        socketChannel.read(readBuffer, null, this);
     }
 
     /**
-     * 将缓冲区数据写入到与此连接关联的SocketChannel中去。write方法是异步执行的。
+     * AsynchronousSocketChannel的写操作本身就是异步的，可以在任意线程中直接发起
      */
-    public void write() {
-        socketChannel.write(response, WRITE_COMPLETED, this);
+    @Override
+    public Executor eventLoop() {
+        return DIRECT;
     }
 
     /**
-     * 断开连接
+     * 将一个帧写给客户端，可以在任意线程调用。帧会先放入{@link #writeQueue}，
+     * 如果当前没有写操作正在进行则立即发起一次写操作，否则由正在进行的写操作完成之后一起写出去。
+     * 队列中已经有{@link #MAX_QUEUED_FRAMES}个帧没有写完时丢弃这个帧并断开连接。
+     *
+     * @param frame 已编码的帧
      */
-    public void disconnect() {
+    @Override
+    public void write(ByteBuffer frame) {
+        if (queuedFrames.incrementAndGet() > MAX_QUEUED_FRAMES) {
+            queuedFrames.decrementAndGet();
+            if (!isClosed()) {
+                log.warn("客户端{}待写出的帧超过了{}个，连接已断开", clientAddress(), MAX_QUEUED_FRAMES);
+                disconnect();
+            }
+            return;
+        }
+        pendingRequests.incrementAndGet();
+        writeQueue.offer(frame);
+        if (writing.compareAndSet(false, true)) {
+            flush();
+        }
+    }
+
+    /**
+     * 请求处理结束之后释放它占用的计数
+     *
+     * @param request 请求帧
+     */
+    @Override
+    public void handled(Frame request) {
+        release(1);
+    }
+
+    /**
+     * 减少{@link #pendingRequests}，如果读因为计数达到上限而暂停了，减少到上限的一半之后恢复读
+     *
+     * @param count 减少的数量
+     */
+    private void release(int count) {
+        if (pendingRequests.addAndGet(-count) <= MAX_PENDING_REQUESTS / 2 && readSuspended.compareAndSet(true, false)) {
+            read();
+        }
+    }
+
+    @Override
+    protected void close() {
+        heartbeat.stop();
         try {
             socketChannel.close();
         } catch (IOException e) {
@@ -150,30 +324,172 @@ public class Connection implements CompletionHandler<Integer, Integer> {
     }
 
     /**
-     * @return 客户端地址信息
+     * 根据帧类型分发解码出的帧，心跳帧直接回复，不经过业务线程池
+     *
+     * @param frame 帧
      */
-    public String clientAddress() {
-        try {
-            InetSocketAddress inetSocketAddress = (InetSocketAddress) socketChannel.getRemoteAddress();
-            return String.format("[%s:%s]", inetSocketAddress.getAddress().getHostAddress(), inetSocketAddress.getPort());
-        } catch (IOException e) {
-            throw new ServerException(e);
+    private void dispatch(Frame frame) {
+        switch (frame.type()) {
+            case Frame.REQUEST -> request(frame);
+            case Frame.PING -> write(Heartbeat.pong(frame.correlationId()));
+            case Frame.PONG -> {
+                // 读到数据时已经更新了连接的最近读取时间，心跳回复不需要其它处理
+            }
+            default -> log.warn("客户端{}发送了未知类型的帧: {}", clientAddress(), frame.type());
+        }
+    }
+
+    /**
+     * 将请求帧提交到业务线程池执行，业务逻辑支持批量处理时先交给{@link #batcher}攒到本次读回调结束。
+     * 超过限流阈值时请求帧暂存在{@link #throttledFrames}中，
+     * 之后的请求帧也要排在它后面，保证同一个连接的请求按顺序处理。
+     *
+     * @param frame 请求帧
+     */
+    private void request(Frame frame) {
+        ACCESS_LOG.request(getUuid(), getPackedAddress(), frame.body().remaining());
+        pendingRequests.incrementAndGet();
+        if (!throttledFrames.isEmpty()) {
+            throttledFrames.addLast(frame);
+            return;
+        }
+        long wait = RATE_LIMITER.tryAcquire(tokenBucket, getInetSocketAddress().getAddress());
+        if (wait > 0) {
+            throttledFrames.addLast(frame);
+            throttleNanos = wait;
+            return;
+        }
+        submit(frame);
+    }
+
+    /**
+     * 提交一个已经通过限流的请求帧。命中响应缓存的请求直接在当前线程中回复，不占用业务线程池；
+     * 缓存查找放在限流之后，所以命中缓存的请求同样消耗令牌，也不会越过还在排队的被限流请求
+     *
+     * @param frame 请求帧
+     */
+    private void submit(Frame frame) {
+        if (ResponseCache.INSTANCE.answer(this, frame, getHandler())) {
+            handled(frame);
+            return;
+        }
+        batcher.add(this, frame);
+    }
+
+    /**
+     * 在限流调度线程中重新为被限流的请求申请令牌，全部提交之后恢复读
+     */
+    private void resumeThrottled() {
+        Frame frame;
+        while ((frame = throttledFrames.peekFirst()) != null) {
+            long wait = RATE_LIMITER.tryAcquire(tokenBucket, getInetSocketAddress().getAddress());
+            if (wait > 0) {
+                batcher.flush();
+                THROTTLE_SCHEDULER.schedule(this::resumeThrottled, wait, TimeUnit.NANOSECONDS);
+                return;
+            }
+            throttledFrames.pollFirst();
+            submit(frame);
+        }
+        batcher.flush();
+        readIfAllowed();
+    }
+
+    /**
+     * {@link #pendingRequests}没有达到上限时继续读，否则暂停读直到请求处理结束或者{@link WriteHandler}写出足够多的帧
+     */
+    private void readIfAllowed() {
+        if (pendingRequests.get() < MAX_PENDING_REQUESTS) {
+            read();
+            return;
+        }
+        readSuspended.set(true);
+
+        // 设置暂停标记之前响应可能已经全部写完了，这时没有人会再来恢复读，所以需要再检查一次
+        if (pendingRequests.get() < MAX_PENDING_REQUESTS && readSuspended.compareAndSet(true, false)) {
+            read();
+        }
+    }
+
+    /**
+     * 从{@link #writeQueue}中取出所有的响应通过一次聚集写写入SocketChannel，只能被持有{@link #writing}的线程调用。
+     * 队列为空时释放{@link #writing}，释放之后还要再检查一次队列，避免释放之前其它线程放入的响应没有人写。
+     */
+    private void flush() {
+        while (true) {
+            int count = 0;
+            ByteBuffer buffer;
+            while (count < MAX_GATHERING_BUFFERS && (buffer = writeQueue.poll()) != null) {
+                gathering[count++] = buffer;
+            }
+            if (count > 0) {
+                write(count);
+                return;
+            }
+            writing.set(false);
+            if (writeQueue.isEmpty() || !writing.compareAndSet(false, true)) {
+                return;
+            }
         }
     }
 
     /**
-     * 简单的进行一次tcp读解码，仅仅将{@link #readBuffer}中位置0到position之间的字节包装成一个新的{@link ByteBuffer}返回，
-     * 然后调用{@link Buffer#clear()}方法重置position为0。<br><br>
-     * 注意：该方法仅仅是为了简单调试用的，实际与客户端进行通讯时我们应当和客户端商量好一个标记位，读到这个标记位则代表一次请求数据读取完毕了，
-     * 例如http协议可能会在请求头中定义一个content-length代表一次请求体的长度。
+     * 将{@link #gathering}中前count个响应通过一次聚集写写入SocketChannel，写完成之后回调{@link WriteHandler}
      *
-     * @return 一次tcp读解码后的 {@link ByteBuffer}
+     * @param count 没有写完的响应数
      */
-    private ByteBuffer simpleDecode() {
+    private void write(int count) {
+        writeEvent = WriteEvent.start();
         try {
-            return ByteBuffer.wrap(Arrays.copyOfRange(readBuffer.array(), 0, readBuffer.position()));
-        } finally {
-            readBuffer.clear();
+            socketChannel.write(gathering, 0, count, 0, TimeUnit.SECONDS, count, writeHandler);
+        } catch (Exception e) {
+            writeHandler.failed(e, count);
+        }
+    }
+
+    /**
+     * 聚集写完成回调，第二个类型参数是本次写操作写入的响应数。
+     * 一次写操作可能只写入了部分数据，这时从第一个没有写完的响应开始继续写，全部写完之后再写队列中新的响应。
+     */
+    private class WriteHandler implements CompletionHandler<Long, Integer> {
+
+        @Override
+        public void completed(Long result, Integer count) {
+            int offset = 0;
+            while (offset < count && !gathering[offset].hasRemaining()) {
+                gathering[offset++] = null;
+            }
+            if (writeEvent != null) {
+                writeEvent.commit(Connection.this, result, offset == count);
+                writeEvent = null;
+            }
+            written(offset);
+            if (offset < count) {
+                System.arraycopy(gathering, offset, gathering, 0, count - offset);
+                Arrays.fill(gathering, count - offset, count, null);
+                write(count - offset);
+            } else {
+                flush();
+            }
+        }
+
+        @Override
+        public void failed(Throwable t, Integer count) {
+            Arrays.fill(gathering, null);
+            if (!isClosed()) {
+                log.error("写入客户端{}的数据发生异常，连接[{}]已断开", clientAddress(), getId(), t);
+            }
+            disconnect();
+        }
+
+        /**
+         * @param frames 写完的帧数
+         */
+        private void written(int frames) {
+            if (frames > 0) {
+                queuedFrames.addAndGet(-frames);
+                release(frames);
+            }
         }
     }
 
@@ -0,0 +1,55 @@
+package red.zyc.socket.benchmark;
+
+import red.zyc.socket.aio.server.Acceptor;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 对比aio服务端不同通道组大小和业务处理方式的吞吐量和延迟：
+ * <ul>
+ *     <li>executor：完成回调把业务逻辑提交给业务线程池，一次请求需要在通道组线程和业务线程之间切换两次</li>
+ *     <li>inline：业务逻辑直接在通道组的完成回调线程中执行，没有线程切换</li>
+ * </ul>
+ * 每个场景都会启动一个新的服务端进程，服务端关闭了限流和访问日志，只比较线程模型本身的开销。
+ * 可以通过系统属性benchmark.aio.groupThreads设置要对比的通道组线程数，多个值用逗号分隔，默认为1和cpu核数。
+ *
+ * @author zyc
+ */
+public class AioChannelGroupBenchmark {
+
+    /**
+     * aio服务端监听的地址
+     */
+    private static final InetSocketAddress ADDRESS = new InetSocketAddress("localhost", 9002);
+
+    /**
+     * 要对比的通道组线程数
+     */
+    private static final String GROUP_THREADS = System.getProperty("benchmark.aio.groupThreads", String.format("1,%d", Runtime.getRuntime().availableProcessors()));
+
+    public static void main(String[] args) throws Exception {
+        List<BenchmarkResult> results = new ArrayList<>();
+        for (String process : List.of("executor", "inline")) {
+            for (String threads : Arrays.stream(GROUP_THREADS.split(",")).map(String::trim).distinct().toList()) {
+                results.add(run(String.format("fixed-%s/%s", threads, process), "fixed", threads, process));
+            }
+            results.add(run(String.format("cached/%s", process), "cached", "1", process));
+        }
+        System.out.print(BenchmarkResult.table(results));
+    }
+
+    private static BenchmarkResult run(String name, String group, String threads, String process) throws Exception {
+        List<String> jvmArgs = List.of(
+                "-Dsocket.aio.group=" + group,
+                "-Dsocket.aio.group.threads=" + threads,
+                "-Dsocket.aio.process=" + process,
+                "-Dsocket.rateLimit.enabled=false",
+                "-Dsocket.accessLog.enabled=false");
+        try (ServerProcess ignored = ServerProcess.start(Acceptor.class, ADDRESS, jvmArgs)) {
+            return new LoadGenerator(ADDRESS, Protocol.FRAME).run(name);
+        }
+    }
+}
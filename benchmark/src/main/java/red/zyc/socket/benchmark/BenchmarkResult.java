@@ -0,0 +1,52 @@
+package red.zyc.socket.benchmark;
+
+import java.util.List;
+
+/**
+ * 一次压测的结果
+ *
+ * @param name        压测场景名称
+ * @param connections 压测期间至少完成了一次请求的连接数
+ * @param requests    成功的请求数
+ * @param errors      失败的请求数
+ * @param seconds     压测时长
+ * @param throughput  每秒成功的请求数
+ * @param p50         50百分位延迟，单位微秒
+ * @param p99         99百分位延迟，单位微秒
+ * @param p999        99.9百分位延迟，单位微秒
+ * @author zyc
+ */
+public record BenchmarkResult(String name, int connections, long requests, long errors, double seconds, double throughput, double p50, double p99, double p999) {
+
+    /**
+     * 表格的列格式
+     */
+    private static final String ROW_FORMAT = "%-36s %8s %12s %8s %12s %10s %10s %10s%n";
+
+    /**
+     * @param name        压测场景名称
+     * @param connections 压测期间至少完成了一次请求的连接数
+     * @param histogram   延迟直方图
+     * @param errors      失败的请求数
+     * @param nanos       压测时长，单位纳秒
+     * @return 压测结果
+     */
+    public static BenchmarkResult of(String name, int connections, LatencyHistogram histogram, long errors, long nanos) {
+        double seconds = nanos / 1e9;
+        return new BenchmarkResult(name, connections, histogram.total(), errors, seconds, histogram.total() / seconds,
+                histogram.percentile(50) / 1e3, histogram.percentile(99) / 1e3, histogram.percentile(99.9) / 1e3);
+    }
+
+    /**
+     * @param results 压测结果
+     * @return 便于在控制台对比的文本表格
+     */
+    public static String table(List<BenchmarkResult> results) {
+        StringBuilder table = new StringBuilder(String.format(ROW_FORMAT, "scenario", "conns", "req/s", "errors", "requests", "p50(us)", "p99(us)", "p999(us)"));
+        for (BenchmarkResult result : results) {
+            table.append(String.format(ROW_FORMAT, result.name, result.connections, String.format("%.0f", result.throughput), result.errors, result.requests,
+                    String.format("%.1f", result.p50), String.format("%.1f", result.p99), String.format("%.1f", result.p999)));
+        }
+        return table.toString();
+    }
+}
@@ -0,0 +1,299 @@
+package red.zyc.socket.benchmark;
+
+import lombok.extern.slf4j.Slf4j;
+import red.zyc.socket.core.codec.Frame;
+import red.zyc.socket.core.heartbeat.Heartbeat;
+import red.zyc.socket.core.message.Message;
+import red.zyc.socket.core.message.MessageDecoder;
+import red.zyc.socket.core.message.MessageEncoder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * 在本地回环地址的不同端口上启动多个集群模式的nio节点，每个节点上有一个订阅者加入同一个房间，
+ * 多个发布者连接第一个节点以闭环的方式向房间广播消息，消息内容是发送时的{@link System#nanoTime()}，
+ * 订阅者收到推送时记录端到端的延迟。第一个节点的订阅者直接由本节点写出，其它节点的订阅者收到的是经过集群链路转发的消息，
+ * 结果中的req/s是每个订阅者每秒收到的推送数。<br><br>
+ * 可以通过以下系统属性配置：
+ * <ul>
+ *     <li>benchmark.cluster.nodes：节点数，默认3</li>
+ *     <li>benchmark.cluster.publishers：发布者的连接数，默认4</li>
+ *     <li>benchmark.warmup：预热秒数，默认3</li>
+ *     <li>benchmark.duration：压测秒数，默认10</li>
+ * </ul>
+ *
+ * @author zyc
+ */
+@Slf4j
+public class ClusterBenchmark {
+
+    /**
+     * 节点数
+     */
+    private static final int NODES = Integer.getInteger("benchmark.cluster.nodes", 3);
+
+    /**
+     * 发布者的连接数
+     */
+    private static final int PUBLISHERS = Integer.getInteger("benchmark.cluster.publishers", 4);
+
+    /**
+     * 预热时长
+     */
+    private static final long WARMUP_MILLIS = TimeUnit.SECONDS.toMillis(Integer.getInteger("benchmark.warmup", 3));
+
+    /**
+     * 压测时长
+     */
+    private static final long DURATION_MILLIS = TimeUnit.SECONDS.toMillis(Integer.getInteger("benchmark.duration", 10));
+
+    /**
+     * 第一个节点监听的端口，之后的节点依次加1
+     */
+    private static final int FIRST_PORT = 9101;
+
+    /**
+     * 第一个节点接收集群链路的端口，之后的节点依次加1
+     */
+    private static final int FIRST_CLUSTER_PORT = 9201;
+
+    /**
+     * 等待所有订阅者都收到第一条推送的最长时间
+     */
+    private static final long ROUTE_TIMEOUT_MILLIS = 30_000;
+
+    /**
+     * 压测使用的房间
+     */
+    private static final byte[] ROOM = "benchmark".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 是否开始记录延迟
+     */
+    private static volatile boolean recording;
+
+    /**
+     * 是否结束压测
+     */
+    private static volatile boolean stopped;
+
+    public static void main(String[] args) throws Exception {
+        List<ServerProcess> servers = new ArrayList<>();
+        List<Subscriber> subscribers = new ArrayList<>();
+        try {
+            for (int i = 0; i < NODES; i++) {
+                servers.add(node(i).start());
+            }
+            for (int i = 0; i < NODES; i++) {
+                Subscriber subscriber = new Subscriber(new InetSocketAddress("localhost", FIRST_PORT + i));
+                subscribers.add(subscriber);
+                subscriber.start();
+            }
+            AtomicLong published = new AtomicLong();
+            List<Thread> publishers = new ArrayList<>();
+            for (int i = 0; i < PUBLISHERS; i++) {
+                Thread publisher = new Thread(() -> publish(new InetSocketAddress("localhost", FIRST_PORT), published), "Publisher-" + (i + 1));
+                publisher.setDaemon(true);
+                publisher.start();
+                publishers.add(publisher);
+            }
+            awaitRoutes(subscribers);
+            Thread.sleep(WARMUP_MILLIS);
+            long before = published.get();
+            recording = true;
+            long start = System.nanoTime();
+            Thread.sleep(DURATION_MILLIS);
+            stopped = true;
+            long elapsed = System.nanoTime() - start;
+            long sent = published.get() - before;
+            for (Thread publisher : publishers) {
+                publisher.join();
+            }
+            List<BenchmarkResult> results = new ArrayList<>();
+            for (int i = 0; i < NODES; i++) {
+                Subscriber subscriber = subscribers.get(i);
+                subscriber.close();
+
+                // 订阅者少收到的消息计为失败，它们被集群链路丢弃了或者还在路上
+                results.add(BenchmarkResult.of(String.format("node-%d%s", i, i == 0 ? "(local)" : "(relayed)"), 1, subscriber.histogram,
+                        Math.max(0, sent - subscriber.histogram.total()), elapsed));
+            }
+            System.out.print(BenchmarkResult.table(results));
+        } finally {
+            stopped = true;
+            subscribers.forEach(Subscriber::close);
+            for (ServerProcess server : servers) {
+                server.close();
+            }
+        }
+    }
+
+    /**
+     * @param index 节点的序号
+     * @return 与其它所有节点两两相连的nio节点
+     */
+    private static Model node(int index) {
+        String peers = IntStream.range(0, NODES)
+                .filter(i -> i != index)
+                .mapToObj(i -> "localhost:" + (FIRST_CLUSTER_PORT + i))
+                .collect(Collectors.joining(","));
+        return new Model("node-" + index, "nio", FIRST_PORT + index, List.of(
+                "-Dsocket.port=" + (FIRST_PORT + index),
+                "-Dsocket.cluster.port=" + (FIRST_CLUSTER_PORT + index),
+                "-Dsocket.cluster.peers=" + peers));
+    }
+
+    /**
+     * 节点之间的订阅是异步传播的，等到每个订阅者都收到过推送之后再开始预热
+     *
+     * @param subscribers 所有订阅者
+     * @throws Exception 超时
+     */
+    private static void awaitRoutes(List<Subscriber> subscribers) throws Exception {
+        long deadline = System.currentTimeMillis() + ROUTE_TIMEOUT_MILLIS;
+        while (subscribers.stream().anyMatch(subscriber -> subscriber.received == 0)) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException("等待集群路由超时");
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    /**
+     * 一个发布者的闭环发送循环，每次等待上一条消息的响应之后再发送下一条
+     *
+     * @param address   第一个节点的地址
+     * @param published 已经发送的消息数
+     */
+    private static void publish(InetSocketAddress address, AtomicLong published) {
+        try (Socket socket = new Socket()) {
+            socket.setTcpNoDelay(true);
+            socket.connect(address);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            ByteBuffer body = ByteBuffer.allocate(Long.BYTES);
+            ByteBuffer request = ByteBuffer.allocate(Message.frameLength(2, ROOM.length + Long.BYTES));
+            MessageEncoder encoder = new MessageEncoder();
+            long correlationId = 0;
+            while (!stopped) {
+                body.putLong(0, System.nanoTime());
+                encoder.wrap(request.clear(), Frame.REQUEST, ++correlationId, Message.SEND).field(ROOM).field(body).finish();
+                out.write(request.array(), 0, request.position());
+                out.flush();
+                while (readFrame(in, out).type() != Frame.RESPONSE) {
+                    // 发布者没有加入房间，只会收到心跳
+                }
+                published.incrementAndGet();
+            }
+        } catch (IOException e) {
+            if (!stopped) {
+                log.error("发布者连接断开", e);
+            }
+        }
+    }
+
+    /**
+     * 读取下一个帧，收到心跳时回复心跳
+     *
+     * @param in  socket输入流
+     * @param out socket输出流
+     * @return 帧
+     * @throws IOException io异常
+     */
+    private static Frame readFrame(DataInputStream in, OutputStream out) throws IOException {
+        int length = in.readInt();
+        byte type = in.readByte();
+        long correlationId = in.readLong();
+        byte[] payload = new byte[length - Frame.HEADER_LENGTH + Frame.LENGTH_FIELD_LENGTH];
+        in.readFully(payload);
+        if (type == Frame.PING) {
+            ByteBuffer pong = Heartbeat.pong(correlationId);
+            out.write(pong.array(), 0, pong.limit());
+            out.flush();
+        }
+        return new Frame(type, correlationId, ByteBuffer.wrap(payload));
+    }
+
+    /**
+     * 连接一个节点并加入房间，记录收到的每条推送的端到端延迟
+     */
+    private static final class Subscriber extends Thread {
+
+        private final InetSocketAddress address;
+
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        private final Socket socket = new Socket();
+
+        /**
+         * 收到的推送数，包括预热阶段
+         */
+        private volatile long received;
+
+        Subscriber(InetSocketAddress address) {
+            super("Subscriber-" + address.getPort());
+            this.address = address;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                socket.setTcpNoDelay(true);
+                socket.connect(address);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                ByteBuffer join = new MessageEncoder()
+                        .wrap(ByteBuffer.allocate(Message.frameLength(1, ROOM.length)), Frame.REQUEST, 1, Message.JOIN)
+                        .field(ROOM)
+                        .finish();
+                out.write(join.array(), 0, join.position());
+                out.flush();
+                MessageDecoder decoder = new MessageDecoder();
+                while (!stopped) {
+                    Frame frame = readFrame(in, out);
+                    if (frame.type() != Frame.PUSH) {
+                        continue;
+                    }
+                    long latency = System.nanoTime() - decoder.wrap(frame.payload()).field(2).getLong(0);
+                    received++;
+                    if (recording && !stopped) {
+                        histogram.record(latency);
+                    }
+                }
+            } catch (IOException e) {
+                if (!stopped) {
+                    log.error("订阅者{}连接断开", address, e);
+                }
+            }
+        }
+
+        /**
+         * 关闭连接并等待读线程结束，之后才能读取{@link #histogram}
+         */
+        void close() {
+            try {
+                socket.close();
+                join();
+            } catch (IOException e) {
+                log.debug("关闭订阅者{}失败", address, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
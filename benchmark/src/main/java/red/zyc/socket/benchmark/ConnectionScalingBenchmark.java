@@ -0,0 +1,35 @@
+package red.zyc.socket.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 对比bio线程池、bio虚拟线程、nio、aio四种服务端在不同连接数下能够服务的连接数、吞吐量和延迟。
+ * 线程池模式的bio服务端最多只能同时服务100个连接，其余连接会一直等待直到超时；虚拟线程模式下每个连接一个虚拟线程，
+ * 阻塞读写时虚拟线程会从载体线程上卸载，所以能够像nio、aio一样服务所有连接。<br><br>
+ * 虚拟线程需要jdk21及以上版本，使用更低版本的jdk运行时会跳过该场景。
+ * 可以通过系统属性benchmark.scaling.connections设置要对比的连接数，多个值用逗号分隔，默认为100、1000、4000。
+ *
+ * @author zyc
+ */
+public class ConnectionScalingBenchmark {
+
+    /**
+     * 要对比的连接数
+     */
+    private static final String CONNECTIONS = System.getProperty("benchmark.scaling.connections", "100,1000,4000");
+
+    public static void main(String[] args) throws Exception {
+        List<Model> models = Model.all();
+        List<BenchmarkResult> results = new ArrayList<>();
+        for (int connections : Arrays.stream(CONNECTIONS.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray()) {
+            for (Model model : models) {
+                try (ServerProcess ignored = model.start()) {
+                    results.add(new LoadGenerator(model.address(), Protocol.FRAME, connections).run(String.format("%s/%d", model.name(), connections)));
+                }
+            }
+        }
+        System.out.print(BenchmarkResult.table(results));
+    }
+}
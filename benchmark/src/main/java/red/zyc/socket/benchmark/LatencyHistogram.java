@@ -0,0 +1,91 @@
+package red.zyc.socket.benchmark;
+
+/**
+ * 记录请求延迟的对数直方图。每个2的幂区间再等分成{@link #SUB_BUCKETS}个桶，相对误差不超过1/32，
+ * 记录一次延迟只是一次数组自增，不会在压测线程中分配对象。非线程安全，每个压测线程使用自己的直方图，结束后再合并。
+ *
+ * @author zyc
+ */
+public class LatencyHistogram {
+
+    /**
+     * 每个2的幂区间的桶数的对数
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /**
+     * 每个2的幂区间的桶数
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * 能够记录的最大延迟为2^40纳秒，大约18分钟
+     */
+    private static final int MAX_EXPONENT = 40;
+
+    private final long[] counts = new long[(MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS];
+
+    private long total;
+
+    /**
+     * @param nanos 一次请求的延迟
+     */
+    public void record(long nanos) {
+        counts[index(Math.min(Math.max(nanos, 0), (1L << MAX_EXPONENT) - 1))]++;
+        total++;
+    }
+
+    /**
+     * @param other 合并另一个直方图的记录
+     */
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+    }
+
+    /**
+     * @return 记录的总次数
+     */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * @param percentile 百分位，例如99.9
+     * @return 该百分位的延迟上界，单位纳秒
+     */
+    public long percentile(double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(counts.length - 1);
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
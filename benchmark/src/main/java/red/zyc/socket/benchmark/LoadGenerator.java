@@ -0,0 +1,238 @@
+package red.zyc.socket.benchmark;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 闭环压测客户端。每个连接一个线程，一次连续发送流水线深度个请求之后阻塞直到读完这些请求的响应再发送下一批请求，
+ * 所以并发请求数等于连接数乘以流水线深度，服务端越快每个连接的请求就越多。每个请求的延迟从这一批请求发送时开始计算，
+ * 预热阶段的请求不计入结果。服务端地址可以是tcp地址，也可以是unix domain socket路径。<br><br>
+ * 可以通过以下系统属性配置：
+ * <ul>
+ *     <li>benchmark.connections：连接数，默认64</li>
+ *     <li>benchmark.warmup：预热秒数，默认3</li>
+ *     <li>benchmark.duration：压测秒数，默认10</li>
+ * </ul>
+ *
+ * @author zyc
+ */
+@Slf4j
+public class LoadGenerator {
+
+    /**
+     * 连接数
+     */
+    private static final int CONNECTIONS = Integer.getInteger("benchmark.connections", 64);
+
+    /**
+     * 预热时长
+     */
+    private static final long WARMUP_NANOS = Integer.getInteger("benchmark.warmup", 3) * 1_000_000_000L;
+
+    /**
+     * 压测时长
+     */
+    private static final long DURATION_NANOS = Integer.getInteger("benchmark.duration", 10) * 1_000_000_000L;
+
+    /**
+     * tcp连接和读响应的超时时间，服务端连接数已满时新连接会一直等待，超时之后计为一次失败并重新连接。
+     * unix domain socket只能通过SocketChannel读写，阻塞模式的SocketChannel不支持读超时
+     */
+    private static final int TIMEOUT_MILLIS = Integer.getInteger("benchmark.timeout", 5000);
+
+    /**
+     * 压测线程的栈大小，连接数很多时避免占用过多内存
+     */
+    private static final long STACK_SIZE = 256 * 1024;
+
+    /**
+     * 默认的请求数据
+     */
+    private static final byte[] PAYLOAD = "benchmark".getBytes(StandardCharsets.UTF_8);
+
+    private final SocketAddress address;
+
+    private final Protocol protocol;
+
+    private final int connections;
+
+    /**
+     * 请求数据
+     */
+    private final byte[] payload;
+
+    /**
+     * 流水线深度，即每个连接一次连续发送的请求数
+     */
+    private final int pipeline;
+
+    /**
+     * 通过tls连接服务端时使用的socket工厂，为null时不加密
+     */
+    private SSLSocketFactory sslSocketFactory;
+
+    /**
+     * 是否开始记录延迟，预热结束之后置为true
+     */
+    private volatile boolean recording;
+
+    /**
+     * 是否结束压测
+     */
+    private volatile boolean stopped;
+
+    public LoadGenerator(SocketAddress address, Protocol protocol) {
+        this(address, protocol, CONNECTIONS);
+    }
+
+    public LoadGenerator(SocketAddress address, Protocol protocol, int connections) {
+        this(address, protocol, connections, PAYLOAD.length, 1);
+    }
+
+    /**
+     * @param address     服务端地址，{@link java.net.InetSocketAddress}或者{@link UnixDomainSocketAddress}
+     * @param protocol    协议
+     * @param connections 连接数
+     * @param payloadSize 每个请求的数据大小
+     * @param pipeline    流水线深度
+     */
+    public LoadGenerator(SocketAddress address, Protocol protocol, int connections, int payloadSize, int pipeline) {
+        this.address = address;
+        this.protocol = protocol;
+        this.connections = connections;
+        this.payload = new byte[payloadSize];
+        this.pipeline = pipeline;
+        for (int i = 0; i < payloadSize; i++) {
+            payload[i] = PAYLOAD[i % PAYLOAD.length];
+        }
+    }
+
+    /**
+     * 通过tls连接服务端，只对tcp地址生效，需要在{@link #run(String)}之前调用
+     *
+     * @param sslContext 客户端tls上下文，所有连接共用这个上下文，重连时可以恢复会话
+     * @return 当前压测客户端
+     */
+    public LoadGenerator tls(SSLContext sslContext) {
+        this.sslSocketFactory = sslContext.getSocketFactory();
+        return this;
+    }
+
+    /**
+     * 执行一次压测
+     *
+     * @param name 压测场景名称
+     * @return 压测结果
+     * @throws InterruptedException 线程被中断
+     */
+    public BenchmarkResult run(String name) throws InterruptedException {
+        List<LatencyHistogram> histograms = new ArrayList<>(connections);
+        AtomicLong errors = new AtomicLong();
+        CountDownLatch finished = new CountDownLatch(connections);
+        for (int i = 0; i < connections; i++) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histograms.add(histogram);
+            Thread thread = new Thread(null, () -> {
+                try {
+                    drive(histogram, errors);
+                } finally {
+                    finished.countDown();
+                }
+            }, String.format("LoadGenerator-%d", i + 1), STACK_SIZE);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        Thread.sleep(WARMUP_NANOS / 1_000_000);
+        recording = true;
+        long start = System.nanoTime();
+        Thread.sleep(DURATION_NANOS / 1_000_000);
+        stopped = true;
+        long elapsed = System.nanoTime() - start;
+        finished.await();
+
+        LatencyHistogram merged = new LatencyHistogram();
+        histograms.forEach(merged::merge);
+        int served = (int) histograms.stream().filter(histogram -> histogram.total() > 0).count();
+        return BenchmarkResult.of(name, served, merged, errors.get(), elapsed);
+    }
+
+    /**
+     * 一个连接上的压测循环，连接断开时重新建立连接继续压测
+     *
+     * @param histogram 当前连接的延迟直方图
+     * @param errors    失败的请求数
+     */
+    private void drive(LatencyHistogram histogram, AtomicLong errors) {
+        while (!stopped) {
+            try {
+                if (address instanceof UnixDomainSocketAddress) {
+                    try (SocketChannel channel = SocketChannel.open(address)) {
+                        exchange(Channels.newInputStream(channel), Channels.newOutputStream(channel), histogram);
+                    }
+                } else {
+                    try (Socket socket = sslSocketFactory == null ? new Socket() : sslSocketFactory.createSocket()) {
+                        socket.setTcpNoDelay(true);
+                        socket.setSoTimeout(TIMEOUT_MILLIS);
+                        socket.connect(address, TIMEOUT_MILLIS);
+                        exchange(socket.getInputStream(), socket.getOutputStream(), histogram);
+                    }
+                }
+            } catch (IOException e) {
+                if (recording && !stopped) {
+                    errors.incrementAndGet();
+                    log.debug("压测请求失败", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 在一个已经建立的连接上循环发送请求并读取响应，直到压测结束
+     *
+     * @param input     连接的输入流
+     * @param output    连接的输出流
+     * @param histogram 当前连接的延迟直方图
+     * @throws IOException io异常
+     */
+    private void exchange(InputStream input, OutputStream output, LatencyHistogram histogram) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        OutputStream out = new BufferedOutputStream(output);
+        byte[] request = protocol.request(payload);
+        long correlationId = 0;
+        while (!stopped) {
+            long first = correlationId + 1;
+            long start = System.nanoTime();
+            for (int i = 0; i < pipeline; i++) {
+                protocol.send(out, request, ++correlationId);
+            }
+            out.flush();
+            for (int i = 0; i < pipeline; i++) {
+                long id = protocol.receive(in, out);
+                if (id < first || id > correlationId) {
+                    throw new IOException(String.format("响应的correlationId[%s]不属于本批请求[%s, %s]", id, first, correlationId));
+                }
+                if (recording && !stopped) {
+                    histogram.record(System.nanoTime() - start);
+                }
+            }
+        }
+    }
+}
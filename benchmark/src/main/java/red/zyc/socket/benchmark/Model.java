@@ -0,0 +1,69 @@
+package red.zyc.socket.benchmark;
+
+import red.zyc.socket.core.transport.Launcher;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 被测的io模型，所有模型都通过{@link Launcher}启动并运行同一个业务逻辑
+ *
+ * @param name      名称
+ * @param transport 传输层名称
+ * @param port      监听的端口
+ * @param jvmArgs   额外的jvm参数
+ * @author zyc
+ */
+public record Model(String name, String transport, int port, List<String> jvmArgs) {
+
+    /**
+     * 所有被测服务端共用的jvm参数，关闭限流和访问日志，只比较io模型本身
+     */
+    private static final List<String> COMMON_JVM_ARGS = List.of("-Dsocket.rateLimit.enabled=false", "-Dsocket.accessLog.enabled=false");
+
+    /**
+     * 运行虚拟线程需要的最低jdk版本
+     */
+    private static final int VIRTUAL_THREADS_FEATURE = 21;
+
+    /**
+     * bio线程池、bio虚拟线程、nio、aio四种模型。虚拟线程需要jdk21及以上版本，使用更低版本的jdk运行时会跳过该模型
+     *
+     * @return 所有被测的io模型
+     */
+    public static List<Model> all() {
+        List<Model> models = new ArrayList<>();
+        models.add(new Model("bio-pool", "bio", 9000, List.of("-Dsocket.bio.threads=pool")));
+        if (Runtime.version().feature() >= VIRTUAL_THREADS_FEATURE) {
+            models.add(new Model("bio-virtual", "bio", 9000, List.of("-Dsocket.bio.threads=virtual")));
+        } else {
+            System.out.printf("当前jdk版本%s不支持虚拟线程，跳过bio-virtual模型%n", Runtime.version());
+        }
+        models.add(new Model("nio", "nio", 9001, List.of()));
+        models.add(new Model("aio", "aio", 9002, List.of()));
+        return models;
+    }
+
+    /**
+     * @return 服务端在本地回环地址上的监听地址
+     */
+    public InetSocketAddress address() {
+        return new InetSocketAddress("localhost", port);
+    }
+
+    /**
+     * 在独立的jvm进程中启动服务端并等待其开始监听
+     *
+     * @return 服务端进程
+     * @throws IOException          io异常
+     * @throws InterruptedException 线程被中断
+     */
+    public ServerProcess start() throws IOException, InterruptedException {
+        List<String> args = new ArrayList<>(COMMON_JVM_ARGS);
+        args.addAll(jvmArgs);
+        args.add("-Dsocket.transport=" + transport);
+        return ServerProcess.start(Launcher.class, address(), args);
+    }
+}
@@ -0,0 +1,88 @@
+package red.zyc.socket.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 在同一台机器的本地回环地址上依次压测bio线程池、bio虚拟线程、nio、aio四种服务端，
+ * 对连接数、请求数据大小和流水线深度的每一种组合记录吞吐量、延迟百分位以及服务端的cpu、堆内存和线程数，
+ * 最后在控制台输出汇总表格，并写出一份json格式的报告，用来发现性能回退或者决定部署哪一种io模型。<br><br>
+ * 每个场景都在一个新的服务端进程中运行，可以通过以下系统属性配置：
+ * <ul>
+ *     <li>benchmark.models：要压测的io模型，多个值用逗号分隔，默认为所有模型</li>
+ *     <li>benchmark.sweep.connections：连接数，多个值用逗号分隔，默认为10、100</li>
+ *     <li>benchmark.sweep.payloads：请求数据大小，多个值用逗号分隔，默认为64、4096</li>
+ *     <li>benchmark.sweep.pipelines：流水线深度，多个值用逗号分隔，默认为1、16</li>
+ *     <li>benchmark.report：json报告的路径，默认为当前目录下的benchmark-report.json</li>
+ * </ul>
+ * 每个场景的预热和压测时长与{@link LoadGenerator}相同。
+ *
+ * @author zyc
+ */
+public class ModelComparisonBenchmark {
+
+    /**
+     * 要压测的io模型，为空时压测所有模型
+     */
+    private static final String MODELS = System.getProperty("benchmark.models", "");
+
+    /**
+     * 要对比的连接数
+     */
+    private static final int[] CONNECTIONS = ints(System.getProperty("benchmark.sweep.connections", "10,100"));
+
+    /**
+     * 要对比的请求数据大小
+     */
+    private static final int[] PAYLOADS = ints(System.getProperty("benchmark.sweep.payloads", "64,4096"));
+
+    /**
+     * 要对比的流水线深度
+     */
+    private static final int[] PIPELINES = ints(System.getProperty("benchmark.sweep.pipelines", "1,16"));
+
+    /**
+     * json报告的路径
+     */
+    private static final Path REPORT = Path.of(System.getProperty("benchmark.report", "benchmark-report.json"));
+
+    public static void main(String[] args) throws Exception {
+        Set<String> selected = Arrays.stream(MODELS.split(",")).map(String::trim).filter(name -> !name.isEmpty()).collect(Collectors.toSet());
+        List<Model> models = Model.all().stream().filter(model -> selected.isEmpty() || selected.contains(model.name())).toList();
+        List<ModelResult> results = new ArrayList<>();
+        for (int connections : CONNECTIONS) {
+            for (int payload : PAYLOADS) {
+                for (int pipeline : PIPELINES) {
+                    for (Model model : models) {
+                        results.add(run(model, connections, payload, pipeline));
+                    }
+                }
+            }
+        }
+        Files.writeString(REPORT, ModelResult.json(results), StandardCharsets.UTF_8);
+        System.out.print(ModelResult.table(results));
+        System.out.printf("json报告已写入%s%n", REPORT.toAbsolutePath());
+    }
+
+    private static ModelResult run(Model model, int connections, int payload, int pipeline) throws Exception {
+        String name = String.format("%s/%d/%d/%d", model.name(), connections, payload, pipeline);
+        try (ServerProcess server = model.start()) {
+            server.resetPeaks();
+            ServerStats before = server.stats();
+            long start = System.nanoTime();
+            BenchmarkResult load = new LoadGenerator(model.address(), Protocol.FRAME, connections, payload, pipeline).run(name);
+            long elapsed = System.nanoTime() - start;
+            return ModelResult.of(model.name(), connections, payload, pipeline, load, before, server.stats(), elapsed);
+        }
+    }
+
+    private static int[] ints(String values) {
+        return Arrays.stream(values.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+    }
+}
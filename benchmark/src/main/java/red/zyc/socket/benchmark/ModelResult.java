@@ -0,0 +1,76 @@
+package red.zyc.socket.benchmark;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.StringJoiner;
+
+/**
+ * 一种io模型在一个压测场景下的结果，包括客户端测得的吞吐量、延迟和服务端进程的资源使用情况
+ *
+ * @param model       io模型名称
+ * @param connections 连接数
+ * @param payloadSize 每个请求的数据大小，单位字节
+ * @param pipeline    流水线深度
+ * @param load        客户端测得的吞吐量和延迟
+ * @param cpu         压测期间服务端平均使用的cpu核数
+ * @param heapMiB     压测结束之后服务端full gc之后仍然存活的堆内存，单位MiB
+ * @param peakThreads 压测期间服务端的峰值线程数
+ * @author zyc
+ */
+public record ModelResult(String model, int connections, int payloadSize, int pipeline, BenchmarkResult load, double cpu, double heapMiB, int peakThreads) {
+
+    /**
+     * 表格的列格式
+     */
+    private static final String ROW_FORMAT = "%-12s %8s %8s %6s %12s %8s %10s %10s %10s %6s %10s %8s%n";
+
+    /**
+     * @param model       io模型名称
+     * @param connections 连接数
+     * @param payloadSize 每个请求的数据大小
+     * @param pipeline    流水线深度
+     * @param load        客户端测得的吞吐量和延迟
+     * @param before      压测开始之前服务端的资源使用情况
+     * @param after       压测结束之后服务端的资源使用情况
+     * @param nanos       从before到after经过的时间，单位纳秒
+     * @return 压测结果
+     */
+    public static ModelResult of(String model, int connections, int payloadSize, int pipeline, BenchmarkResult load, ServerStats before, ServerStats after, long nanos) {
+        return new ModelResult(model, connections, payloadSize, pipeline, load,
+                (double) (after.cpuNanos() - before.cpuNanos()) / nanos, after.heapBytes() / (double) (1 << 20), after.peakThreads());
+    }
+
+    /**
+     * @param results 压测结果
+     * @return 便于在控制台对比的文本表格
+     */
+    public static String table(List<ModelResult> results) {
+        StringBuilder table = new StringBuilder(String.format(ROW_FORMAT, "model", "conns", "payload", "depth", "req/s", "errors", "p50(us)", "p99(us)", "p999(us)", "cpu", "heap(MiB)", "threads"));
+        for (ModelResult result : results) {
+            BenchmarkResult load = result.load;
+            table.append(String.format(ROW_FORMAT, result.model, result.connections, result.payloadSize, result.pipeline,
+                    String.format("%.0f", load.throughput()), load.errors(), String.format("%.1f", load.p50()), String.format("%.1f", load.p99()), String.format("%.1f", load.p999()),
+                    String.format("%.2f", result.cpu), String.format("%.1f", result.heapMiB), result.peakThreads));
+        }
+        return table.toString();
+    }
+
+    /**
+     * 每个结果一个json对象，便于其它工具对比不同版本之间的结果
+     *
+     * @param results 压测结果
+     * @return json数组
+     */
+    public static String json(List<ModelResult> results) {
+        StringJoiner array = new StringJoiner(",\n", "[\n", "\n]\n");
+        for (ModelResult result : results) {
+            BenchmarkResult load = result.load;
+            array.add(String.format(Locale.ROOT,
+                    "  {\"model\": \"%s\", \"connections\": %d, \"payloadSize\": %d, \"pipeline\": %d, \"servedConnections\": %d, \"requests\": %d, \"errors\": %d, " +
+                            "\"seconds\": %.3f, \"throughput\": %.1f, \"p50Micros\": %.1f, \"p99Micros\": %.1f, \"p999Micros\": %.1f, \"cpu\": %.3f, \"heapMiB\": %.2f, \"peakThreads\": %d}",
+                    result.model, result.connections, result.payloadSize, result.pipeline, load.connections(), load.requests(), load.errors(),
+                    load.seconds(), load.throughput(), load.p50(), load.p99(), load.p999(), result.cpu, result.heapMiB, result.peakThreads));
+        }
+        return array.toString();
+    }
+}
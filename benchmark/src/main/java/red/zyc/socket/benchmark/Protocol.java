@@ -0,0 +1,100 @@
+package red.zyc.socket.benchmark;
+
+import red.zyc.socket.core.codec.Frame;
+import red.zyc.socket.core.heartbeat.Heartbeat;
+import red.zyc.socket.core.message.Message;
+import red.zyc.socket.core.message.MessageEncoder;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 压测客户端与服务端之间的协议。{@link #send}只把请求写入输出流的缓冲，调用方可以连续发送多个请求之后再flush，
+ * 然后通过{@link #receive}依次读取响应，实现流水线请求。请求只通过{@link #request}编码一次，
+ * 之后每次发送只改写其中的correlationId，压测客户端本身不会因为编码请求而分配内存。
+ *
+ * @author zyc
+ */
+public enum Protocol {
+
+    /**
+     * 三种服务端共用的长度前缀二进制帧协议
+     */
+    FRAME {
+        @Override
+        byte[] request(byte[] payload) {
+            ByteBuffer request = ByteBuffer.allocate(Message.frameLength(1, payload.length));
+            new MessageEncoder().wrap(request, Frame.REQUEST, 0, Message.ECHO).field(payload).finish();
+            return request.array();
+        }
+
+        @Override
+        void send(OutputStream out, byte[] request, long correlationId) throws IOException {
+            ByteBuffer.wrap(request).putLong(Frame.LENGTH_FIELD_LENGTH + 1, correlationId);
+            out.write(request);
+        }
+
+        @Override
+        long receive(DataInputStream in, OutputStream out) throws IOException {
+
+            // 服务端推送的帧不是请求的响应，跳过；服务端发送的心跳需要回复
+            while (true) {
+                int length = in.readInt();
+                byte type = in.readByte();
+                long id = in.readLong();
+                skip(in, length - Frame.HEADER_LENGTH + Frame.LENGTH_FIELD_LENGTH);
+                if (type == Frame.PING) {
+                    ByteBuffer pong = Heartbeat.pong(id);
+                    out.write(pong.array(), 0, pong.limit());
+                    out.flush();
+                } else if (type == Frame.RESPONSE) {
+                    return id;
+                }
+            }
+        }
+    };
+
+    /**
+     * 将请求数据编码成一个完整的请求，每个连接各自持有一份，因为{@link #send}会改写其中的correlationId
+     *
+     * @param payload 请求数据
+     * @return 编码之后的请求
+     */
+    abstract byte[] request(byte[] payload);
+
+    /**
+     * 将一个请求写入输出流，不会flush
+     *
+     * @param out           socket输出流
+     * @param request       {@link #request}编码之后的请求
+     * @param correlationId 请求id
+     * @throws IOException io异常
+     */
+    abstract void send(OutputStream out, byte[] request, long correlationId) throws IOException;
+
+    /**
+     * 读取下一个响应。业务线程池中的请求是并发处理的，所以流水线请求的响应不一定按照发送的顺序返回
+     *
+     * @param in  socket输入流
+     * @param out socket输出流，用来回复服务端的心跳
+     * @return 响应的correlationId
+     * @throws IOException io异常
+     */
+    abstract long receive(DataInputStream in, OutputStream out) throws IOException;
+
+    private static void skip(InputStream in, int length) throws IOException {
+        while (length > 0) {
+            long skipped = in.skip(length);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new IOException("服务端已关闭连接");
+                }
+                skipped = 1;
+            }
+            length -= (int) skipped;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package red.zyc.socket.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 对比每种io模型开启和关闭响应缓存时的吞吐量和延迟。压测客户端的每个请求内容都相同，
+ * 开启缓存之后除了第一个请求之外都会在io线程中直接回复，差别就是业务线程池的线程切换和响应编码的开销。<br><br>
+ * 可以通过以下系统属性配置：
+ * <ul>
+ *     <li>benchmark.sweep.connections：连接数，多个值用逗号分隔，默认为1、16</li>
+ * </ul>
+ *
+ * @author zyc
+ */
+public class ResponseCacheBenchmark {
+
+    /**
+     * 要对比的连接数
+     */
+    private static final String CONNECTIONS = System.getProperty("benchmark.sweep.connections", "1,16");
+
+    public static void main(String[] args) throws Exception {
+        List<BenchmarkResult> results = new ArrayList<>();
+        for (Model model : Model.all()) {
+            List<String> cached = new ArrayList<>(model.jvmArgs());
+            cached.add("-Dsocket.cache.enabled=true");
+            for (Model variant : List.of(model, new Model(model.name() + "-cache", model.transport(), model.port(), cached))) {
+                try (ServerProcess ignored = variant.start()) {
+                    for (int connections : ints(CONNECTIONS)) {
+                        results.add(new LoadGenerator(variant.address(), Protocol.FRAME, connections).run(String.format("%s/%d", variant.name(), connections)));
+                    }
+                }
+            }
+        }
+        System.out.print(BenchmarkResult.table(results));
+    }
+
+    private static int[] ints(String values) {
+        return Arrays.stream(values.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+    }
+}
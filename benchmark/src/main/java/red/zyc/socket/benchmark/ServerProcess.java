@@ -0,0 +1,155 @@
+package red.zyc.socket.benchmark;
+
+import com.sun.management.OperatingSystemMXBean;
+
+import javax.management.MBeanServerConnection;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在独立的jvm进程中启动被测服务端，每个压测场景使用一个新的进程，
+ * 这样服务端的系统属性、线程池和jit状态不会互相影响，进程的cpu时间、堆内存和线程数也只属于这一个场景。
+ * 被测服务端使用当前进程的classpath，并且在本地回环地址上开启了jmx，压测客户端通过jmx读取服务端的{@link ServerStats}。
+ *
+ * @author zyc
+ */
+public class ServerProcess implements AutoCloseable {
+
+    /**
+     * 等待服务端开始监听的最长时间
+     */
+    private static final long STARTUP_TIMEOUT_MILLIS = 30_000;
+
+    private final Process process;
+
+    /**
+     * 服务端jmx监听的端口
+     */
+    private final int jmxPort;
+
+    /**
+     * 第一次读取资源使用情况时建立的jmx连接
+     */
+    private JMXConnector jmxConnector;
+
+    private ServerProcess(Process process, int jmxPort) {
+        this.process = process;
+        this.jmxPort = jmxPort;
+    }
+
+    /**
+     * 启动服务端并等待其开始监听
+     *
+     * @param mainClass 服务端启动类
+     * @param address   服务端监听的地址
+     * @param jvmArgs   服务端jvm参数
+     * @return 服务端进程
+     * @throws IOException          io异常
+     * @throws InterruptedException 线程被中断
+     */
+    public static ServerProcess start(Class<?> mainClass, InetSocketAddress address, List<String> jvmArgs) throws IOException, InterruptedException {
+        int jmxPort = freePort();
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Dcom.sun.management.jmxremote.port=" + jmxPort);
+        command.add("-Dcom.sun.management.jmxremote.rmi.port=" + jmxPort);
+        command.add("-Dcom.sun.management.jmxremote.host=127.0.0.1");
+        command.add("-Djava.rmi.server.hostname=127.0.0.1");
+        command.add("-Dcom.sun.management.jmxremote.authenticate=false");
+        command.add("-Dcom.sun.management.jmxremote.ssl=false");
+        command.addAll(jvmArgs);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(mainClass.getName());
+        ServerProcess server = new ServerProcess(new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start(), jmxPort);
+        server.awaitListening(address);
+        return server;
+    }
+
+    /**
+     * 重置服务端的峰值线程数，在压测开始之前调用
+     *
+     * @throws IOException io异常
+     */
+    public void resetPeaks() throws IOException {
+        ManagementFactory.newPlatformMXBeanProxy(connection(), ManagementFactory.THREAD_MXBEAN_NAME, ThreadMXBean.class).resetPeakThreadCount();
+    }
+
+    /**
+     * 读取服务端当前的资源使用情况。读取堆内存之前会触发一次full gc，所以不能在压测期间调用，
+     * cpu时间在gc之前读取，不包含这次gc的开销
+     *
+     * @return 服务端的资源使用情况
+     * @throws IOException io异常
+     */
+    public ServerStats stats() throws IOException {
+        MBeanServerConnection connection = connection();
+        long cpuNanos = ManagementFactory.newPlatformMXBeanProxy(connection, ManagementFactory.OPERATING_SYSTEM_MXBEAN_NAME, OperatingSystemMXBean.class).getProcessCpuTime();
+        MemoryMXBean memory = ManagementFactory.newPlatformMXBeanProxy(connection, ManagementFactory.MEMORY_MXBEAN_NAME, MemoryMXBean.class);
+        memory.gc();
+        int peakThreads = ManagementFactory.newPlatformMXBeanProxy(connection, ManagementFactory.THREAD_MXBEAN_NAME, ThreadMXBean.class).getPeakThreadCount();
+        return new ServerStats(cpuNanos, memory.getHeapMemoryUsage().getUsed(), peakThreads);
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        if (jmxConnector != null) {
+            try {
+                jmxConnector.close();
+            } catch (IOException ignored) {
+                // 服务端进程马上就要被销毁了
+            }
+        }
+        process.destroy();
+        if (!process.waitFor(10, TimeUnit.SECONDS)) {
+            process.destroyForcibly().waitFor();
+        }
+    }
+
+    private void awaitListening(InetSocketAddress address) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+        while (true) {
+            if (!process.isAlive()) {
+                throw new IOException(String.format("服务端进程已退出，退出码: %s", process.exitValue()));
+            }
+            try (Socket socket = new Socket()) {
+                socket.connect(address, 1000);
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    close();
+                    throw new IOException(String.format("服务端%s启动超时", address), e);
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private MBeanServerConnection connection() throws IOException {
+        if (jmxConnector == null) {
+            jmxConnector = JMXConnectorFactory.connect(new JMXServiceURL(String.format("service:jmx:rmi:///jndi/rmi://127.0.0.1:%d/jmxrmi", jmxPort)));
+        }
+        return jmxConnector.getMBeanServerConnection();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
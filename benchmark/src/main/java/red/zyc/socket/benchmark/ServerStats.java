@@ -0,0 +1,12 @@
+package red.zyc.socket.benchmark;
+
+/**
+ * 被测服务端进程某一时刻的资源使用情况
+ *
+ * @param cpuNanos    进程启动以来消耗的cpu时间，单位纳秒
+ * @param heapBytes   full gc之后仍然存活的堆内存，单位字节
+ * @param peakThreads 上一次重置以来的峰值线程数
+ * @author zyc
+ */
+public record ServerStats(long cpuNanos, long heapBytes, int peakThreads) {
+}
@@ -0,0 +1,167 @@
+package red.zyc.socket.benchmark;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * 对比nio服务端开启tls前后的吞吐量和延迟，以及完整握手和恢复会话的建连开销。
+ * 压测开始之前会在临时目录中通过keytool生成一个自签名证书的密钥库，服务端用它作为证书，客户端用它作为信任库。<br><br>
+ * 可以通过以下系统属性配置：
+ * <ul>
+ *     <li>benchmark.sweep.connections：连接数，多个值用逗号分隔，默认为1、16</li>
+ *     <li>benchmark.tls.handshakes：测量建连开销时依次建立的连接数，默认500</li>
+ * </ul>
+ *
+ * @author zyc
+ */
+public class TlsBenchmark {
+
+    /**
+     * 要对比的连接数
+     */
+    private static final String CONNECTIONS = System.getProperty("benchmark.sweep.connections", "1,16");
+
+    /**
+     * 测量建连开销时依次建立的连接数
+     */
+    private static final int HANDSHAKES = Integer.getInteger("benchmark.tls.handshakes", 500);
+
+    /**
+     * 自签名密钥库的密码
+     */
+    private static final String PASSWORD = "changeit";
+
+    /**
+     * 每个请求的数据
+     */
+    private static final byte[] PAYLOAD = "benchmark".getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws Exception {
+        Path keyStore = generateKeyStore();
+        TrustManager[] trustManagers = trustManagers(keyStore);
+        SSLContext shared = clientContext(trustManagers);
+        Model plain = new Model("nio", "nio", 9001, List.of());
+        Model tls = new Model("nio-tls", "nio", 9001, List.of("-Dsocket.tls.enabled=true", "-Dsocket.tls.keyStore=" + keyStore, "-Dsocket.tls.keyStorePassword=" + PASSWORD));
+        int[] connections = Arrays.stream(CONNECTIONS.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+        List<BenchmarkResult> results = new ArrayList<>();
+        try (ServerProcess ignored = plain.start()) {
+            for (int count : connections) {
+                results.add(new LoadGenerator(plain.address(), Protocol.FRAME, count).run(String.format("%s/%d", plain.name(), count)));
+            }
+        }
+        double full;
+        double resumed;
+        try (ServerProcess ignored = tls.start()) {
+            for (int count : connections) {
+                results.add(new LoadGenerator(tls.address(), Protocol.FRAME, count).tls(shared).run(String.format("%s/%d", tls.name(), count)));
+            }
+
+            // 每个连接使用一个新的客户端上下文时没有可以恢复的会话，每次都是完整握手
+            full = connect(tls.address(), () -> clientContext(trustManagers));
+            resumed = connect(tls.address(), () -> shared);
+        } finally {
+            Files.deleteIfExists(keyStore);
+            Files.deleteIfExists(keyStore.getParent());
+        }
+        System.out.print(BenchmarkResult.table(results));
+        System.out.printf("建立tls连接并完成一次请求的平均耗时：完整握手%.1fus，恢复会话%.1fus%n", full, resumed);
+    }
+
+    /**
+     * 依次建立{@link #HANDSHAKES}个tls连接，每个连接完成一次请求之后关闭
+     *
+     * @param address  服务端地址
+     * @param contexts 每个连接使用的客户端上下文
+     * @return 每个连接的平均耗时，单位微秒
+     * @throws IOException io异常
+     */
+    private static double connect(InetSocketAddress address, Supplier<SSLContext> contexts) throws IOException {
+        byte[] request = Protocol.FRAME.request(PAYLOAD);
+        long total = 0;
+        for (int i = 0; i < HANDSHAKES; i++) {
+            SSLContext context = contexts.get();
+            long start = System.nanoTime();
+            try (Socket socket = context.getSocketFactory().createSocket()) {
+                socket.setTcpNoDelay(true);
+                socket.connect(address);
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                Protocol.FRAME.send(out, request, 1);
+                out.flush();
+                Protocol.FRAME.receive(new DataInputStream(new BufferedInputStream(socket.getInputStream())), out);
+            }
+            total += System.nanoTime() - start;
+        }
+        return total / 1000.0 / HANDSHAKES;
+    }
+
+    /**
+     * 通过keytool在临时目录中生成一个包含自签名证书的PKCS12密钥库
+     *
+     * @return 密钥库路径
+     * @throws IOException          io异常
+     * @throws InterruptedException 线程被中断
+     */
+    private static Path generateKeyStore() throws IOException, InterruptedException {
+        Path keyStore = Files.createTempDirectory("socket-tls").resolve("server.p12");
+        Process keytool = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "socket", "-keyalg", "EC", "-groupname", "secp256r1",
+                "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-validity", "1",
+                "-storetype", "PKCS12", "-keystore", keyStore.toString(), "-storepass", PASSWORD, "-keypass", PASSWORD)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        if (keytool.waitFor() != 0) {
+            throw new IOException(String.format("keytool生成密钥库失败，退出码: %s", keytool.exitValue()));
+        }
+        return keyStore;
+    }
+
+    /**
+     * @param keyStore 自签名密钥库，其中的证书就是信任锚
+     * @return 信任自签名证书的TrustManager
+     * @throws IOException              io异常
+     * @throws GeneralSecurityException 密钥库无法加载
+     */
+    private static TrustManager[] trustManagers(Path keyStore) throws IOException, GeneralSecurityException {
+        try (InputStream in = Files.newInputStream(keyStore)) {
+            KeyStore trustStore = KeyStore.getInstance("PKCS12");
+            trustStore.load(in, PASSWORD.toCharArray());
+            TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagerFactory.init(trustStore);
+            return trustManagerFactory.getTrustManagers();
+        }
+    }
+
+    /**
+     * @param trustManagers 信任自签名证书的TrustManager
+     * @return 新的客户端上下文，拥有自己的会话缓存
+     */
+    private static SSLContext clientContext(TrustManager[] trustManagers) {
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, trustManagers, null);
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package red.zyc.socket.benchmark;
+
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 对比同一台机器上的客户端通过tcp回环地址和unix domain socket访问nio服务端的吞吐量和延迟。
+ * 两种连接由同一个服务端进程同时监听，使用同样的SubReactor、编解码和业务逻辑，差别只在于是否经过tcp协议栈。<br><br>
+ * 可以通过以下系统属性配置：
+ * <ul>
+ *     <li>benchmark.uds.path：服务端监听的unix domain socket路径，默认为临时目录下的socket-benchmark.sock</li>
+ *     <li>benchmark.sweep.connections：连接数，多个值用逗号分隔，默认为1、16</li>
+ *     <li>benchmark.sweep.payloads：请求数据大小，多个值用逗号分隔，默认为64、4096</li>
+ * </ul>
+ *
+ * @author zyc
+ */
+public class UnixDomainSocketBenchmark {
+
+    /**
+     * 服务端监听的unix domain socket路径
+     */
+    private static final Path UNIX_PATH = Path.of(System.getProperty("benchmark.uds.path", Path.of(System.getProperty("java.io.tmpdir"), "socket-benchmark.sock").toString()));
+
+    /**
+     * 要对比的连接数
+     */
+    private static final String CONNECTIONS = System.getProperty("benchmark.sweep.connections", "1,16");
+
+    /**
+     * 要对比的请求数据大小
+     */
+    private static final String PAYLOADS = System.getProperty("benchmark.sweep.payloads", "64,4096");
+
+    public static void main(String[] args) throws Exception {
+        Model model = new Model("nio", "nio", 9001, List.of("-Dsocket.nio.unixPath=" + UNIX_PATH));
+        SocketAddress unixDomain = UnixDomainSocketAddress.of(UNIX_PATH);
+        List<BenchmarkResult> results = new ArrayList<>();
+        try (ServerProcess ignored = model.start()) {
+            for (int connections : ints(CONNECTIONS)) {
+                for (int payload : ints(PAYLOADS)) {
+                    results.add(new LoadGenerator(model.address(), Protocol.FRAME, connections, payload, 1).run(String.format("tcp/%d/%d", connections, payload)));
+                    results.add(new LoadGenerator(unixDomain, Protocol.FRAME, connections, payload, 1).run(String.format("uds/%d/%d", connections, payload)));
+                }
+            }
+        }
+        System.out.print(BenchmarkResult.table(results));
+    }
+
+    private static int[] ints(String values) {
+        return Arrays.stream(values.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+    }
+}
@@ -1,13 +1,20 @@
 package red.zyc.socket.bio.client;
 
 import lombok.extern.slf4j.Slf4j;
+import red.zyc.socket.core.codec.Frame;
+import red.zyc.socket.core.heartbeat.Heartbeat;
+import red.zyc.socket.core.message.Message;
+import red.zyc.socket.core.message.MessageDecoder;
+import red.zyc.socket.core.message.MessageEncoder;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * @author zyc
@@ -25,6 +32,11 @@ public class Client {
      */
     private static final String SERVER_HOST = "localhost";
 
+    /**
+     * 连续发送的请求数量
+     */
+    private static final int REQUESTS = 3;
+
     /**
      * 客户端socket
      */
@@ -41,43 +53,61 @@ public class Client {
      */
     public void start() throws IOException {
         try (Socket client = new Socket(SERVER_HOST, SERVER_PORT);
-             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(client.getOutputStream()));
-             BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream()))) {
+             OutputStream out = new BufferedOutputStream(client.getOutputStream());
+             DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()))) {
 
             this.socket = client;
-            writeMessageToServer(writer);
-            readServerMessage(reader);
+            writeMessageToServer(out);
+            readServerMessage(in, out);
         }
     }
 
     /**
-     * 将控制台输入消息发送到服务端
+     * 连续发送多个请求帧到服务端，不需要等待上一个请求的响应
      *
-     * @param writer {@link BufferedWriter}
+     * @param out socket输出流
      * @throws IOException io异常
      */
-    private void writeMessageToServer(BufferedWriter writer) throws IOException {
-        writer.write("我是客户端");
-
-        // 写入一个换行符以便客户端能够识别一行数据，避免另一端read方法一直阻塞
-        writer.newLine();
+    private void writeMessageToServer(OutputStream out) throws IOException {
+        byte[] body = "我是客户端".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(Message.frameLength(1, body.length));
+        MessageEncoder encoder = new MessageEncoder();
+        for (int i = 1; i <= REQUESTS; i++) {
+            encoder.wrap(frame.clear(), Frame.REQUEST, i, Message.ECHO).field(body).finish();
+            out.write(frame.array(), 0, frame.position());
+        }
 
-        // 将writer缓冲区的数据立即刷新发送出去，否则必须等到缓冲满了才会发送
-        writer.flush();
+        // 将缓冲区的数据立即刷新发送出去，否则必须等到缓冲满了才会发送
+        out.flush();
     }
 
     /**
-     * 读取服务端发送过来的消息
+     * 读取服务端发送过来的响应帧，收到心跳帧时回复心跳
      *
-     * @param reader {@link BufferedReader}
+     * @param in  socket输入流
+     * @param out socket输出流
      * @throws IOException io异常
      */
-    private void readServerMessage(BufferedReader reader) throws IOException {
-        String line;
-        // readLine会阻塞直到读到一个换行符为止，返回null代表socket关闭了
-        if ((line = reader.readLine()) != null) {
-            log.info("来自服务端[{}:{}]的消息: {}", socket.getInetAddress().getHostAddress(), socket.getPort(), line);
+    private void readServerMessage(DataInputStream in, OutputStream out) throws IOException {
+        MessageDecoder decoder = new MessageDecoder();
+        for (int i = 0; i < REQUESTS; ) {
+
+            // readInt、readFully会阻塞直到读到足够的字节为止，socket关闭了则抛出EOFException
+            int length = in.readInt();
+            byte type = in.readByte();
+            long correlationId = in.readLong();
+            byte[] payload = new byte[length - (Frame.HEADER_LENGTH - Frame.LENGTH_FIELD_LENGTH)];
+            in.readFully(payload);
+            if (type == Frame.PING) {
+                ByteBuffer pong = Heartbeat.pong(correlationId);
+                out.write(pong.array(), 0, pong.limit());
+                out.flush();
+                continue;
+            }
+            i++;
+            MessageDecoder message = decoder.wrap(ByteBuffer.wrap(payload));
+            log.info("来自服务端[{}:{}]的请求{}的响应: {}", socket.getInetAddress().getHostAddress(), socket.getPort(), correlationId, StandardCharsets.UTF_8.decode(message.field(0)));
         }
     }
 
-}
\ No newline at end of file
+}
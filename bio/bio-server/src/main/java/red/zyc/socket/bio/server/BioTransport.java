@@ -0,0 +1,29 @@
+package red.zyc.socket.bio.server;
+
+import red.zyc.socket.core.transport.Handler;
+import red.zyc.socket.core.transport.Transport;
+
+import java.io.IOException;
+
+/**
+ * 基于bio一个连接一个线程的传输层
+ *
+ * @author zyc
+ */
+public class BioTransport implements Transport {
+
+    @Override
+    public String name() {
+        return "bio";
+    }
+
+    @Override
+    public int defaultPort() {
+        return Server.LISTEN;
+    }
+
+    @Override
+    public void serve(int port, Handler handler) throws IOException {
+        new Server(handler).start(port);
+    }
+}
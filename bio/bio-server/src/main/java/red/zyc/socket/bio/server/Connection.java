@@ -2,71 +2,335 @@ package red.zyc.socket.bio.server;
 
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import red.zyc.socket.core.concurrent.NamedThreadFactory;
+import red.zyc.socket.core.jfr.WriteEvent;
+import red.zyc.socket.core.log.AccessLog;
+import red.zyc.socket.core.transport.AbstractConnection;
+import red.zyc.socket.core.transport.ConnectionRegistry;
+import red.zyc.socket.core.transport.Handler;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.time.LocalDateTime;
-import java.util.UUID;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * 客户端与服务端的socket连接
+ * 客户端与服务端的socket连接。<br><br>
+ * 处理连接的线程写入的帧会先追加到写缓冲中，等缓冲中所有的请求都处理完、下一次阻塞读之前再通过一次write发送出去。
+ * 其它线程写入的帧（例如房间广播）只放入有界的{@link #outbound}队列，由{@link #WRITER}线程池或者处理连接的线程写出，
+ * 发送消息的线程不会阻塞在这个连接的输出流上；队列中的数据超过{@link #MAX_QUEUED_BYTES}时认为客户端已经不再读取，直接断开连接。
+ * 阻塞的输出流没有写超时，所以由{@link #WRITE_TIMEOUT_CHECKER}定期检查，一次write阻塞超过{@link #WRITE_TIMEOUT_NANOS}时关闭socket让它返回。<br><br>
+ * 输出流同一时刻只能有一个线程写，所以写缓冲和输出流都由{@link #writeLock}保护，
+ * 这里使用{@link ReentrantLock}而不是synchronized，虚拟线程阻塞在synchronized中的io上时无法从载体线程上卸载。
  *
  * @author zyc
  */
 @Slf4j
-@Getter
-public class Connection {
+public class Connection extends AbstractConnection {
 
-    private final String id;
+    /**
+     * 访问日志
+     */
+    static final AccessLog ACCESS_LOG = AccessLog.open("bio-server");
+
+    /**
+     * 写缓冲的大小8 KiB
+     */
+    private static final int BUFFER_CAPACITY = 1 << 13;
+
+    /**
+     * 其它线程写入但还没有写出的最大字节数，通过系统属性socket.bio.maxQueuedBytes配置，默认1 MiB
+     */
+    private static final int MAX_QUEUED_BYTES = Integer.getInteger("socket.bio.maxQueuedBytes", 1 << 20);
+
+    /**
+     * 一次write最多阻塞的纳秒数，通过系统属性socket.bio.writeTimeout配置毫秒数，默认10秒
+     */
+    private static final long WRITE_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("socket.bio.writeTimeout", 10_000));
+
+    /**
+     * 线程池模式下写出其它线程写入的帧的最大线程数，通过系统属性socket.bio.writerThreads配置，默认64
+     */
+    private static final int MAX_WRITER_THREADS = Integer.getInteger("socket.bio.writerThreads", 64);
 
+    /**
+     * 把其它线程写入的帧写出去的执行器，只有有数据要写的连接才会提交任务，每个连接同时最多一个任务。
+     * 一个不读数据的客户端最多占用一个写线程{@link #WRITE_TIMEOUT_NANOS}，所以虚拟线程模式下每个任务一个虚拟线程，
+     * 线程池模式下最多{@link #MAX_WRITER_THREADS}个平台线程，超出的任务排队，不会因为大房间中的慢客户端创建成千上万个系统线程
+     */
+    private static final ExecutorService WRITER = Server.VIRTUAL_THREADS ? Server.newVirtualThreadPerTaskExecutor() : newWriterPool();
+
+    /**
+     * 检查写超时的调度线程池
+     */
+    private static final ScheduledExecutorService WRITE_TIMEOUT_CHECKER = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("BioWriteTimeout"));
+
+    static {
+        long period = Math.max(1, TimeUnit.NANOSECONDS.toMillis(WRITE_TIMEOUT_NANOS) / 4);
+        WRITE_TIMEOUT_CHECKER.scheduleWithFixedDelay(Connection::checkWriteTimeout, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @Getter
     private final Socket socket;
 
-    private final InetSocketAddress inetSocketAddress;
+    /**
+     * 写缓冲，处于写模式
+     */
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(BUFFER_CAPACITY);
 
-    private final LocalDateTime createdTime;
+    /**
+     * 保护{@link #writeBuffer}和{@link #out}
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
 
-    public Connection(Socket socket) {
-        this.id = UUID.randomUUID().toString();
+    /**
+     * 其它线程写入的帧，任意线程都可以添加，持有{@link #writeLock}的线程写出
+     */
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+
+    /**
+     * {@link #outbound}中还没有写出的字节数
+     */
+    private final AtomicInteger queuedBytes = new AtomicInteger();
+
+    /**
+     * 是否已经向{@link #WRITER}提交了写出{@link #outbound}的任务
+     */
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    /**
+     * 处理当前连接的线程
+     */
+    private volatile Thread thread;
+
+    /**
+     * 正在进行的write开始的时间，没有正在进行的write时为0
+     */
+    private volatile long writeStartNanos;
+
+    /**
+     * socket输出流
+     */
+    private OutputStream out;
+
+    public Connection(Socket socket, Handler handler) {
+        super((InetSocketAddress) socket.getRemoteSocketAddress(), handler);
         this.socket = socket;
-        this.inetSocketAddress = (InetSocketAddress) socket.getRemoteSocketAddress();
-        this.createdTime = LocalDateTime.now();
     }
 
     /**
-     * 断开连接
+     * 由处理当前连接的线程在开始读写之前调用一次
+     *
+     * @param out socket输出流
      */
-    public void disconnect() {
+    void attach(OutputStream out) {
+        writeLock.lock();
         try {
-            socket.close();
+            this.out = out;
+            this.thread = Thread.currentThread();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 其它线程写入时只会放入队列，不会阻塞，所以可以直接在调用线程中写
+     */
+    @Override
+    public Executor eventLoop() {
+        return DIRECT;
+    }
+
+    /**
+     * 处理当前连接的线程写入时把帧追加到写缓冲中，写缓冲放不下时先把已有的数据发送出去；
+     * 其它线程写入时只放入{@link #outbound}队列，然后提交一个写出队列的任务
+     *
+     * @param frame 已编码的帧
+     */
+    @Override
+    public void write(ByteBuffer frame) {
+        if (Thread.currentThread() != thread) {
+            enqueue(frame);
+            return;
+        }
+        writeLock.lock();
+        try {
+            if (out == null || isClosed()) {
+                return;
+            }
+            append(frame);
         } catch (IOException e) {
-            log.error(e.getMessage(), e);
+            log.error("写入客户端{}的数据失败", clientAddress(), e);
+            disconnect();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 将其它线程写入的帧和写缓冲中的所有数据通过一次write发送出去
+     *
+     * @throws IOException io异常
+     */
+    void flush() throws IOException {
+        writeLock.lock();
+        try {
+            appendQueued();
+            flush0();
+        } finally {
+            writeLock.unlock();
         }
     }
 
     /**
-     * @return 客户端地址信息
+     * 把其它线程写入的帧放入{@link #outbound}，队列中已经有超过{@link #MAX_QUEUED_BYTES}的数据时断开连接
+     *
+     * @param frame 已编码的帧
+     */
+    private void enqueue(ByteBuffer frame) {
+        if (isClosed()) {
+            return;
+        }
+        int length = frame.remaining();
+
+        // 队列为空时即使单个帧超过了上限也允许写
+        int queued = queuedBytes.addAndGet(length);
+        if (queued > MAX_QUEUED_BYTES && queued > length) {
+            queuedBytes.addAndGet(-length);
+            log.warn("客户端{}待写出的数据超过了{}字节，连接已断开", clientAddress(), MAX_QUEUED_BYTES);
+            disconnect();
+            return;
+        }
+        outbound.offer(frame);
+        if (draining.compareAndSet(false, true)) {
+            WRITER.execute(this::drain);
+        }
+    }
+
+    /**
+     * 在{@link #WRITER}线程中写出{@link #outbound}中的帧，写完之后再检查一次，避免错过释放标记之前放入的帧
+     */
+    private void drain() {
+        do {
+            try {
+                flush();
+            } catch (IOException e) {
+                if (!isClosed()) {
+                    log.error("写入客户端{}的数据失败", clientAddress(), e);
+                }
+                disconnect();
+            } finally {
+                draining.set(false);
+            }
+        } while (!isClosed() && !outbound.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    /**
+     * 把{@link #outbound}中的帧追加到写缓冲中，必须持有{@link #writeLock}
+     *
+     * @throws IOException io异常
      */
-    public String clientAddress() {
-        return String.format("[%s:%s]", inetSocketAddress.getAddress().getHostAddress(), inetSocketAddress.getPort());
+    private void appendQueued() throws IOException {
+        if (out == null || isClosed()) {
+            return;
+        }
+        ByteBuffer frame;
+        while ((frame = outbound.poll()) != null) {
+            queuedBytes.addAndGet(-frame.remaining());
+            append(frame);
+        }
     }
 
     /**
-     * 测试连接是否异常
+     * 把一个帧追加到写缓冲中，写缓冲放不下时先把已有的数据发送出去，必须持有{@link #writeLock}
      *
-     * @return 当前连接是否异常
+     * @param frame 已编码的帧
+     * @throws IOException io异常
      */
-    public boolean abnormal() {
+    private void append(ByteBuffer frame) throws IOException {
+        while (frame.hasRemaining()) {
+            if (!writeBuffer.hasRemaining()) {
+                flush0();
+            }
+            int length = Math.min(frame.remaining(), writeBuffer.remaining());
+            writeBuffer.put(writeBuffer.position(), frame, frame.position(), length);
+            writeBuffer.position(writeBuffer.position() + length);
+            frame.position(frame.position() + length);
+        }
+    }
+
+    /**
+     * 关闭write阻塞超过{@link #WRITE_TIMEOUT_NANOS}的连接，关闭socket之后阻塞的write会抛出异常返回
+     */
+    private static void checkWriteTimeout() {
+        long now = System.nanoTime();
+        ConnectionRegistry.INSTANCE.forEach(connection -> {
+            if (connection instanceof Connection bio) {
+                long start = bio.writeStartNanos;
+                if (start != 0 && now - start > WRITE_TIMEOUT_NANOS) {
+                    log.warn("写入客户端{}的数据超过{}毫秒没有完成，连接已断开", bio.clientAddress(), TimeUnit.NANOSECONDS.toMillis(WRITE_TIMEOUT_NANOS));
+                    bio.disconnect();
+                }
+            }
+        });
+    }
+
+    /**
+     * 关闭socket。连接占用的准入名额由{@link ProcessTask}返回之前释放，而不是在这里释放，
+     * 因为写超时等情况会在其它线程中关闭连接，这时处理连接的线程还没有空闲下来
+     */
+    @Override
+    protected void close() {
         try {
-            // 默认情况下SocketOptions#SO_OOBINLINE是关闭的，即发送的字节不会被追加到流中去。
-            // 如果发送失败代表客户端与服务端的连接有问题，可能是一方的连接被重置了。
-            socket.sendUrgentData(0xff);
-        } catch (Exception e) {
-            return true;
+            socket.close();
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
         }
-        return socket.isClosed() ||
-                socket.isOutputShutdown() ||
-                socket.isInputShutdown();
     }
 
+    /**
+     * 释放连接占用的准入名额，处理这个连接的任务结束或者被拒绝时调用一次
+     */
+    void releaseAdmission() {
+        Server.CONNECTION_LIMITER.release(getInetSocketAddress().getAddress());
+    }
+
+    private void flush0() throws IOException {
+        if (writeBuffer.position() > 0) {
+            WriteEvent event = new WriteEvent();
+            event.begin();
+            int length = writeBuffer.position();
+            writeStartNanos = System.nanoTime();
+            try {
+                out.write(writeBuffer.array(), 0, length);
+            } finally {
+                writeStartNanos = 0;
+            }
+            writeBuffer.clear();
+            event.commit(this, length, true);
+        }
+    }
+
+
+    /**
+     * @return 最多{@link #MAX_WRITER_THREADS}个线程的写线程池，空闲的线程会被回收
+     */
+    private static ExecutorService newWriterPool() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_WRITER_THREADS, MAX_WRITER_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new NamedThreadFactory("BioWriter"));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
 }
@@ -2,79 +2,226 @@ package red.zyc.socket.bio.server;
 
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import red.zyc.socket.core.cache.ResponseCache;
+import red.zyc.socket.core.codec.CodecException;
+import red.zyc.socket.core.codec.Frame;
+import red.zyc.socket.core.codec.FrameCodec;
+import red.zyc.socket.core.heartbeat.Heartbeat;
+import red.zyc.socket.core.jfr.ReadEvent;
+import red.zyc.socket.core.transport.HandlerTask;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
 
 /**
- * socket连接任务
+ * socket连接任务。<br><br>
+ * 请求和响应都是长度前缀的二进制帧{@link Frame}，直接在可复用的字节数组上读写，不再经过Reader、Writer做字符集的编解码。
+ * 一次read可能读到多个请求帧（客户端连续发送了多个请求），每个请求帧直接在当前线程中交给业务逻辑处理，
+ * 响应会先追加到连接的写缓冲中，等缓冲中所有完整的请求帧都处理完、下一次阻塞读之前再通过一次write发送出去。<br><br>
+ * 开启心跳时阻塞读最多等待一个心跳间隔，超时之后如果连接空闲的时间还没有超过心跳超时时间就发送一个心跳帧继续等待，否则断开连接，不需要额外的定时线程。
+ * 其它线程写给这个连接的帧（例如房间广播）由{@link Connection}放入有界的队列，再由写线程或者当前线程在flush时写出，
+ * 所以输出流可能被多个线程写，写缓冲和输出流都由连接的写锁保护。
  *
  * @author zyc
  */
 @Slf4j
-@Getter
 public class ProcessTask implements Runnable {
 
+    /**
+     * 读缓冲的初始大小8 KiB
+     */
+    private static final int BUFFER_CAPACITY = 1 << 13;
+
+    @Getter
     private final Connection connection;
 
+    /**
+     * 读缓冲，{@link #readerIndex}到{@link #writerIndex}之间是已经读到但还没有处理的数据
+     */
+    private byte[] readBuffer = new byte[BUFFER_CAPACITY];
+
+    /**
+     * {@link #readBuffer}的视图，用来读取帧头中的int和long
+     */
+    private ByteBuffer readView = ByteBuffer.wrap(readBuffer);
+
+    private int readerIndex;
+
+    private int writerIndex;
+
+    /**
+     * 最近一次读到数据的时间
+     */
+    private long lastReadTime = System.nanoTime();
+
     public ProcessTask(Connection connection) {
         this.connection = connection;
     }
 
     @Override
     public void run() {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getSocket().getInputStream()));
-             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(connection.getSocket().getOutputStream()))) {
-            log.info("客户端{}已连接", connection.clientAddress());
+        try (InputStream in = connection.getSocket().getInputStream();
+             OutputStream out = connection.getSocket().getOutputStream()) {
+            Connection.ACCESS_LOG.accepted(connection.getUuid(), connection.getPackedAddress());
+            connection.attach(out);
+            connection.connected();
+            if (Heartbeat.ENABLED) {
+                connection.getSocket().setSoTimeout((int) Math.min(Heartbeat.INTERVAL_MILLIS, Integer.MAX_VALUE));
+            }
 
             while (!Thread.interrupted()) {
-                String request = readData(reader);
-                if (request != null) {
-                    log.info("来自客户端{}的消息: {}", connection.clientAddress(), request);
-
-                    // 写入业务返回的数据，约定换行符代表一次tcp响应的结尾
-                    writeData(writer, String.format("我是请求%s的响应%n", connection.getId()));
-                } else {
-                    log.info(String.format("客户端%s已关闭", connection.clientAddress()));
+
+                // 上一次读到的请求都处理完了，在阻塞读下一批请求之前把所有响应一次性发送出去
+                connection.flush();
+
+                // read会阻塞直到读到数据为止，返回-1代表客户端socket关闭了。开启心跳时最多阻塞一个心跳间隔
+                int read;
+                try {
+                    read = fill(in);
+                } catch (SocketTimeoutException e) {
+                    if (idle()) {
+                        continue;
+                    }
+                    log.info("客户端{}超过{}毫秒没有发送任何数据，连接已断开", connection.clientAddress(), Heartbeat.TIMEOUT_MILLIS);
+                    read = -1;
+                }
+                if (read == -1) {
+                    Connection.ACCESS_LOG.disconnected(connection.getUuid(), connection.getPackedAddress());
                     break;
                 }
+                lastReadTime = System.nanoTime();
+
+                // 处理缓冲中所有完整的请求帧，读事件只记录阻塞读返回之后处理这些数据的时间，不包括等待客户端发送数据的时间
+                ReadEvent event = new ReadEvent();
+                event.begin();
+                while (processFrame()) {
+                }
+                event.commit(connection, read);
             }
+        } catch (CodecException e) {
+            log.error("客户端{}发送的数据不合法: {}", connection.clientAddress(), e.getMessage());
         } catch (Exception e) {
-            log.error(e.getMessage(), e);
+
+            // 写数据失败时连接已经被断开了，之后的读一定会失败，不需要再记录一次
+            if (!connection.isClosed()) {
+                log.error(e.getMessage(), e);
+            }
+        } finally {
+            try {
+                connection.disconnect();
+            } finally {
+
+                // 连接的所有处理都已经结束之后才释放准入名额
+                connection.releaseAdmission();
+            }
         }
     }
 
     /**
-     * 读客户端发送过来的消息
+     * 处理读缓冲中的下一个请求帧。请求帧的内容直接引用读缓冲，业务逻辑在当前线程中同步执行，所以不需要复制
      *
+     * @return 是否处理了一个完整的帧，返回false代表缓冲中的数据不足一个帧
      * @throws IOException io异常
      */
-    public String readData(BufferedReader reader) throws IOException {
-        String request;
-        // readLine会阻塞直到读到一个换行符为止，返回null代表客户端socket关闭了
-        if ((request = reader.readLine()) != null) {
-            return request;
-        } else {
-            return null;
+    private boolean processFrame() {
+        int readable = writerIndex - readerIndex;
+        if (readable < Frame.LENGTH_FIELD_LENGTH) {
+            return false;
+        }
+        int length = frameLength();
+        if (readable < Frame.LENGTH_FIELD_LENGTH + length) {
+            return false;
+        }
+        byte type = readBuffer[readerIndex + Frame.LENGTH_FIELD_LENGTH];
+        long correlationId = readView.getLong(readerIndex + Frame.LENGTH_FIELD_LENGTH + 1);
+        int payloadIndex = readerIndex + Frame.HEADER_LENGTH;
+        int payloadLength = length - (Frame.HEADER_LENGTH - Frame.LENGTH_FIELD_LENGTH);
+        switch (type) {
+            case Frame.REQUEST -> {
+                Connection.ACCESS_LOG.request(connection.getUuid(), connection.getPackedAddress(), payloadLength);
+                Frame request = new Frame(type, correlationId, ByteBuffer.wrap(readBuffer, payloadIndex, payloadLength));
+                if (!ResponseCache.INSTANCE.answer(connection, request, connection.getHandler())) {
+                    new HandlerTask(connection, request, connection.getHandler()).run();
+                }
+            }
+            case Frame.PING -> connection.write(Heartbeat.pong(correlationId));
+            case Frame.PONG -> {
+                // 读到数据时已经更新了连接的最近读取时间，心跳回复不需要其它处理
+            }
+            default -> log.warn("客户端{}发送了未知类型的帧: {}", connection.clientAddress(), type);
         }
+        readerIndex += Frame.LENGTH_FIELD_LENGTH + length;
+        return true;
     }
 
     /**
-     * 将消息发送给客户端
+     * 阻塞读超时之后调用，连接空闲的时间没有超过心跳超时时间时发送一个心跳帧
      *
-     * @param message 消息
+     * @return 是否继续等待，返回false代表对端已经失效
      * @throws IOException io异常
      */
-    public void writeData(BufferedWriter writer, String message) throws IOException {
-        writer.write(message);
+    private boolean idle() throws IOException {
+        if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastReadTime) >= Heartbeat.TIMEOUT_MILLIS) {
+            return false;
+        }
+        connection.write(Heartbeat.ping());
+        connection.flush();
+        return true;
+    }
+
+    /**
+     * 从socket中读取数据追加到读缓冲中。读之前先把没有处理的数据移动到缓冲的开头，
+     * 如果下一个帧比整个缓冲还大则扩容，处理完大帧之后缓冲为空时再恢复到初始大小。
+     *
+     * @param in socket输入流
+     * @return 读到的字节数，返回-1代表客户端socket关闭了
+     * @throws IOException io异常，阻塞读超时会抛出{@link SocketTimeoutException}
+     */
+    private int fill(InputStream in) throws IOException {
+        int readable = writerIndex - readerIndex;
+        if (readable == 0 && readBuffer.length > BUFFER_CAPACITY) {
+            resize(BUFFER_CAPACITY);
+        }
+        if (readerIndex > 0) {
+            System.arraycopy(readBuffer, readerIndex, readBuffer, 0, readable);
+            readerIndex = 0;
+            writerIndex = readable;
+        }
+        if (readable >= Frame.LENGTH_FIELD_LENGTH) {
+            int required = Frame.LENGTH_FIELD_LENGTH + frameLength();
+            if (required > readBuffer.length) {
+                resize(required);
+            }
+        }
+        int read = in.read(readBuffer, writerIndex, readBuffer.length - writerIndex);
+        if (read > 0) {
+            writerIndex += read;
+        }
+        return read;
+    }
 
-        // 写入一个换行符以便客户端能够识别一行数据，避免另一端read方法一直阻塞
-        writer.newLine();
+    /**
+     * @return {@link #readerIndex}处的帧长度
+     * @throws CodecException 帧长度不合法
+     */
+    private int frameLength() {
+        int length = readView.getInt(readerIndex);
+        if (length < Frame.HEADER_LENGTH - Frame.LENGTH_FIELD_LENGTH || length > FrameCodec.MAX_FRAME_LENGTH) {
+            throw new CodecException(String.format("不合法的帧长度: %d", length));
+        }
+        return length;
+    }
 
-        // 将writer缓冲区的数据立即刷新发送出去，否则必须等到缓冲满了才会发送
-        writer.flush();
+    private void resize(int capacity) {
+        byte[] resized = new byte[capacity];
+        System.arraycopy(readBuffer, readerIndex, resized, 0, writerIndex - readerIndex);
+        writerIndex -= readerIndex;
+        readerIndex = 0;
+        readBuffer = resized;
+        readView = ByteBuffer.wrap(readBuffer);
     }
 }
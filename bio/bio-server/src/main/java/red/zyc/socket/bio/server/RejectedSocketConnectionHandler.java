@@ -6,8 +6,8 @@ import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 
 /**
- * socket连接数已满时的拒绝任务策略。
- * 连接数已满时关闭socket。然后客户端read方法就会返回-1。
+ * 线程池拒绝连接任务时的策略，线程池不限制线程数，所以只会在线程池关闭之后发生。
+ * 关闭socket并释放连接的准入名额，然后客户端read方法就会返回-1。
  *
  * @author zyc
  */
@@ -16,8 +16,12 @@ public class RejectedSocketConnectionHandler implements RejectedExecutionHandler
 
     @Override
     public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
-        log.error("服务端连接数已满");
+        log.error("服务端线程池已关闭");
         ProcessTask task = (ProcessTask) runnable;
-        task.getConnection().disconnect();
+        try {
+            task.getConnection().disconnect();
+        } finally {
+            task.getConnection().releaseAdmission();
+        }
     }
 }
@@ -2,6 +2,11 @@ package red.zyc.socket.bio.server;
 
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import red.zyc.socket.core.ServerException;
+import red.zyc.socket.core.chat.ChatHandler;
+import red.zyc.socket.core.jfr.AcceptEvent;
+import red.zyc.socket.core.limit.ConnectionLimiter;
+import red.zyc.socket.core.transport.Handler;
 
 import java.io.IOException;
 import java.net.ServerSocket;
@@ -22,18 +27,54 @@ public class Server {
     /**
      * 服务端监听的端口
      */
-    private static final int LISTEN = 9000;
+    static final int LISTEN = 9000;
 
     /**
-     * 处理每个客户端连接的线程池
+     * accept队列长度，连接数已满时新连接会留在这个队列中等待
      */
-    private final ExecutorService consumer = new ThreadPoolExecutor(100, 100, 0, TimeUnit.SECONDS, new SynchronousQueue<>(), Executors.defaultThreadFactory(), new RejectedSocketConnectionHandler());
+    private static final int BACKLOG = Integer.getInteger("socket.bio.backlog", 1024);
+
+    /**
+     * 线程池模式下默认的最大连接数，也是线程池常驻的线程数
+     */
+    private static final int MAX_CONNECTIONS = 100;
+
+    /**
+     * 是否为每个连接创建一个虚拟线程，通过系统属性socket.bio.threads=virtual开启，需要jdk21及以上版本
+     */
+    static final boolean VIRTUAL_THREADS = "virtual".equals(System.getProperty("socket.bio.threads", "pool"));
+
+    /**
+     * 虚拟线程模式下默认的最大连接数
+     */
+    private static final int MAX_VIRTUAL_CONNECTIONS = 100_000;
+
+    /**
+     * 连接准入控制，线程池模式下总连接数默认与线程池大小一致
+     */
+    static final ConnectionLimiter CONNECTION_LIMITER = ConnectionLimiter.create(VIRTUAL_THREADS ? MAX_VIRTUAL_CONNECTIONS : MAX_CONNECTIONS);
+
+    /**
+     * 处理每个客户端连接的线程池。连接数由{@link #CONNECTION_LIMITER}限制，线程数不设上限：
+     * 连接任务释放准入名额之后线程还要回到{@link SynchronousQueue}上等待，这时准入的新连接需要一个额外的线程，
+     * 通过系统属性调大的连接数上限也可能超过常驻线程数，超出的线程空闲60秒之后退出
+     */
+    private final ExecutorService consumer = VIRTUAL_THREADS ? newVirtualThreadPerTaskExecutor() : new ThreadPoolExecutor(MAX_CONNECTIONS, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), Executors.defaultThreadFactory(), new RejectedSocketConnectionHandler());
+
+    /**
+     * 业务逻辑
+     */
+    private final Handler handler;
 
     /**
      * 服务端socket
      */
     private ServerSocket serverSocket;
 
+    public Server(Handler handler) {
+        this.handler = handler;
+    }
+
     /**
      * 基于bio使用线程池实现的服务器<br>
      * bio就是阻塞io也就是java.io包下的各种流。这些流在读数据的时候如果读不到数据就会阻塞当前线程，
@@ -45,16 +86,33 @@ public class Server {
      * @throws IOException io异常
      */
     public static void main(String[] args) throws IOException {
-        new Server().start();
+        new Server(new ChatHandler()).start(LISTEN);
+    }
+
+    /**
+     * 每个连接一个虚拟线程的执行器。虚拟线程阻塞在socket读写上时会从载体线程上卸载，载体线程可以继续运行其它虚拟线程，
+     * 所以连接数不再受线程池大小限制，同时保留了bio一个连接一个线程的简单写法。<br><br>
+     * 项目仍然以jdk17编译，所以通过反射调用{@code Executors.newVirtualThreadPerTaskExecutor()}，在jdk21及以上版本运行时才能开启。
+     *
+     * @return 每个任务一个虚拟线程的执行器
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new ServerException(String.format("当前jdk版本%s不支持虚拟线程，需要jdk21及以上版本", Runtime.version()));
+        }
     }
 
     /**
      * 启动服务器
      *
+     * @param port 监听的端口
      * @throws IOException io异常
      */
-    public void start() throws IOException {
-        try (ServerSocket server = new ServerSocket(LISTEN)) {
+    public void start(int port) throws IOException {
+        try (ServerSocket server = new ServerSocket(port, BACKLOG)) {
+            log.info("bio服务端已启动，线程模型: {}", VIRTUAL_THREADS ? "virtual" : "pool");
             this.serverSocket = server;
             acceptClient();
         }
@@ -68,11 +126,33 @@ public class Server {
     private void acceptClient() throws IOException {
         while (!Thread.interrupted()) {
 
+            // 连接数已满时阻塞在这里而不是accept之后再关闭，新连接会留在内核的accept队列中等待
+            try {
+                CONNECTION_LIMITER.awaitAvailable();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
             // main线程阻塞直到有一个连接建立为止
             Socket socket = serverSocket.accept();
+            AcceptEvent event = new AcceptEvent();
+            event.begin();
+
+            // 单个ip的连接数只有accept之后才能知道，超过上限的连接直接关闭
+            if (!CONNECTION_LIMITER.tryAcquire(socket.getInetAddress())) {
+                log.warn("客户端[{}:{}]的连接数已达上限，连接已被关闭", socket.getInetAddress().getHostAddress(), socket.getPort());
+                socket.close();
+                event.commit(socket.getRemoteSocketAddress(), false);
+                continue;
+            }
+
+            // 响应已经在应用层合并写出，关闭Nagle算法，避免流水线请求的后续响应等待客户端的延迟ack
+            socket.setTcpNoDelay(true);
 
             // 通过线程池处理每个客户端连接
-            consumer.execute(new ProcessTask(new Connection(socket)));
+            consumer.execute(new ProcessTask(new Connection(socket, handler)));
+            event.commit(socket.getRemoteSocketAddress(), true);
 
         }
     }
@@ -1,11 +0,0 @@
-package red.zyc.socket.bio.server;
-
-/**
- * @author zyc
- */
-public class ServerException extends RuntimeException {
-
-    public ServerException(Throwable t) {
-        super(t);
-    }
-}
@@ -1,17 +1,16 @@
 package red.zyc.socket.nio.client;
 
 import lombok.extern.slf4j.Slf4j;
+import red.zyc.socket.core.message.Message;
+import red.zyc.socket.core.message.MessageDecoder;
 
-import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
-import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
-import java.util.Optional;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
 
 /**
  * @author zyc
@@ -30,108 +29,60 @@ public class Client {
     private static final String SERVER_HOST = "localhost";
 
     /**
-     * 读缓冲大小1024 (1KiB)
+     * 服务端监听的unix domain socket路径，配置之后通过unix domain socket而不是tcp连接服务端
      */
-    private static final int BUFFER_CAPACITY = 1 << 10;
+    private static final String SERVER_UNIX_PATH = System.getProperty("socket.nio.unixPath");
 
     /**
-     * 读字节缓冲
+     * 演示并发发送的请求数量
      */
-    private static final ByteBuffer READ_BUFFER = ByteBuffer.allocate(BUFFER_CAPACITY);
+    private static final int REQUESTS = 10;
 
     /**
-     * 选择器
+     * 演示加入的聊天房间
      */
-    private final Selector selector;
-
-    /**
-     * 客户端与服务端的socket通道
-     */
-    private SocketChannel socketChannel;
-
-    /**
-     * 网络地址
-     */
-    private InetSocketAddress inetSocketAddress;
-
-    public Client(Selector selector) {
-        this.selector = selector;
-    }
-
-    public static void main(String[] args) throws IOException {
-        new Client(Selector.open()).start();
-    }
-
-    public void start() throws IOException {
-        try (SocketChannel client = SocketChannel.open(new InetSocketAddress(SERVER_HOST, SERVER_PORT))) {
-            this.socketChannel = client;
-            this.inetSocketAddress = (InetSocketAddress) socketChannel.getRemoteAddress();
-            client.configureBlocking(false);
-            client.register(selector, SelectionKey.OP_READ);
-
-            // 发送消息到服务端
-            socketChannel.write(ByteBuffer.wrap("我是客户端".getBytes()));
-
-            // 监听可读事件
-            readServerMessage();
+    private static final ByteBuffer ROOM = StandardCharsets.UTF_8.encode("lobby");
+
+    public static void main(String[] args) {
+        SocketAddress server = SERVER_UNIX_PATH == null ? new InetSocketAddress(SERVER_HOST, SERVER_PORT) : UnixDomainSocketAddress.of(SERVER_UNIX_PATH);
+        try (NioClient client = new NioClient(1, 1, 5000)) {
+            client.onPush(payload -> log.info("来自服务端{}的推送: {}", server, describe(payload)));
+
+            // 所有请求在同一个连接上连续发送，不需要等待上一个请求的响应
+            CompletableFuture<?>[] futures = IntStream.range(0, REQUESTS)
+                    .mapToObj(i -> log(server, client.request(server, Message.ECHO, StandardCharsets.UTF_8.encode("我是客户端" + i))))
+                    .toArray(CompletableFuture[]::new);
+            CompletableFuture.allOf(futures).join();
+
+            // 加入房间之后向房间广播一条消息，自己也会收到这条消息的推送
+            log(server, client.request(server, Message.JOIN, ROOM)).join();
+            log(server, client.request(server, Message.SEND, ROOM, StandardCharsets.UTF_8.encode("大家好"))).join();
         }
     }
 
-    /**
-     * 读取服务端发送过来的消息
-     */
-    private void readServerMessage() throws IOException {
-        while (!Thread.interrupted()) {
-            int select = selector.select();
-            if (select == 0) {
-                continue;
-            }
-            Set<SelectionKey> selectionKeys = selector.selectedKeys();
-            for (SelectionKey selectionKey : selectionKeys) {
-                if (selectionKey.isValid() && selectionKey.isReadable()) {
-                    try {
-                        Optional.ofNullable(simpleDecode()).ifPresent(byteBuffer -> log.info("来自服务端{}的消息: {}", serverAddress(), StandardCharsets.UTF_8.decode(byteBuffer)));
-                    } catch (Exception e) {
-                        log.error(e.getMessage(), e);
-                    } finally {
-                        socketChannel.close();
-                        System.exit(0);
-                    }
-                }
-            }
-            selectionKeys.clear();
-        }
+    private static CompletableFuture<Void> log(SocketAddress server, CompletableFuture<ByteBuffer> future) {
+        return future.thenAccept(response -> log.info("来自服务端{}的消息: {}", server, describe(response)))
+                .exceptionally(throwable -> {
+                    log.error("请求服务端{}失败", server, throwable);
+                    return null;
+                });
     }
 
     /**
-     * 从SocketChannel中读取信息到字节缓冲中
+     * 只有打印日志时才把字段解码成字符串
      *
-     * @return 响应的数据
-     * @throws IOException io异常
-     */
-    private ByteBuffer simpleDecode() throws IOException {
-        try {
-
-            // 如果服务端由于断网等原因造成的关闭，那么read方法会抛出一个IOException而不是返回-1。
-            // 只有服务端主动调用socketChannel.close()方法read方法才会返回-1。
-            int read = socketChannel.read(READ_BUFFER);
-
-            // 客户端通道已关闭
-            if (read == -1) {
-                log.info(String.format("服务端%s已关闭", serverAddress()));
-                socketChannel.close();
-                return null;
-            }
-            return ByteBuffer.wrap(Arrays.copyOfRange(READ_BUFFER.array(), 0, READ_BUFFER.position()));
-        } finally {
-            READ_BUFFER.clear();
-        }
-    }
-
-    /**
-     * @return 服务端地址信息
+     * @param payload 响应帧或者推送帧的内容
+     * @return 消息的可读形式
      */
-    public String serverAddress() {
-        return String.format("[%s:%s]", inetSocketAddress.getAddress().getHostAddress(), inetSocketAddress.getPort());
+    private static String describe(ByteBuffer payload) {
+        MessageDecoder message = new MessageDecoder().wrap(payload);
+        return switch (message.type()) {
+            case Message.ECHO -> StandardCharsets.UTF_8.decode(message.field(0)).toString();
+            case Message.OK -> "房间" + StandardCharsets.UTF_8.decode(message.field(0));
+            case Message.ERROR -> "错误: " + StandardCharsets.UTF_8.decode(message.field(0));
+            case Message.MESSAGE -> String.format("房间%s中连接%s说: %s",
+                    StandardCharsets.UTF_8.decode(message.field(0)), message.uuid(1), StandardCharsets.UTF_8.decode(message.field(2)));
+            default -> "未知的消息类型" + message.type();
+        };
     }
 }
@@ -0,0 +1,299 @@
+package red.zyc.socket.nio.client;
+
+import lombok.extern.slf4j.Slf4j;
+import red.zyc.socket.core.codec.Frame;
+import red.zyc.socket.core.codec.FrameDecoder;
+import red.zyc.socket.core.heartbeat.Heartbeat;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 客户端与服务端之间的一个持久连接。多个线程可以同时在这个连接上发送请求，每个请求都有一个唯一的correlationId，
+ * 服务端的响应帧会带回同样的correlationId，连接据此找到对应的{@link CompletableFuture}并完成它，所以请求之间不需要互相等待。
+ *
+ * @author zyc
+ */
+@Slf4j
+class ClientConnection implements Heartbeat.Peer {
+
+    /**
+     * 一次聚集写最多写入的帧数
+     */
+    private static final int MAX_GATHERING_BUFFERS = 64;
+
+    private final SocketAddress address;
+
+    private final ClientEventLoop eventLoop;
+
+    /**
+     * 服务端主动推送消息的监听器
+     */
+    private final Consumer<ByteBuffer> pushListener;
+
+    /**
+     * 等待响应的请求，key为correlationId
+     */
+    private final Map<Long, CompletableFuture<ByteBuffer>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * 任意线程提交的待发送帧
+     */
+    private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 是否已经向事件循环提交了一个还没有执行的flush任务，多个线程并发发送请求时只需要提交一次，
+     * 事件循环执行这个任务时会把此刻队列中所有的帧通过一次聚集写发送出去
+     */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    /**
+     * 已经从{@link #writeQueue}中取出但还没有写完的帧，只会被事件循环线程访问
+     */
+    private final Deque<ByteBuffer> flushing = new ArrayDeque<>();
+
+    /**
+     * 响应帧解码器，只会被事件循环线程访问
+     */
+    private final FrameDecoder decoder = new FrameDecoder();
+
+    private final ByteBuffer[] gathering = new ByteBuffer[MAX_GATHERING_BUFFERS];
+
+    /**
+     * 连接空闲检测，连接建立之前就开始计时，所以也能发现长时间没有完成的连接
+     */
+    private final Heartbeat heartbeat;
+
+    private SocketChannel socketChannel;
+
+    private SelectionKey selectionKey;
+
+    /**
+     * 是否已经完成连接，只会被事件循环线程访问
+     */
+    private boolean connected;
+
+    private volatile boolean closed;
+
+    ClientConnection(SocketAddress address, ClientEventLoop eventLoop, Consumer<ByteBuffer> pushListener) {
+        this.address = address;
+        this.eventLoop = eventLoop;
+        this.pushListener = pushListener;
+        this.heartbeat = Heartbeat.start(this);
+    }
+
+    /**
+     * 在事件循环中以非阻塞的方式发起连接，unix domain socket地址需要打开对应协议族的通道
+     */
+    void connect() {
+        eventLoop.execute(() -> {
+            try {
+                socketChannel = address instanceof UnixDomainSocketAddress ? SocketChannel.open(StandardProtocolFamily.UNIX) : SocketChannel.open();
+                socketChannel.configureBlocking(false);
+                if (socketChannel.connect(address)) {
+                    selectionKey = socketChannel.register(eventLoop.selector(), SelectionKey.OP_READ, this);
+                    connected();
+                } else {
+                    selectionKey = socketChannel.register(eventLoop.selector(), SelectionKey.OP_CONNECT, this);
+                }
+            } catch (Exception e) {
+                close(e);
+            }
+        });
+    }
+
+    /**
+     * 发送一个请求帧，可以在任意线程调用
+     *
+     * @param correlationId 请求id
+     * @param frame         已编码的请求帧
+     * @param future        响应到达时完成的future
+     */
+    void send(long correlationId, ByteBuffer frame, CompletableFuture<ByteBuffer> future) {
+        pending.put(correlationId, future);
+
+        // 连接可能在放入pending之前就已经关闭了，这时没有人会再来完成这个future
+        if (closed) {
+            pending.remove(correlationId);
+            future.completeExceptionally(new IOException(String.format("与服务端%s的连接已关闭", address)));
+            return;
+        }
+        enqueue(frame);
+    }
+
+    @Override
+    public void ping(ByteBuffer ping) {
+        enqueue(ping);
+    }
+
+    @Override
+    public void expired() {
+        close(new IOException(String.format("服务端%s超过%s毫秒没有发送任何数据", address, Heartbeat.TIMEOUT_MILLIS)));
+    }
+
+    /**
+     * 请求超时或者被取消时不再等待响应
+     *
+     * @param correlationId 请求id
+     */
+    void forget(long correlationId) {
+        pending.remove(correlationId);
+    }
+
+    /**
+     * 完成连接
+     *
+     * @throws IOException io异常
+     */
+    void finishConnect() throws IOException {
+        if (socketChannel.finishConnect()) {
+            selectionKey.interestOps(SelectionKey.OP_READ);
+            connected();
+        }
+    }
+
+    /**
+     * 读取服务端发送的数据并解码出所有完整的帧
+     *
+     * @throws IOException io异常
+     */
+    void read() throws IOException {
+        ByteBuffer readBuffer = eventLoop.readBuffer();
+        try {
+            int read = socketChannel.read(readBuffer);
+            if (read == -1) {
+                close(new IOException(String.format("服务端%s已关闭", address)));
+                return;
+            }
+            if (read > 0) {
+                heartbeat.touch();
+            }
+            decoder.decode(readBuffer.flip(), this::received);
+        } finally {
+            readBuffer.clear();
+        }
+    }
+
+    /**
+     * 将待发送的帧通过聚集写尽可能多地写入SocketChannel，只能在事件循环线程调用。
+     * tcp发送缓冲区已满时监听可写事件等待下一次继续写。
+     *
+     * @throws IOException io异常
+     */
+    void flush() throws IOException {
+        flushScheduled.set(false);
+        if (!connected || closed) {
+            return;
+        }
+        while (true) {
+            ByteBuffer buffer;
+            while (flushing.size() < MAX_GATHERING_BUFFERS && (buffer = writeQueue.poll()) != null) {
+                flushing.addLast(buffer);
+            }
+            if (flushing.isEmpty()) {
+                selectionKey.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+            int count = flushing.size();
+            flushing.toArray(gathering);
+            socketChannel.write(gathering, 0, count);
+            while (!flushing.isEmpty() && !flushing.peekFirst().hasRemaining()) {
+                flushing.pollFirst();
+            }
+            Arrays.fill(gathering, 0, count, null);
+            if (!flushing.isEmpty()) {
+                selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 关闭连接，所有还在等待响应的请求都会以异常结束，可以在任意线程调用
+     *
+     * @param cause 关闭的原因
+     */
+    void close(Throwable cause) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        heartbeat.stop();
+        try {
+            if (socketChannel != null) {
+                socketChannel.close();
+            }
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+        }
+        pending.values().forEach(future -> future.completeExceptionally(cause));
+        pending.clear();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    private void connected() {
+        connected = true;
+        flushQuietly();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            close(e);
+        }
+    }
+
+    /**
+     * 将一个帧放入写队列，如果还没有提交flush任务则提交一个，可以在任意线程调用
+     *
+     * @param frame 已编码的帧
+     */
+    private void enqueue(ByteBuffer frame) {
+        writeQueue.offer(frame);
+        if (flushScheduled.compareAndSet(false, true)) {
+            eventLoop.execute(this::flushQuietly);
+        }
+    }
+
+    private void received(Frame frame) {
+        switch (frame.type()) {
+            case Frame.RESPONSE -> {
+                CompletableFuture<ByteBuffer> future = pending.remove(frame.correlationId());
+                if (future != null) {
+                    future.complete(frame.payload());
+                }
+            }
+            case Frame.PUSH -> {
+                try {
+                    pushListener.accept(frame.payload());
+                } catch (Exception e) {
+                    log.error("处理服务端{}的推送消息失败", address, e);
+                }
+            }
+            case Frame.PING -> enqueue(Heartbeat.pong(frame.correlationId()));
+            case Frame.PONG -> {
+                // 读到数据时已经更新了连接的最近读取时间，心跳回复不需要其它处理
+            }
+            default -> log.warn("服务端{}发送了未知类型的帧: {}", address, frame.type());
+        }
+    }
+}
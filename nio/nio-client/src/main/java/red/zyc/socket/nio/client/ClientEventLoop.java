@@ -0,0 +1,146 @@
+package red.zyc.socket.nio.client;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 客户端事件循环，一个线程一个selector，负责多个{@link ClientConnection}的连接、读、写事件。
+ * 其它线程只能通过{@link #execute(Runnable)}提交任务来操作注册在这个事件循环上的连接。
+ *
+ * @author zyc
+ */
+@Slf4j
+class ClientEventLoop implements Runnable {
+
+    /**
+     * 读缓冲大小64 KiB
+     */
+    private static final int BUFFER_CAPACITY = 1 << 16;
+
+    /**
+     * 读取响应数据的字节缓冲对象，同一个事件循环中的连接是按顺序读的，所以可以复用
+     */
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_CAPACITY);
+
+    /**
+     * 其它线程提交给当前事件循环执行的任务
+     */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * selector是否已经被唤醒，避免多个线程同时提交任务时重复调用{@link Selector#wakeup()}
+     */
+    private final AtomicBoolean wakenUp = new AtomicBoolean();
+
+    private final Selector selector;
+
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    ClientEventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                int select = selector.select();
+                wakenUp.set(false);
+                runTasks();
+                if (select == 0) {
+                    continue;
+                }
+                Set<SelectionKey> selectionKeys = selector.selectedKeys();
+                for (SelectionKey selectionKey : selectionKeys) {
+                    dispatchEvent(selectionKey);
+                }
+                selectionKeys.clear();
+            }
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+        } finally {
+            closeAll();
+        }
+    }
+
+    /**
+     * 提交一个任务到当前事件循环中执行，可以在任意线程调用
+     *
+     * @param task 任务
+     */
+    void execute(Runnable task) {
+        tasks.offer(task);
+        if (wakenUp.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * 停止事件循环并关闭所有连接
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    Selector selector() {
+        return selector;
+    }
+
+    ByteBuffer readBuffer() {
+        return readBuffer;
+    }
+
+    private void dispatchEvent(SelectionKey selectionKey) {
+        ClientConnection connection = (ClientConnection) selectionKey.attachment();
+        try {
+            if (selectionKey.isValid() && selectionKey.isConnectable()) {
+                connection.finishConnect();
+            }
+            if (selectionKey.isValid() && selectionKey.isReadable()) {
+                connection.read();
+            }
+            if (selectionKey.isValid() && selectionKey.isWritable()) {
+                connection.flush();
+            }
+        } catch (Exception e) {
+            connection.close(e);
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void closeAll() {
+        IOException closed = new IOException("客户端事件循环已关闭");
+        for (SelectionKey selectionKey : selector.keys()) {
+            ((ClientConnection) selectionKey.attachment()).close(closed);
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+}
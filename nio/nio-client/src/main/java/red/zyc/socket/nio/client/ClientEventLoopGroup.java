@@ -0,0 +1,45 @@
+package red.zyc.socket.nio.client;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一组{@link ClientEventLoop}，新建的连接按照轮询的方式分配到每个事件循环上
+ *
+ * @author zyc
+ */
+class ClientEventLoopGroup {
+
+    private final ClientEventLoop[] eventLoops;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    ClientEventLoopGroup(int size) {
+        this.eventLoops = new ClientEventLoop[size];
+        try {
+            for (int i = 0; i < size; i++) {
+                eventLoops[i] = new ClientEventLoop(String.format("NioClient-EventLoop-%d", i + 1));
+            }
+        } catch (IOException e) {
+            shutdown();
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return 下一个事件循环
+     */
+    ClientEventLoop next() {
+        return eventLoops[(next.getAndIncrement() & Integer.MAX_VALUE) % eventLoops.length];
+    }
+
+    /**
+     * 停止所有事件循环
+     */
+    void shutdown() {
+        Arrays.stream(eventLoops).filter(Objects::nonNull).forEach(ClientEventLoop::shutdown);
+    }
+}
@@ -0,0 +1,65 @@
+package red.zyc.socket.nio.client;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * 到同一个服务端地址的固定数量的持久连接，请求按照轮询的方式分散到每个连接上。
+ * 连接在第一次使用时才建立，断开之后下一次使用时会自动重建。
+ *
+ * @author zyc
+ */
+class ConnectionPool {
+
+    private final SocketAddress address;
+
+    private final ClientEventLoopGroup eventLoopGroup;
+
+    private final Consumer<ByteBuffer> pushListener;
+
+    private final AtomicReferenceArray<ClientConnection> connections;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    ConnectionPool(SocketAddress address, int size, ClientEventLoopGroup eventLoopGroup, Consumer<ByteBuffer> pushListener) {
+        this.address = address;
+        this.eventLoopGroup = eventLoopGroup;
+        this.pushListener = pushListener;
+        this.connections = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * @return 下一个可用的连接
+     */
+    ClientConnection acquire() {
+        int index = (next.getAndIncrement() & Integer.MAX_VALUE) % connections.length();
+        while (true) {
+            ClientConnection connection = connections.get(index);
+            if (connection != null && !connection.isClosed()) {
+                return connection;
+            }
+            ClientConnection created = new ClientConnection(address, eventLoopGroup.next(), pushListener);
+            if (connections.compareAndSet(index, connection, created)) {
+                created.connect();
+                return created;
+            }
+        }
+    }
+
+    /**
+     * 关闭所有连接
+     */
+    void close() {
+        IOException closed = new IOException("客户端已关闭");
+        for (int i = 0; i < connections.length(); i++) {
+            ClientConnection connection = connections.get(i);
+            if (connection != null) {
+                connection.close(closed);
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package red.zyc.socket.nio.client;
+
+import red.zyc.socket.core.codec.Frame;
+import red.zyc.socket.core.codec.FrameCodec;
+import red.zyc.socket.core.message.Message;
+import red.zyc.socket.core.message.MessageEncoder;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 多路复用的异步nio客户端。到每个服务端地址只维护固定数量的持久连接，
+ * 每个请求都会被编码成带有唯一correlationId的请求帧，多个请求可以在同一个连接上连续发送而不需要等待前一个请求的响应，
+ * 响应到达时根据correlationId完成对应的{@link CompletableFuture}。服务端地址可以是tcp地址，也可以是同一台机器上的unix domain socket路径。
+ *
+ * @author zyc
+ */
+public class NioClient implements AutoCloseable {
+
+    /**
+     * 请求id生成器
+     */
+    private final AtomicLong correlationIds = new AtomicLong();
+
+    /**
+     * 每个服务端地址对应的连接池
+     */
+    private final Map<SocketAddress, ConnectionPool> pools = new ConcurrentHashMap<>();
+
+    private final ClientEventLoopGroup eventLoopGroup;
+
+    private final int connectionsPerAddress;
+
+    private final long timeoutMillis;
+
+    /**
+     * 服务端主动推送消息的监听器
+     */
+    private volatile Consumer<ByteBuffer> pushListener = payload -> {
+    };
+
+    /**
+     * @param eventLoops            事件循环的数量
+     * @param connectionsPerAddress 到每个服务端地址的连接数
+     * @param timeoutMillis         请求超时时间
+     */
+    public NioClient(int eventLoops, int connectionsPerAddress, long timeoutMillis) {
+        this.eventLoopGroup = new ClientEventLoopGroup(eventLoops);
+        this.connectionsPerAddress = connectionsPerAddress;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * 异步发送一个请求，可以在任意线程调用
+     *
+     * @param address 服务端地址，{@link java.net.InetSocketAddress}或者{@link java.net.UnixDomainSocketAddress}
+     * @param payload 请求数据
+     * @return 响应数据的future，超时或者连接断开时以异常结束
+     */
+    public CompletableFuture<ByteBuffer> request(SocketAddress address, ByteBuffer payload) {
+        long correlationId = correlationIds.incrementAndGet();
+        return send(address, correlationId, FrameCodec.encode(Frame.REQUEST, correlationId, payload));
+    }
+
+    /**
+     * 异步发送一个{@link Message}请求，字段直接编码到请求帧中，可以在任意线程调用
+     *
+     * @param address     服务端地址，{@link java.net.InetSocketAddress}或者{@link java.net.UnixDomainSocketAddress}
+     * @param messageType 消息类型
+     * @param fields      处于读模式的字段，编码之后它们的position不会改变
+     * @return 响应消息的future，可以用{@link red.zyc.socket.core.message.MessageDecoder}解码，超时或者连接断开时以异常结束
+     */
+    public CompletableFuture<ByteBuffer> request(SocketAddress address, byte messageType, ByteBuffer... fields) {
+        int fieldBytes = 0;
+        for (ByteBuffer field : fields) {
+            fieldBytes += field.remaining();
+        }
+        long correlationId = correlationIds.incrementAndGet();
+        MessageEncoder encoder = new MessageEncoder().wrap(ByteBuffer.allocate(Message.frameLength(fields.length, fieldBytes)), Frame.REQUEST, correlationId, messageType);
+        for (ByteBuffer field : fields) {
+            encoder.field(field);
+        }
+        return send(address, correlationId, encoder.finish().flip());
+    }
+
+    /**
+     * @param listener 服务端主动推送消息的监听器，会在事件循环线程中执行，不能有阻塞操作
+     */
+    public void onPush(Consumer<ByteBuffer> listener) {
+        this.pushListener = listener;
+    }
+
+    @Override
+    public void close() {
+        pools.values().forEach(ConnectionPool::close);
+        pools.clear();
+        eventLoopGroup.shutdown();
+    }
+
+    /**
+     * @param address       服务端地址
+     * @param correlationId 请求id
+     * @param frame         处于读模式的请求帧
+     * @return 响应数据的future
+     */
+    private CompletableFuture<ByteBuffer> send(SocketAddress address, long correlationId, ByteBuffer frame) {
+        ClientConnection connection = pools.computeIfAbsent(address, a -> new ConnectionPool(a, connectionsPerAddress, eventLoopGroup, this::push)).acquire();
+        CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+        future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((response, throwable) -> {
+            if (throwable != null) {
+                connection.forget(correlationId);
+            }
+        });
+        connection.send(correlationId, frame, future);
+        return future;
+    }
+
+    private void push(ByteBuffer payload) {
+        pushListener.accept(payload);
+    }
+}
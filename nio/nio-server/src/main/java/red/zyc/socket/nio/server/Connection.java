@@ -1,81 +1,376 @@
 package red.zyc.socket.nio.server;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import red.zyc.socket.core.codec.Frame;
+import red.zyc.socket.core.codec.FrameDecoder;
+import red.zyc.socket.core.heartbeat.Heartbeat;
+import red.zyc.socket.core.jfr.WriteEvent;
+import red.zyc.socket.core.limit.TokenBucket;
+import red.zyc.socket.core.log.AccessLog;
+import red.zyc.socket.core.transport.AbstractConnection;
+import red.zyc.socket.core.transport.FileRegion;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.time.LocalDateTime;
-import java.util.UUID;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * 客户端和服务端的tcp连接抽象
+ * 客户端和服务端的连接抽象，底层可能是tcp连接，也可能是unix domain socket连接
  *
  * @author zyc
  */
 @Slf4j
 @Getter
 @Setter
-public class Connection {
+public class Connection extends AbstractConnection implements Heartbeat.Peer {
 
     /**
-     * 当前连接的id
+     * 访问日志
      */
-    private final String id;
+    static final AccessLog ACCESS_LOG = AccessLog.open("nio-server");
+
+    /**
+     * unix domain socket的客户端没有ip地址，统一视为本机回环地址上的客户端，与tcp客户端共用访问日志。
+     * 连接准入和限流只对它们使用总连接数上限和连接级别的令牌桶，不参与{@link #limitAddress ip级别}的限制
+     */
+    private static final InetSocketAddress UNIX_DOMAIN_PEER = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+    /**
+     * {@link #writeQueue}中代表{@link #regionQueue}队头文件数据的占位缓冲，按引用比较，没有任何内容
+     */
+    private static final ByteBuffer REGION = ByteBuffer.allocate(0);
+
+    /**
+     * {@link #writeQueue}中还没有写完的缓冲数上限，超过之后认为客户端已经不再读取，直接断开连接。
+     * 回放的文件数据每段只占一个{@link #REGION}，不会因为回放的数据量大而触发
+     */
+    private static final int MAX_QUEUED_FRAMES = Integer.getInteger("socket.nio.maxQueuedFrames", 4096);
 
     /**
      * 服务端与客户端的socket通道
      */
     private final SocketChannel socketChannel;
     /**
-     * 当前socket通道的网络地址
+     * 处理此连接io事件的SubReactor，SubReactor伸缩时连接会被迁移到其它SubReactor
+     */
+    private volatile SubReactor subReactor;
+    /**
+     * 待写入SocketChannel的数据，任意线程都可以往队列中添加数据，但只有{@link #subReactor}线程会将其写入SocketChannel
+     */
+    private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+    /**
+     * {@link #writeQueue}中的缓冲数，超过{@link #MAX_QUEUED_FRAMES}时断开连接
      */
-    private final InetSocketAddress inetSocketAddress;
+    private final AtomicInteger queuedFrames = new AtomicInteger();
     /**
-     * 连接创建时间
+     * 待通过{@link FileRegion#transferTo}写入SocketChannel的文件数据，每一个都在{@link #writeQueue}中有一个{@link #REGION}占位，
+     * 先放入这里再放入占位，所以写到占位时它对应的文件数据一定已经在队头了
      */
-    private final LocalDateTime createdTime;
+    private final Queue<FileRegion> regionQueue = new ConcurrentLinkedQueue<>();
+    /**
+     * 请求帧解码器，只会被SubReactor线程访问
+     */
+    private final FrameDecoder decoder = new FrameDecoder();
+    /**
+     * 因为限流而暂缓提交到业务线程池的请求帧，只会被SubReactor线程访问
+     */
+    private final Deque<Frame> throttledFrames = new ArrayDeque<>();
+    /**
+     * 当前连接的请求限流令牌桶，未开启限流时为null
+     */
+    private final TokenBucket tokenBucket;
+    /**
+     * 连接空闲检测
+     */
+    private final Heartbeat heartbeat;
+    /**
+     * 是否是unix domain socket连接
+     */
+    private final boolean unixDomain;
+    /**
+     * 开启tls时tcp连接的tls会话，在SubReactor注册连接时创建，unix domain socket连接和未开启tls时为null
+     */
+    private TlsSession tlsSession;
     /**
      * 与此连接通道关联的选择键
      */
     private SelectionKey selectionKey;
     /**
-     * 请求数据，SubReactor线程每次读取成功能够立马对业务线程可见
+     * 当前连接是否在SubReactor的就绪列表中，即上一次读用完了读预算，tcp接收缓冲区中可能还有数据。只会被SubReactor线程访问
      */
-    private volatile ByteBuffer request;
-
+    private boolean readReady;
     /**
-     * 响应数据，业务线程每次写入成功能够立马对SubReactor线程可见
+     * 已经写入SocketChannel的总字节数，用来计算每次写操作写出的字节数，只会被SubReactor线程访问
      */
-    private volatile ByteBuffer response;
+    @Setter(AccessLevel.NONE)
+    private long writtenBytes;
 
-    public Connection(SocketChannel socketChannel) throws IOException {
-        this.id = UUID.randomUUID().toString();
+    public Connection(SocketChannel socketChannel, SubReactor subReactor) throws IOException {
+        super(remoteAddress(socketChannel), subReactor.getHandler());
         this.socketChannel = socketChannel;
-        this.inetSocketAddress = (InetSocketAddress) socketChannel.getRemoteAddress();
-        this.createdTime = LocalDateTime.now();
+        this.unixDomain = !(socketChannel.getRemoteAddress() instanceof InetSocketAddress);
+        this.subReactor = subReactor;
+        this.tokenBucket = SubReactor.RATE_LIMITER.newConnectionBucket();
+        this.heartbeat = Heartbeat.start(this);
+    }
+
+    /**
+     * @param socketChannel 刚刚accept的SocketChannel
+     * @return tcp客户端的网络地址，unix domain socket客户端则返回{@link #UNIX_DOMAIN_PEER}
+     * @throws IOException io异常
+     */
+    static InetSocketAddress remoteAddress(SocketChannel socketChannel) throws IOException {
+        SocketAddress remoteAddress = socketChannel.getRemoteAddress();
+        return remoteAddress instanceof InetSocketAddress inetSocketAddress ? inetSocketAddress : UNIX_DOMAIN_PEER;
+    }
+
+    /**
+     * @param socketChannel 刚刚accept的SocketChannel
+     * @return 连接准入和限流使用的ip，unix domain socket客户端返回null，这样它们不会和本机的tcp客户端共用同一个ip的名额和令牌桶
+     * @throws IOException io异常
+     */
+    static InetAddress limitAddress(SocketChannel socketChannel) throws IOException {
+        return socketChannel.getRemoteAddress() instanceof InetSocketAddress inetSocketAddress ? inetSocketAddress.getAddress() : null;
+    }
+
+    /**
+     * @return 连接准入和限流使用的ip，unix domain socket连接返回null
+     */
+    InetAddress limitAddress() {
+        return unixDomain ? null : getInetSocketAddress().getAddress();
+    }
+
+    @Override
+    public String clientAddress() {
+        return unixDomain ? String.format("[unix:%s]", MainReactor.UNIX_PATH) : super.clientAddress();
+    }
+
+    @Override
+    public Executor eventLoop() {
+        return subReactor;
+    }
+
+    /**
+     * 将响应数据写给客户端，可以在任意线程调用。数据会先放入{@link #writeQueue}，
+     * 然后由{@link #subReactor}线程写入SocketChannel，在SubReactor线程中调用时直接写，不需要再提交一次任务。
+     * 队列中已经有{@link #MAX_QUEUED_FRAMES}个缓冲没有写完时丢弃这个数据并断开连接。
+     *
+     * @param response 响应数据
+     */
+    @Override
+    public void write(ByteBuffer response) {
+        if (admit()) {
+            enqueue(response);
+        }
+    }
+
+    /**
+     * 将数据放入{@link #writeQueue}并通知{@link #subReactor}写出，调用之前必须已经通过{@link #admit()}
+     *
+     * @param buffer 要写的数据
+     */
+    private void enqueue(ByteBuffer buffer) {
+        writeQueue.offer(buffer);
+        SubReactor current = subReactor;
+        if (current.inEventLoop()) {
+            flushQuietly();
+        } else {
+            current.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * 没有开启tls时通过{@link FileRegion#transferTo}把文件内容直接发送到SocketChannel，不经过用户态的缓冲；
+     * tls连接需要先加密，所以还是读到内存中再写
+     *
+     * @param region 文件中的一段数据
+     * @throws IOException 读取文件失败
+     */
+    @Override
+    public void transfer(FileRegion region) throws IOException {
+        if (tlsSession != null) {
+            write(region.read());
+            return;
+        }
+        if (!admit()) {
+            region.release();
+            return;
+        }
+        regionQueue.offer(region);
+
+        // 连接已经关闭时没有人会再写出这段数据
+        if (isClosed() && regionQueue.remove(region)) {
+            region.release();
+            return;
+        }
+        enqueue(REGION);
+    }
+
+    /**
+     * 将{@link #writeQueue}中的数据尽可能多地写入SocketChannel，开启tls时由{@link #tlsSession}加密之后再写，只能在{@link #subReactor}线程调用。
+     * 如果tcp发送缓冲区已满导致数据没有写完，则监听可写事件等待下一次继续写；全部写完之后取消监听可写事件，
+     * 否则会一直触发写事件导致cpu超载。
+     *
+     * @throws IOException io异常
+     */
+    void flush() throws IOException {
+        if (selectionKey == null || !selectionKey.isValid()) {
+            return;
+        }
+        WriteEvent event = new WriteEvent();
+        event.begin();
+        long before = writtenBytes;
+        boolean flushed = tlsSession == null ? writeQueued() : tlsSession.flush();
+        if (flushed) {
+            selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_WRITE);
+        } else {
+            selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
+        }
+        event.commit(this, writtenBytes - before, flushed);
+    }
+
+    /**
+     * 将数据写入SocketChannel并累加{@link #writtenBytes}，只能在{@link #subReactor}线程调用
+     *
+     * @param buffer 要写的数据
+     * @return 本次写入的字节数
+     * @throws IOException io异常
+     */
+    int writeChannel(ByteBuffer buffer) throws IOException {
+        int written = socketChannel.write(buffer);
+        writtenBytes += written;
+        return written;
+    }
+
+    /**
+     * @return 写队列中的数据是否已经全部写完
+     * @throws IOException io异常
+     */
+    private boolean writeQueued() throws IOException {
+        ByteBuffer buffer;
+        while ((buffer = writeQueue.peek()) != null) {
+            if (buffer == REGION) {
+                FileRegion region = regionQueue.peek();
+
+                // 连接关闭时已经释放了所有的文件数据
+                if (region == null) {
+                    pollWriteQueue();
+                    continue;
+                }
+                writtenBytes += region.transferTo(socketChannel);
+                if (region.remaining() > 0) {
+                    return false;
+                }
+                regionQueue.poll();
+                pollWriteQueue();
+                continue;
+            }
+            writeChannel(buffer);
+            if (buffer.hasRemaining()) {
+                return false;
+            }
+            pollWriteQueue();
+        }
+        return true;
+    }
+
+    /**
+     * 移除{@link #writeQueue}队头已经写完的缓冲，只能在{@link #subReactor}线程调用
+     */
+    void pollWriteQueue() {
+        writeQueue.poll();
+        queuedFrames.decrementAndGet();
     }
 
     /**
-     * 断开连接
+     * 为一个要放入{@link #writeQueue}的缓冲占用计数，超过{@link #MAX_QUEUED_FRAMES}时在SubReactor线程中断开连接，
+     * 避免在SubReactor读写通道的同时关闭通道
+     *
+     * @return 是否可以放入写队列，返回false时数据被丢弃
      */
-    public void disconnect() {
+    private boolean admit() {
+        if (queuedFrames.incrementAndGet() <= MAX_QUEUED_FRAMES) {
+            return true;
+        }
+        queuedFrames.decrementAndGet();
+        subReactor.execute(() -> {
+            if (!isClosed()) {
+                log.warn("客户端{}待写出的帧超过了{}个，连接已断开", clientAddress(), MAX_QUEUED_FRAMES);
+                disconnect();
+            }
+        });
+        return false;
+    }
+
+    /**
+     * 写数据发生异常时断开连接，不影响SubReactor处理其它任务
+     */
+    void flushQuietly() {
+
+        // 提交任务之后连接可能已经被迁移到了其它SubReactor
+        SubReactor current = subReactor;
+        if (!current.inEventLoop()) {
+            current.execute(this::flushQuietly);
+            return;
+        }
         try {
-            socketChannel.close();
-        } catch (IOException e) {
-            log.error(e.getMessage(), e);
+            flush();
+        } catch (Exception e) {
+            log.error("写入客户端{}的数据失败", clientAddress(), e);
+            disconnect();
         }
     }
 
+    @Override
+    public void ping(ByteBuffer ping) {
+        write(ping);
+    }
+
     /**
-     * @return 客户端地址信息
+     * 在SubReactor线程中断开连接，避免在SubReactor读写通道的同时关闭通道
      */
-    public String clientAddress() {
-        return String.format("[%s:%s]", inetSocketAddress.getAddress().getHostAddress(), inetSocketAddress.getPort());
+    @Override
+    public void expired() {
+        subReactor.execute(() -> {
+            log.info("客户端{}超过{}毫秒没有发送任何数据，连接已断开", clientAddress(), Heartbeat.TIMEOUT_MILLIS);
+            ACCESS_LOG.disconnected(getUuid(), getPackedAddress());
+            disconnect();
+        });
+    }
+
+    /**
+     * 关闭通道并释放连接占用的准入名额，开启tls时先尽量发送close_notify
+     */
+    @Override
+    protected void close() {
+        heartbeat.stop();
+        if (tlsSession != null) {
+            tlsSession.close();
+        }
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+        } finally {
+            MainReactor.CONNECTION_LIMITER.release(limitAddress());
+            FileRegion region;
+            while ((region = regionQueue.poll()) != null) {
+                region.release();
+            }
+        }
     }
 
 }
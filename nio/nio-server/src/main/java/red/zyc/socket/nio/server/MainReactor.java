@@ -1,20 +1,27 @@
 package red.zyc.socket.nio.server;
 
 import lombok.extern.slf4j.Slf4j;
+import red.zyc.socket.core.ServerException;
+import red.zyc.socket.core.chat.ChatHandler;
+import red.zyc.socket.core.jfr.AcceptEvent;
+import red.zyc.socket.core.limit.ConnectionLimiter;
+import red.zyc.socket.core.transport.Handler;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.Arrays;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.IntStream;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * MainReactor只处理SocketChannel的Accept事件
@@ -27,22 +34,32 @@ public class MainReactor {
     /**
      * 监听的端口
      */
-    private static final int LISTEN = 9001;
+    static final int LISTEN = 9001;
 
     /**
-     * SubReactor数量
+     * 同时监听的unix domain socket路径，同一台机器上的客户端可以通过它绕过tcp协议栈，未配置时只监听tcp端口
      */
-    private static final int SUB_REACTOR_NUM = Runtime.getRuntime().availableProcessors() - 1;
+    static final String UNIX_PATH = System.getProperty("socket.nio.unixPath");
 
     /**
-     * SubReactors
+     * 每次accept事件最多连续accept的连接数，避免连接风暴时MainReactor一直停留在accept循环中
      */
-    private static final SubReactor[] SUB_REACTORS = IntStream.range(0, SUB_REACTOR_NUM).mapToObj(i -> new SubReactor()).toArray(SubReactor[]::new);
+    private static final int ACCEPT_BUDGET = Integer.getInteger("socket.accept.budget", 64);
 
     /**
-     * SubReactor线程池
+     * 连接准入控制
      */
-    private static final ExecutorService SUB_REACTORS_EVENT_LOOP = new ThreadPoolExecutor(SUB_REACTOR_NUM, SUB_REACTOR_NUM, 0, TimeUnit.SECONDS, new SynchronousQueue<>(), new NamedThreadFactory("SubReactor"), new ThreadPoolExecutor.DiscardPolicy());
+    static final ConnectionLimiter CONNECTION_LIMITER = ConnectionLimiter.create(100_000);
+
+    /**
+     * 是否已经因为总连接数达到上限而暂停了accept
+     */
+    private static final AtomicBoolean ACCEPT_PAUSED = new AtomicBoolean();
+
+    /**
+     * 可以在运行时伸缩的SubReactor组
+     */
+    private static SubReactorGroup subReactors;
 
     /**
      * 监听accept事件的选择器
@@ -50,9 +67,9 @@ public class MainReactor {
     private static Selector selector;
 
     /**
-     * 处理accept到的SocketChannel的下一个SubReactor在数组中的索引
+     * tcp和unix domain socket两个ServerSocketChannel关联的选择键
      */
-    private static int nextReactor = 0;
+    private static final List<SelectionKey> ACCEPT_KEYS = new ArrayList<>();
 
     /**
      * io多路复用是基于事件驱动实现的一种io模型。
@@ -75,31 +92,75 @@ public class MainReactor {
      * @throws IOException io异常
      */
     public static void main(String[] args) throws IOException {
-        try (ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+        serve(LISTEN, new ChatHandler());
+    }
+
+    /**
+     * 启动服务端，方法会一直阻塞直到MainReactor线程被中断。配置了{@link #UNIX_PATH}时还会在该路径上监听unix domain socket，
+     * 两种连接使用同样的SubReactor、编解码和业务逻辑
+     *
+     * @param port    监听的端口
+     * @param handler 业务逻辑
+     * @throws IOException io异常
+     */
+    static void serve(int port, Handler handler) throws IOException {
+        try (ServerSocketChannel unixChannel = UNIX_PATH == null ? null : bindUnixDomain(Path.of(UNIX_PATH));
+             ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
              Selector selector = Selector.open()) {
 
             MainReactor.selector = selector;
+            TlsContext tlsContext = TlsContext.ENABLED ? TlsContext.load() : null;
+            subReactors = new SubReactorGroup(handler, tlsContext);
 
-            // 监听本地端口
-            serverSocketChannel.bind(new InetSocketAddress(LISTEN));
+            // 监听本地端口，unix domain socket先于tcp端口绑定，这样tcp端口可以连接时两者都已经可以连接了
+            serverSocketChannel.bind(new InetSocketAddress(port));
 
             // 与Selector一起使用时，Channel必须处于非阻塞模式下
             serverSocketChannel.configureBlocking(false);
 
             // 向选择器注册感兴趣的事件，可以用“按位或”操作符将常量连接起来SelectionKey.OP_READ | SelectionKey.OP_WRITE。
             // 返回值代表此通道在该选择器中注册的键，MainReactor只关心accept事件
-            serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+            ACCEPT_KEYS.add(serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT));
+            if (unixChannel != null) {
+                unixChannel.configureBlocking(false);
+                ACCEPT_KEYS.add(unixChannel.register(selector, SelectionKey.OP_ACCEPT));
+                log.info("已监听unix domain socket: {}", UNIX_PATH);
+            }
+
+            // 有连接断开使总连接数回落到上限以下时恢复accept
+            CONNECTION_LIMITER.onAvailable(MainReactor::resumeAccept);
 
             Thread.currentThread().setName("MainReactor");
 
-            // 启动所有SubReactor
-            Arrays.stream(SUB_REACTORS).forEach(SUB_REACTORS_EVENT_LOOP::execute);
+            // 启动SubReactor，之后根据事件循环的利用率伸缩
+            subReactors.start();
 
             // 监听客户端连接
             accept();
         }
     }
 
+    /**
+     * 在指定路径上监听unix domain socket。关闭ServerSocketChannel不会删除socket文件，所以在jvm退出时删除，
+     * 上一次运行被强制结束时遗留的socket文件会导致bind失败，所以bind之前也要先删除
+     *
+     * @param path socket文件路径
+     * @return 已绑定的ServerSocketChannel
+     * @throws IOException io异常
+     */
+    private static ServerSocketChannel bindUnixDomain(Path path) throws IOException {
+        Files.deleteIfExists(path);
+        ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.bind(UnixDomainSocketAddress.of(path));
+            path.toFile().deleteOnExit();
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
     /**
      * MainReactor只负责获取SocketChannel，然后传输给SubReactor让其处理io事件。
      */
@@ -130,35 +191,88 @@ public class MainReactor {
     }
 
     /**
-     * 将SocketChannel传输给SubReactor
+     * 将SocketChannel传输给SubReactor。一次accept事件会循环accept直到内核的accept队列为空或者达到{@link #ACCEPT_BUDGET}，
+     * 总连接数达到上限时则暂停accept。
      *
      * @param selectionKey ServerSocketChannel关联的选择键
      */
     private static void transferSocketChannel(SelectionKey selectionKey) {
-        try {
-            if (selectionKey.isValid() && selectionKey.isAcceptable()) {
-                ServerSocketChannel channel = (ServerSocketChannel) selectionKey.channel();
+        if (!selectionKey.isValid() || !selectionKey.isAcceptable()) {
+            return;
+        }
+        ServerSocketChannel channel = (ServerSocketChannel) selectionKey.channel();
+        for (int i = 0; i < ACCEPT_BUDGET; i++) {
+            if (CONNECTION_LIMITER.saturated()) {
+                pauseAccept();
+                return;
+            }
+            try {
+
+                // 非阻塞模式下accept队列为空时返回null
                 SocketChannel socketChannel = channel.accept();
-                InetSocketAddress inetSocketAddress = (InetSocketAddress) socketChannel.getRemoteAddress();
-                log.info("客户端[{}:{}]已连接", inetSocketAddress.getAddress().getHostAddress(), inetSocketAddress.getPort());
+                if (socketChannel == null) {
+                    return;
+                }
+                admit(socketChannel);
 
-                // 按照自然顺序将SocketChannel平均传输到每个SubReactor中
-                nextSubReactor().receiveConnection(socketChannel);
+                // 一个SocketChannel传输失败不应该结束MainReactor的accept方法，但是要等下一次accept事件再继续，
+                // 例如文件描述符耗尽时accept会一直失败
+            } catch (Exception e) {
+                log.error(e.getMessage(), e);
+                return;
             }
-            // 一个SocketChannel传输失败不应该结束MainReactor的accept方法
-        } catch (Exception e) {
-            log.error(e.getMessage(), e);
         }
     }
 
     /**
-     * @return 下一个SubReactor
+     * 为SocketChannel申请准入，通过之后按照自然顺序将SocketChannel平均传输到每个SubReactor中，否则关闭SocketChannel
+     *
+     * @param socketChannel 刚刚accept的SocketChannel
+     * @throws IOException io异常
+     */
+    private static void admit(SocketChannel socketChannel) throws IOException {
+        AcceptEvent event = new AcceptEvent();
+        event.begin();
+        InetSocketAddress inetSocketAddress = Connection.remoteAddress(socketChannel);
+        InetAddress limitAddress = Connection.limitAddress(socketChannel);
+        if (!CONNECTION_LIMITER.tryAcquire(limitAddress)) {
+            log.warn("客户端[{}:{}]的连接数已达上限，连接已被关闭", inetSocketAddress.getAddress().getHostAddress(), inetSocketAddress.getPort());
+            socketChannel.close();
+            event.commit(inetSocketAddress, false);
+            return;
+        }
+        try {
+            subReactors.next().receiveConnection(socketChannel);
+            event.commit(inetSocketAddress, true);
+        } catch (IOException e) {
+            CONNECTION_LIMITER.release(limitAddress);
+            socketChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 总连接数达到上限时不再监听accept事件，新连接会留在内核的accept队列中等待，而不是accept之后再被关闭
+     */
+    private static void pauseAccept() {
+        ACCEPT_KEYS.forEach(acceptKey -> acceptKey.interestOps(0));
+        ACCEPT_PAUSED.set(true);
+        log.warn("服务端连接数已达上限，暂停accept");
+
+        // 设置暂停标记之前可能已经有连接断开了，这时不会再有人来恢复accept，所以需要再检查一次
+        if (!CONNECTION_LIMITER.saturated()) {
+            resumeAccept();
+        }
+    }
+
+    /**
+     * 恢复监听accept事件，可以在任意线程调用
      */
-    private static SubReactor nextSubReactor() {
-        if (nextReactor == SUB_REACTOR_NUM) {
-            nextReactor = 0;
+    private static void resumeAccept() {
+        if (ACCEPT_PAUSED.compareAndSet(true, false)) {
+            ACCEPT_KEYS.forEach(acceptKey -> acceptKey.interestOps(SelectionKey.OP_ACCEPT));
+            selector.wakeup();
         }
-        return SUB_REACTORS[nextReactor++];
     }
 
 }
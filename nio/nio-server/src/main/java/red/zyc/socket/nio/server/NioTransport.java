@@ -0,0 +1,29 @@
+package red.zyc.socket.nio.server;
+
+import red.zyc.socket.core.transport.Handler;
+import red.zyc.socket.core.transport.Transport;
+
+import java.io.IOException;
+
+/**
+ * 基于nio主从reactor的传输层
+ *
+ * @author zyc
+ */
+public class NioTransport implements Transport {
+
+    @Override
+    public String name() {
+        return "nio";
+    }
+
+    @Override
+    public int defaultPort() {
+        return MainReactor.LISTEN;
+    }
+
+    @Override
+    public void serve(int port, Handler handler) throws IOException {
+        MainReactor.serve(port, handler);
+    }
+}
@@ -2,21 +2,38 @@ package red.zyc.socket.nio.server;
 
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import red.zyc.socket.core.cache.ResponseCache;
+import red.zyc.socket.core.codec.Frame;
+import red.zyc.socket.core.codec.FrameDecoder;
+import red.zyc.socket.core.heartbeat.Heartbeat;
+import red.zyc.socket.core.jfr.ReadEvent;
+import red.zyc.socket.core.ServerException;
+import red.zyc.socket.core.limit.RateLimiter;
+import red.zyc.socket.core.transport.Handler;
+import red.zyc.socket.core.transport.HandlerTask;
+import red.zyc.socket.core.transport.RequestBatcher;
 
 import java.io.IOException;
+import java.net.StandardSocketOptions;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Deque;
-import java.util.LinkedList;
-import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * SubReactor只处理SocketChannel的read/write事件
@@ -25,62 +42,198 @@ import java.util.concurrent.TimeUnit;
  */
 @Slf4j
 @Getter
-public class SubReactor implements Runnable {
+public class SubReactor implements Runnable, Executor {
 
     /**
-     * 读缓冲大小1024 (1 KiB)
+     * 读缓冲块的大小，默认4 KiB。放不进一个缓冲块的大帧由多个缓冲块的切片组成，不会被复制到连续的数组中
      */
-    private static final int BUFFER_CAPACITY = 1 << 10;
+    private static final int READ_CHUNK_SIZE = Integer.getInteger("socket.nio.readChunkSize", 1 << 12);
+
+    /**
+     * 一次scattering read最多填充的缓冲块数，默认4
+     */
+    private static final int READ_CHUNKS = Integer.getInteger("socket.nio.readChunks", 4);
+
+    /**
+     * 一次scattering read最多读取的字节数
+     */
+    private static final int READ_CAPACITY = READ_CHUNK_SIZE * READ_CHUNKS;
+
+    /**
+     * 每个连接在一次事件循环中最多读取的字节数，默认16 KiB。
+     * 用完预算之后即使连接中还有数据也要让出SubReactor，避免一个持续发送数据的连接饿死同一个selector上的其它连接。
+     */
+    private static final int READ_BUDGET = Integer.getInteger("socket.nio.readBudget", 1 << 14);
+
+    /**
+     * 退役之后还有暂时不能迁移的连接时，重试迁移的间隔
+     */
+    private static final long DRAIN_INTERVAL_MILLIS = 10;
 
     /**
      * 处理业务逻辑的线程池
      */
-    private static final ThreadPoolExecutor PROCESS_EXECUTOR = new ThreadPoolExecutor(100, 100, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>(1000), new NamedThreadFactory("Process"), new RejectedRequestHandler());
+    private static final ThreadPoolExecutor PROCESS_EXECUTOR = HandlerTask.newExecutor();
+
+    /**
+     * 连接级别和客户端ip级别的请求限流器，在请求提交到业务线程池之前检查
+     */
+    static final RateLimiter RATE_LIMITER = RateLimiter.create();
 
     /**
-     * 读取请求数据的字节缓冲对象，对于同一个SubReactor来说每个Connection的按顺序读的，所以该对象是可以复用的。
+     * 读取请求数据的缓冲块，对于同一个SubReactor来说每个Connection是按顺序读的，所以缓冲块是可以复用的。
+     * 只有被解码器保留下来组成大帧的缓冲块才会被换成新的缓冲块。
      */
-    private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_CAPACITY);
+    private final ByteBuffer[] readChunks = new ByteBuffer[READ_CHUNKS];
 
     /**
      * 当前的SubReactor处理的所有连接。按照FIFO方式处理连接。新增连接是往队列尾部插入元素，注册连接是从头部移除元素，这两者时间复杂度都是O(1)。
      */
-    private final Deque<Connection> connections = new LinkedList<>();
+    private final Deque<Connection> connections = new ConcurrentLinkedDeque<>();
+
+    /**
+     * 其它线程提交给当前SubReactor执行的任务，例如写响应、广播消息。SubReactor每次从select返回之后会执行队列中的所有任务。
+     */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * selector是否已经被唤醒，避免多个线程同时提交任务时重复调用{@link Selector#wakeup()}
+     */
+    private final AtomicBoolean wakenUp = new AtomicBoolean();
+
+    /**
+     * 延迟执行的任务，按照截止时间排序，只会被当前SubReactor线程访问
+     */
+    private final PriorityQueue<ScheduledTask> scheduledTasks = new PriorityQueue<>(Comparator.comparingLong(ScheduledTask::deadline));
+
+    /**
+     * 用完读预算但可能还有数据可读的连接，每次事件循环按照轮询的方式给每个连接分配一次读预算，只会被当前SubReactor线程访问
+     */
+    private final Deque<Connection> readyConnections = new ArrayDeque<>();
+
+    /**
+     * 业务逻辑
+     */
+    private final Handler handler;
+
+    /**
+     * 把请求提交到业务线程池，业务逻辑支持批量处理时一轮事件循环中解码出的请求作为一个任务提交，只会被当前SubReactor线程访问
+     */
+    private final RequestBatcher batcher;
+
+    /**
+     * tls上下文，未开启tls时为null
+     */
+    private final TlsContext tlsContext;
+
+    /**
+     * 当前SubReactor上所有tls连接共用的缓冲池，未开启tls时为null
+     */
+    private final TlsBufferPool tlsBufferPool;
+
+    /**
+     * 与此SubReactor关联的选择器，在构造方法中打开，这样SubReactor线程启动之前就可以接收连接和任务
+     */
+    private final Selector selector;
+
+    /**
+     * 运行当前SubReactor的线程
+     */
+    private volatile Thread thread;
+
+    /**
+     * 事件循环累计阻塞在select中的纳秒数，不包括正在进行的select，只会被当前SubReactor线程修改
+     */
+    private volatile long idleNanos;
+
+    /**
+     * 正在进行的select开始的时间，没有阻塞在select中时为0
+     */
+    private volatile long selectingSince;
+
+    /**
+     * 退役之后接收迁移连接的SubReactor，未退役时为null
+     */
+    private volatile SubReactor[] successors;
+
+    /**
+     * 下一个接收迁移连接的SubReactor在{@link #successors}中的索引，只会被当前SubReactor线程访问
+     */
+    private int nextSuccessor;
 
     /**
-     * 与此SubReactor关联的选择器
+     * 是否已经迁移完所有连接并退出了事件循环，之后提交的任务由提交任务的线程直接执行
      */
-    private Selector selector;
+    private volatile boolean terminated;
+
+    SubReactor(Handler handler, TlsContext tlsContext) throws IOException {
+        this.handler = handler;
+        this.batcher = new RequestBatcher(PROCESS_EXECUTOR, handler);
+        this.tlsContext = tlsContext;
+        this.tlsBufferPool = tlsContext == null ? null : new TlsBufferPool(tlsContext.bufferCapacity());
+        this.selector = Selector.open();
+        Arrays.setAll(readChunks, i -> ByteBuffer.allocate(READ_CHUNK_SIZE));
+    }
 
     /**
      * 轮询io事件
      */
     @Override
     public void run() {
-        try (Selector s = this.selector = Selector.open()) {
+        thread = Thread.currentThread();
+        try (Selector s = this.selector) {
             while (!Thread.interrupted()) {
 
                 // 阻塞直到有一个已注册的通道上有满足条件的事件就绪，或者selector的wakeup方法被调用或者当前线程被中断。
                 // 方法返回的int值表示有io事件准备就绪的所有已注册的SelectionKey。注意如果没有把上一次select返回的selectedKeys移除掉，
                 // 那么下一次循环select方法返回的selectedKeys就会包含上一次的selectedKeys，这是一个坑一定要在迭代结束后移除已处理的SelectionKey
-                int select = s.select();
+                long selectStart = System.nanoTime();
+                selectingSince = selectStart;
+                int select = select(s);
+                selectingSince = 0;
+                idleNanos += System.nanoTime() - selectStart;
+                wakenUp.set(false);
 
                 // 注册MainReactor传递的SocketChannel
                 register();
 
-                if (select == 0) {
-                    continue;
+                // 执行其它线程提交的任务
+                runTasks();
+
+                // 执行已经到期的延迟任务
+                runScheduledTasks();
+
+                // 上一轮事件循环留下的就绪连接，本轮处理完selectionKey之后再给它们分配读预算，
+                // 本轮新加入就绪列表的连接要等到下一轮，这样每个连接在一轮事件循环中都只会用一次读预算
+                int ready = readyConnections.size();
+
+                if (select > 0) {
+
+                    // 当前选择器中所有符合事件的选择键
+                    Set<SelectionKey> selectionKeys = s.selectedKeys();
+
+                    // 遍历所有准备就绪的SelectionKey
+                    for (SelectionKey selectionKey : selectionKeys) {
+                        dispatchEvent(selectionKey);
+                    }
+                    // 清除所有selectionKey，否则下一次select返回的selectedKeys就会包含这一次的selectedKeys，
+                    selectionKeys.clear();
                 }
 
-                // 当前选择器中所有符合事件的选择键
-                Set<SelectionKey> selectionKeys = s.selectedKeys();
+                // 轮询就绪列表中的连接
+                runReadyConnections(ready);
 
-                // 遍历所有准备就绪的SelectionKey
-                for (SelectionKey selectionKey : selectionKeys) {
-                    dispatchEvent(selectionKey);
+                // 本轮事件循环中攒下的请求作为一个任务提交
+                batcher.flush();
+
+                // 退役之后把连接迁移给其它SubReactor，全部迁移完之后退出事件循环
+                if (successors != null && drain()) {
+                    terminated = true;
+                    runTasks();
+                    thread = null;
+                    log.info("{}已退役", Thread.currentThread().getName());
+                    return;
                 }
-                // 清除所有selectionKey，否则下一次select返回的selectedKeys就会包含这一次的selectedKeys，
-                selectionKeys.clear();
             }
         } catch (Exception e) {
             throw new ServerException(e);
@@ -96,10 +249,134 @@ public class SubReactor implements Runnable {
      */
     public void receiveConnection(SocketChannel socketChannel) throws IOException {
 
-        connections.addLast(new Connection(socketChannel));
+        Connection connection = new Connection(socketChannel, this);
+        Connection.ACCESS_LOG.accepted(connection.getUuid(), connection.getPackedAddress());
+        enqueue(connection);
+    }
+
+    /**
+     * 把新连接放入待注册的队列。MainReactor在缩容期间仍然可能把连接交给已经退役甚至已经退出事件循环的SubReactor，
+     * 这时像{@link #adopt}一样把连接转交给后继。入队之后还要再检查一次，因为SubReactor可能在入队之前刚好退役并且已经看到队列为空，
+     * 这时谁先从队列中取走连接谁负责它，不会重复注册也不会遗留在队列中。
+     *
+     * @param connection 连接
+     */
+    private void enqueue(Connection connection) {
+        if (successors == null) {
+            connections.addLast(connection);
+            if (successors == null || !connections.remove(connection)) {
+
+                // 唤醒阻塞在select方法上SubReactor线程或者使下一次select方法直接返回，然后注册队列中的所有SocketChannel并监听其io事件
+                wakeup();
+                return;
+            }
+        }
+        SubReactor[] targets = successors;
+        SubReactor target = targets[ThreadLocalRandom.current().nextInt(targets.length)];
+        connection.setSubReactor(target);
+        target.enqueue(connection);
+    }
 
-        // 唤醒阻塞在select方法上SubReactor线程或者使下一次select方法直接返回，然后注册队列中的所有SocketChannel并监听其io事件
-        selector.wakeup();
+    /**
+     * 提交一个任务到当前SubReactor线程中执行，可以在任意线程调用。
+     *
+     * @param task 任务
+     */
+    @Override
+    public void execute(Runnable task) {
+        tasks.offer(task);
+
+        // 退出事件循环之前SubReactor线程会执行队列中剩下的任务，之后提交的任务由当前线程执行，
+        // 写连接之类的任务会再转交给连接当前所在的SubReactor
+        if (terminated) {
+            runTasks();
+        } else {
+            wakeup();
+        }
+    }
+
+    /**
+     * @return 调用线程是否就是当前SubReactor线程
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * 延迟执行一个任务，只能在当前SubReactor线程调用
+     *
+     * @param task       任务
+     * @param delayNanos 延迟的纳秒数
+     */
+    void schedule(Runnable task, long delayNanos) {
+        scheduledTasks.offer(new ScheduledTask(System.nanoTime() + delayNanos, task));
+    }
+
+    /**
+     * 有延迟任务时select最多阻塞到最近一个任务的截止时间，否则一直阻塞直到有io事件就绪或者被唤醒
+     *
+     * @param s 选择器
+     * @return 有io事件准备就绪的SelectionKey数量
+     * @throws IOException io异常
+     */
+    private int select(Selector s) throws IOException {
+
+        // 还有连接没有读完时不能阻塞，否则这些连接要等到下一个io事件才能继续被处理
+        if (!readyConnections.isEmpty()) {
+            return s.selectNow();
+        }
+        ScheduledTask next = scheduledTasks.peek();
+        if (next == null) {
+
+            // 退役之后还有暂时不能迁移的连接，定期醒来重试
+            return successors == null ? s.select() : s.select(DRAIN_INTERVAL_MILLIS);
+        }
+        long delayNanos = next.deadline() - System.nanoTime();
+        if (delayNanos <= 0) {
+            return s.selectNow();
+        }
+
+        // 向上取整到毫秒，避免在截止时间之前反复空转
+        return s.select(TimeUnit.NANOSECONDS.toMillis(delayNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+    }
+
+    /**
+     * 执行所有已经到期的延迟任务
+     */
+    private void runScheduledTasks() {
+        long now = System.nanoTime();
+        ScheduledTask next;
+        while ((next = scheduledTasks.peek()) != null && next.deadline() - now <= 0) {
+            scheduledTasks.poll();
+            try {
+                next.task().run();
+            } catch (Exception e) {
+                log.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 唤醒selector，如果selector已经被唤醒过且还没有再次进入select则不再重复唤醒
+     */
+    private void wakeup() {
+        if (wakenUp.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * 执行其它线程提交的所有任务，一个任务执行失败不应该影响其它任务
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error(e.getMessage(), e);
+            }
+        }
     }
 
     /**
@@ -112,86 +389,234 @@ public class SubReactor implements Runnable {
             // 只处理有效的selectionKey
             if (selectionKey.isValid()) {
 
-                // 当前SelectionKey的通道能够读取事件，这个方法可能会抛出CancelledKeyException
-                if (selectionKey.isReadable()) {
-                    handleReadEvent(selectionKey);
+                // 当前SelectionKey的通道能够读取事件，这个方法可能会抛出CancelledKeyException。
+                // 已经在就绪列表中的连接等待轮询，不在这里重复分配读预算
+                Connection connection = (Connection) selectionKey.attachment();
+                if (selectionKey.isReadable() && !connection.isReadReady()) {
+                    handleReadEvent(connection);
+                }
 
-                    // 当前SelectionKey的通道能够写事件，这个方法可能会抛出CancelledKeyException
-                } else if (selectionKey.isWritable()) {
+                // 当前SelectionKey的通道能够写事件，这个方法可能会抛出CancelledKeyException。
+                // 读写不再互斥，连接在等待响应写完的同时也可以继续读取新的请求
+                if (selectionKey.isValid() && selectionKey.isWritable()) {
                     handleWriteEvent(selectionKey);
                 }
             }
             // 一次读写ByteBuffer产生的异常不应该停止事件轮询
         } catch (Exception e) {
-            // 读写SocketChannel数据发生异常时，将其从selector的注册中取消，不再关注其任何io事件。
-            selectionKey.cancel();
+            // 读写SocketChannel数据发生异常时断开连接，关闭通道的同时会将其从selector的注册中取消，不再关注其任何io事件。
+            ((Connection) selectionKey.attachment()).disconnect();
             log.error(e.getMessage(), e);
         }
     }
 
     /**
-     * 读一次SocketChannel数据
+     * 循环读取SocketChannel数据，直到tcp接收缓冲区中的数据读完或者用完了{@link #READ_BUDGET 读预算}。
+     * 用完读预算的连接会被放入{@link #readyConnections 就绪列表}，等待下一轮事件循环继续读取。
      *
-     * @param selectionKey SocketChannel关联的选择键
+     * @param connection 连接
      */
-    private void handleReadEvent(SelectionKey selectionKey) throws IOException {
-        Connection connection = (Connection) selectionKey.attachment();
+    private void handleReadEvent(Connection connection) throws IOException {
+        SelectionKey selectionKey = connection.getSelectionKey();
+        int budget = READ_BUDGET;
+        while (budget > 0) {
+
+            // SubReactor线程读一次请求数据，然后将解码出的请求帧传递给业务线程池执行，此刻读通常情况下是不会阻塞的，
+            // 因为此刻SocketChannel是可读的，是能够立马从tcp缓存区读取数据到用户空间中。
+            int read = decode(connection);
+
+            // 客户端已关闭、tcp接收缓冲区中已经没有数据了或者连接因为限流暂停了读
+            if (read <= 0 || !selectionKey.isValid() || (selectionKey.interestOps() & SelectionKey.OP_READ) == 0) {
+                return;
+            }
 
-        // SubReactor线程读一次请求数据，然后将读到的数据传递给业务线程池执行，此刻读通常情况下是不会阻塞的，
-        // 因为此刻SocketChannel是可读的，是能够立马从tcp缓存区读取数据到用户空间中。
-        Optional.ofNullable(simpleDecode(connection)).ifPresent(byteBuffer -> {
+            // 没有读满所有缓冲块说明tcp接收缓冲区中的数据已经读完了，不需要再多一次返回0的系统调用
+            if (read < READ_CAPACITY) {
+                return;
+            }
+            budget -= read;
+        }
+        connection.setReadReady(true);
+        readyConnections.addLast(connection);
+    }
 
-            connection.setRequest(byteBuffer);
+    /**
+     * 根据帧类型分发解码出的帧，心跳帧直接在SubReactor线程中回复，不经过业务线程池
+     *
+     * @param connection 连接
+     * @param frame      帧
+     */
+    private void dispatch(Connection connection, Frame frame) {
+        switch (frame.type()) {
+            case Frame.REQUEST -> request(connection, frame);
+            case Frame.PING -> connection.write(Heartbeat.pong(frame.correlationId()));
+            case Frame.PONG -> {
+                // 读到数据时已经更新了连接的最近读取时间，心跳回复不需要其它处理
+            }
+            default -> log.warn("客户端{}发送了未知类型的帧: {}", connection.clientAddress(), frame.type());
+        }
+    }
 
-            // 请求数据读完之后提交到业务线程池中执行
-            PROCESS_EXECUTOR.execute(new ProcessTask(connection));
-        });
+    /**
+     * 将请求帧提交到业务线程池中执行，业务逻辑支持批量处理时先交给{@link #batcher}攒到本轮事件循环结束。超过限流阈值时暂停读取该连接的数据，被限流的请求帧暂存在连接中，
+     * 等到有可用的令牌时再提交，数据会留在tcp接收缓冲区中，由tcp流控反压客户端，不会占用业务线程池的任何资源。
+     *
+     * @param connection 连接
+     * @param frame      请求帧
+     */
+    private void request(Connection connection, Frame frame) {
+        Connection.ACCESS_LOG.request(connection.getUuid(), connection.getPackedAddress(), frame.body().remaining());
+        Deque<Frame> throttledFrames = connection.getThrottledFrames();
+        if (!throttledFrames.isEmpty()) {
+            throttledFrames.addLast(frame);
+            return;
+        }
+        long wait = RATE_LIMITER.tryAcquire(connection.getTokenBucket(), connection.limitAddress());
+        if (wait > 0) {
+            throttledFrames.addLast(frame);
+            pauseRead(connection, wait);
+            return;
+        }
+        submit(connection, frame);
+    }
+
+    /**
+     * 提交一个已经通过限流的请求帧。命中响应缓存的请求直接在SubReactor线程中回复，不占用业务线程池；
+     * 缓存查找放在限流之后，所以命中缓存的请求同样消耗令牌，也不会越过同一个连接中还在排队的被限流请求
+     *
+     * @param connection 连接
+     * @param frame      请求帧
+     */
+    private void submit(Connection connection, Frame frame) {
+        if (!ResponseCache.INSTANCE.answer(connection, frame, handler)) {
+            batcher.add(connection, frame);
+        }
     }
 
     /**
-     * 写一次数据到SocketChannel中
+     * 按照FIFO的顺序给就绪列表中的前count个连接各分配一次读预算，仍然没有读完的连接会被重新放到列表尾部
+     *
+     * @param count 本轮需要处理的连接数
+     */
+    private void runReadyConnections(int count) {
+        for (int i = 0; i < count; i++) {
+            Connection connection = readyConnections.pollFirst();
+            connection.setReadReady(false);
+            SelectionKey selectionKey = connection.getSelectionKey();
+
+            // 连接已经断开或者因为限流暂停了读
+            if (!selectionKey.isValid() || (selectionKey.interestOps() & SelectionKey.OP_READ) == 0) {
+                continue;
+            }
+            try {
+                handleReadEvent(connection);
+            } catch (Exception e) {
+                connection.disconnect();
+                log.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 暂停读取连接的数据，等待一段时间之后提交被限流的请求帧，全部提交之后再恢复读
+     *
+     * @param connection 连接
+     * @param waitNanos  暂停的纳秒数
+     */
+    private void pauseRead(Connection connection, long waitNanos) {
+        SelectionKey selectionKey = connection.getSelectionKey();
+        selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_READ);
+        schedule(() -> resumeRead(connection), waitNanos);
+    }
+
+    /**
+     * 提交被限流的请求帧，令牌不足时继续暂停读
+     *
+     * @param connection 连接
+     */
+    private void resumeRead(Connection connection) {
+        SelectionKey selectionKey = connection.getSelectionKey();
+        if (!selectionKey.isValid()) {
+            return;
+        }
+        Deque<Frame> throttledFrames = connection.getThrottledFrames();
+        while (!throttledFrames.isEmpty()) {
+            long wait = RATE_LIMITER.tryAcquire(connection.getTokenBucket(), connection.limitAddress());
+            if (wait > 0) {
+                schedule(() -> resumeRead(connection), wait);
+                return;
+            }
+            submit(connection, throttledFrames.pollFirst());
+        }
+        selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_READ);
+    }
+
+    /**
+     * 继续写入上一次因为tcp发送缓冲区已满而没有写完的数据
      *
      * @param selectionKey SocketChannel关联的选择键
      */
     private void handleWriteEvent(SelectionKey selectionKey) throws IOException {
 
-        Connection connection = (Connection) selectionKey.attachment();
-        SocketChannel socketChannel = connection.getSocketChannel();
-        socketChannel.write(connection.getResponse());
-
-        // 注意：写完要切换为读事件，否则会一直触发写事件导致cpu超载
+        // 注意：写完之后会取消监听写事件，否则会一直触发写事件导致cpu超载
         // 可以在数据写入之后调用connection.disconnect()方法关闭SocketChannel，
         // 这样就相当于每次tcp连接都创建一个SocketChannel，开销很大。
-        connection.getSelectionKey().interestOps(SelectionKey.OP_READ);
+        ((Connection) selectionKey.attachment()).flush();
+    }
 
+    /**
+     * 进行一次读解码，将读到的数据交给连接的{@link FrameDecoder}，每解码出一个完整的请求帧就提交一次业务线程池，
+     * 不完整的帧会暂存在解码器中等待下一次读。开启tls的连接由{@link TlsSession}读取密文并把解密出的明文交给解码器。
+     *
+     * @param connection 连接
+     * @return 本次读到的字节数，返回-1代表客户端已关闭
+     * @throws IOException io异常
+     */
+    private int decode(Connection connection) throws IOException {
+        TlsSession tlsSession = connection.getTlsSession();
+        ReadEvent event = new ReadEvent();
+        event.begin();
+
+        // 如果客户端由于断网等原因造成的关闭，那么read方法会抛出一个IOException而不是返回-1。
+        // 只有客户端主动调用socketChannel.close()方法read方法才会返回-1。
+        int read = tlsSession == null ? read(connection) : tlsSession.read();
+
+        // 客户端通道已关闭
+        if (read == -1) {
+            Connection.ACCESS_LOG.disconnected(connection.getUuid(), connection.getPackedAddress());
+            connection.disconnect();
+            return -1;
+        }
+        if (read > 0) {
+            connection.getHeartbeat().touch();
+            event.commit(connection, read);
+        }
+        return read;
     }
 
     /**
-     * 简单的进行一次tcp读解码，仅仅将{@link #readBuffer}中位置0到position之间的字节包装成一个新的{@link ByteBuffer}返回，
-     * 然后调用{@link Buffer#clear()}方法重置position为0。<br><br>
-     * 注意：该方法仅仅是为了简单调试用的，实际与客户端进行通讯时我们应当和客户端商量好一个标记位，读到这个标记位则代表一次请求数据读取完毕了，
-     * 例如http协议可能会在请求头中定义一个content-length代表一次请求体的长度。
+     * 通过一次scattering read把明文读到多个缓冲块中并解码。{@link #readChunks}用完之后调用{@link Buffer#clear()}方法重置position为0，
+     * 被解码器保留的缓冲块换成新的缓冲块。
      *
-     * @return 返回null代表客户端已关闭，否则返回从SocketChannel中读取到的数据。
+     * @param connection 连接
+     * @return 本次读到的字节数，返回-1代表客户端已关闭
      * @throws IOException io异常
      */
-    private ByteBuffer simpleDecode(Connection connection) throws IOException {
+    private int read(Connection connection) throws IOException {
         try {
-            SocketChannel socketChannel = connection.getSocketChannel();
-
-            // 如果客户端由于断网等原因造成的关闭，那么read方法会抛出一个IOException而不是返回-1。
-            // 只有客户端主动调用socketChannel.close()方法read方法才会返回-1。
-            int read = socketChannel.read(readBuffer);
-
-            // 客户端通道已关闭
-            if (read == -1) {
-                log.info(String.format("客户端%s已关闭", connection.clientAddress()));
-                connection.disconnect();
-                return null;
+            int read = (int) connection.getSocketChannel().read(readChunks);
+            if (read > 0) {
+                connection.getDecoder().decode(readChunks, READ_CHUNKS, frame -> dispatch(connection, frame));
             }
-            return ByteBuffer.wrap(Arrays.copyOfRange(readBuffer.array(), 0, readBuffer.position()));
+            return read;
         } finally {
-            readBuffer.clear();
+            for (int i = 0; i < READ_CHUNKS; i++) {
+                if (readChunks[i] == null) {
+                    readChunks[i] = ByteBuffer.allocate(READ_CHUNK_SIZE);
+                } else {
+                    readChunks[i].clear();
+                }
+            }
         }
     }
 
@@ -206,6 +631,11 @@ public class SubReactor implements Runnable {
             SocketChannel socketChannel = connection.getSocketChannel();
             socketChannel.configureBlocking(false);
 
+            // 响应已经在应用层合并写出，关闭Nagle算法，避免流水线请求的后续响应等待客户端的延迟ack。unix domain socket没有这个选项
+            if (!connection.isUnixDomain()) {
+                socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+
             // 注意register方法是与select方法同步互斥的，他们内部都synchronized了publicKeys，
             // 所以通常情况下register必须在select之前执行，由于我们使用的主从reactor模式，两个reactor
             // 是运行在不同的线程上的，我们需要将MainReactor接受到的SocketChannel传递给SubReactor，
@@ -215,8 +645,144 @@ public class SubReactor implements Runnable {
             SelectionKey register = socketChannel.register(selector, SelectionKey.OP_READ, connection);
             connection.setSelectionKey(register);
 
+            // tcp连接先等待客户端发起tls握手，握手完成之前业务逻辑写的数据会留在写队列中
+            if (tlsContext != null && !connection.isUnixDomain()) {
+                TlsSession tlsSession = new TlsSession(tlsContext.newEngine(), connection, tlsBufferPool,
+                        plaintext -> connection.getDecoder().decode(plaintext, frame -> connection.getSubReactor().dispatch(connection, frame)));
+                connection.setTlsSession(tlsSession);
+                tlsSession.beginHandshake();
+            }
+            connection.connected();
+
             // 再次尝试注册队列中的连接
             register();
         }
     }
+
+    /**
+     * {@link SubReactorGroup}据此计算事件循环的利用率，可以在任意线程调用
+     *
+     * @param now 当前时间，{@link System#nanoTime()}
+     * @return 到现在为止累计阻塞在select中的纳秒数，包括正在进行的select
+     */
+    long idleNanos(long now) {
+        long since = selectingSince;
+        return idleNanos + (since == 0 ? 0 : now - since);
+    }
+
+    /**
+     * 退役当前SubReactor，可以在任意线程调用。调用之前必须已经不再把新连接交给它，
+     * 它会在事件循环中把所有连接依次迁移给后继的SubReactor，全部迁移完之后退出
+     *
+     * @param successors 接收迁移连接的SubReactor
+     */
+    void retire(SubReactor[] successors) {
+        this.successors = successors;
+        wakeup();
+    }
+
+    /**
+     * 扩容之后把平均分给新SubReactor的那部分连接迁移过去，只能在当前SubReactor线程调用
+     *
+     * @param target    新的SubReactor
+     * @param groupSize 扩容之后的SubReactor数
+     */
+    void rebalance(SubReactor target, int groupSize) {
+        if (terminated) {
+            return;
+        }
+        int count = selector.keys().size() / groupSize;
+        for (SelectionKey selectionKey : selector.keys()) {
+            if (count == 0) {
+                return;
+            }
+            if (migrate((Connection) selectionKey.attachment(), target)) {
+                count--;
+            }
+        }
+    }
+
+    /**
+     * 把所有连接迁移给后继的SubReactor
+     *
+     * @return 是否已经没有任何连接和待执行的任务，可以退出事件循环
+     */
+    private boolean drain() {
+        SubReactor[] targets = successors;
+        for (SelectionKey selectionKey : selector.keys()) {
+            if (nextSuccessor >= targets.length) {
+                nextSuccessor = 0;
+            }
+            if (migrate((Connection) selectionKey.attachment(), targets[nextSuccessor])) {
+                nextSuccessor++;
+            }
+        }
+
+        // 取消的选择键要等到下一次select才会从selector中移除
+        return selector.keys().isEmpty() && connections.isEmpty() && tasks.isEmpty() && scheduledTasks.isEmpty() && readyConnections.isEmpty();
+    }
+
+    /**
+     * 把连接从当前SubReactor迁移到另一个SubReactor，只能在当前SubReactor线程调用。
+     * 有被限流的请求帧或者正在执行tls委托任务的连接还有延迟任务会回到当前SubReactor，暂时不能迁移，等待下一次重试。
+     * 迁移时先在当前selector中取消选择键，再由目标SubReactor以同样的关注事件注册，写队列中的数据和解码器中不完整的帧都跟随连接一起迁移。
+     *
+     * @param connection 连接
+     * @param target     目标SubReactor
+     * @return 是否迁移了连接
+     */
+    private boolean migrate(Connection connection, SubReactor target) {
+        SelectionKey selectionKey = connection.getSelectionKey();
+        TlsSession tlsSession = connection.getTlsSession();
+        if (!selectionKey.isValid() || !connection.getThrottledFrames().isEmpty() || (tlsSession != null && tlsSession.isTaskRunning())) {
+            return false;
+        }
+        int interestOps = selectionKey.interestOps();
+        selectionKey.cancel();
+        if (connection.isReadReady()) {
+            connection.setReadReady(false);
+            readyConnections.remove(connection);
+        }
+        connection.setSubReactor(target);
+        target.execute(() -> target.adopt(connection, interestOps));
+        return true;
+    }
+
+    /**
+     * 接收从其它SubReactor迁移过来的连接。如果当前SubReactor也已经退出了事件循环，这个任务会在退出之前或者在提交任务的线程中执行，
+     * 这时把连接继续转交给当前SubReactor的后继
+     *
+     * @param connection  连接
+     * @param interestOps 连接在原SubReactor中关注的事件
+     */
+    private void adopt(Connection connection, int interestOps) {
+        if (terminated || !inEventLoop()) {
+            SubReactor[] targets = successors;
+            SubReactor target = targets[ThreadLocalRandom.current().nextInt(targets.length)];
+            connection.setSubReactor(target);
+            target.execute(() -> target.adopt(connection, interestOps));
+            return;
+        }
+        try {
+            connection.setSelectionKey(connection.getSocketChannel().register(selector, interestOps, connection));
+            if (connection.getTlsSession() != null) {
+                connection.getTlsSession().setBufferPool(tlsBufferPool);
+            }
+
+            // 迁移期间其它线程写的数据留在了写队列中
+            connection.flushQuietly();
+        } catch (IOException e) {
+            log.error("迁移客户端{}的连接失败", connection.clientAddress(), e);
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * 延迟任务
+     *
+     * @param deadline 截止时间，{@link System#nanoTime()}
+     * @param task     任务
+     */
+    private record ScheduledTask(long deadline, Runnable task) {
+    }
 }
@@ -0,0 +1,222 @@
+package red.zyc.socket.nio.server;
+
+import lombok.extern.slf4j.Slf4j;
+import red.zyc.socket.core.concurrent.CpuQuota;
+import red.zyc.socket.core.concurrent.NamedThreadFactory;
+import red.zyc.socket.core.transport.Handler;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 可以在运行时伸缩的SubReactor组。启动时的SubReactor数量根据cgroup cpu配额计算，之后每隔{@link #SCALE_INTERVAL_MILLIS}
+ * 采样一次每个SubReactor的事件循环利用率，即没有阻塞在select中的时间占比。平均利用率连续{@link #SCALE_WINDOW}次高于{@link #SCALE_UP_UTILIZATION}时
+ * 增加一个SubReactor，并让已有的每个SubReactor把一部分连接迁移过去，这样长连接也能用上新的SubReactor；
+ * 连续{@link #SCALE_WINDOW}次低于{@link #SCALE_DOWN_UTILIZATION}时退役最后一个SubReactor，它不会再收到新连接，
+ * 已有的连接全部迁移到其它SubReactor之后它的线程才会退出，所以缩容不会断开任何连接。<br><br>
+ * 可以通过以下系统属性配置：
+ * <ul>
+ *     <li>socket.nio.minSubReactors：最少的SubReactor数，默认1</li>
+ *     <li>socket.nio.maxSubReactors：最多的SubReactor数，默认为cgroup cpu配额减1，至少为1</li>
+ *     <li>socket.nio.subReactors：启动时的SubReactor数，默认等于最多的SubReactor数</li>
+ *     <li>socket.nio.scaleInterval：采样间隔毫秒数，默认1000</li>
+ *     <li>socket.nio.scaleUpUtilization：扩容的平均利用率阈值，默认0.75</li>
+ *     <li>socket.nio.scaleDownUtilization：缩容的平均利用率阈值，默认0.25</li>
+ *     <li>socket.nio.scaleWindow：连续多少次采样超过阈值才伸缩，默认3</li>
+ * </ul>
+ * 最少和最多的SubReactor数相等时不会伸缩。
+ *
+ * @author zyc
+ */
+@Slf4j
+final class SubReactorGroup {
+
+    /**
+     * 最多的SubReactor数，单核机器上至少保留一个SubReactor
+     */
+    static final int MAX_SUB_REACTORS = Integer.getInteger("socket.nio.maxSubReactors", Math.max(1, CpuQuota.availableProcessors() - 1));
+
+    /**
+     * 最少的SubReactor数
+     */
+    static final int MIN_SUB_REACTORS = Math.min(MAX_SUB_REACTORS, Math.max(1, Integer.getInteger("socket.nio.minSubReactors", 1)));
+
+    /**
+     * 启动时的SubReactor数
+     */
+    static final int INITIAL_SUB_REACTORS = Math.min(MAX_SUB_REACTORS, Math.max(MIN_SUB_REACTORS, Integer.getInteger("socket.nio.subReactors", MAX_SUB_REACTORS)));
+
+    /**
+     * 采样间隔
+     */
+    static final long SCALE_INTERVAL_MILLIS = Long.getLong("socket.nio.scaleInterval", 1000);
+
+    /**
+     * 扩容的平均利用率阈值
+     */
+    static final double SCALE_UP_UTILIZATION = Double.parseDouble(System.getProperty("socket.nio.scaleUpUtilization", "0.75"));
+
+    /**
+     * 缩容的平均利用率阈值
+     */
+    static final double SCALE_DOWN_UTILIZATION = Double.parseDouble(System.getProperty("socket.nio.scaleDownUtilization", "0.25"));
+
+    /**
+     * 连续多少次采样超过阈值才伸缩，避免流量抖动时反复扩缩容
+     */
+    static final int SCALE_WINDOW = Integer.getInteger("socket.nio.scaleWindow", 3);
+
+    /**
+     * SubReactor线程池，退役的SubReactor线程空闲一段时间之后退出，扩容时可以复用。
+     * 退役的SubReactor迁移完连接之前仍然占用线程，所以线程数不限制为{@link #MAX_SUB_REACTORS}，由伸缩逻辑控制
+     */
+    private final ThreadPoolExecutor eventLoops = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), new NamedThreadFactory("SubReactor"));
+
+    /**
+     * 定时采样利用率的线程
+     */
+    private final ScheduledExecutorService scaler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "SubReactorScaler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 上一次采样时每个SubReactor累计的空闲纳秒数，只会被{@link #scaler}线程访问
+     */
+    private final Map<SubReactor, Long> lastIdleNanos = new HashMap<>();
+
+    private final Handler handler;
+
+    private final TlsContext tlsContext;
+
+    /**
+     * 正在接收新连接的SubReactor，伸缩时整体替换，MainReactor读取的总是一个完整的快照
+     */
+    private volatile SubReactor[] active = new SubReactor[0];
+
+    /**
+     * 下一个接收新连接的SubReactor在{@link #active}中的索引，只会被MainReactor线程访问
+     */
+    private int next;
+
+    /**
+     * 上一次采样的时间，只会被{@link #scaler}线程访问
+     */
+    private long lastSampleNanos;
+
+    /**
+     * 平均利用率连续高于或者低于阈值的采样次数，高于为正数，低于为负数，只会被{@link #scaler}线程访问
+     */
+    private int streak;
+
+    SubReactorGroup(Handler handler, TlsContext tlsContext) {
+        this.handler = handler;
+        this.tlsContext = tlsContext;
+    }
+
+    /**
+     * 启动{@link #INITIAL_SUB_REACTORS}个SubReactor，需要伸缩时开始定时采样
+     *
+     * @throws IOException 打开selector失败
+     */
+    void start() throws IOException {
+        SubReactor[] subReactors = new SubReactor[INITIAL_SUB_REACTORS];
+        for (int i = 0; i < subReactors.length; i++) {
+            subReactors[i] = new SubReactor(handler, tlsContext);
+            eventLoops.execute(subReactors[i]);
+        }
+        active = subReactors;
+        log.info("启动了{}个SubReactor，最少{}个，最多{}个", INITIAL_SUB_REACTORS, MIN_SUB_REACTORS, MAX_SUB_REACTORS);
+        if (MIN_SUB_REACTORS < MAX_SUB_REACTORS) {
+            lastSampleNanos = System.nanoTime();
+            scaler.scheduleWithFixedDelay(this::sample, SCALE_INTERVAL_MILLIS, SCALE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return 按照自然顺序轮流返回的下一个SubReactor，只能在MainReactor线程调用
+     */
+    SubReactor next() {
+        SubReactor[] subReactors = active;
+        if (next >= subReactors.length) {
+            next = 0;
+        }
+        return subReactors[next++];
+    }
+
+    /**
+     * 采样所有SubReactor的利用率，连续{@link #SCALE_WINDOW}次超过阈值时伸缩
+     */
+    private void sample() {
+        try {
+            long now = System.nanoTime();
+            long elapsed = now - lastSampleNanos;
+            lastSampleNanos = now;
+            SubReactor[] subReactors = active;
+            double busy = 0;
+            for (SubReactor subReactor : subReactors) {
+                long idle = subReactor.idleNanos(now);
+                Long last = lastIdleNanos.put(subReactor, idle);
+                busy += last == null ? 0 : Math.max(0, 1 - (double) (idle - last) / elapsed);
+            }
+            lastIdleNanos.keySet().retainAll(Arrays.asList(subReactors));
+            double utilization = busy / subReactors.length;
+            if (utilization > SCALE_UP_UTILIZATION && subReactors.length < MAX_SUB_REACTORS) {
+                streak = Math.max(streak, 0) + 1;
+            } else if (utilization < SCALE_DOWN_UTILIZATION && subReactors.length > MIN_SUB_REACTORS) {
+                streak = Math.min(streak, 0) - 1;
+            } else {
+                streak = 0;
+            }
+            if (streak >= SCALE_WINDOW) {
+                grow(subReactors, utilization);
+                streak = 0;
+            } else if (streak <= -SCALE_WINDOW) {
+                shrink(subReactors, utilization);
+                streak = 0;
+            }
+        } catch (Exception e) {
+            log.error("SubReactor伸缩失败", e);
+        }
+    }
+
+    /**
+     * 增加一个SubReactor，已有的每个SubReactor把平均分给新SubReactor的那部分连接迁移过去
+     *
+     * @param subReactors 当前的SubReactor
+     * @param utilization 平均利用率
+     * @throws IOException 打开selector失败
+     */
+    private void grow(SubReactor[] subReactors, double utilization) throws IOException {
+        SubReactor added = new SubReactor(handler, tlsContext);
+        eventLoops.execute(added);
+        SubReactor[] grown = Arrays.copyOf(subReactors, subReactors.length + 1);
+        grown[subReactors.length] = added;
+        active = grown;
+        for (SubReactor subReactor : subReactors) {
+            subReactor.execute(() -> subReactor.rebalance(added, grown.length));
+        }
+        log.info("SubReactor平均利用率{}，扩容到{}个", String.format("%.2f", utilization), grown.length);
+    }
+
+    /**
+     * 退役最后一个SubReactor，它的连接会被迁移到剩下的SubReactor中
+     *
+     * @param subReactors 当前的SubReactor
+     * @param utilization 平均利用率
+     */
+    private void shrink(SubReactor[] subReactors, double utilization) {
+        SubReactor[] shrunk = Arrays.copyOf(subReactors, subReactors.length - 1);
+        active = shrunk;
+        subReactors[shrunk.length].retire(shrunk);
+        log.info("SubReactor平均利用率{}，缩容到{}个", String.format("%.2f", utilization), shrunk.length);
+    }
+}
@@ -0,0 +1,50 @@
+package red.zyc.socket.nio.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * tls网络缓冲和应用缓冲的缓冲池，每个SubReactor一个，只会被SubReactor线程访问。
+ * 每个缓冲都能容纳一个完整的tls记录，大约16 KiB，如果每个连接都一直持有自己的缓冲，连接数很多时会占用大量内存，
+ * 所以连接只在读写的过程中借用缓冲，用完之后立即归还，只有还没有收完的tls记录和还没有写完的密文才会占用缓冲。
+ *
+ * @author zyc
+ */
+final class TlsBufferPool {
+
+    /**
+     * 每个缓冲池最多保留的空闲缓冲数，默认64
+     */
+    private static final int MAX_POOLED = Integer.getInteger("socket.tls.pooledBuffers", 64);
+
+    private final int capacity;
+
+    /**
+     * 空闲的缓冲，后进先出，最近归还的缓冲更可能还在cpu缓存中
+     */
+    private final Deque<ByteBuffer> buffers = new ArrayDeque<>();
+
+    TlsBufferPool(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return 处于写模式的空缓冲
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.pollFirst();
+        return buffer != null ? buffer : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * 归还缓冲，缓冲池已满时直接丢弃
+     *
+     * @param buffer 不再使用的缓冲
+     */
+    void release(ByteBuffer buffer) {
+        if (buffers.size() < MAX_POOLED) {
+            buffers.addFirst(buffer.clear());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package red.zyc.socket.nio.server;
+
+import red.zyc.socket.core.concurrent.NamedThreadFactory;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * nio服务端的tls配置。开启tls之后每个tcp连接都会先通过{@link SSLEngine}完成tls握手再读写请求帧，
+ * unix domain socket连接只能来自同一台机器，所以不加密。<br><br>
+ * 服务端会话缓存同时支持tls1.2的会话id和tls1.3的会话票据，客户端重连时可以恢复会话，省去证书验证和密钥交换的开销。
+ * 可以通过以下系统属性配置：
+ * <ul>
+ *     <li>socket.tls.enabled：是否开启tls，默认false</li>
+ *     <li>socket.tls.keyStore：包含服务端证书和私钥的密钥库路径，开启tls时必须配置</li>
+ *     <li>socket.tls.keyStorePassword：密钥库和私钥的密码，默认changeit</li>
+ *     <li>socket.tls.keyStoreType：密钥库类型，默认PKCS12</li>
+ *     <li>socket.tls.protocols：允许的tls版本，多个值用逗号分隔，默认为TLSv1.3、TLSv1.2</li>
+ *     <li>socket.tls.sessionCacheSize：服务端缓存的会话数，默认100000</li>
+ *     <li>socket.tls.sessionTimeout：会话可以被恢复的秒数，默认3600</li>
+ *     <li>socket.tls.handshakeThreads：执行握手委托任务的线程数，默认为cpu核数</li>
+ * </ul>
+ *
+ * @author zyc
+ */
+final class TlsContext {
+
+    /**
+     * 是否开启tls
+     */
+    static final boolean ENABLED = Boolean.getBoolean("socket.tls.enabled");
+
+    /**
+     * 密钥库路径
+     */
+    private static final String KEY_STORE = System.getProperty("socket.tls.keyStore");
+
+    /**
+     * 密钥库和私钥的密码
+     */
+    private static final String KEY_STORE_PASSWORD = System.getProperty("socket.tls.keyStorePassword", "changeit");
+
+    /**
+     * 密钥库类型
+     */
+    private static final String KEY_STORE_TYPE = System.getProperty("socket.tls.keyStoreType", "PKCS12");
+
+    /**
+     * 允许的tls版本
+     */
+    private static final String[] PROTOCOLS = System.getProperty("socket.tls.protocols", "TLSv1.3,TLSv1.2").split(",");
+
+    /**
+     * 服务端缓存的会话数
+     */
+    private static final int SESSION_CACHE_SIZE = Integer.getInteger("socket.tls.sessionCacheSize", 100_000);
+
+    /**
+     * 会话可以被恢复的秒数
+     */
+    private static final int SESSION_TIMEOUT = Integer.getInteger("socket.tls.sessionTimeout", 3600);
+
+    /**
+     * 执行握手委托任务的线程数
+     */
+    private static final int HANDSHAKE_THREADS = Integer.getInteger("socket.tls.handshakeThreads", Runtime.getRuntime().availableProcessors());
+
+    /**
+     * 执行{@link SSLEngine#getDelegatedTask()}返回的任务，例如签名、密钥交换等cpu密集的计算，
+     * 这些任务在SubReactor线程中执行的话会阻塞同一个selector上的所有连接
+     */
+    static final ExecutorService HANDSHAKE_EXECUTOR = Executors.newFixedThreadPool(HANDSHAKE_THREADS, new NamedThreadFactory("TlsHandshake"));
+
+    private final SSLContext sslContext;
+
+    /**
+     * 一个tls记录加密前后的最大字节数，网络缓冲和应用缓冲都使用这个容量
+     */
+    private final int bufferCapacity;
+
+    private TlsContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+        SSLSession session = sslContext.createSSLEngine().getSession();
+        this.bufferCapacity = Math.max(session.getPacketBufferSize(), session.getApplicationBufferSize());
+    }
+
+    /**
+     * 根据系统属性加载密钥库并创建tls上下文
+     *
+     * @return tls上下文
+     * @throws IOException 密钥库不存在或者无法加载
+     */
+    static TlsContext load() throws IOException {
+        if (KEY_STORE == null) {
+            throw new IOException("开启tls时必须通过socket.tls.keyStore配置密钥库路径");
+        }
+        try (InputStream in = Files.newInputStream(Path.of(KEY_STORE))) {
+            char[] password = KEY_STORE_PASSWORD.toCharArray();
+            KeyStore keyStore = KeyStore.getInstance(KEY_STORE_TYPE);
+            keyStore.load(in, password);
+            KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagerFactory.init(keyStore, password);
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+            SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+            sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+            sessionContext.setSessionTimeout(SESSION_TIMEOUT);
+            return new TlsContext(sslContext);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(String.format("加载密钥库%s失败", KEY_STORE), e);
+        }
+    }
+
+    /**
+     * @return 服务端模式的SSLEngine，每个连接一个
+     */
+    SSLEngine newEngine() {
+        SSLEngine engine = sslContext.createSSLEngine();
+        engine.setUseClientMode(false);
+        engine.setEnabledProtocols(PROTOCOLS);
+        return engine;
+    }
+
+    /**
+     * @return 网络缓冲和应用缓冲的容量
+     */
+    int bufferCapacity() {
+        return bufferCapacity;
+    }
+}
@@ -0,0 +1,310 @@
+package red.zyc.socket.nio.server;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.function.Consumer;
+
+/**
+ * 一个tcp连接上的tls会话，负责把读到的密文解密后交给帧解码器，把写队列中的明文加密后写入SocketChannel。
+ * 除了握手委托任务之外，所有方法都只能在连接所属的SubReactor线程中调用。<br><br>
+ * 握手过程中{@link SSLEngine}返回的委托任务会被提交到{@link TlsContext#HANDSHAKE_EXECUTOR}中执行，
+ * 执行期间暂停读取该连接的数据，任务完成之后回到SubReactor线程继续握手，所以握手不会阻塞SubReactor上的其它连接。
+ * 握手完成之前业务逻辑写的数据会留在写队列中，握手完成之后再一起加密写出。
+ *
+ * @author zyc
+ */
+@Slf4j
+final class TlsSession {
+
+    /**
+     * 一次加密最多合并的帧数，多个小帧可以合并成一个tls记录
+     */
+    private static final int MAX_GATHERING_BUFFERS = 64;
+
+    private static final ByteBuffer[] EMPTY = new ByteBuffer[0];
+
+    private final SSLEngine engine;
+
+    private final Connection connection;
+
+    /**
+     * 当前SubReactor的缓冲池，连接迁移到其它SubReactor之后换成新SubReactor的缓冲池
+     */
+    private TlsBufferPool bufferPool;
+
+    /**
+     * 解密出的明文的消费者
+     */
+    private final Consumer<ByteBuffer> plaintext;
+
+    private final ByteBuffer[] gathering = new ByteBuffer[MAX_GATHERING_BUFFERS];
+
+    /**
+     * 还没有收完的tls记录，处于写模式，没有数据时归还给缓冲池
+     */
+    private ByteBuffer netIn;
+
+    /**
+     * 已经加密但还没有写完的数据，处于读模式，写完之后归还给缓冲池
+     */
+    private ByteBuffer netOut;
+
+    /**
+     * 是否有握手委托任务正在执行
+     */
+    private boolean taskRunning;
+
+    /**
+     * 是否正在解密，避免解密过程中写数据时再次进入解密
+     */
+    private boolean unwrapping;
+
+    TlsSession(SSLEngine engine, Connection connection, TlsBufferPool bufferPool, Consumer<ByteBuffer> plaintext) {
+        this.engine = engine;
+        this.connection = connection;
+        this.bufferPool = bufferPool;
+        this.plaintext = plaintext;
+    }
+
+    /**
+     * 开始握手，服务端等待客户端的ClientHello
+     *
+     * @throws SSLException tls异常
+     */
+    void beginHandshake() throws SSLException {
+        engine.beginHandshake();
+    }
+
+    /**
+     * 从SocketChannel读取一次密文并尽可能多地解密
+     *
+     * @return 本次读到的密文字节数，返回-1代表客户端已关闭连接或者发送了close_notify
+     * @throws IOException io异常或者tls异常
+     */
+    int read() throws IOException {
+        if (netIn == null) {
+            netIn = bufferPool.acquire();
+        }
+        int read = connection.getSocketChannel().read(netIn);
+        if (read == -1) {
+            return -1;
+        }
+        unwrap();
+        return engine.isInboundDone() ? -1 : read;
+    }
+
+    /**
+     * 将握手数据和写队列中的明文加密后尽可能多地写入SocketChannel
+     *
+     * @return 是否已经全部写完，返回false时需要等待可写事件继续写
+     * @throws IOException io异常或者tls异常
+     */
+    boolean flush() throws IOException {
+        Queue<ByteBuffer> writeQueue = connection.getWriteQueue();
+        while (true) {
+            if (netOut != null) {
+                connection.writeChannel(netOut);
+                if (netOut.hasRemaining()) {
+                    return false;
+                }
+                bufferPool.release(netOut);
+                netOut = null;
+            }
+            HandshakeStatus handshakeStatus = engine.getHandshakeStatus();
+            if (handshakeStatus == HandshakeStatus.NEED_WRAP) {
+                wrap(EMPTY, 0);
+                continue;
+            }
+            if (handshakeStatus == HandshakeStatus.NEED_TASK) {
+                runDelegatedTasks();
+                break;
+            }
+
+            // 握手还没有完成，明文留在写队列中
+            if (handshakeStatus != HandshakeStatus.NOT_HANDSHAKING || taskRunning) {
+                break;
+            }
+            int count = 0;
+            Iterator<ByteBuffer> iterator = writeQueue.iterator();
+            while (count < MAX_GATHERING_BUFFERS && iterator.hasNext()) {
+                gathering[count++] = iterator.next();
+            }
+            if (count == 0) {
+                break;
+            }
+            wrap(gathering, count);
+            while (!writeQueue.isEmpty() && !writeQueue.peek().hasRemaining()) {
+                connection.pollWriteQueue();
+            }
+            Arrays.fill(gathering, 0, count, null);
+        }
+
+        // 写出握手数据或者执行委托任务之前收到的密文可能还没有解密，例如客户端在Finished之后紧接着发送的请求
+        if (!unwrapping && !taskRunning && netIn != null && netIn.position() > 0) {
+            unwrap();
+            return netOut == null;
+        }
+        return true;
+    }
+
+    /**
+     * @return 是否有握手委托任务正在执行，这时连接不能迁移到其它SubReactor
+     */
+    boolean isTaskRunning() {
+        return taskRunning;
+    }
+
+    /**
+     * 连接迁移到其它SubReactor之后使用新SubReactor的缓冲池，已经借出的缓冲会归还给新的缓冲池，所有缓冲池的缓冲大小都相同
+     *
+     * @param bufferPool 新SubReactor的缓冲池
+     */
+    void setBufferPool(TlsBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * 发送close_notify并归还缓冲，连接关闭时调用一次
+     */
+    void close() {
+        if (!connection.getSubReactor().inEventLoop()) {
+            connection.getSubReactor().execute(this::close);
+            return;
+        }
+        engine.closeOutbound();
+        try {
+            if (netOut == null && connection.getSocketChannel().isOpen()) {
+                wrap(EMPTY, 0);
+                connection.getSocketChannel().write(netOut);
+            }
+        } catch (IOException e) {
+            log.debug("发送close_notify失败", e);
+        }
+        if (netOut != null) {
+            bufferPool.release(netOut);
+            netOut = null;
+        }
+        if (netIn != null) {
+            bufferPool.release(netIn);
+            netIn = null;
+        }
+    }
+
+    /**
+     * 解密{@link #netIn}中所有完整的tls记录，握手需要写数据时立即写出
+     *
+     * @throws IOException io异常或者tls异常
+     */
+    private void unwrap() throws IOException {
+        ByteBuffer appIn = bufferPool.acquire();
+        unwrapping = true;
+        netIn.flip();
+        try {
+            while (!taskRunning && netIn.hasRemaining()) {
+                SSLEngineResult result = engine.unwrap(netIn, appIn);
+                if (appIn.position() > 0) {
+                    plaintext.accept(appIn.flip());
+                    appIn.clear();
+                }
+                switch (result.getStatus()) {
+                    case BUFFER_UNDERFLOW, CLOSED -> {
+                        return;
+                    }
+                    case BUFFER_OVERFLOW -> throw new SSLException("tls记录超过了应用缓冲的容量");
+                    default -> {
+                    }
+                }
+                HandshakeStatus handshakeStatus = result.getHandshakeStatus();
+                switch (handshakeStatus) {
+                    case NEED_TASK -> runDelegatedTasks();
+                    case NEED_WRAP, FINISHED -> connection.flush();
+                    default -> {
+                    }
+                }
+
+                // 没有消费任何数据并且握手状态也没有变化，例如上一次的握手数据还没有写完，等待可写事件
+                if (result.bytesConsumed() == 0 && engine.getHandshakeStatus() == handshakeStatus) {
+                    return;
+                }
+            }
+        } finally {
+            unwrapping = false;
+            bufferPool.release(appIn);
+            if (netIn != null) {
+                if (netIn.hasRemaining()) {
+                    netIn.compact();
+                } else {
+                    bufferPool.release(netIn);
+                    netIn = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * 加密数据到一个新的{@link #netOut}中，数据为空时生成握手数据或者close_notify
+     *
+     * @param sources 明文
+     * @param count   明文的数量
+     * @throws SSLException tls异常
+     */
+    private void wrap(ByteBuffer[] sources, int count) throws SSLException {
+        netOut = bufferPool.acquire();
+        SSLEngineResult result = engine.wrap(sources, 0, count, netOut);
+        netOut.flip();
+        if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+            throw new SSLException("tls记录超过了网络缓冲的容量");
+        }
+        if (result.getStatus() == SSLEngineResult.Status.CLOSED && count > 0) {
+            throw new SSLException("tls会话已关闭");
+        }
+    }
+
+    /**
+     * 在握手线程池中执行所有委托任务，执行期间暂停读取该连接的数据，完成之后回到SubReactor线程继续握手
+     */
+    private void runDelegatedTasks() {
+        if (taskRunning) {
+            return;
+        }
+        taskRunning = true;
+        SelectionKey selectionKey = connection.getSelectionKey();
+        selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_READ);
+        SubReactor subReactor = connection.getSubReactor();
+        TlsContext.HANDSHAKE_EXECUTOR.execute(() -> {
+            try {
+                Runnable task;
+                while ((task = engine.getDelegatedTask()) != null) {
+                    task.run();
+                }
+                subReactor.execute(this::delegatedTasksCompleted);
+            } catch (Exception e) {
+                log.error("客户端{}的tls握手失败", connection.clientAddress(), e);
+                subReactor.execute(connection::disconnect);
+            }
+        });
+    }
+
+    /**
+     * 委托任务完成之后恢复读并继续握手
+     */
+    private void delegatedTasksCompleted() {
+        taskRunning = false;
+        SelectionKey selectionKey = connection.getSelectionKey();
+        if (!selectionKey.isValid()) {
+            return;
+        }
+        selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_READ);
+        connection.flushQuietly();
+    }
+}
@@ -1,4 +1,4 @@
-package red.zyc.socket.nio.server;
+package red.zyc.socket.core;
 
 /**
  * @author zyc
@@ -0,0 +1,104 @@
+package red.zyc.socket.core.cache;
+
+import red.zyc.socket.core.codec.Frame;
+import red.zyc.socket.core.transport.Connection;
+import red.zyc.socket.core.transport.FileRegion;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+/**
+ * 业务逻辑处理可以缓存的请求时看到的连接，把业务逻辑写出的第一个响应帧放入{@link ResponseCache}，其余操作都委托给真正的连接
+ *
+ * @author zyc
+ */
+final class RecordingConnection implements Connection {
+
+    private final Connection connection;
+
+    private final ResponseCache cache;
+
+    /**
+     * 请求的key，已经复制过
+     */
+    private final ByteBuffer key;
+
+    /**
+     * 请求帧的correlationId，只缓存与它对应的响应帧
+     */
+    private final long correlationId;
+
+    private boolean recorded;
+
+    RecordingConnection(Connection connection, ResponseCache cache, ByteBuffer key, long correlationId) {
+        this.connection = connection;
+        this.cache = cache;
+        this.key = key;
+        this.correlationId = correlationId;
+    }
+
+    @Override
+    public void write(ByteBuffer frame) {
+        int start = frame.position();
+        if (!recorded
+                && frame.get(start + Frame.LENGTH_FIELD_LENGTH) == Frame.RESPONSE
+                && frame.getLong(start + Frame.LENGTH_FIELD_LENGTH + 1) == correlationId) {
+            recorded = true;
+            cache.put(key, frame);
+        }
+        connection.write(frame);
+    }
+
+    @Override
+    public void transfer(FileRegion region) throws IOException {
+        connection.transfer(region);
+    }
+
+    @Override
+    public UUID getUuid() {
+        return connection.getUuid();
+    }
+
+    @Override
+    public String getId() {
+        return connection.getId();
+    }
+
+    @Override
+    public long getSerialId() {
+        return connection.getSerialId();
+    }
+
+    @Override
+    public InetSocketAddress getInetSocketAddress() {
+        return connection.getInetSocketAddress();
+    }
+
+    @Override
+    public Executor eventLoop() {
+        return connection.eventLoop();
+    }
+
+    @Override
+    public void handled(Frame request) {
+        connection.handled(request);
+    }
+
+    @Override
+    public void disconnect() {
+        connection.disconnect();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return connection.isClosed();
+    }
+
+    @Override
+    public String clientAddress() {
+        return connection.clientAddress();
+    }
+}
@@ -0,0 +1,240 @@
+package red.zyc.socket.core.cache;
+
+import red.zyc.socket.core.codec.Frame;
+import red.zyc.socket.core.transport.Connection;
+import red.zyc.socket.core.transport.Handler;
+import red.zyc.socket.core.transport.Metrics;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 业务逻辑前面的响应缓存。{@link Handler#cacheKey(Frame)}返回非null的请求是幂等的，
+ * 第一次由业务逻辑处理时记录下它写出的已编码响应帧，之后相同key的请求直接在io线程中（nio的SubReactor、aio的读回调线程、bio的连接线程）
+ * 复制一份缓存的响应帧并改写其中的correlationId写回客户端，不再提交到业务线程池，也不需要重新编码响应。<br><br>
+ * 缓存按照key的hash分成多个段，每个段是一个按访问顺序排列的{@link LinkedHashMap}，超过容量时淘汰最久没有访问的响应，
+ * 超过存活时间的响应在下一次访问时被淘汰。不同段之间没有锁竞争，所以多个io线程可以同时命中缓存。<br><br>
+ * 可以通过以下系统属性配置：
+ * <ul>
+ *     <li>socket.cache.enabled：是否开启响应缓存，默认关闭</li>
+ *     <li>socket.cache.maxEntries：最多缓存的响应数，默认10000</li>
+ *     <li>socket.cache.ttl：响应的存活毫秒数，默认60000</li>
+ * </ul>
+ *
+ * @author zyc
+ */
+public final class ResponseCache {
+
+    /**
+     * 是否开启响应缓存
+     */
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("socket.cache.enabled", "false"));
+
+    /**
+     * 最多缓存的响应数
+     */
+    public static final int MAX_ENTRIES = Integer.getInteger("socket.cache.maxEntries", 10_000);
+
+    /**
+     * 响应的存活时间
+     */
+    public static final long TTL_MILLIS = Long.getLong("socket.cache.ttl", 60_000);
+
+    /**
+     * 三种传输层共用的响应缓存
+     */
+    public static final ResponseCache INSTANCE = new ResponseCache(MAX_ENTRIES, TTL_MILLIS);
+
+    /**
+     * 段的数量，必须是2的幂
+     */
+    private static final int SEGMENTS = 16;
+
+    /**
+     * 响应帧中correlationId的位置
+     */
+    private static final int CORRELATION_ID_INDEX = Frame.LENGTH_FIELD_LENGTH + 1;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final long ttlNanos;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxEntries 最多缓存的响应数
+     * @param ttlMillis  响应的存活毫秒数
+     */
+    public ResponseCache(int maxEntries, long ttlMillis) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        int capacity = Math.max(1, maxEntries / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(capacity);
+        }
+    }
+
+    /**
+     * 用缓存的响应回复一个请求，由传输层在提交请求之前调用
+     *
+     * @param connection 连接
+     * @param request    请求帧
+     * @param handler    处理请求的业务逻辑
+     * @return 是否已经用缓存的响应回复了请求，返回false时需要继续交给业务逻辑处理
+     */
+    public boolean answer(Connection connection, Frame request, Handler handler) {
+        if (!ENABLED) {
+            return false;
+        }
+        ByteBuffer key = handler.cacheKey(request);
+        if (key == null) {
+            return false;
+        }
+        ByteBuffer cached = segment(key).get(key, System.nanoTime());
+        if (cached == null) {
+            misses.increment();
+            Metrics.INSTANCE.cacheMiss(connection);
+            return false;
+        }
+        hits.increment();
+        Metrics.INSTANCE.cacheHit(connection);
+
+        // 每个请求的correlationId不同，所以要复制一份缓存的响应帧再改写，复制的代价远小于一次线程切换和重新编码
+        ByteBuffer response = ByteBuffer.allocate(cached.remaining()).put(cached.duplicate()).flip();
+        response.putLong(CORRELATION_ID_INDEX, request.correlationId());
+        connection.write(response);
+        return true;
+    }
+
+    /**
+     * 业务逻辑处理请求时使用的连接，请求可以缓存时返回一个记录响应帧的连接
+     *
+     * @param connection 连接
+     * @param request    请求帧
+     * @param handler    处理请求的业务逻辑
+     * @return 传给业务逻辑的连接
+     */
+    public Connection recording(Connection connection, Frame request, Handler handler) {
+        if (!ENABLED) {
+            return connection;
+        }
+        ByteBuffer key = handler.cacheKey(request);
+        return key == null ? connection : new RecordingConnection(connection, this, copy(key), request.correlationId());
+    }
+
+    /**
+     * 缓存一个响应帧
+     *
+     * @param key      请求的key
+     * @param response 处于读模式的响应帧，不会改变它的position
+     */
+    void put(ByteBuffer key, ByteBuffer response) {
+        segment(key).put(key, copy(response), System.nanoTime() + ttlNanos);
+    }
+
+    /**
+     * @return 命中次数
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return 未命中次数
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return 因为容量或者存活时间被淘汰的响应数
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return 当前缓存的响应数
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private Segment segment(ByteBuffer key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * 请求帧的内容可能是bio读缓冲的视图，保存之前要复制一份
+     *
+     * @param buffer 处于读模式的缓冲
+     * @return 只读的堆缓冲
+     */
+    private static ByteBuffer copy(ByteBuffer buffer) {
+        return ByteBuffer.allocate(buffer.remaining()).put(buffer.duplicate()).flip().asReadOnlyBuffer();
+    }
+
+    /**
+     * 缓存的响应帧以及它的过期时间
+     *
+     * @param response 只读的响应帧
+     * @param deadline 过期时间
+     */
+    private record Entry(ByteBuffer response, long deadline) {
+    }
+
+    /**
+     * 缓存的一个段，按照访问顺序淘汰
+     */
+    private final class Segment extends LinkedHashMap<ByteBuffer, Entry> {
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        synchronized ByteBuffer get(ByteBuffer key, long now) {
+            Entry entry = super.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.deadline - now < 0) {
+                remove(key);
+                evictions.increment();
+                return null;
+            }
+            return entry.response;
+        }
+
+        synchronized void put(ByteBuffer key, ByteBuffer response, long deadline) {
+            super.put(key, new Entry(response, deadline));
+        }
+
+        @Override
+        public synchronized int size() {
+            return super.size();
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Entry> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
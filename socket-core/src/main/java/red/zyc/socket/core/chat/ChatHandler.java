@@ -0,0 +1,245 @@
+package red.zyc.socket.core.chat;
+
+import lombok.extern.slf4j.Slf4j;
+import red.zyc.socket.core.cluster.Cluster;
+import red.zyc.socket.core.codec.CodecException;
+import red.zyc.socket.core.codec.CompositeBuffer;
+import red.zyc.socket.core.codec.Frame;
+import red.zyc.socket.core.journal.Journal;
+import red.zyc.socket.core.message.Message;
+import red.zyc.socket.core.message.MessageDecoder;
+import red.zyc.socket.core.message.MessageEncoder;
+import red.zyc.socket.core.transport.Connection;
+import red.zyc.socket.core.transport.Handler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 处理业务逻辑，如果是io密集型的业务操作通常是放在自己的业务线程池里执行的。
+ * 请求和响应都是二进制的{@link Message}，这里我们支持以下几种消息：
+ * <ul>
+ *     <li>{@link Message#ECHO}：原样回复消息内容，这是幂等的请求，开启响应缓存之后可以直接在io线程中回复</li>
+ *     <li>{@link Message#JOIN}：加入房间</li>
+ *     <li>{@link Message#LEAVE}：离开房间</li>
+ *     <li>{@link Message#SEND}：向房间内所有成员广播消息，开启{@link Journal 消息日志}时先持久化再广播，没有加入房间时回复{@link Message#ERROR}</li>
+ *     <li>{@link Message#HISTORY}：回放房间中从某个偏移量开始的历史消息，客户端必须先加入房间再回放，按照偏移量去掉重复的消息</li>
+ * </ul>
+ * 只有加入了房间的连接才能向房间发送消息和回放历史消息，所以消息日志只会为本节点有成员的房间创建文件。
+ * 字段通过享元解码器直接从请求帧的{@link Frame#body()}中读取，大帧不会被合并成连续的缓冲，响应直接编码到待发送的缓冲中，整个过程不会创建字符串。
+ *
+ * @author zyc
+ */
+@Slf4j
+public class ChatHandler implements Handler {
+
+    /**
+     * 消息格式不合法时回复的错误原因
+     */
+    private static final byte[] INVALID_MESSAGE = "无效的消息".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 消息类型未知时回复的错误原因
+     */
+    private static final byte[] UNKNOWN_MESSAGE = "未知的消息类型".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 没有加入房间就发送消息或者回放历史消息时回复的错误原因
+     */
+    private static final byte[] NOT_JOINED = "没有加入房间".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 写入或者读取消息日志失败时回复的错误原因
+     */
+    private static final byte[] JOURNAL_FAILED = "消息日志读写失败".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 没有开启消息日志时回复的错误原因
+     */
+    private static final byte[] JOURNAL_DISABLED = "服务端没有开启消息日志".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 每个业务线程复用一个享元解码器
+     */
+    private static final ThreadLocal<MessageDecoder> DECODER = ThreadLocal.withInitial(MessageDecoder::new);
+
+    /**
+     * 每个业务线程复用一个编码器
+     */
+    private static final ThreadLocal<MessageEncoder> ENCODER = ThreadLocal.withInitial(MessageEncoder::new);
+
+    /**
+     * 每个连接加入的所有房间，连接断开时离开这些房间
+     */
+    private final Map<Connection, Set<Room>> joinedRooms = new ConcurrentHashMap<>();
+
+    /**
+     * 房间是{@link Cluster 集群}转发消息的唯一接收方，所以由处理器启动集群，不论服务端从哪个传输层的入口启动都会开启集群模式。
+     * 消息日志在第一次追加消息时启动
+     *
+     * @throws IOException 集群端口监听失败
+     */
+    public ChatHandler() throws IOException {
+        Cluster.INSTANCE.start(Room::deliver);
+    }
+
+    @Override
+    public void handle(Connection connection, Frame request) {
+        long correlationId = request.correlationId();
+        MessageDecoder message;
+        try {
+            message = DECODER.get().wrap(request.body());
+        } catch (CodecException e) {
+            log.debug("客户端{}发送了无效的消息", connection.clientAddress(), e);
+            connection.write(error(correlationId, INVALID_MESSAGE).flip());
+            return;
+        }
+
+        // 模拟业务操作。访问记录已经由传输层写入访问日志，这里只在debug级别输出消息类型
+        log.debug("来自客户端{}的消息类型: {}", connection.clientAddress(), message.type());
+
+        // 写入业务返回的数据，响应帧的correlationId与请求帧相同
+        ByteBuffer response = switch (message.type()) {
+            case Message.ECHO -> message.fieldCount() < 1
+                    ? error(correlationId, INVALID_MESSAGE)
+                    : encoder(Message.frameLength(1, message.fieldLength(0)), correlationId, Message.ECHO).field(message.field(0)).finish();
+            case Message.JOIN, Message.LEAVE, Message.SEND -> message.fieldCount() < (message.type() == Message.SEND ? 2 : 1)
+                    ? error(correlationId, INVALID_MESSAGE)
+                    : chat(connection, correlationId, message);
+            case Message.HISTORY -> message.fieldCount() < 2 || message.fieldLength(1) != Message.OFFSET_LENGTH
+                    ? error(correlationId, INVALID_MESSAGE)
+                    : history(connection, correlationId, message);
+            default -> error(correlationId, UNKNOWN_MESSAGE);
+        };
+        connection.write(response.flip());
+    }
+
+    /**
+     * 只有{@link Message#ECHO}的响应与连接无关，整个请求内容就是key。先通过{@link Frame#body()}判断消息类型，
+     * 其它类型的大帧不需要合并成连续的缓冲
+     *
+     * @param request 请求帧
+     * @return 请求的key
+     */
+    @Override
+    public ByteBuffer cacheKey(Frame request) {
+        CompositeBuffer body = request.body();
+        return body.remaining() > 0 && body.get(0) == Message.ECHO ? request.payload() : null;
+    }
+
+    @Override
+    public void disconnected(Connection connection) {
+        Set<Room> rooms = joinedRooms.remove(connection);
+        if (rooms != null) {
+            rooms.forEach(room -> room.leave(connection));
+        }
+    }
+
+    /**
+     * 执行聊天房间命令
+     *
+     * @param connection    连接
+     * @param correlationId 请求id
+     * @param message       房间命令，第一个字段是房间名
+     * @return 处于写模式的响应帧
+     */
+    private ByteBuffer chat(Connection connection, long correlationId, MessageDecoder message) {
+
+        // 只有加入房间会创建房间，离开和发送只查找已经存在的房间
+        ByteBuffer name = message.field(0);
+        switch (message.type()) {
+            case Message.JOIN -> {
+                Room room = Room.join(name, connection);
+                joinedRooms.computeIfAbsent(connection, c -> ConcurrentHashMap.newKeySet()).add(room);
+
+                // 加入房间的同时连接可能已经断开了，这时没有人会再让它离开房间
+                if (connection.isClosed()) {
+                    disconnected(connection);
+                }
+            }
+            case Message.LEAVE -> {
+                Room room = Room.get(name);
+                Set<Room> rooms = joinedRooms.get(connection);
+                if (room != null && rooms != null && rooms.remove(room)) {
+                    room.leave(connection);
+                }
+            }
+            default -> {
+                Room room = joined(connection, name);
+                if (room == null) {
+                    return error(correlationId, NOT_JOINED);
+                }
+                try {
+                    room.publish(connection, message.field(1));
+                } catch (UncheckedIOException e) {
+                    log.error("持久化房间消息失败", e);
+                    return error(correlationId, JOURNAL_FAILED);
+                }
+            }
+        }
+        return encoder(Message.frameLength(1, name.remaining()), correlationId, Message.OK).field(name).finish();
+    }
+
+    /**
+     * 把房间的历史消息写给连接，之后回复的{@link Message#OK}中带有下一次回放的起始偏移量。
+     * 历史消息是日志文件中的推送帧，会先于响应帧到达客户端
+     *
+     * @param connection    连接
+     * @param correlationId 请求id
+     * @param message       第一个字段是房间名，第二个字段是起始偏移量
+     * @return 处于写模式的响应帧
+     */
+    private ByteBuffer history(Connection connection, long correlationId, MessageDecoder message) {
+        if (!Journal.ENABLED) {
+            return error(correlationId, JOURNAL_DISABLED);
+        }
+        if (joined(connection, message.field(0)) == null) {
+            return error(correlationId, NOT_JOINED);
+        }
+        ByteBuffer name = Room.copy(message.field(0));
+        long next;
+        try {
+            next = Journal.INSTANCE.replay(name, message.field(1).getLong(0), connection);
+        } catch (IOException e) {
+            log.error("回放房间消息失败", e);
+            return error(correlationId, JOURNAL_FAILED);
+        }
+        ByteBuffer offset = ByteBuffer.allocate(Message.OFFSET_LENGTH).putLong(0, next);
+        return encoder(Message.frameLength(2, name.remaining() + Message.OFFSET_LENGTH), correlationId, Message.OK).field(name).field(offset).finish();
+    }
+
+    /**
+     * @param connection 连接
+     * @param name       房间名
+     * @return 连接已经加入的房间，没有加入时返回null
+     */
+    private Room joined(Connection connection, ByteBuffer name) {
+        Room room = Room.get(name);
+        Set<Room> rooms = joinedRooms.get(connection);
+        return room != null && rooms != null && rooms.contains(room) ? room : null;
+    }
+
+    /**
+     * @param correlationId 请求id
+     * @param reason        错误原因
+     * @return 处于写模式的错误响应帧
+     */
+    private ByteBuffer error(long correlationId, byte[] reason) {
+        return encoder(Message.frameLength(1, reason.length), correlationId, Message.ERROR).field(reason).finish();
+    }
+
+    /**
+     * @param frameLength   响应帧的长度
+     * @param correlationId 请求id
+     * @param messageType   消息类型
+     * @return 已经写入帧头的编码器，目标缓冲刚好能容纳整个响应帧
+     */
+    private MessageEncoder encoder(int frameLength, long correlationId, byte messageType) {
+        return ENCODER.get().wrap(ByteBuffer.allocate(frameLength), Frame.RESPONSE, correlationId, messageType);
+    }
+}
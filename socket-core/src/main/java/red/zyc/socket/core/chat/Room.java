@@ -0,0 +1,210 @@
+package red.zyc.socket.core.chat;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import red.zyc.socket.core.cluster.Cluster;
+import red.zyc.socket.core.codec.Frame;
+import red.zyc.socket.core.journal.Journal;
+import red.zyc.socket.core.message.Message;
+import red.zyc.socket.core.message.MessageDecoder;
+import red.zyc.socket.core.message.MessageEncoder;
+import red.zyc.socket.core.transport.Connection;
+
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * 聊天房间。房间成员按照负责其读写的{@link Connection#eventLoop() 执行器}分组保存，
+ * 这样一次广播只需要编码一次消息，然后给每个执行器提交一个任务，由执行器把消息写给自己负责的所有成员，
+ * 例如nio的每个SubReactor只会被唤醒一次，而不是每个成员都复制一次消息并唤醒一次SubReactor。
+ * 开启{@link Cluster 集群模式}之后，编码好的消息还会原样转发给其它有该房间成员的节点。
+ * 开启{@link Journal 消息日志}之后，消息先追加到房间的日志中，广播的是日志文件中这条记录的视图，correlationId是消息在房间中的偏移量。<br><br>
+ * 只有{@link #join}会创建房间，最后一个成员离开时房间被移除，所以客户端用任意房间名发送请求也不会让{@link #ROOMS}无限增长。
+ *
+ * @author zyc
+ */
+@Slf4j
+@Getter
+public class Room {
+
+    /**
+     * 所有房间，key为utf-8编码的房间名。{@link ByteBuffer}的equals和hashCode只比较剩余的内容，
+     * 所以可以直接用请求中的房间名字段查找房间而不需要先解码成字符串
+     */
+    private static final Map<ByteBuffer, Room> ROOMS = new ConcurrentHashMap<>();
+
+    /**
+     * utf-8编码的房间名，只读
+     */
+    private final ByteBuffer name;
+
+    /**
+     * 房间成员，key为负责成员读写的执行器，value为该执行器负责的房间成员
+     */
+    private final Map<Executor, Set<Connection>> members = new ConcurrentHashMap<>();
+
+    /**
+     * 本节点的成员数，从0变成1和从1变成0时通知集群
+     */
+    private int memberCount;
+
+    /**
+     * 最后一个成员离开之后房间已经从{@link #ROOMS}中移除，之后不能再加入，和{@link #memberCount}一起由房间的锁保护
+     */
+    private boolean removed;
+
+    private Room(ByteBuffer name) {
+        this.name = name;
+    }
+
+    /**
+     * @param name utf-8编码的房间名，查找过程中不会改变它的position
+     * @return 名称对应的房间，不存在时返回null
+     */
+    public static Room get(ByteBuffer name) {
+        return ROOMS.get(name);
+    }
+
+    /**
+     * 加入房间，房间不存在时创建一个
+     *
+     * @param name       utf-8编码的房间名，查找过程中不会改变它的position
+     * @param connection 连接
+     * @return 连接加入的房间
+     */
+    public static Room join(ByteBuffer name, Connection connection) {
+        while (true) {
+            Room room = ROOMS.get(name);
+            if (room == null) {
+                room = ROOMS.computeIfAbsent(copy(name), Room::new);
+            }
+
+            // 拿到房间之后它可能刚好因为最后一个成员离开而被移除了，这时重新创建一个
+            if (room.join(connection)) {
+                return room;
+            }
+        }
+    }
+
+    /**
+     * @param name 房间名，可能是请求帧的视图
+     * @return 房间名的只读副本，可以在请求帧失效之后继续使用，复制过程中不会改变原来的position
+     */
+    public static ByteBuffer copy(ByteBuffer name) {
+        return ByteBuffer.allocate(name.remaining()).put(name.duplicate()).flip().asReadOnlyBuffer();
+    }
+
+    /**
+     * @return 只读的房间名视图，调用方可以随意移动它的position
+     */
+    public ByteBuffer getName() {
+        return name.duplicate();
+    }
+
+    /**
+     * 加入房间
+     *
+     * @param connection 连接
+     * @return 房间已经被移除时返回false
+     */
+    private boolean join(Connection connection) {
+
+        // 成员数的变化和通知集群要一起加锁，否则订阅和取消订阅可能以相反的顺序到达其它节点
+        synchronized (this) {
+            if (removed) {
+                return false;
+            }
+            if (members.computeIfAbsent(connection.eventLoop(), eventLoop -> ConcurrentHashMap.newKeySet()).add(connection) && memberCount++ == 0) {
+                Cluster.INSTANCE.subscribe(name);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 离开房间，最后一个成员离开时移除房间
+     *
+     * @param connection 连接
+     */
+    public void leave(Connection connection) {
+
+        // 连接可能在加入房间之后被迁移到了其它执行器，例如nio的SubReactor缩容，这时要在所有分组中查找
+        Set<Connection> local = members.get(connection.eventLoop());
+        if ((local != null && local.remove(connection)) || members.values().stream().anyMatch(group -> group.remove(connection))) {
+            synchronized (this) {
+                if (--memberCount == 0) {
+                    Cluster.INSTANCE.unsubscribe(name);
+                    removed = true;
+                    ROOMS.remove(name, this);
+                }
+            }
+        }
+    }
+
+    /**
+     * 向房间内所有成员广播一条消息。消息只会被编码一次到一个只读的直接缓冲中，
+     * 每个执行器只会收到一次任务提交，成员写数据时使用的是这个缓冲的{@link ByteBuffer#duplicate() 副本视图}，
+     * 副本与原缓冲共享内容但拥有独立的position和limit，所以不会复制消息内容。
+     *
+     * @param sender  发送者
+     * @param message 消息内容，编码过程中不会改变它的position
+     * @throws java.io.UncheckedIOException 写入消息日志失败，这时消息不会被广播
+     */
+    public void publish(Connection sender, ByteBuffer message) {
+        ByteBuffer shared = Journal.INSTANCE.append(name, encode(sender, message));
+        fanOut(shared);
+        Cluster.INSTANCE.relay(name, shared);
+    }
+
+    /**
+     * 将其它节点转发的推送帧写给本节点的成员，不会再转发给其它节点。开启消息日志时同样先追加到本节点的日志中
+     *
+     * @param frame 处于读模式的推送帧，第一个字段是房间名
+     */
+    public static void deliver(ByteBuffer frame) {
+        ByteBuffer name = new MessageDecoder().wrap(frame.duplicate().position(Frame.HEADER_LENGTH)).field(0);
+        Room room = ROOMS.get(name);
+        if (room != null) {
+            try {
+                room.fanOut(Journal.INSTANCE.append(room.name, frame));
+            } catch (UncheckedIOException e) {
+                log.error("持久化其它节点转发的房间消息失败", e);
+            }
+        }
+    }
+
+    /**
+     * 给每个执行器提交一次任务，由执行器把消息写给自己负责的所有成员
+     *
+     * @param shared 只读的推送帧
+     */
+    private void fanOut(ByteBuffer shared) {
+        members.forEach((eventLoop, local) -> {
+            if (!local.isEmpty()) {
+                eventLoop.execute(() -> local.forEach(member -> member.write(shared.duplicate())));
+            }
+        });
+    }
+
+    /**
+     * 将广播消息编码成一个服务端推送帧，字段依次为房间名、发送者uuid和消息内容
+     *
+     * @param sender  发送者
+     * @param message 消息内容
+     * @return 只读的消息缓冲
+     */
+    private ByteBuffer encode(Connection sender, ByteBuffer message) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Message.frameLength(3, name.remaining() + Message.UUID_LENGTH + message.remaining()));
+        return new MessageEncoder().wrap(buffer, Frame.PUSH, 0, Message.MESSAGE)
+                .field(name)
+                .field(sender.getUuid())
+                .field(message)
+                .finish()
+                .flip()
+                .asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,253 @@
+package red.zyc.socket.core.cluster;
+
+import lombok.extern.slf4j.Slf4j;
+import red.zyc.socket.core.codec.Frame;
+import red.zyc.socket.core.message.Message;
+import red.zyc.socket.core.message.MessageEncoder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 集群模式。多个服务端节点两两之间保持持久的tcp链路，连接在不同节点上的客户端可以加入同一个房间互相发送消息。<br><br>
+ * 每个节点只通过自己发起的{@link ClusterLink 出站链路}发送数据，只通过对端发起的入站链路接收数据。
+ * 本节点的某个房间有了第一个成员时向所有对端发送{@link #SUBSCRIBE}，最后一个成员离开时发送{@link #UNSUBSCRIBE}，
+ * 对端据此维护路由表：房间名到有该房间成员的节点的出站链路。房间广播的消息编码成推送帧之后，
+ * 除了写给本节点的成员，还会原样放入路由表中每个节点的出站链路，对端收到之后只写给自己的成员，不会再转发，所以节点之间必须两两相连。<br><br>
+ * 可以通过以下系统属性配置：
+ * <ul>
+ *     <li>socket.cluster.port：接收其它节点链路的端口，配置之后开启集群模式</li>
+ *     <li>socket.cluster.host：接收其它节点链路时绑定的地址，默认绑定所有网卡，建议配置成节点之间内网的地址</li>
+ *     <li>socket.cluster.nodeId：本节点的id，默认为localhost:${socket.cluster.port}，必须与其它节点配置的对端地址一致</li>
+ *     <li>socket.cluster.peers：其它节点的地址，格式为host:port，多个地址用逗号分隔，地址同时也是对端节点的id</li>
+ * </ul>
+ * 链路相关的配置见{@link ClusterLink}。
+ *
+ * @author zyc
+ */
+@Slf4j
+public final class Cluster {
+
+    /**
+     * 接收其它节点链路的端口
+     */
+    public static final int PORT = Integer.getInteger("socket.cluster.port", 0);
+
+    /**
+     * 接收其它节点链路时绑定的地址，为空时绑定所有网卡
+     */
+    public static final String HOST = System.getProperty("socket.cluster.host", "");
+
+    /**
+     * 是否开启集群模式
+     */
+    public static final boolean ENABLED = PORT > 0;
+
+    /**
+     * 本节点的id
+     */
+    public static final String NODE_ID = System.getProperty("socket.cluster.nodeId", "localhost:" + PORT);
+
+    /**
+     * 其它节点的地址
+     */
+    public static final String PEERS = System.getProperty("socket.cluster.peers", "");
+
+    /**
+     * 节点之间通信的消息类型从16开始，避免与{@link Message}中业务消息的类型冲突。
+     * 入站链路建立之后对端发送的第一条消息，字段为对端节点的id
+     */
+    static final byte HELLO = 16;
+
+    /**
+     * 清除对端在本节点路由表中的所有房间，之后对端会重新发送它的所有房间
+     */
+    static final byte RESET = 17;
+
+    /**
+     * 对端有了某个房间的成员，字段为房间名
+     */
+    static final byte SUBSCRIBE = 18;
+
+    /**
+     * 对端不再有某个房间的成员，字段为房间名
+     */
+    static final byte UNSUBSCRIBE = 19;
+
+    /**
+     * 所有节点共用的实例
+     */
+    public static final Cluster INSTANCE = new Cluster();
+
+    /**
+     * 到每个对端节点的出站链路，key为对端节点的id
+     */
+    private final Map<String, ClusterLink> links;
+
+    /**
+     * 路由表，key为房间名，value为有该房间成员的节点的出站链路
+     */
+    private final Map<ByteBuffer, Set<ClusterLink>> routes = new ConcurrentHashMap<>();
+
+    /**
+     * 本节点有成员的所有房间，出站链路建立时发送给对端
+     */
+    private final Set<ByteBuffer> localRooms = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 是否已经启动
+     */
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private Cluster() {
+        this.links = Arrays.stream(PEERS.split(","))
+                .map(String::trim)
+                .filter(peer -> !peer.isEmpty())
+                .collect(Collectors.toUnmodifiableMap(Function.identity(), peer -> new ClusterLink(peer, address(peer), this)));
+    }
+
+    /**
+     * 开始接收其它节点的链路并连接所有对端节点，未开启集群模式或者已经启动时什么也不做
+     *
+     * @param relayListener 收到其它节点转发的推送帧时的回调，在入站链路的读线程中执行
+     * @throws IOException io异常
+     */
+    public void start(Consumer<ByteBuffer> relayListener) throws IOException {
+        if (!ENABLED || !started.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            new ClusterReceiver(HOST, PORT, this, relayListener).start();
+        } catch (IOException | RuntimeException e) {
+            started.set(false);
+            throw e;
+        }
+        links.values().forEach(ClusterLink::start);
+        log.info("节点{}开启集群模式，监听地址: {}:{}，对端节点: {}", NODE_ID, HOST.isEmpty() ? "*" : HOST, PORT, links.keySet());
+    }
+
+    /**
+     * 本节点的房间有了第一个成员
+     *
+     * @param room 只读的房间名
+     */
+    public void subscribe(ByteBuffer room) {
+        if (ENABLED) {
+            localRooms.add(room);
+            broadcast(control(SUBSCRIBE, room));
+        }
+    }
+
+    /**
+     * 本节点的房间的最后一个成员离开了
+     *
+     * @param room 只读的房间名
+     */
+    public void unsubscribe(ByteBuffer room) {
+        if (ENABLED) {
+            localRooms.remove(room);
+            broadcast(control(UNSUBSCRIBE, room));
+        }
+    }
+
+    /**
+     * 将房间广播的推送帧转发给有该房间成员的节点。对端处理不过来时最多等待{@link ClusterLink#OFFER_TIMEOUT_MILLIS}，
+     * 让调用方的业务线程感受到反压
+     *
+     * @param room  房间名
+     * @param frame 处于读模式的推送帧，转发时使用它的副本视图，不会复制内容
+     */
+    public void relay(ByteBuffer room, ByteBuffer frame) {
+        if (!ENABLED) {
+            return;
+        }
+        Set<ClusterLink> targets = routes.get(room);
+        if (targets != null) {
+            targets.forEach(link -> link.relay(frame.duplicate()));
+        }
+    }
+
+    /**
+     * @param nodeId 对端节点的id
+     * @return 到该节点的出站链路，没有配置时返回null
+     */
+    ClusterLink link(String nodeId) {
+        return links.get(nodeId);
+    }
+
+    /**
+     * @return 本节点有成员的所有房间
+     */
+    Set<ByteBuffer> localRooms() {
+        return localRooms;
+    }
+
+    void route(ByteBuffer room, ClusterLink link) {
+        routes.computeIfAbsent(room, r -> ConcurrentHashMap.newKeySet()).add(link);
+    }
+
+    void unroute(ByteBuffer room, ClusterLink link) {
+        Set<ClusterLink> targets = routes.get(room);
+        if (targets != null) {
+            targets.remove(link);
+        }
+    }
+
+    /**
+     * 从路由表中移除一个节点的所有房间
+     *
+     * @param link 到该节点的出站链路
+     */
+    void unrouteAll(ClusterLink link) {
+        routes.values().forEach(targets -> targets.remove(link));
+    }
+
+    /**
+     * @param type  消息类型
+     * @param field 唯一的字段
+     * @return 处于读模式的控制帧
+     */
+    static ByteBuffer control(byte type, ByteBuffer field) {
+        return new MessageEncoder()
+                .wrap(ByteBuffer.allocate(Message.frameLength(1, field.remaining())), Frame.PUSH, 0, type)
+                .field(field)
+                .finish()
+                .flip();
+    }
+
+    /**
+     * @return 本节点的HELLO帧
+     */
+    static ByteBuffer hello() {
+        return control(HELLO, StandardCharsets.UTF_8.encode(NODE_ID));
+    }
+
+    /**
+     * @return RESET帧
+     */
+    static ByteBuffer reset() {
+        return new MessageEncoder()
+                .wrap(ByteBuffer.allocate(Message.frameLength(0, 0)), Frame.PUSH, 0, RESET)
+                .finish()
+                .flip();
+    }
+
+    private void broadcast(ByteBuffer frame) {
+        links.values().forEach(link -> link.control(frame.duplicate()));
+    }
+
+    private static InetSocketAddress address(String peer) {
+        int index = peer.lastIndexOf(':');
+        return new InetSocketAddress(peer.substring(0, index), Integer.parseInt(peer.substring(index + 1)));
+    }
+}
@@ -0,0 +1,243 @@
+package red.zyc.socket.core.cluster;
+
+import lombok.extern.slf4j.Slf4j;
+import red.zyc.socket.core.codec.Frame;
+import red.zyc.socket.core.message.Message;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 到一个对端节点的出站链路。所有要发给对端的帧先放入有界的发送队列，由链路自己的线程批量取出，
+ * 通过一次gathering write写入同一个tcp连接，所以高并发广播时多个帧会合并成一次系统调用。<br><br>
+ * 队列已满说明对端或者网络处理不过来，转发的推送帧最多等待{@link #OFFER_TIMEOUT_MILLIS}，仍然放不进去则丢弃，
+ * 这样反压会传递给调用方的业务线程，而不会让队列无限增长。控制帧不会等待，放不进去时标记需要重新同步，
+ * 由链路线程丢弃队列中所有还没有发送的控制帧，再发送RESET和本节点当前的所有房间。链路断开之后每隔{@link #RECONNECT_INTERVAL_MILLIS}重连一次，
+ * 断开期间的帧直接丢弃，重连之后重新同步房间。<br><br>
+ * 可以通过以下系统属性配置：
+ * <ul>
+ *     <li>socket.cluster.queueCapacity：每条链路发送队列的容量，默认8192个帧</li>
+ *     <li>socket.cluster.offerTimeout：发送队列已满时转发的推送帧最多等待的毫秒数，默认100</li>
+ *     <li>socket.cluster.reconnectInterval：链路断开之后重连的间隔毫秒数，默认1000</li>
+ * </ul>
+ *
+ * @author zyc
+ */
+@Slf4j
+final class ClusterLink implements Runnable {
+
+    /**
+     * 发送队列的容量
+     */
+    static final int QUEUE_CAPACITY = Integer.getInteger("socket.cluster.queueCapacity", 8192);
+
+    /**
+     * 发送队列已满时转发的推送帧最多等待的时间
+     */
+    static final long OFFER_TIMEOUT_MILLIS = Long.getLong("socket.cluster.offerTimeout", 100);
+
+    /**
+     * 链路断开之后重连的间隔
+     */
+    static final long RECONNECT_INTERVAL_MILLIS = Long.getLong("socket.cluster.reconnectInterval", 1000);
+
+    /**
+     * 一次gathering write最多合并的帧数
+     */
+    private static final int MAX_BATCH = 256;
+
+    /**
+     * 对端节点的id
+     */
+    private final String nodeId;
+
+    private final InetSocketAddress address;
+
+    private final Cluster cluster;
+
+    private final BlockingQueue<ByteBuffer> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    /**
+     * 因为链路断开或者队列已满被丢弃的推送帧数
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * 对端发起的当前入站链路，对端重启之后旧的入站链路可能比新的入站链路更晚断开
+     */
+    private final AtomicReference<Socket> inbound = new AtomicReference<>();
+
+    /**
+     * 链路是否已经建立，未建立时所有帧直接丢弃
+     */
+    private volatile boolean connected;
+
+    /**
+     * 是否有控制帧因为队列已满被丢弃，需要重新同步房间
+     */
+    private volatile boolean resync;
+
+    ClusterLink(String nodeId, InetSocketAddress address, Cluster cluster) {
+        this.nodeId = nodeId;
+        this.address = address;
+        this.cluster = cluster;
+    }
+
+    /**
+     * 启动链路线程
+     */
+    void start() {
+        Thread thread = new Thread(this, "ClusterLink-" + nodeId);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 转发一个推送帧，队列已满时最多等待{@link #OFFER_TIMEOUT_MILLIS}
+     *
+     * @param frame 处于读模式的推送帧
+     */
+    void relay(ByteBuffer frame) {
+        try {
+            if (connected && queue.offer(frame, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long count = dropped.incrementAndGet();
+
+        // 链路断开或者对端持续处理不过来时每1024个帧只打印一次日志
+        if ((count & 1023) == 1) {
+            log.warn("到节点{}的链路{}，已丢弃{}个转发的推送帧", nodeId, connected ? "发送队列已满" : "未建立", count);
+        }
+    }
+
+    /**
+     * 发送一个控制帧，不会等待
+     *
+     * @param frame 处于读模式的控制帧
+     */
+    void control(ByteBuffer frame) {
+        if (connected && !queue.offer(frame)) {
+            resync = true;
+        }
+    }
+
+    /**
+     * 对端节点发起的入站链路的来源ip应当是配置的地址解析出的ip之一。每次握手时重新解析，所以对端的域名指向新的ip之后不需要重启本节点
+     *
+     * @param remote 入站链路的来源ip
+     * @return 来源ip是否属于这个对端节点
+     */
+    boolean accepts(InetAddress remote) {
+        try {
+            return Arrays.asList(InetAddress.getAllByName(address.getHostString())).contains(remote);
+        } catch (UnknownHostException e) {
+            log.warn("解析节点{}的地址失败", nodeId, e);
+            return false;
+        }
+    }
+
+    /**
+     * 对端发起的入站链路收到了HELLO
+     *
+     * @param socket 入站链路
+     */
+    void attach(Socket socket) {
+        inbound.set(socket);
+    }
+
+    /**
+     * 对端发起的入站链路断开了
+     *
+     * @param socket 入站链路
+     * @return 断开的是否是当前的入站链路，只有这时才需要清除对端的路由
+     */
+    boolean detach(Socket socket) {
+        return inbound.compareAndSet(socket, null);
+    }
+
+    @Override
+    public void run() {
+        List<ByteBuffer> batch = new ArrayList<>(MAX_BATCH);
+        while (!Thread.currentThread().isInterrupted()) {
+            try (SocketChannel channel = SocketChannel.open()) {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.connect(address);
+                connected = true;
+                log.info("已建立到节点{}的链路", nodeId);
+                resync = false;
+                sync(channel);
+                while (true) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    if (resync) {
+
+                        // 先清除标记再取出队列中剩下的帧，之后再被丢弃的控制帧会触发下一次同步
+                        resync = false;
+                        queue.drainTo(batch);
+                        batch.removeIf(frame -> frame.get(frame.position() + Frame.HEADER_LENGTH) != Message.MESSAGE);
+                        sync(channel);
+                    }
+                    if (!batch.isEmpty()) {
+                        write(channel, batch.toArray(ByteBuffer[]::new));
+                    }
+                    batch.clear();
+                }
+            } catch (IOException e) {
+                if (connected) {
+                    log.warn("到节点{}的链路已断开", nodeId, e);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                connected = false;
+                queue.clear();
+                batch.clear();
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(RECONNECT_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 让对端的路由表与本节点当前的房间一致。调用之前必须丢弃队列中已有的控制帧：有控制帧被丢弃时，
+     * 留在队列中的旧的订阅变化可能与快照矛盾，例如SUBSCRIBE被丢弃之后，排在它前面的UNSUBSCRIBE在快照之后发送，
+     * 对端就会删除本节点仍然有成员的房间。快照之后放入队列的控制帧反映的是更新的变化，按顺序发送即可
+     *
+     * @param channel 链路
+     * @throws IOException io异常
+     */
+    private void sync(SocketChannel channel) throws IOException {
+        List<ByteBuffer> frames = new ArrayList<>();
+        frames.add(Cluster.hello());
+        frames.add(Cluster.reset());
+        cluster.localRooms().forEach(room -> frames.add(Cluster.control(Cluster.SUBSCRIBE, room)));
+        write(channel, frames.toArray(ByteBuffer[]::new));
+    }
+
+    private static void write(SocketChannel channel, ByteBuffer[] frames) throws IOException {
+        ByteBuffer last = frames[frames.length - 1];
+        while (last.hasRemaining()) {
+            channel.write(frames);
+        }
+    }
+}
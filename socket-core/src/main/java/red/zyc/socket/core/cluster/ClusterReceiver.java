@@ -0,0 +1,144 @@
+package red.zyc.socket.core.cluster;
+
+import lombok.extern.slf4j.Slf4j;
+import red.zyc.socket.core.codec.CodecException;
+import red.zyc.socket.core.codec.Frame;
+import red.zyc.socket.core.codec.FrameCodec;
+import red.zyc.socket.core.message.Message;
+import red.zyc.socket.core.message.MessageDecoder;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * 接收其它节点发起的入站链路。节点数量很少，所以每条入站链路使用一个阻塞读的线程，
+ * 读到控制帧时更新{@link Cluster}的路由表，读到转发的推送帧时交给本节点的房间写给成员。<br><br>
+ * 链路上的第一个帧必须是{@link Cluster#HELLO}，其中的节点id必须在本节点的对端列表中，并且链路的来源ip必须是这个对端配置的地址解析出的ip之一，
+ * 否则直接关闭链路。节点id是公开的host:port，只校验它任何客户端都能冒充对端，所以还要校验来源ip；
+ * 这只是基于地址的校验，不是加密的身份认证，同一台机器上的其它进程或者能伪造来源地址的网络仍然可以冒充对端，
+ * 集群端口应当通过socket.cluster.host只绑定在节点之间的内网地址上。
+ *
+ * @author zyc
+ */
+@Slf4j
+final class ClusterReceiver implements Runnable {
+
+    /**
+     * 读缓冲大小64 KiB，链路上连续到达的小帧可以一次读进来
+     */
+    private static final int BUFFER_CAPACITY = 1 << 16;
+
+    private final ServerSocket serverSocket;
+
+    private final Cluster cluster;
+
+    private final Consumer<ByteBuffer> relayListener;
+
+    ClusterReceiver(String host, int port, Cluster cluster, Consumer<ByteBuffer> relayListener) throws IOException {
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.setReuseAddress(true);
+        this.serverSocket.bind(host.isEmpty() ? new InetSocketAddress(port) : new InetSocketAddress(host, port));
+        this.cluster = cluster;
+        this.relayListener = relayListener;
+    }
+
+    /**
+     * 启动接收链路的线程
+     */
+    void start() {
+        Thread thread = new Thread(this, "ClusterReceiver");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread thread = new Thread(() -> receive(socket), "ClusterReader-" + socket.getRemoteSocketAddress());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                log.error("接收集群链路失败", e);
+            }
+        }
+    }
+
+    /**
+     * 循环读取一条入站链路上的帧，直到链路断开
+     *
+     * @param socket 入站链路
+     */
+    private void receive(Socket socket) {
+        ClusterLink link = null;
+        MessageDecoder decoder = new MessageDecoder();
+        try (socket; DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_CAPACITY))) {
+            while (true) {
+                int length = in.readInt();
+                if (length < Frame.HEADER_LENGTH - Frame.LENGTH_FIELD_LENGTH || length > FrameCodec.MAX_FRAME_LENGTH) {
+                    throw new CodecException(String.format("不合法的帧长度: %d", length));
+                }
+
+                // 转发的推送帧会被原样写给本节点的成员，所以连同帧头一起读进一个独立的缓冲
+                byte[] bytes = new byte[Frame.LENGTH_FIELD_LENGTH + length];
+                in.readFully(bytes, Frame.LENGTH_FIELD_LENGTH, length);
+                ByteBuffer frame = ByteBuffer.wrap(bytes).putInt(0, length);
+                MessageDecoder message = decoder.wrap(frame.duplicate().position(Frame.HEADER_LENGTH));
+                if (message.type() == Cluster.HELLO) {
+                    if (link != null) {
+                        log.warn("{}在同一条集群链路上重复握手，链路已关闭", socket.getRemoteSocketAddress());
+                        return;
+                    }
+                    String nodeId = StandardCharsets.UTF_8.decode(message.field(0)).toString();
+                    ClusterLink peer = cluster.link(nodeId);
+                    if (peer == null) {
+                        log.warn("节点{}不在本节点的对端列表中，来自{}的集群链路已关闭", nodeId, socket.getRemoteSocketAddress());
+                        return;
+                    }
+                    if (!peer.accepts(socket.getInetAddress())) {
+                        log.warn("来自{}的集群链路自称节点{}，但来源ip与该节点配置的地址不符，链路已关闭", socket.getRemoteSocketAddress(), nodeId);
+                        return;
+                    }
+                    link = peer;
+                    link.attach(socket);
+                    continue;
+                }
+                if (link == null) {
+                    log.warn("{}没有先发送握手消息，集群链路已关闭", socket.getRemoteSocketAddress());
+                    return;
+                }
+                switch (message.type()) {
+                    case Message.MESSAGE -> relayListener.accept(frame.asReadOnlyBuffer());
+                    case Cluster.RESET -> cluster.unrouteAll(link);
+                    case Cluster.SUBSCRIBE -> cluster.route(copy(message.field(0)), link);
+                    case Cluster.UNSUBSCRIBE -> cluster.unroute(message.field(0), link);
+                    default -> log.warn("节点{}发送了未知类型的消息: {}", socket.getRemoteSocketAddress(), message.type());
+                }
+            }
+        } catch (IOException | CodecException e) {
+            log.warn("来自{}的集群链路已断开", socket.getRemoteSocketAddress(), e);
+        } finally {
+            if (link != null && link.detach(socket)) {
+                cluster.unrouteAll(link);
+            }
+        }
+    }
+
+    /**
+     * 路由表的key要独立于读缓冲
+     *
+     * @param room 房间名字段
+     * @return 只读的房间名
+     */
+    private static ByteBuffer copy(ByteBuffer room) {
+        return ByteBuffer.allocate(room.remaining()).put(room).flip().asReadOnlyBuffer();
+    }
+}
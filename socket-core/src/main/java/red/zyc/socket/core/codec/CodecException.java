@@ -0,0 +1,13 @@
+package red.zyc.socket.core.codec;
+
+/**
+ * 编解码异常，通常代表对端发送了不符合协议的数据，遇到这个异常应当断开连接
+ *
+ * @author zyc
+ */
+public class CodecException extends RuntimeException {
+
+    public CodecException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,200 @@
+package red.zyc.socket.core.codec;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 由多个{@link ByteBuffer}按顺序拼接而成的只读视图，大帧的内容通常分散在多次读到的多个缓冲块中，
+ * 解码器直接把这些缓冲块的切片组合起来交给业务逻辑，而不是复制到一个越来越大的连续数组中。<br><br>
+ * 所有读取方法都使用从0开始的绝对索引，不会改变任何组成部分的position。只有调用{@link #toByteBuffer()}时才会把多个组成部分合并成一个连续的缓冲，
+ * 只有一个组成部分时直接返回它的视图，不会复制。
+ *
+ * @author zyc
+ */
+public final class CompositeBuffer {
+
+    /**
+     * 不包含任何数据的实例
+     */
+    public static final CompositeBuffer EMPTY = new CompositeBuffer(new ByteBuffer[0]);
+
+    /**
+     * 所有组成部分，都处于读模式，position到limit之间是有效数据
+     */
+    private final ByteBuffer[] components;
+
+    /**
+     * 每个组成部分在整个视图中的起始索引，最后一个元素是总字节数
+     */
+    private final int[] offsets;
+
+    /**
+     * 合并之后的连续缓冲，第一次调用{@link #toByteBuffer()}时创建。多个线程同时创建时内容相同，所以不需要同步
+     */
+    private ByteBuffer flattened;
+
+    private CompositeBuffer(ByteBuffer[] components) {
+        this.components = components;
+        this.offsets = new int[components.length + 1];
+        for (int i = 0; i < components.length; i++) {
+            offsets[i + 1] = offsets[i] + components[i].remaining();
+        }
+    }
+
+    /**
+     * @param components 处于读模式的组成部分，之后不能再修改它们的内容、position和limit
+     * @return 按顺序拼接这些组成部分的视图
+     */
+    public static CompositeBuffer of(ByteBuffer... components) {
+        return new CompositeBuffer(components.clone());
+    }
+
+    /**
+     * @return 总字节数
+     */
+    public int remaining() {
+        return offsets[components.length];
+    }
+
+    /**
+     * @return 组成部分的个数
+     */
+    public int componentCount() {
+        return components.length;
+    }
+
+    /**
+     * @param index 绝对索引
+     * @return 索引处的字节
+     */
+    public byte get(int index) {
+        int component = component(index);
+        ByteBuffer buffer = components[component];
+        return buffer.get(buffer.position() + index - offsets[component]);
+    }
+
+    /**
+     * @param index 绝对索引
+     * @return 从索引处开始的大端short，可以跨越组成部分的边界
+     */
+    public short getShort(int index) {
+        int component = component(index);
+        ByteBuffer buffer = components[component];
+        if (index + Short.BYTES <= offsets[component + 1]) {
+            return buffer.getShort(buffer.position() + index - offsets[component]);
+        }
+        return (short) ((get(index) << 8) | (get(index + 1) & 0xff));
+    }
+
+    /**
+     * @param index 绝对索引
+     * @return 从索引处开始的大端int，可以跨越组成部分的边界
+     */
+    public int getInt(int index) {
+        int component = component(index);
+        ByteBuffer buffer = components[component];
+        if (index + Integer.BYTES <= offsets[component + 1]) {
+            return buffer.getInt(buffer.position() + index - offsets[component]);
+        }
+        int value = 0;
+        for (int i = 0; i < Integer.BYTES; i++) {
+            value = (value << 8) | (get(index + i) & 0xff);
+        }
+        return value;
+    }
+
+    /**
+     * @param index 绝对索引
+     * @return 从索引处开始的大端long，可以跨越组成部分的边界
+     */
+    public long getLong(int index) {
+        int component = component(index);
+        ByteBuffer buffer = components[component];
+        if (index + Long.BYTES <= offsets[component + 1]) {
+            return buffer.getLong(buffer.position() + index - offsets[component]);
+        }
+        long value = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            value = (value << 8) | (get(index + i) & 0xff);
+        }
+        return value;
+    }
+
+    /**
+     * @param index  绝对索引
+     * @param length 字节数
+     * @return 与当前视图共享内容的子视图，不会复制数据
+     */
+    public CompositeBuffer slice(int index, int length) {
+        if (index < 0 || length < 0 || index + length > remaining()) {
+            throw new IndexOutOfBoundsException(String.format("index: %d, length: %d, remaining: %d", index, length, remaining()));
+        }
+        if (length == 0) {
+            return EMPTY;
+        }
+        int first = component(index);
+        int last = component(index + length - 1);
+        ByteBuffer[] sliced = new ByteBuffer[last - first + 1];
+        for (int i = first; i <= last; i++) {
+            ByteBuffer buffer = components[i];
+            int from = Math.max(index, offsets[i]) - offsets[i];
+            int to = Math.min(index + length, offsets[i + 1]) - offsets[i];
+            sliced[i - first] = buffer.slice(buffer.position() + from, to - from);
+        }
+        return new CompositeBuffer(sliced);
+    }
+
+    /**
+     * @return 所有组成部分的副本视图，可以直接用于gathering write
+     */
+    public ByteBuffer[] components() {
+        return Arrays.stream(components).map(ByteBuffer::duplicate).toArray(ByteBuffer[]::new);
+    }
+
+    /**
+     * 把全部内容复制到目标缓冲的position处
+     *
+     * @param target 处于写模式的目标缓冲，剩余空间至少为{@link #remaining()}
+     * @return 目标缓冲
+     */
+    public ByteBuffer copyTo(ByteBuffer target) {
+        for (ByteBuffer component : components) {
+            target.put(component.duplicate());
+        }
+        return target;
+    }
+
+    /**
+     * @return 内容连续的缓冲，处于读模式。只有一个组成部分时返回它的副本视图，否则第一次调用时复制一次，之后返回同一份数据的副本视图
+     */
+    public ByteBuffer toByteBuffer() {
+        if (components.length == 1) {
+            return components[0].duplicate();
+        }
+        ByteBuffer buffer = flattened;
+        if (buffer == null) {
+            flattened = buffer = copyTo(ByteBuffer.allocate(remaining())).flip();
+        }
+        return buffer.duplicate();
+    }
+
+    /**
+     * @param index 绝对索引
+     * @return 索引所在的组成部分
+     */
+    private int component(int index) {
+        if (index < 0 || index >= remaining()) {
+            throw new IndexOutOfBoundsException(String.format("index: %d, remaining: %d", index, remaining()));
+        }
+        int i = Arrays.binarySearch(offsets, index);
+
+        // 空的组成部分与下一个组成部分的起始索引相同，取最后一个起始索引等于index的组成部分
+        if (i >= 0) {
+            while (i + 1 < components.length && offsets[i + 1] == index) {
+                i++;
+            }
+            return i;
+        }
+        return -i - 2;
+    }
+}
@@ -0,0 +1,74 @@
+package red.zyc.socket.core.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 一个完整的协议帧。帧的格式如下：
+ * <pre>
+ * +------------+----------+--------------------+-----------------+
+ * | length (4) | type (1) | correlationId (8)  | payload (n)     |
+ * +------------+----------+--------------------+-----------------+
+ * </pre>
+ * length是length字段之后所有字节的长度，即{@code 1 + 8 + n}；correlationId用来把响应和请求对应起来，
+ * 这样客户端可以在一个连接上同时发送多个请求而不用等待上一个请求的响应。<br><br>
+ * 帧的内容是一个{@link CompositeBuffer}，大帧的内容可能由多次读到的多个缓冲块组成，需要零复制访问的业务逻辑直接使用{@link #body()}，
+ * {@link #payload()}会在需要时把内容合并成一个连续的缓冲。
+ *
+ * @param type          帧类型
+ * @param correlationId 请求id，响应帧的correlationId与请求帧相同，服务端主动推送的帧为0
+ * @param body          帧的内容
+ * @author zyc
+ */
+public record Frame(byte type, long correlationId, CompositeBuffer body) {
+
+    /**
+     * 客户端发送的请求
+     */
+    public static final byte REQUEST = 1;
+
+    /**
+     * 服务端对请求的响应
+     */
+    public static final byte RESPONSE = 2;
+
+    /**
+     * 服务端主动推送的消息，例如房间广播
+     */
+    public static final byte PUSH = 3;
+
+    /**
+     * 心跳，连接空闲时任意一端都可以发送
+     */
+    public static final byte PING = 4;
+
+    /**
+     * 心跳回复，correlationId与心跳帧相同
+     */
+    public static final byte PONG = 5;
+
+    /**
+     * length字段的长度
+     */
+    public static final int LENGTH_FIELD_LENGTH = 4;
+
+    /**
+     * 帧头的长度，包括length、type和correlationId
+     */
+    public static final int HEADER_LENGTH = LENGTH_FIELD_LENGTH + 1 + 8;
+
+    /**
+     * @param type          帧类型
+     * @param correlationId 请求id
+     * @param payload       内容连续的帧内容，处于读模式
+     */
+    public Frame(byte type, long correlationId, ByteBuffer payload) {
+        this(type, correlationId, CompositeBuffer.of(payload));
+    }
+
+    /**
+     * @return 内容连续的帧内容，处于读模式。内容由多个缓冲块组成时第一次调用会复制一次
+     */
+    public ByteBuffer payload() {
+        return body.toByteBuffer();
+    }
+}
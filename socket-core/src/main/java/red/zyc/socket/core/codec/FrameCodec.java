@@ -0,0 +1,71 @@
+package red.zyc.socket.core.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link Frame}编码器
+ *
+ * @author zyc
+ */
+public final class FrameCodec {
+
+    /**
+     * 默认的最大帧长度16 MiB，可以通过系统属性socket.frame.maxLength配置
+     */
+    public static final int MAX_FRAME_LENGTH = Integer.getInteger("socket.frame.maxLength", 1 << 24);
+
+    private FrameCodec() {
+    }
+
+    /**
+     * @param payloadLength 帧内容的长度
+     * @return 编码之后帧的总长度
+     */
+    public static int encodedLength(int payloadLength) {
+        return Frame.HEADER_LENGTH + payloadLength;
+    }
+
+    /**
+     * 将帧编码到一个新的堆缓冲中
+     *
+     * @param type          帧类型
+     * @param correlationId 请求id
+     * @param payload       帧内容，编码之后它的position会被移动到limit
+     * @return 处于读模式的缓冲
+     */
+    public static ByteBuffer encode(byte type, long correlationId, ByteBuffer payload) {
+        return encode(ByteBuffer.allocate(encodedLength(payload.remaining())), type, correlationId, payload).flip();
+    }
+
+    /**
+     * 将帧编码到目标缓冲中
+     *
+     * @param target        目标缓冲，必须有足够的剩余空间
+     * @param type          帧类型
+     * @param correlationId 请求id
+     * @param payload       帧内容，编码之后它的position会被移动到limit
+     * @return 目标缓冲
+     */
+    public static ByteBuffer encode(ByteBuffer target, byte type, long correlationId, ByteBuffer payload) {
+        return target.putInt(Frame.HEADER_LENGTH - Frame.LENGTH_FIELD_LENGTH + payload.remaining())
+                .put(type)
+                .putLong(correlationId)
+                .put(payload);
+    }
+
+    /**
+     * 将帧编码到目标缓冲中，适用于帧内容已经是字节数组的场景，不需要再包装成{@link ByteBuffer}
+     *
+     * @param target        目标缓冲，必须有足够的剩余空间
+     * @param type          帧类型
+     * @param correlationId 请求id
+     * @param payload       帧内容
+     * @return 目标缓冲
+     */
+    public static ByteBuffer encode(ByteBuffer target, byte type, long correlationId, byte[] payload) {
+        return target.putInt(Frame.HEADER_LENGTH - Frame.LENGTH_FIELD_LENGTH + payload.length)
+                .put(type)
+                .putLong(correlationId)
+                .put(payload);
+    }
+}
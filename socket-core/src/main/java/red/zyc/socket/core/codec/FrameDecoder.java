@@ -0,0 +1,252 @@
+package red.zyc.socket.core.codec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 有状态的{@link Frame}解码器，每个连接一个实例且只能被一个线程使用。
+ * 一次tcp读可能只读到半个帧，也可能读到多个帧，解码器会把不完整的数据暂存起来，等下一次读到剩余的数据之后再继续解码。<br><br>
+ * 通过scattering read一次读到多个缓冲块时使用{@link #decode(ByteBuffer[], int, Consumer)}，一个缓冲块放不下的大帧不会被复制到连续的数组中，
+ * 解码器直接保留这些缓冲块的切片，收完之后组合成{@link CompositeBuffer}作为帧的内容。一个连接只能使用其中一种解码方法。
+ *
+ * @author zyc
+ */
+public final class FrameDecoder {
+
+    private static final int INITIAL_CAPACITY = 1 << 8;
+
+    /**
+     * 暂存的数据全部解码完之后，容量超过这个值的缓冲会被释放，避免一个大帧之后一直占用大块内存
+     */
+    private static final int SHRINK_THRESHOLD = 1 << 16;
+
+    private final int maxFrameLength;
+
+    /**
+     * 暂存还没有解码的数据，处于写模式
+     */
+    private ByteBuffer cumulation = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+    /**
+     * 正在接收的大帧已经收到的部分，都是缓冲块的切片，处于读模式
+     */
+    private final List<ByteBuffer> parts = new ArrayList<>();
+
+    /**
+     * {@link #parts}中的总字节数
+     */
+    private int partsBytes;
+
+    /**
+     * 正在接收的大帧包括length字段在内的总字节数，没有正在接收的大帧时为0
+     */
+    private int expected;
+
+    public FrameDecoder() {
+        this(FrameCodec.MAX_FRAME_LENGTH);
+    }
+
+    public FrameDecoder(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * 解码数据中所有完整的帧
+     *
+     * @param in  新读到的数据，处于读模式，解码之后它的position会被移动到limit
+     * @param out 每解码出一个完整的帧就回调一次，帧的内容是独立的副本，可以交给其它线程使用
+     * @throws CodecException 帧长度不合法
+     */
+    public void decode(ByteBuffer in, Consumer<Frame> out) {
+        ensureWritable(in.remaining());
+        cumulation.put(in).flip();
+        try {
+            while (cumulation.remaining() >= Frame.LENGTH_FIELD_LENGTH) {
+                int length = frameLength(cumulation.getInt(cumulation.position()));
+                if (cumulation.remaining() < Frame.LENGTH_FIELD_LENGTH + length) {
+                    break;
+                }
+                out.accept(copyFrame(cumulation));
+            }
+        } finally {
+            cumulation.compact();
+            if (cumulation.position() == 0 && cumulation.capacity() > SHRINK_THRESHOLD) {
+                cumulation = ByteBuffer.allocate(INITIAL_CAPACITY);
+            }
+        }
+    }
+
+    /**
+     * 解码scattering read读到的所有缓冲块。完整地位于一个缓冲块中的帧和能放进一个缓冲块的不完整的帧会被复制出来，
+     * 这些缓冲块可以继续用于下一次读；一个缓冲块放不下的大帧直接保留缓冲块的切片，保留了切片的缓冲块在数组中会被置为null，
+     * 调用方需要换成新的缓冲块。
+     *
+     * @param chunks 处于写模式的缓冲块，按顺序填充，第一个没有数据的缓冲块之后都没有数据
+     * @param count  缓冲块的个数
+     * @param out    每解码出一个完整的帧就回调一次，帧的内容不会再被解码器修改，可以交给其它线程使用
+     * @throws CodecException 帧长度不合法
+     */
+    public void decode(ByteBuffer[] chunks, int count, Consumer<Frame> out) {
+        for (int i = 0; i < count && chunks[i].position() > 0; i++) {
+            ByteBuffer chunk = chunks[i].flip();
+            boolean retained = false;
+            while (chunk.hasRemaining()) {
+                retained |= decodeChunk(chunk, out);
+            }
+            if (retained) {
+                chunks[i] = null;
+            }
+        }
+    }
+
+    /**
+     * 从缓冲块的position处开始解码，至少消费一个字节
+     *
+     * @param chunk 处于读模式的缓冲块
+     * @param out   帧的回调
+     * @return 是否保留了缓冲块的切片
+     */
+    private boolean decodeChunk(ByteBuffer chunk, Consumer<Frame> out) {
+
+        // 正在接收大帧
+        if (expected > 0) {
+            int length = Math.min(chunk.remaining(), expected - partsBytes);
+            parts.add(chunk.slice(chunk.position(), length));
+            chunk.position(chunk.position() + length);
+            partsBytes += length;
+            if (partsBytes == expected) {
+                out.accept(compositeFrame());
+            }
+            return true;
+        }
+
+        // 上一个缓冲块末尾有一个不完整的帧
+        if (cumulation.position() > 0) {
+            accumulate(chunk, out);
+            return false;
+        }
+        if (chunk.remaining() < Frame.LENGTH_FIELD_LENGTH) {
+            ensureWritable(chunk.remaining());
+            cumulation.put(chunk);
+            return false;
+        }
+        int total = Frame.LENGTH_FIELD_LENGTH + frameLength(chunk.getInt(chunk.position()));
+        if (chunk.remaining() >= total) {
+            out.accept(copyFrame(chunk));
+            return false;
+        }
+        if (total > chunk.capacity()) {
+            expected = total;
+            partsBytes = chunk.remaining();
+            parts.add(chunk.slice());
+            chunk.position(chunk.limit());
+            return true;
+        }
+        ensureWritable(chunk.remaining());
+        cumulation.put(chunk);
+        return false;
+    }
+
+    /**
+     * 把缓冲块中的数据追加到{@link #cumulation}中暂存的不完整的帧，帧完整之后解码。
+     * 知道帧长度之后发现是一个缓冲块放不下的大帧时，把暂存的数据转为{@link #parts}的第一部分
+     *
+     * @param chunk 处于读模式的缓冲块
+     * @param out   帧的回调
+     */
+    private void accumulate(ByteBuffer chunk, Consumer<Frame> out) {
+        if (cumulation.position() < Frame.LENGTH_FIELD_LENGTH) {
+            int length = Math.min(Frame.LENGTH_FIELD_LENGTH - cumulation.position(), chunk.remaining());
+            ensureWritable(length);
+            transfer(chunk, length);
+            if (cumulation.position() < Frame.LENGTH_FIELD_LENGTH) {
+                return;
+            }
+        }
+        int total = Frame.LENGTH_FIELD_LENGTH + frameLength(cumulation.getInt(0));
+        if (total > chunk.capacity()) {
+            expected = total;
+            partsBytes = cumulation.position();
+            parts.add(ByteBuffer.allocate(partsBytes).put(cumulation.flip()).flip());
+            resetCumulation();
+            return;
+        }
+        int length = Math.min(total - cumulation.position(), chunk.remaining());
+        ensureWritable(length);
+        transfer(chunk, length);
+        if (cumulation.position() == total) {
+            out.accept(copyFrame(cumulation.flip()));
+            resetCumulation();
+        }
+    }
+
+    /**
+     * 从缓冲块中复制指定字节数到{@link #cumulation}
+     */
+    private void transfer(ByteBuffer chunk, int length) {
+        cumulation.put(cumulation.position(), chunk, chunk.position(), length);
+        cumulation.position(cumulation.position() + length);
+        chunk.position(chunk.position() + length);
+    }
+
+    private void resetCumulation() {
+        if (cumulation.capacity() > SHRINK_THRESHOLD) {
+            cumulation = ByteBuffer.allocate(INITIAL_CAPACITY);
+        } else {
+            cumulation.clear();
+        }
+    }
+
+    /**
+     * 读取position处的一个完整的帧，帧的内容复制到独立的数组中
+     *
+     * @param buffer 处于读模式的缓冲，position处至少有一个完整的帧
+     * @return 帧
+     */
+    private static Frame copyFrame(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        byte type = buffer.get();
+        long correlationId = buffer.getLong();
+        byte[] payload = new byte[length - (Frame.HEADER_LENGTH - Frame.LENGTH_FIELD_LENGTH)];
+        buffer.get(payload);
+        return new Frame(type, correlationId, ByteBuffer.wrap(payload));
+    }
+
+    /**
+     * @return 由{@link #parts}组成的大帧，帧的内容是不包括帧头的切片
+     */
+    private Frame compositeFrame() {
+        CompositeBuffer frame = CompositeBuffer.of(parts.toArray(ByteBuffer[]::new));
+        byte type = frame.get(Frame.LENGTH_FIELD_LENGTH);
+        long correlationId = frame.getLong(Frame.LENGTH_FIELD_LENGTH + 1);
+        CompositeBuffer body = frame.slice(Frame.HEADER_LENGTH, expected - Frame.HEADER_LENGTH);
+        parts.clear();
+        partsBytes = 0;
+        expected = 0;
+        return new Frame(type, correlationId, body);
+    }
+
+    /**
+     * @param length length字段的值
+     * @return 合法的帧长度
+     * @throws CodecException 帧长度不合法
+     */
+    private int frameLength(int length) {
+        if (length < Frame.HEADER_LENGTH - Frame.LENGTH_FIELD_LENGTH || length > maxFrameLength) {
+            throw new CodecException(String.format("不合法的帧长度: %d", length));
+        }
+        return length;
+    }
+
+    private void ensureWritable(int bytes) {
+        if (cumulation.remaining() < bytes) {
+            int capacity = cumulation.capacity();
+            while (capacity - cumulation.position() < bytes) {
+                capacity <<= 1;
+            }
+            cumulation = ByteBuffer.allocate(capacity).put(cumulation.flip());
+        }
+    }
+}
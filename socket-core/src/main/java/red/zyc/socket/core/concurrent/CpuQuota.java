@@ -0,0 +1,69 @@
+package red.zyc.socket.core.concurrent;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 当前进程可以使用的cpu数。jvm的容器支持可能被{@code -XX:-UseContainerSupport}关闭，
+ * 或者被{@code -XX:ActiveProcessorCount}设置成比cgroup配额更大的值，所以直接读取cgroup的cpu配额，
+ * 取它与{@link Runtime#availableProcessors()}中较小的一个。支持cgroup v2的cpu.max和cgroup v1的cpu.cfs_quota_us、cpu.cfs_period_us，
+ * 没有配额或者读取失败时返回{@link Runtime#availableProcessors()}。
+ *
+ * @author zyc
+ */
+@Slf4j
+public final class CpuQuota {
+
+    /**
+     * cgroup v2的cpu配额文件，内容为"配额 周期"，没有配额时配额为max
+     */
+    private static final Path CGROUP_V2_CPU_MAX = Path.of("/sys/fs/cgroup/cpu.max");
+
+    /**
+     * cgroup v1的cpu配额文件，没有配额时为-1
+     */
+    private static final Path CGROUP_V1_QUOTA = Path.of("/sys/fs/cgroup/cpu/cpu.cfs_quota_us");
+
+    /**
+     * cgroup v1的cpu周期文件
+     */
+    private static final Path CGROUP_V1_PERIOD = Path.of("/sys/fs/cgroup/cpu/cpu.cfs_period_us");
+
+    private CpuQuota() {
+    }
+
+    /**
+     * @return 当前进程可以使用的cpu数，至少为1
+     */
+    public static int availableProcessors() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int quota = quota();
+        return quota > 0 ? Math.max(1, Math.min(processors, quota)) : processors;
+    }
+
+    /**
+     * @return 向上取整的cgroup cpu配额，没有配额时返回-1
+     */
+    private static int quota() {
+        try {
+            if (Files.isReadable(CGROUP_V2_CPU_MAX)) {
+                String[] values = Files.readString(CGROUP_V2_CPU_MAX).trim().split("\\s+");
+                return "max".equals(values[0]) ? -1 : ceil(Long.parseLong(values[0]), Long.parseLong(values[1]));
+            }
+            if (Files.isReadable(CGROUP_V1_QUOTA) && Files.isReadable(CGROUP_V1_PERIOD)) {
+                long quota = Long.parseLong(Files.readString(CGROUP_V1_QUOTA).trim());
+                return quota <= 0 ? -1 : ceil(quota, Long.parseLong(Files.readString(CGROUP_V1_PERIOD).trim()));
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("读取cgroup cpu配额失败", e);
+        }
+        return -1;
+    }
+
+    private static int ceil(long quota, long period) {
+        return (int) Math.max(1, (quota + period - 1) / period);
+    }
+}
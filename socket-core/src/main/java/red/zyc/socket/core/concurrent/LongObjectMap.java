@@ -0,0 +1,207 @@
+package red.zyc.socket.core.concurrent;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.function.Consumer;
+
+/**
+ * key为long的开放寻址哈希表，使用线性探测，key直接保存在long数组中，不会装箱。<br><br>
+ * 同一时刻只能有一个线程修改，修改的线程需要由调用方保证互斥；任意线程都可以不加锁地并发读取。为了让读线程不需要任何锁：
+ * <ul>
+ *     <li>插入时先写入value再写入key，读线程看到key时一定也能看到value</li>
+ *     <li>删除时只把value置为null，key留在原处作为墓碑，不移动其它元素，读线程的探测序列不会被打断。
+ *     墓碑不会被其它key复用，否则读线程可能在读到旧key之后读到新key的value</li>
+ *     <li>扩容或者清理墓碑时把存活的元素复制到新的数组，再通过volatile字段整体替换，正在读取旧数组的线程不受影响</li>
+ * </ul>
+ * 读线程看到的是弱一致的结果：并发修改期间可能看到修改之前的状态，但不会看到一个key对应其它key的value。
+ * key不能为0，0代表空槽位。
+ *
+ * @param <V> value的类型
+ * @author zyc
+ */
+public final class LongObjectMap<V> {
+
+    /**
+     * 空槽位的key
+     */
+    private static final long EMPTY = 0;
+
+    /**
+     * 最小容量
+     */
+    private static final int MIN_CAPACITY = 16;
+
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    /**
+     * 当前的数组，扩容或者清理墓碑时整体替换
+     */
+    private volatile Table table = new Table(MIN_CAPACITY);
+
+    /**
+     * 存活的元素数
+     */
+    private volatile int size;
+
+    /**
+     * 已经被占用的槽位数，包括墓碑，只会被修改的线程访问
+     */
+    private int used;
+
+    /**
+     * @param key key
+     * @return key对应的value，不存在时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        Table t = table;
+        for (int i = index(key, t.mask); ; i = (i + 1) & t.mask) {
+            long k = (long) KEYS.getAcquire(t.keys, i);
+            if (k == key) {
+                return (V) VALUES.getAcquire(t.values, i);
+            }
+            if (k == EMPTY) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 插入或者替换，调用方需要保证没有其它线程同时修改
+     *
+     * @param key   不为0的key
+     * @param value 不为null的value
+     * @return 原来的value，不存在时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (key == EMPTY || value == null) {
+            throw new IllegalArgumentException("key不能为0，value不能为null");
+        }
+        Table t = table;
+        int i = index(key, t.mask);
+        for (long k; (k = t.keys[i]) != EMPTY; i = (i + 1) & t.mask) {
+            if (k == key) {
+                V old = (V) t.values[i];
+                VALUES.setRelease(t.values, i, value);
+                if (old == null) {
+                    size++;
+                }
+                return old;
+            }
+        }
+        if (used + 1 > t.keys.length >>> 1) {
+            rehash();
+            return put(key, value);
+        }
+        VALUES.setRelease(t.values, i, value);
+        KEYS.setRelease(t.keys, i, key);
+        used++;
+        size++;
+        return null;
+    }
+
+    /**
+     * 删除，调用方需要保证没有其它线程同时修改
+     *
+     * @param key key
+     * @return 原来的value，不存在时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        Table t = table;
+        for (int i = index(key, t.mask); ; i = (i + 1) & t.mask) {
+            long k = t.keys[i];
+            if (k == key) {
+                V old = (V) t.values[i];
+                if (old != null) {
+                    VALUES.setRelease(t.values, i, null);
+                    size--;
+                }
+                return old;
+            }
+            if (k == EMPTY) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return 存活的元素数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 遍历所有存活的value，可以在任意线程调用，结果是弱一致的
+     *
+     * @param action 对每个value执行的操作
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(Consumer<? super V> action) {
+        Table t = table;
+        for (int i = 0; i < t.values.length; i++) {
+            V value = (V) VALUES.getAcquire(t.values, i);
+            if (value != null) {
+                action.accept(value);
+            }
+        }
+    }
+
+    /**
+     * 把存活的元素复制到新的数组中，存活的元素超过容量的四分之一时容量翻倍，否则只清理墓碑
+     */
+    private void rehash() {
+        Table old = table;
+        int capacity = old.keys.length;
+        while (size + 1 > capacity >>> 2) {
+            capacity <<= 1;
+        }
+        Table t = new Table(Math.max(MIN_CAPACITY, capacity));
+        for (int i = 0; i < old.keys.length; i++) {
+            Object value = old.values[i];
+            if (value != null) {
+                int j = index(old.keys[i], t.mask);
+                while (t.keys[j] != EMPTY) {
+                    j = (j + 1) & t.mask;
+                }
+                t.keys[j] = old.keys[i];
+                t.values[j] = value;
+            }
+        }
+        used = size;
+        table = t;
+    }
+
+    /**
+     * 斐波那契哈希，连续的key会被分散到不相邻的槽位
+     *
+     * @param key  key
+     * @param mask 容量减1
+     * @return 槽位的索引
+     */
+    private static int index(long key, int mask) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    /**
+     * 同一时刻的key数组和value数组
+     */
+    private static final class Table {
+
+        private final long[] keys;
+
+        private final Object[] values;
+
+        private final int mask;
+
+        Table(int capacity) {
+            this.keys = new long[capacity];
+            this.values = new Object[capacity];
+            this.mask = capacity - 1;
+        }
+    }
+}
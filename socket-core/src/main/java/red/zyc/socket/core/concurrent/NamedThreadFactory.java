@@ -1,4 +1,4 @@
-package red.zyc.socket.aio.server;
+package red.zyc.socket.core.concurrent;
 
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
@@ -0,0 +1,169 @@
+package red.zyc.socket.core.heartbeat;
+
+import red.zyc.socket.core.codec.Frame;
+import red.zyc.socket.core.codec.FrameCodec;
+import red.zyc.socket.core.timer.HashedWheelTimer;
+import red.zyc.socket.core.timer.Timeout;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 应用层心跳。每个连接只有在一段时间内没有读到任何数据时才会发送一个很小的{@link Frame#PING}帧，
+ * 对端收到之后回复{@link Frame#PONG}帧；如果超过超时时间仍然没有读到任何数据，则认为对端已经失效并回收连接。<br><br>
+ * 读到数据时只需要更新一次最近读取时间，不会重新调度定时任务。所有连接共用一个{@link HashedWheelTimer}，
+ * 每个连接同一时刻只有一个定时任务，到期时根据最近读取时间决定发送心跳、回收连接或者推迟检查，
+ * 所以即使有上百万个连接也不需要额外的线程，也不会在连接繁忙时产生多余的心跳。<br><br>
+ * 可以通过以下系统属性配置：
+ * <ul>
+ *     <li>socket.heartbeat.enabled：是否开启心跳，默认开启</li>
+ *     <li>socket.heartbeat.interval：连接空闲多少毫秒之后发送心跳，默认30000</li>
+ *     <li>socket.heartbeat.timeout：连接空闲多少毫秒之后认为对端已经失效，默认90000</li>
+ * </ul>
+ *
+ * @author zyc
+ */
+public final class Heartbeat {
+
+    /**
+     * 是否开启心跳
+     */
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("socket.heartbeat.enabled", "true"));
+
+    /**
+     * 连接空闲多久之后发送心跳
+     */
+    public static final long INTERVAL_MILLIS = Long.getLong("socket.heartbeat.interval", 30_000);
+
+    /**
+     * 连接空闲多久之后认为对端已经失效
+     */
+    public static final long TIMEOUT_MILLIS = Long.getLong("socket.heartbeat.timeout", 90_000);
+
+    private static final long INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(INTERVAL_MILLIS);
+
+    private static final long TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+
+    /**
+     * 所有连接共用的时间轮，精度100毫秒，对于秒级的心跳足够了
+     */
+    private static final HashedWheelTimer TIMER = new HashedWheelTimer("Heartbeat", 100, TimeUnit.MILLISECONDS, 512);
+
+    /**
+     * 心跳帧没有内容，所有连接共用同一个只读的帧
+     */
+    private static final ByteBuffer PING = FrameCodec.encode(Frame.PING, 0, ByteBuffer.allocate(0)).asReadOnlyBuffer();
+
+    /**
+     * 未开启心跳时使用的空实现
+     */
+    private static final Heartbeat DISABLED = new Heartbeat(null);
+
+    private final Peer peer;
+
+    /**
+     * 最近一次读到数据的时间
+     */
+    private volatile long lastReadTime = System.nanoTime();
+
+    private volatile Timeout timeout;
+
+    private volatile boolean stopped;
+
+    private Heartbeat(Peer peer) {
+        this.peer = peer;
+    }
+
+    /**
+     * 开始检测一个连接
+     *
+     * @param peer 连接
+     * @return 连接的心跳，未开启心跳时返回一个什么都不做的实现
+     */
+    public static Heartbeat start(Peer peer) {
+        if (!ENABLED) {
+            return DISABLED;
+        }
+        Heartbeat heartbeat = new Heartbeat(peer);
+        heartbeat.schedule(INTERVAL_NANOS);
+        return heartbeat;
+    }
+
+    /**
+     * @return 一个新的心跳帧视图，处于读模式
+     */
+    public static ByteBuffer ping() {
+        return PING.duplicate();
+    }
+
+    /**
+     * @param correlationId 心跳帧的correlationId
+     * @return 心跳回复帧，处于读模式
+     */
+    public static ByteBuffer pong(long correlationId) {
+        return FrameCodec.encode(Frame.PONG, correlationId, ByteBuffer.allocate(0));
+    }
+
+    /**
+     * 读到数据时调用，任何数据都代表对端还活着
+     */
+    public void touch() {
+        if (peer != null) {
+            lastReadTime = System.nanoTime();
+        }
+    }
+
+    /**
+     * 连接断开时调用，停止检测
+     */
+    public void stop() {
+        stopped = true;
+        Timeout current = timeout;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    /**
+     * 在时间轮线程中执行，根据连接的空闲时间决定回收连接、发送心跳或者推迟检查
+     */
+    private void check() {
+        if (stopped) {
+            return;
+        }
+        long idle = System.nanoTime() - lastReadTime;
+        if (idle >= TIMEOUT_NANOS) {
+            stopped = true;
+            peer.expired();
+            return;
+        }
+        long delay = INTERVAL_NANOS - idle;
+        if (idle >= INTERVAL_NANOS) {
+            peer.ping(ping());
+            delay = INTERVAL_NANOS;
+        }
+        schedule(Math.min(delay, TIMEOUT_NANOS - idle));
+    }
+
+    private void schedule(long delayNanos) {
+        timeout = TIMER.newTimeout(this::check, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 被检测的连接，回调方法都在时间轮线程中执行，不能有阻塞操作
+     */
+    public interface Peer {
+
+        /**
+         * 连接空闲时发送心跳
+         *
+         * @param ping 心跳帧
+         */
+        void ping(ByteBuffer ping);
+
+        /**
+         * 超过超时时间没有读到任何数据，对端已经失效，应当断开连接
+         */
+        void expired();
+    }
+}
@@ -0,0 +1,41 @@
+package red.zyc.socket.core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.net.SocketAddress;
+
+/**
+ * accept到一个连接之后，准入检查、设置socket选项以及交给io线程所花费的时间。连接数超过上限被关闭的连接也会记录
+ *
+ * @author zyc
+ */
+@Name("red.zyc.socket.Accept")
+@Label("Accept")
+@Description("accept到一个连接之后交给io线程所花费的时间")
+@Category("Socket")
+@StackTrace(false)
+public class AcceptEvent extends Event {
+
+    @Label("Client Address")
+    String clientAddress;
+
+    @Label("Admitted")
+    boolean admitted;
+
+    /**
+     * @param address  客户端地址
+     * @param admitted 连接是否通过了准入检查
+     */
+    public void commit(SocketAddress address, boolean admitted) {
+        if (shouldCommit()) {
+            this.clientAddress = String.valueOf(address);
+            this.admitted = admitted;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package red.zyc.socket.core.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+import red.zyc.socket.core.transport.Connection;
+
+/**
+ * 请求帧从提交到业务线程池到开始执行所等待的时间。事件跨越了两个线程，不能在栈上创建，
+ * 所以只有{@link #TYPE}开启时才创建事件，没有开启记录时每个请求只多一次判断
+ *
+ * @author zyc
+ */
+@Name("red.zyc.socket.Dispatch")
+@Label("Dispatch")
+@Description("请求帧在业务线程池的队列中等待的时间")
+@Threshold("1 ms")
+public class DispatchEvent extends SocketEvent {
+
+    /**
+     * 事件类型，用来判断是否需要创建事件
+     */
+    public static final EventType TYPE = EventType.getEventType(DispatchEvent.class);
+
+    @Label("Correlation Id")
+    long correlationId;
+
+    /**
+     * @return 已经开始计时的事件，没有开启记录时返回null
+     */
+    public static DispatchEvent start() {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        DispatchEvent event = new DispatchEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param connection    连接
+     * @param correlationId 请求id
+     */
+    public void commit(Connection connection, long correlationId) {
+        if (shouldCommit()) {
+            connection(connection);
+            this.correlationId = correlationId;
+            commit();
+        }
+    }
+}
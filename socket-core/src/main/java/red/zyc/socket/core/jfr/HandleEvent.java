@@ -0,0 +1,34 @@
+package red.zyc.socket.core.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+import red.zyc.socket.core.transport.Connection;
+
+/**
+ * 业务逻辑处理一个请求帧所花费的时间
+ *
+ * @author zyc
+ */
+@Name("red.zyc.socket.Handle")
+@Label("Handle")
+@Description("业务逻辑处理一个请求帧所花费的时间")
+@Threshold("1 ms")
+public class HandleEvent extends SocketEvent {
+
+    @Label("Correlation Id")
+    long correlationId;
+
+    /**
+     * @param connection    连接
+     * @param correlationId 请求id
+     */
+    public void commit(Connection connection, long correlationId) {
+        if (shouldCommit()) {
+            connection(connection);
+            this.correlationId = correlationId;
+            commit();
+        }
+    }
+}
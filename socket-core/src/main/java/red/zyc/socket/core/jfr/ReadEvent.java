@@ -0,0 +1,37 @@
+package red.zyc.socket.core.jfr;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+import red.zyc.socket.core.transport.Connection;
+
+/**
+ * 一次读到的字节数以及读取、解码和分发这些数据所花费的时间。nio包括read系统调用，aio从读完成回调开始计算，
+ * bio从阻塞读返回之后开始计算，所以都不包括等待客户端发送数据的时间
+ *
+ * @author zyc
+ */
+@Name("red.zyc.socket.Read")
+@Label("Read")
+@Description("一次读到的字节数以及读取、解码和分发这些数据所花费的时间")
+@Threshold("1 ms")
+public class ReadEvent extends SocketEvent {
+
+    @Label("Bytes")
+    @DataAmount
+    int bytes;
+
+    /**
+     * @param connection 连接
+     * @param bytes      读到的字节数
+     */
+    public void commit(Connection connection, int bytes) {
+        if (shouldCommit()) {
+            connection(connection);
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
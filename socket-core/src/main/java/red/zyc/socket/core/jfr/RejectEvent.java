@@ -0,0 +1,37 @@
+package red.zyc.socket.core.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import red.zyc.socket.core.transport.Connection;
+
+/**
+ * 业务线程池已满，请求帧被拒绝
+ *
+ * @author zyc
+ */
+@Name("red.zyc.socket.Reject")
+@Label("Reject")
+@Description("业务线程池已满，请求帧被拒绝")
+public class RejectEvent extends SocketEvent {
+
+    @Label("Correlation Id")
+    long correlationId;
+
+    @Label("Queue Size")
+    int queueSize;
+
+    /**
+     * @param connection    连接
+     * @param correlationId 请求id
+     * @param queueSize     业务线程池任务队列中的任务数
+     */
+    public void commit(Connection connection, long correlationId, int queueSize) {
+        if (shouldCommit()) {
+            connection(connection);
+            this.correlationId = correlationId;
+            this.queueSize = queueSize;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package red.zyc.socket.core.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import red.zyc.socket.core.transport.Connection;
+
+/**
+ * 服务端过载，请求帧在业务线程池队列中等待太久被丢弃
+ *
+ * @author zyc
+ */
+@Name("red.zyc.socket.Shed")
+@Label("Shed")
+@Description("服务端过载，请求帧在业务线程池队列中等待太久被丢弃")
+public class ShedEvent extends SocketEvent {
+
+    @Label("Correlation Id")
+    long correlationId;
+
+    @Label("Sojourn")
+    @Timespan
+    long sojourn;
+
+    /**
+     * @param connection    连接
+     * @param correlationId 请求id
+     * @param sojournNanos  请求在队列中等待的时间
+     */
+    public void commit(Connection connection, long correlationId, long sojournNanos) {
+        if (shouldCommit()) {
+            connection(connection);
+            this.correlationId = correlationId;
+            this.sojourn = sojournNanos;
+            commit();
+        }
+    }
+}
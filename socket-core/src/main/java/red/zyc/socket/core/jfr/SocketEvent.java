@@ -0,0 +1,37 @@
+package red.zyc.socket.core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+import red.zyc.socket.core.transport.Connection;
+
+/**
+ * 三种传输层共用的jfr事件的基类。所有事件都按照jfr推荐的方式使用：在栈上创建事件，{@link #begin()}之后执行被测量的操作，
+ * 最后只有{@link #shouldCommit()}返回true时才填充字段并提交。没有开启记录时jit会消除事件对象的分配和所有调用，
+ * 所以可以一直保留在代码中，需要时在生产环境通过jcmd开启记录。<br><br>
+ * 持续时间相关的事件都有默认阈值，短于阈值的事件不会被记录，可以通过项目根目录的socket.jfc修改，例如
+ * {@code -XX:StartFlightRecording:settings=default,settings=socket.jfc,filename=socket.jfr}。
+ *
+ * @author zyc
+ */
+@Category("Socket")
+@StackTrace(false)
+abstract class SocketEvent extends Event {
+
+    @Label("Connection Id")
+    String connectionId;
+
+    @Label("Client Address")
+    String clientAddress;
+
+    /**
+     * 填充连接相关的字段，只能在{@link #shouldCommit()}返回true之后调用，否则会在热路径上格式化地址
+     *
+     * @param connection 连接
+     */
+    void connection(Connection connection) {
+        this.connectionId = connection.getId();
+        this.clientAddress = connection.clientAddress();
+    }
+}
@@ -0,0 +1,61 @@
+package red.zyc.socket.core.jfr;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+import red.zyc.socket.core.transport.Connection;
+
+/**
+ * 一次写操作写出的字节数、花费的时间以及是否写完了所有待发送的数据。nio和bio是同步写的时间，
+ * aio是从发起异步写到写完成回调的时间，这种情况下事件跨越了两个线程，只有{@link #TYPE}开启时才创建事件
+ *
+ * @author zyc
+ */
+@Name("red.zyc.socket.Write")
+@Label("Write")
+@Description("一次写操作写出的字节数、花费的时间以及是否写完了所有待发送的数据")
+@Threshold("1 ms")
+public class WriteEvent extends SocketEvent {
+
+    /**
+     * 事件类型，用来判断是否需要创建跨线程的事件
+     */
+    public static final EventType TYPE = EventType.getEventType(WriteEvent.class);
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Completed")
+    @Description("是否写完了所有待发送的数据，为false时需要等待socket可写之后继续写")
+    boolean completed;
+
+    /**
+     * @return 已经开始计时的事件，没有开启记录时返回null
+     */
+    public static WriteEvent start() {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        WriteEvent event = new WriteEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param connection 连接
+     * @param bytes      写出的字节数
+     * @param completed  是否写完了所有待发送的数据
+     */
+    public void commit(Connection connection, long bytes, boolean completed) {
+        if (shouldCommit()) {
+            connection(connection);
+            this.bytes = bytes;
+            this.completed = completed;
+            commit();
+        }
+    }
+}
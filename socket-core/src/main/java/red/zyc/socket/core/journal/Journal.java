@@ -0,0 +1,433 @@
+package red.zyc.socket.core.journal;
+
+import lombok.extern.slf4j.Slf4j;
+import red.zyc.socket.core.transport.Connection;
+import red.zyc.socket.core.transport.FileRegion;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 房间消息的持久化日志，客户端重连之后可以从某个偏移量开始回放错过的消息。<br><br>
+ * 每个房间有自己的日志目录（房间名的十六进制），由多个{@link Segment 分段}组成，每条消息是一个完整的推送帧，
+ * 帧头中的correlationId就是消息在房间中的偏移量。业务线程调用{@link #append}之后阻塞等待，
+ * 唯一的写线程每次取出队列中所有等待写入的消息，依次追加到内存映射的分段中，再按照{@link #FSYNC}的策略刷盘，
+ * 最后一起唤醒这一批业务线程，所以多个连接同时发送消息时一次刷盘可以提交一批消息（group commit）。<br><br>
+ * {@link #replay}通过分段的稀疏索引找到起始偏移量所在的位置，把之后已经提交的记录作为{@link FileRegion}交给连接，
+ * nio连接通过{@link java.nio.channels.FileChannel#transferTo}直接从文件发送到socket。<br><br>
+ * 可以通过以下系统属性配置：
+ * <ul>
+ *     <li>socket.journal.dir：日志目录，配置之后开启消息日志</li>
+ *     <li>socket.journal.segmentSize：分段最大的大小，默认64MiB</li>
+ *     <li>socket.journal.initialSegmentSize：新分段的大小，写满之后成倍扩大到最大的大小，默认64KiB</li>
+ *     <li>socket.journal.maxOpenRooms：最多同时打开的房间日志数，默认1024</li>
+ *     <li>socket.journal.indexInterval：每隔多少字节的记录添加一个索引条目，默认4096</li>
+ *     <li>socket.journal.fsync：刷盘策略，always、interval或never，默认interval</li>
+ *     <li>socket.journal.fsyncInterval：interval策略的刷盘间隔毫秒数，默认1000</li>
+ * </ul>
+ * 只有本节点有成员的房间才会追加和回放消息，打开的房间日志超过{@link #MAX_OPEN_ROOMS}时写线程淘汰最久没有访问的日志。
+ * 每次回放和每个还没有写完的{@link FileRegion}都持有房间日志的一个引用，被淘汰的日志在这些引用都释放之后关闭文件通道，
+ * 再次访问这个房间时重新打开。广播中的记录视图可能还引用着分段的内存映射，所以不会主动解除映射，由垃圾回收释放。分段不会被删除。
+ * 集群模式下每个节点都会记录本节点收到的所有房间消息，偏移量只在同一个节点上有意义。
+ *
+ * @author zyc
+ */
+@Slf4j
+public final class Journal {
+
+    /**
+     * 日志目录
+     */
+    public static final String DIR = System.getProperty("socket.journal.dir", "");
+
+    /**
+     * 是否开启消息日志
+     */
+    public static final boolean ENABLED = !DIR.isEmpty();
+
+    /**
+     * 分段最大的大小
+     */
+    static final int SEGMENT_SIZE = Integer.getInteger("socket.journal.segmentSize", 64 << 20);
+
+    /**
+     * 新分段的大小
+     */
+    static final int INITIAL_SEGMENT_SIZE = Math.min(SEGMENT_SIZE, Integer.getInteger("socket.journal.initialSegmentSize", 64 << 10));
+
+    /**
+     * 最多同时打开的房间日志数
+     */
+    static final int MAX_OPEN_ROOMS = Integer.getInteger("socket.journal.maxOpenRooms", 1024);
+
+    /**
+     * 每隔多少字节的记录添加一个索引条目
+     */
+    static final int INDEX_INTERVAL = Integer.getInteger("socket.journal.indexInterval", 4096);
+
+    /**
+     * 刷盘策略
+     */
+    static final Fsync FSYNC = Fsync.valueOf(System.getProperty("socket.journal.fsync", "interval").toUpperCase(Locale.ROOT));
+
+    /**
+     * interval策略的刷盘间隔
+     */
+    static final long FSYNC_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("socket.journal.fsyncInterval", 1000));
+
+    /**
+     * 所有房间共用的实例
+     */
+    public static final Journal INSTANCE = new Journal();
+
+    /**
+     * 等待写入的消息
+     */
+    private final BlockingQueue<Append> appends = new LinkedBlockingQueue<>();
+
+    /**
+     * 打开的房间日志，key为只读的房间名
+     */
+    private final Map<ByteBuffer, RoomLog> rooms = new ConcurrentHashMap<>();
+
+    /**
+     * 有还没有刷盘的记录的分段，被写线程和jvm退出时的钩子访问，通过它自己的锁同步
+     */
+    private final Set<Segment> dirty = new LinkedHashSet<>();
+
+    /**
+     * 写线程是否已经启动
+     */
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    /**
+     * 上一次刷盘的时间，只会被写线程访问
+     */
+    private long lastFsyncNanos = System.nanoTime();
+
+    private Journal() {
+    }
+
+    /**
+     * 启动写线程，未开启消息日志或者已经启动时什么也不做。{@link #append}第一次被调用时也会启动写线程，
+     * 所以不论服务端从哪个入口启动，追加消息的线程都不会等待一个没有运行的写线程
+     */
+    public void start() {
+        if (!ENABLED || started.get() || !started.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(this::writeLoop, "JournalWriter");
+        thread.setDaemon(true);
+        thread.start();
+
+        // jvm退出时把还没有刷盘的记录刷到磁盘
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            synchronized (dirty) {
+                forceAll();
+            }
+        }));
+        log.info("开启消息日志，目录: {}，刷盘策略: {}", Path.of(DIR).toAbsolutePath(), FSYNC);
+    }
+
+    /**
+     * 追加一条房间消息，阻塞到它所在的一批消息提交之后才返回。未开启消息日志时直接返回原来的帧
+     *
+     * @param room  只读的房间名
+     * @param frame 处于读模式的推送帧，不会改变它的position
+     * @return 日志中这条记录的只读视图，correlationId是消息在房间中的偏移量
+     * @throws UncheckedIOException 写入日志失败
+     */
+    public ByteBuffer append(ByteBuffer room, ByteBuffer frame) {
+        if (!ENABLED) {
+            return frame;
+        }
+        start();
+        Append append = new Append(room, frame);
+        appends.add(append);
+        try {
+            return append.committed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new IOException("等待消息日志提交时被中断", e));
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException cause ? new UncheckedIOException(cause) : new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * 把房间中从offset开始的所有已提交的消息写给连接，与之后通过{@link Connection#write}写的帧保持先后顺序
+     *
+     * @param room       只读的房间名
+     * @param offset     第一条要回放的消息的偏移量，早于第一个分段时从第一条消息开始
+     * @param connection 连接
+     * @return 回放的最后一条消息之后的偏移量，客户端下次可以从这里继续回放
+     * @throws IOException 打开日志或者读取文件失败
+     */
+    public long replay(ByteBuffer room, long offset, Connection connection) throws IOException {
+
+        // 没有任何消息的房间不创建日志目录，避免客户端用任意房间名创建文件
+        if (!ENABLED || (!rooms.containsKey(room) && !Files.isDirectory(dir(room)))) {
+            return offset;
+        }
+        RoomLog roomLog = retain(room);
+        try {
+            List<Segment> segments = roomLog.segments;
+            long next = offset;
+            for (int i = 0; i < segments.size(); i++) {
+                Segment segment = segments.get(i);
+                if (i + 1 < segments.size() && segments.get(i + 1).baseOffset <= next) {
+                    continue;
+                }
+                Segment.Range range = segment.range(Math.max(next, segment.baseOffset));
+                if (range.end() > range.start()) {
+
+                    // 当前回放持有一个引用，所以这里一定能成功
+                    roomLog.retain();
+                    FileRegion region = new FileRegion(segment.channel, range.start(), range.end() - range.start(), roomLog::release);
+                    try {
+                        connection.transfer(region);
+                    } catch (IOException | RuntimeException e) {
+                        region.release();
+                        throw e;
+                    }
+                }
+                next = Math.max(next, range.endOffset());
+            }
+            return next;
+        } finally {
+            roomLog.release();
+        }
+    }
+
+    /**
+     * 写线程的主循环：取出一批消息依次追加，按照刷盘策略刷盘之后再唤醒这一批业务线程
+     */
+    private void writeLoop() {
+        List<Append> batch = new ArrayList<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Append first = FSYNC == Fsync.INTERVAL
+                        ? appends.poll(FSYNC_INTERVAL_NANOS, TimeUnit.NANOSECONDS)
+                        : appends.take();
+                if (first != null) {
+                    batch.add(first);
+                    appends.drainTo(batch);
+                }
+                synchronized (dirty) {
+                    for (Append append : batch) {
+                        write(append);
+                    }
+                    if (FSYNC == Fsync.ALWAYS || (FSYNC == Fsync.INTERVAL && System.nanoTime() - lastFsyncNanos >= FSYNC_INTERVAL_NANOS)) {
+                        forceAll();
+                    }
+                }
+                for (Append append : batch) {
+                    if (append.segment != null) {
+                        append.segment.commit();
+                    }
+                }
+                for (Append append : batch) {
+                    if (append.record != null) {
+                        append.committed.complete(append.record);
+                    }
+                }
+
+                // 这一批记录都已经提交，淘汰的日志再次打开时能恢复出所有记录
+                evict();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("写入消息日志失败", e);
+                batch.forEach(append -> append.committed.completeExceptionally(e));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 追加一条消息，写满的分段会被刷盘，然后创建新的分段
+     *
+     * @param append 等待写入的消息
+     */
+    private void write(Append append) {
+        try {
+            RoomLog roomLog = room(append.room);
+            Segment segment = roomLog.active();
+            int length = append.frame.remaining();
+            if (!segment.ensureCapacity(length)) {
+                if (length > SEGMENT_SIZE) {
+                    throw new IOException(String.format("消息长度%d超过了分段的大小%d", length, SEGMENT_SIZE));
+                }
+                if (FSYNC != Fsync.NEVER) {
+                    segment.force();
+                }
+                segment.commit();
+                dirty.remove(segment);
+                segment = roomLog.roll(segment.nextOffset());
+                segment.ensureCapacity(length);
+            }
+            append.record = segment.append(append.frame);
+            append.segment = segment;
+            dirty.add(segment);
+        } catch (IOException e) {
+            append.committed.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * 刷盘所有有未刷盘记录的分段，必须持有{@link #dirty}的锁
+     */
+    private void forceAll() {
+        if (FSYNC != Fsync.NEVER) {
+            dirty.forEach(Segment::force);
+        }
+        dirty.clear();
+        lastFsyncNanos = System.nanoTime();
+    }
+
+    /**
+     * @param room 只读的房间名
+     * @return 房间的日志，第一次访问时打开已有的分段
+     * @throws IOException 打开日志失败
+     */
+    private RoomLog room(ByteBuffer room) throws IOException {
+        RoomLog roomLog;
+        try {
+            roomLog = rooms.computeIfAbsent(room, name -> {
+                try {
+                    return RoomLog.open(dir(name));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        roomLog.lastAccessNanos = System.nanoTime();
+        return roomLog;
+    }
+
+    /**
+     * @param room 只读的房间名
+     * @return 房间的日志，已经增加了一个引用
+     * @throws IOException 打开日志失败
+     */
+    private RoomLog retain(ByteBuffer room) throws IOException {
+        while (true) {
+            RoomLog roomLog = room(room);
+
+            // 日志可能刚好被淘汰并且关闭了，这时它已经不在表中，再取一次会重新打开
+            if (roomLog.retain()) {
+                return roomLog;
+            }
+        }
+    }
+
+    /**
+     * 打开的日志超过{@link #MAX_OPEN_ROOMS}时淘汰最久没有访问的日志，只会被写线程调用，这时没有追加了但还没有提交的记录。
+     * 被淘汰的日志先刷盘再释放日志表持有的引用，没有正在进行的回放时文件通道立即关闭
+     */
+    private void evict() {
+        int excess = rooms.size() - MAX_OPEN_ROOMS;
+        if (excess <= 0) {
+            return;
+        }
+        rooms.entrySet().stream()
+                .sorted(Comparator.comparingLong(entry -> entry.getValue().lastAccessNanos))
+                .limit(excess)
+                .toList()
+                .forEach(entry -> {
+                    RoomLog roomLog = entry.getValue();
+                    if (rooms.remove(entry.getKey(), roomLog)) {
+                        synchronized (dirty) {
+                            for (Segment segment : roomLog.segments) {
+                                if (dirty.remove(segment) && FSYNC != Fsync.NEVER) {
+                                    segment.force();
+                                }
+                            }
+                        }
+                        roomLog.release();
+                    }
+                });
+    }
+
+    /**
+     * @param room 只读的房间名
+     * @return 房间的日志目录，目录名是房间名的十六进制，不受房间名中特殊字符的影响
+     */
+    private static Path dir(ByteBuffer room) {
+        byte[] bytes = new byte[room.remaining()];
+        room.duplicate().get(bytes);
+        return Path.of(DIR, HexFormat.of().formatHex(bytes));
+    }
+
+    /**
+     * 刷盘策略
+     */
+    enum Fsync {
+
+        /**
+         * 每一批消息提交之前都刷盘，进程或者机器崩溃都不会丢失已经确认的消息
+         */
+        ALWAYS,
+
+        /**
+         * 每隔{@link #FSYNC_INTERVAL_NANOS}刷盘一次，机器崩溃时最多丢失一个间隔内的消息
+         */
+        INTERVAL,
+
+        /**
+         * 只由操作系统在合适的时候刷盘，进程崩溃不会丢失消息
+         */
+        NEVER
+    }
+
+    /**
+     * 一条等待写入的消息
+     */
+    private static final class Append {
+
+        private final ByteBuffer room;
+
+        private final ByteBuffer frame;
+
+        /**
+         * 提交之后完成，业务线程在它上面等待
+         */
+        private final CompletableFuture<ByteBuffer> committed = new CompletableFuture<>();
+
+        /**
+         * 追加之后的记录视图，只会被写线程访问
+         */
+        private ByteBuffer record;
+
+        /**
+         * 记录所在的分段，只会被写线程访问
+         */
+        private Segment segment;
+
+        Append(ByteBuffer room, ByteBuffer frame) {
+            this.room = room;
+            this.frame = frame;
+        }
+    }
+}
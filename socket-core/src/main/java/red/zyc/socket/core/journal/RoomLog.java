@@ -0,0 +1,128 @@
+package red.zyc.socket.core.journal;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * 一个房间的消息日志，由按照起始偏移量排序的多个{@link Segment 分段}组成，只有最后一个分段会被追加记录
+ *
+ * @author zyc
+ */
+@Slf4j
+final class RoomLog {
+
+    /**
+     * 日志文件的扩展名
+     */
+    private static final String LOG_SUFFIX = ".log";
+
+    /**
+     * 房间的日志目录
+     */
+    private final Path dir;
+
+    /**
+     * 所有分段，只有写线程会添加分段，回放时可以在任意线程遍历
+     */
+    final List<Segment> segments = new CopyOnWriteArrayList<>();
+
+    /**
+     * 引用计数。日志在{@link Journal}打开的日志表中时持有一个引用，每次回放和每个还没有写完的{@link red.zyc.socket.core.transport.FileRegion}
+     * 各持有一个引用，被淘汰并且归零之后关闭所有分段的文件通道
+     */
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    /**
+     * 最近一次追加或者回放的时间，打开的日志超过{@link Journal#MAX_OPEN_ROOMS}时最久没有访问的日志先被淘汰
+     */
+    volatile long lastAccessNanos = System.nanoTime();
+
+    private RoomLog(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * 打开房间的日志目录中所有的分段，没有任何分段时创建第一个分段
+     *
+     * @param dir 房间的日志目录
+     * @return 房间的消息日志
+     * @throws IOException io异常
+     */
+    static RoomLog open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        RoomLog roomLog = new RoomLog(dir);
+        long[] baseOffsets;
+        try (Stream<Path> files = Files.list(dir)) {
+            baseOffsets = files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(LOG_SUFFIX))
+                    .mapToLong(name -> Long.parseLong(name.substring(0, name.length() - LOG_SUFFIX.length())))
+                    .sorted()
+                    .toArray();
+        }
+        for (long baseOffset : baseOffsets) {
+            roomLog.segments.add(Segment.open(dir, baseOffset, Journal.INITIAL_SEGMENT_SIZE, Journal.SEGMENT_SIZE));
+        }
+        if (roomLog.segments.isEmpty()) {
+            roomLog.segments.add(Segment.open(dir, 0, Journal.INITIAL_SEGMENT_SIZE, Journal.SEGMENT_SIZE));
+        }
+        return roomLog;
+    }
+
+    /**
+     * 增加一个引用
+     *
+     * @return 是否成功，日志已经关闭时返回false，需要重新打开
+     */
+    boolean retain() {
+        int count;
+        do {
+            count = references.get();
+            if (count == 0) {
+                return false;
+            }
+        } while (!references.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /**
+     * 释放一个引用，最后一个引用释放时关闭所有分段的文件通道
+     */
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            for (Segment segment : segments) {
+                try {
+                    segment.close();
+                } catch (IOException e) {
+                    log.warn("关闭消息日志{}失败", dir, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 正在追加记录的分段
+     */
+    Segment active() {
+        return segments.get(segments.size() - 1);
+    }
+
+    /**
+     * 创建一个新的分段用来追加记录，只能被写线程调用
+     *
+     * @param baseOffset 新分段第一条记录的偏移量
+     * @return 新的分段
+     * @throws IOException io异常
+     */
+    Segment roll(long baseOffset) throws IOException {
+        Segment segment = Segment.open(dir, baseOffset, Journal.INITIAL_SEGMENT_SIZE, Journal.SEGMENT_SIZE);
+        segments.add(segment);
+        return segment;
+    }
+}
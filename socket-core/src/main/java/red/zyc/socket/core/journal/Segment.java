@@ -0,0 +1,323 @@
+package red.zyc.socket.core.journal;
+
+import red.zyc.socket.core.codec.Frame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 消息日志的一个分段，由通过{@link FileChannel#map}映射到内存的日志文件和稀疏索引文件组成。新分段只映射{@link Journal#INITIAL_SEGMENT_SIZE}，
+ * 写满之后把文件扩大一倍重新映射，直到{@link Journal#SEGMENT_SIZE}，所以消息很少的房间不会占用一整个分段的磁盘空间。
+ * 之前的映射和从它切出的记录视图在重新映射之后仍然有效，它们由垃圾回收释放。<br><br>
+ * 日志文件中的每条记录就是一个完整的{@link Frame#PUSH}帧，帧头中的correlationId就是消息的偏移量，
+ * 所以回放时可以把日志文件的一段原样发送给客户端。日志文件中记录之后的部分都是0，恢复时读到长度为0的记录即认为到达末尾。<br>
+ * 索引文件由8字节的条目组成：4字节的相对偏移量（偏移量减去{@link #baseOffset}）和4字节的记录位置，
+ * 每写入{@link Journal#INDEX_INTERVAL}字节的记录添加一个条目，第一个条目总是指向第一条记录。<br><br>
+ * 只有{@link Journal}的写线程会追加记录，记录在{@link #commit}之后才对读线程可见，读线程只会读取{@link #committed}之前的内容。
+ *
+ * @author zyc
+ */
+final class Segment {
+
+    /**
+     * 索引条目的长度
+     */
+    private static final int INDEX_ENTRY_LENGTH = 8;
+
+    /**
+     * 第一条记录的偏移量，同时也是文件名
+     */
+    final long baseOffset;
+
+    /**
+     * 日志文件的通道，回放时通过它把记录直接发送到socket
+     */
+    final FileChannel channel;
+
+    /**
+     * 索引文件的路径，扩大分段时重新映射
+     */
+    private final Path indexPath;
+
+    /**
+     * 日志文件最大的大小
+     */
+    private final int maxSize;
+
+    /**
+     * 日志文件的内存映射，扩大分段时由写线程替换，读线程先读取{@link #committed}再读取它，所以总能看到包含已提交记录的映射
+     */
+    private volatile MappedByteBuffer log;
+
+    /**
+     * 索引文件的内存映射，与{@link #log}一起替换
+     */
+    private volatile MappedByteBuffer index;
+
+    /**
+     * 下一条记录的位置，只会被写线程访问
+     */
+    private int writePosition;
+
+    /**
+     * 下一条记录的偏移量，只会被写线程访问
+     */
+    private long nextOffset;
+
+    /**
+     * 最后一个索引条目指向的位置，只会被写线程访问
+     */
+    private int lastIndexedPosition;
+
+    /**
+     * 已经刷到磁盘的位置，只会被写线程访问
+     */
+    private int forcedPosition;
+
+    /**
+     * 已经提交的记录结束的位置和下一条记录的偏移量，两者一起更新，回放时只会发送它之前的记录
+     */
+    private volatile Committed committed;
+
+    /**
+     * 索引条目数，最后几个条目可能指向还没有提交的记录
+     */
+    private volatile int indexEntries;
+
+    private Segment(long baseOffset, FileChannel channel, Path indexPath, int maxSize) {
+        this.baseOffset = baseOffset;
+        this.channel = channel;
+        this.indexPath = indexPath;
+        this.maxSize = maxSize;
+        this.nextOffset = baseOffset;
+    }
+
+    /**
+     * 打开一个分段，文件不存在时创建，存在时从最后一个有效的索引条目开始扫描记录，恢复写入位置
+     *
+     * @param dir         房间的日志目录
+     * @param baseOffset  第一条记录的偏移量
+     * @param initialSize 新日志文件的大小，已有的日志文件保持原来的大小
+     * @param maxSize     日志文件最大的大小
+     * @return 分段
+     * @throws IOException io异常
+     */
+    static Segment open(Path dir, long baseOffset, int initialSize, int maxSize) throws IOException {
+        String name = String.format("%020d", baseOffset);
+        FileChannel channel = FileChannel.open(dir.resolve(name + ".log"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            Segment segment = new Segment(baseOffset, channel, dir.resolve(name + ".index"), maxSize);
+            segment.map((int) Math.max(initialSize, channel.size()));
+            segment.recover();
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 确保分段剩余的空间能够容纳这条记录，不够时把日志文件扩大到至少原来的两倍，最大到{@link #maxSize}，只能被写线程调用
+     *
+     * @param length 记录的长度
+     * @return 分段能否容纳这条记录，超过最大的大小时返回false，需要创建新的分段
+     * @throws IOException 扩大文件或者重新映射失败
+     */
+    boolean ensureCapacity(int length) throws IOException {
+        long required = (long) writePosition + length;
+        int capacity = log.capacity();
+        if (required <= capacity) {
+            return true;
+        }
+        if (required > maxSize) {
+            return false;
+        }
+        map((int) Math.min(maxSize, Math.max(required, 2L * capacity)));
+        return true;
+    }
+
+    /**
+     * 追加一条记录，只能被写线程调用。记录在{@link #commit}之前对读线程不可见
+     *
+     * @param frame 处于读模式的推送帧，不会改变它的position
+     * @return 追加的记录在日志文件中的只读视图，帧头中的correlationId已经改成了记录的偏移量
+     */
+    ByteBuffer append(ByteBuffer frame) {
+        int position = writePosition;
+        int length = frame.remaining();
+        if (position - lastIndexedPosition >= Journal.INDEX_INTERVAL) {
+            addIndexEntry(nextOffset, position);
+        }
+        log.put(position, frame, frame.position(), length);
+        log.putLong(position + Frame.LENGTH_FIELD_LENGTH + 1, nextOffset++);
+        writePosition += length;
+        return log.slice(position, length).asReadOnlyBuffer();
+    }
+
+    /**
+     * 把追加的记录刷到磁盘，只能被写线程调用
+     */
+    void force() {
+        if (forcedPosition < writePosition) {
+            log.force(forcedPosition, writePosition - forcedPosition);
+            index.force();
+            forcedPosition = writePosition;
+        }
+    }
+
+    /**
+     * 让追加的记录对读线程可见，只能被写线程调用
+     */
+    void commit() {
+        if (committed.position() < writePosition) {
+            committed = new Committed(writePosition, nextOffset);
+        }
+    }
+
+    /**
+     * @return 下一条记录的偏移量，只能被写线程调用
+     */
+    long nextOffset() {
+        return nextOffset;
+    }
+
+    /**
+     * 已经提交的记录中从指定偏移量开始的部分
+     *
+     * @param offset 偏移量，不小于{@link #baseOffset}
+     * @return 记录开始的位置、结束的位置和结束位置上的偏移量，偏移量超过已经提交的最后一条记录时开始和结束的位置相等
+     */
+    Range range(long offset) {
+        Committed end = this.committed;
+
+        // 二分查找相对偏移量不大于offset的最后一个索引条目，然后从它指向的位置向后扫描
+        int low = 0;
+        int high = indexEntries - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (baseOffset + index.getInt(mid * INDEX_ENTRY_LENGTH) <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        long current = baseOffset + index.getInt(low * INDEX_ENTRY_LENGTH);
+        int position = index.getInt(low * INDEX_ENTRY_LENGTH + 4);
+        if (position >= end.position()) {
+            return new Range(end.position(), end.position(), end.offset());
+        }
+        while (current < offset && position < end.position()) {
+            position += Frame.LENGTH_FIELD_LENGTH + log.getInt(position);
+            current++;
+        }
+        return new Range(position, end.position(), end.offset());
+    }
+
+    /**
+     * 关闭日志文件的通道，内存映射可能还被广播中的记录视图引用，不能主动解除，由垃圾回收释放
+     *
+     * @throws IOException io异常
+     */
+    void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * 映射日志文件和索引文件，文件不够大时会被扩大，扩大的部分都是0
+     *
+     * @param capacity 日志文件映射的大小
+     * @throws IOException io异常
+     */
+    private void map(int capacity) throws IOException {
+
+        // 映射关闭通道之后仍然有效，日志文件的通道留着回放时使用
+        MappedByteBuffer log = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        int indexSize = (capacity / Journal.INDEX_INTERVAL + 1) * INDEX_ENTRY_LENGTH;
+        try (FileChannel indexChannel = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            this.index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexSize);
+        }
+        this.log = log;
+    }
+
+    /**
+     * 从最后一个有效的索引条目开始扫描记录，恢复写入位置、下一条记录的偏移量和索引。
+     * 索引条目可能先于它指向的记录刷到磁盘，所以要丢弃指向无效记录的条目
+     */
+    private void recover() {
+        int entries = 1;
+        while (entries < index.capacity() / INDEX_ENTRY_LENGTH && index.getInt(entries * INDEX_ENTRY_LENGTH + 4) > 0) {
+            entries++;
+        }
+        while (entries > 1 && !valid(index.getInt((entries - 1) * INDEX_ENTRY_LENGTH + 4), baseOffset + index.getInt((entries - 1) * INDEX_ENTRY_LENGTH))) {
+            entries--;
+            index.putLong(entries * INDEX_ENTRY_LENGTH, 0);
+        }
+        int position = index.getInt((entries - 1) * INDEX_ENTRY_LENGTH + 4);
+        long offset = baseOffset + index.getInt((entries - 1) * INDEX_ENTRY_LENGTH);
+        indexEntries = entries;
+        lastIndexedPosition = position;
+        while (valid(position, offset)) {
+            if (position - lastIndexedPosition >= Journal.INDEX_INTERVAL) {
+                addIndexEntry(offset, position);
+            }
+            position += Frame.LENGTH_FIELD_LENGTH + log.getInt(position);
+            offset++;
+        }
+        writePosition = forcedPosition = position;
+        nextOffset = offset;
+        committed = new Committed(position, offset);
+    }
+
+    /**
+     * @param position 记录的位置
+     * @param offset   期望的偏移量
+     * @return 该位置上是否是一条完整的、偏移量符合期望的记录
+     */
+    private boolean valid(int position, long offset) {
+        if (position + Frame.HEADER_LENGTH > log.capacity()) {
+            return false;
+        }
+        int length = log.getInt(position);
+        return length >= Frame.HEADER_LENGTH - Frame.LENGTH_FIELD_LENGTH
+                && position + Frame.LENGTH_FIELD_LENGTH + length <= log.capacity()
+                && log.get(position + Frame.LENGTH_FIELD_LENGTH) == Frame.PUSH
+                && log.getLong(position + Frame.LENGTH_FIELD_LENGTH + 1) == offset;
+    }
+
+    /**
+     * 添加一个索引条目，只能被写线程调用，{@link #commit}之后对读线程可见
+     *
+     * @param offset   记录的偏移量
+     * @param position 记录的位置
+     */
+    private void addIndexEntry(long offset, int position) {
+        int entry = indexEntries;
+        index.putInt(entry * INDEX_ENTRY_LENGTH, (int) (offset - baseOffset));
+        index.putInt(entry * INDEX_ENTRY_LENGTH + 4, position);
+        lastIndexedPosition = position;
+        indexEntries = entry + 1;
+    }
+
+    /**
+     * 已经提交的记录结束的位置和下一条记录的偏移量
+     *
+     * @param position 位置
+     * @param offset   偏移量
+     */
+    private record Committed(int position, long offset) {
+    }
+
+    /**
+     * 分段中一段已经提交的记录
+     *
+     * @param start     开始的位置
+     * @param end       结束的位置
+     * @param endOffset 结束位置上的偏移量，即这段记录之后下一条记录的偏移量
+     */
+    record Range(int start, int end, long endOffset) {
+    }
+}
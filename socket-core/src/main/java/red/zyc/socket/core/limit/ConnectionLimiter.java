@@ -0,0 +1,136 @@
+package red.zyc.socket.core.limit;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 连接准入控制，同时限制服务端的总连接数和单个客户端ip的连接数。<br><br>
+ * 总连接数达到上限时服务端应当停止accept，让新连接留在内核的accept队列中，而不是先accept再关闭，
+ * 这样在连接风暴时可以节省cpu和文件描述符；有连接断开之后会通知服务端恢复accept。
+ * 单个ip的连接数只有在accept之后才能知道，超过上限的连接只能被立即关闭。<br><br>
+ * 可以通过以下系统属性配置：
+ * <ul>
+ *     <li>socket.connection.max：服务端总连接数上限</li>
+ *     <li>socket.connection.maxPerAddress：单个ip的连接数上限</li>
+ * </ul>
+ *
+ * @author zyc
+ */
+public final class ConnectionLimiter {
+
+    private final int maxConnections;
+
+    private final int maxConnectionsPerAddress;
+
+    /**
+     * 当前的总连接数
+     */
+    private final AtomicInteger connections = new AtomicInteger();
+
+    /**
+     * 每个ip当前的连接数
+     */
+    private final ConcurrentMap<InetAddress, AtomicInteger> addressConnections = new ConcurrentHashMap<>();
+
+    /**
+     * 总连接数从上限回落时的回调
+     */
+    private volatile Runnable availableListener = () -> {
+    };
+
+    public ConnectionLimiter(int maxConnections, int maxConnectionsPerAddress) {
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+    }
+
+    /**
+     * @param defaultMaxConnections 未配置系统属性时使用的总连接数上限
+     * @return 根据系统属性创建的连接准入控制
+     */
+    public static ConnectionLimiter create(int defaultMaxConnections) {
+        int maxConnections = Integer.getInteger("socket.connection.max", defaultMaxConnections);
+        return new ConnectionLimiter(maxConnections, Integer.getInteger("socket.connection.maxPerAddress", maxConnections));
+    }
+
+    /**
+     * @param listener 总连接数从上限回落时的回调，会在断开连接的线程中执行
+     */
+    public void onAvailable(Runnable listener) {
+        this.availableListener = listener;
+    }
+
+    /**
+     * @return 总连接数是否已经达到上限
+     */
+    public boolean saturated() {
+        return connections.get() >= maxConnections;
+    }
+
+    /**
+     * 为一个已经accept的连接申请准入
+     *
+     * @param address 客户端ip
+     * @return 是否允许该连接，返回false时调用方应当关闭连接
+     */
+    public boolean tryAcquire(InetAddress address) {
+        int current;
+        do {
+            current = connections.get();
+            if (current >= maxConnections) {
+                return false;
+            }
+        } while (!connections.compareAndSet(current, current + 1));
+
+        if (address != null) {
+
+            // 计数的增减都在ConcurrentHashMap的compute中完成，避免计数归零被移除的同时又被另一个线程增加
+            AtomicInteger count = addressConnections.compute(address, (a, c) -> {
+                AtomicInteger counter = c == null ? new AtomicInteger() : c;
+                counter.incrementAndGet();
+                return counter;
+            });
+            if (count.get() > maxConnectionsPerAddress) {
+                release(address);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 释放一个连接占用的名额，每个{@link #tryAcquire(InetAddress)}成功的连接断开时都必须调用且只能调用一次
+     *
+     * @param address 客户端ip
+     */
+    public void release(InetAddress address) {
+        if (address != null) {
+            addressConnections.computeIfPresent(address, (a, count) -> count.decrementAndGet() <= 0 ? null : count);
+        }
+        if (connections.getAndDecrement() >= maxConnections) {
+            synchronized (this) {
+                notifyAll();
+            }
+            availableListener.run();
+        }
+    }
+
+    /**
+     * 阻塞直到总连接数低于上限，供阻塞式的服务端在accept之前调用
+     *
+     * @throws InterruptedException 线程被中断
+     */
+    public synchronized void awaitAvailable() throws InterruptedException {
+        while (saturated()) {
+            wait();
+        }
+    }
+
+    /**
+     * @return 当前的总连接数
+     */
+    public int connections() {
+        return connections.get();
+    }
+}
@@ -0,0 +1,118 @@
+package red.zyc.socket.core.limit;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 连接级别和客户端ip级别的请求限流器。每个连接持有一个自己的{@link TokenBucket}，
+ * 同一个ip的所有连接共享一个{@link TokenBucket}，两者都获取到令牌才允许处理本次请求，
+ * ip的桶拒绝时会把已经从连接的桶中获取的令牌还回去，被限流的请求重试时不会重复消耗连接的令牌。<br><br>
+ * 可以通过以下系统属性配置：
+ * <ul>
+ *     <li>socket.rateLimit.enabled：是否开启限流，默认false</li>
+ *     <li>socket.rateLimit.connection.rate：每个连接每秒允许的请求数，默认1000</li>
+ *     <li>socket.rateLimit.connection.burst：每个连接允许的突发请求数，默认100</li>
+ *     <li>socket.rateLimit.address.rate：每个ip每秒允许的请求数，默认10000</li>
+ *     <li>socket.rateLimit.address.burst：每个ip允许的突发请求数，默认1000</li>
+ * </ul>
+ *
+ * @author zyc
+ */
+public final class RateLimiter {
+
+    /**
+     * ip令牌桶数量超过这个值时清理所有已经装满令牌（即最近没有请求）的桶，避免内存无限增长
+     */
+    private static final int ADDRESS_SWEEP_THRESHOLD = 1 << 16;
+
+    private final boolean enabled;
+
+    private final double connectionRate;
+
+    private final int connectionBurst;
+
+    private final double addressRate;
+
+    private final int addressBurst;
+
+    /**
+     * 每个ip共享的令牌桶
+     */
+    private final ConcurrentMap<InetAddress, TokenBucket> addressBuckets = new ConcurrentHashMap<>();
+
+    /**
+     * 被限流的请求数
+     */
+    private final LongAdder throttled = new LongAdder();
+
+    public RateLimiter(boolean enabled, double connectionRate, int connectionBurst, double addressRate, int addressBurst) {
+        this.enabled = enabled;
+        this.connectionRate = connectionRate;
+        this.connectionBurst = connectionBurst;
+        this.addressRate = addressRate;
+        this.addressBurst = addressBurst;
+    }
+
+    /**
+     * @return 根据系统属性创建的限流器
+     */
+    public static RateLimiter create() {
+        return new RateLimiter(Boolean.parseBoolean(System.getProperty("socket.rateLimit.enabled", "false")),
+                Double.parseDouble(System.getProperty("socket.rateLimit.connection.rate", "1000")),
+                Integer.getInteger("socket.rateLimit.connection.burst", 100),
+                Double.parseDouble(System.getProperty("socket.rateLimit.address.rate", "10000")),
+                Integer.getInteger("socket.rateLimit.address.burst", 1000));
+    }
+
+    /**
+     * @return 一个新连接使用的令牌桶，未开启限流时返回null
+     */
+    public TokenBucket newConnectionBucket() {
+        return enabled ? new TokenBucket(connectionRate, connectionBurst) : null;
+    }
+
+    /**
+     * 为一次请求获取令牌
+     *
+     * @param connectionBucket 连接的令牌桶，由{@link #newConnectionBucket()}创建
+     * @param address          客户端ip
+     * @return 获取成功返回0，否则返回至少还需要等待多少纳秒才允许处理下一个请求
+     */
+    public long tryAcquire(TokenBucket connectionBucket, InetAddress address) {
+        if (!enabled || connectionBucket == null) {
+            return 0;
+        }
+        long wait = connectionBucket.tryAcquire();
+        if (wait == 0 && address != null) {
+            wait = addressBucket(address).tryAcquire();
+            if (wait > 0) {
+                connectionBucket.release();
+            }
+        }
+        if (wait > 0) {
+            throttled.increment();
+        }
+        return wait;
+    }
+
+    /**
+     * @return 被限流的请求数
+     */
+    public long throttled() {
+        return throttled.sum();
+    }
+
+    private TokenBucket addressBucket(InetAddress address) {
+        TokenBucket bucket = addressBuckets.get(address);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (addressBuckets.size() >= ADDRESS_SWEEP_THRESHOLD) {
+            long now = System.nanoTime();
+            addressBuckets.values().removeIf(b -> b.full(now));
+        }
+        return addressBuckets.computeIfAbsent(address, a -> new TokenBucket(addressRate, addressBurst));
+    }
+}
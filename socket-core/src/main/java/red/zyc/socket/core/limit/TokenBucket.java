@@ -0,0 +1,77 @@
+package red.zyc.socket.core.limit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁令牌桶。<br><br>
+ * 使用GCRA（Generic Cell Rate Algorithm）实现，只需要保存一个"理论到达时间"就等价于一个按固定速率补充令牌的令牌桶，
+ * 因此整个桶的状态可以放在一个{@link AtomicLong}中通过CAS更新，多个线程同时获取令牌也不需要加锁。
+ *
+ * @author zyc
+ */
+public final class TokenBucket {
+
+    /**
+     * 补充一个令牌需要的纳秒数
+     */
+    private final long emissionIntervalNanos;
+
+    /**
+     * 桶容量对应的纳秒数，即允许的突发量
+     */
+    private final long capacityNanos;
+
+    /**
+     * 理论到达时间，小于等于当前时间代表桶已经装满了令牌
+     */
+    private final AtomicLong theoreticalArrivalTime;
+
+    /**
+     * @param permitsPerSecond 每秒补充的令牌数
+     * @param burst            桶容量，即允许的突发请求数
+     */
+    public TokenBucket(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException(String.format("无效的令牌桶参数: permitsPerSecond=%s, burst=%s", permitsPerSecond, burst));
+        }
+        this.emissionIntervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.capacityNanos = emissionIntervalNanos * burst;
+        this.theoreticalArrivalTime = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * 尝试获取一个令牌
+     *
+     * @return 获取成功返回0，否则返回至少还需要等待多少纳秒才会有可用的令牌
+     */
+    public long tryAcquire() {
+        long now = System.nanoTime();
+        while (true) {
+            long tat = theoreticalArrivalTime.get();
+            long next = Math.max(tat, now) + emissionIntervalNanos;
+            long wait = next - capacityNanos - now;
+            if (wait > 0) {
+                return wait;
+            }
+            if (theoreticalArrivalTime.compareAndSet(tat, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * 归还一个刚刚通过{@link #tryAcquire()}获取的令牌，用于获取到令牌之后请求仍然被其它桶拒绝的情况
+     */
+    public void release() {
+        theoreticalArrivalTime.addAndGet(-emissionIntervalNanos);
+    }
+
+    /**
+     * @param now {@link System#nanoTime()}
+     * @return 桶是否已经装满了令牌，装满代表最近一段时间没有被使用过
+     */
+    boolean full(long now) {
+        return theoreticalArrivalTime.get() - now <= 0;
+    }
+}
@@ -0,0 +1,47 @@
+package red.zyc.socket.core.log;
+
+/**
+ * 访问日志记录的事件类型
+ *
+ * @author zyc
+ */
+public enum AccessEvent {
+
+    /**
+     * 客户端已连接
+     */
+    ACCEPT("accept"),
+
+    /**
+     * 收到客户端的一次请求
+     */
+    REQUEST("request"),
+
+    /**
+     * 客户端已断开
+     */
+    DISCONNECT("disconnect");
+
+    private static final AccessEvent[] VALUES = values();
+
+    private final String label;
+
+    AccessEvent(String label) {
+        this.label = label;
+    }
+
+    /**
+     * @return 写入日志文件时使用的事件名称
+     */
+    public String label() {
+        return label;
+    }
+
+    /**
+     * @param code 事件在二进制记录中的编码
+     * @return 编码对应的事件
+     */
+    static AccessEvent of(int code) {
+        return VALUES[code];
+    }
+}
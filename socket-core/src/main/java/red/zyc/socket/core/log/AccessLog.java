@@ -0,0 +1,283 @@
+package red.zyc.socket.core.log;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步访问日志。<br><br>
+ * reactor线程和业务线程只负责把accept、request、disconnect事件写成固定大小的二进制记录放入{@link AccessLogRingBuffer}，
+ * 不做任何字符串格式化也不会阻塞；由一个后台线程批量取出记录，格式化之后一次性写入磁盘。
+ * 缓冲已满时直接丢弃记录并计数，丢弃的数量会由后台线程写入日志文件。<br><br>
+ * 可以通过以下系统属性配置：
+ * <ul>
+ *     <li>socket.accessLog.enabled：是否开启访问日志，默认true</li>
+ *     <li>socket.accessLog.dir：日志文件目录，默认logs</li>
+ *     <li>socket.accessLog.capacity：环形缓冲能够容纳的记录数，必须是2的幂，默认65536</li>
+ *     <li>socket.accessLog.sampling：采样率，每N个事件记录1个，默认1即全部记录</li>
+ *     <li>socket.accessLog.batchSize：后台线程每次最多格式化的记录数，默认1024</li>
+ * </ul>
+ *
+ * @author zyc
+ */
+@Slf4j
+public final class AccessLog {
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("socket.accessLog.enabled", "true"));
+
+    private static final String DIR = System.getProperty("socket.accessLog.dir", "logs");
+
+    private static final int CAPACITY = Integer.getInteger("socket.accessLog.capacity", 1 << 16);
+
+    private static final int SAMPLING = Integer.getInteger("socket.accessLog.sampling", 1);
+
+    private static final int BATCH_SIZE = Integer.getInteger("socket.accessLog.batchSize", 1 << 10);
+
+    /**
+     * 没有记录可写时后台线程的休眠时间
+     */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private static final int TIMESTAMP = 0;
+    private static final int META = 1;
+    private static final int ID_MOST = 2;
+    private static final int ID_LEAST = 3;
+    private static final int ADDRESS_HIGH = 4;
+    private static final int ADDRESS_LOW = 5;
+    private static final int VALUE = 6;
+
+    /**
+     * 未开启访问日志时使用的空实现
+     */
+    private static final AccessLog DISABLED = new AccessLog();
+
+    private final AccessLogRingBuffer ringBuffer;
+
+    private final int sampling;
+
+    /**
+     * 因为缓冲已满被丢弃的记录数
+     */
+    private final LongAdder dropped = new LongAdder();
+
+    private AccessLog() {
+        this.ringBuffer = null;
+        this.sampling = 0;
+    }
+
+    private AccessLog(String name, Path file, int capacity, int sampling, int batchSize) throws IOException {
+        this.ringBuffer = new AccessLogRingBuffer(capacity);
+        this.sampling = Math.max(1, sampling);
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        Flusher flusher = new Flusher(writer, batchSize);
+        Thread thread = new Thread(flusher, String.format("AccessLog-%s", name));
+        thread.setDaemon(true);
+        thread.start();
+
+        // jvm退出时将缓冲中剩余的记录写入磁盘
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            thread.interrupt();
+            flusher.drainAndClose();
+        }));
+    }
+
+    /**
+     * 根据系统属性打开一个访问日志，日志文件为{@code ${socket.accessLog.dir}/${name}-access.log}
+     *
+     * @param name 服务名称，同时用于日志文件名和后台线程名
+     * @return 访问日志
+     */
+    public static AccessLog open(String name) {
+        if (!ENABLED) {
+            return DISABLED;
+        }
+        try {
+            return new AccessLog(name, Paths.get(DIR, String.format("%s-access.log", name)), CAPACITY, SAMPLING, BATCH_SIZE);
+        } catch (IOException e) {
+            log.error("访问日志{}打开失败，不再记录访问日志", name, e);
+            return DISABLED;
+        }
+    }
+
+    /**
+     * 记录客户端已连接
+     *
+     * @param id      连接id
+     * @param address 连接建立时打包好的客户端地址
+     */
+    public void accepted(UUID id, PackedAddress address) {
+        record(AccessEvent.ACCEPT, id, address, 0);
+    }
+
+    /**
+     * 记录收到客户端的一次请求
+     *
+     * @param id      连接id
+     * @param address 连接建立时打包好的客户端地址
+     * @param bytes   请求字节数
+     */
+    public void request(UUID id, PackedAddress address, int bytes) {
+        record(AccessEvent.REQUEST, id, address, bytes);
+    }
+
+    /**
+     * 记录客户端已断开
+     *
+     * @param id      连接id
+     * @param address 连接建立时打包好的客户端地址
+     */
+    public void disconnected(UUID id, PackedAddress address) {
+        record(AccessEvent.DISCONNECT, id, address, 0);
+    }
+
+    /**
+     * @return 因为缓冲已满被丢弃的记录数
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    private void record(AccessEvent event, UUID id, PackedAddress address, long value) {
+        if (ringBuffer == null || (sampling > 1 && ThreadLocalRandom.current().nextInt(sampling) != 0)) {
+            return;
+        }
+        long position = ringBuffer.claim();
+        if (position < 0) {
+            dropped.increment();
+            return;
+        }
+        ringBuffer.put(position, TIMESTAMP, System.currentTimeMillis());
+        ringBuffer.put(position, META, event.ordinal() | address.meta());
+        ringBuffer.put(position, ID_MOST, id.getMostSignificantBits());
+        ringBuffer.put(position, ID_LEAST, id.getLeastSignificantBits());
+        ringBuffer.put(position, ADDRESS_HIGH, address.high());
+        ringBuffer.put(position, ADDRESS_LOW, address.low());
+        ringBuffer.put(position, VALUE, value);
+        ringBuffer.publish(position);
+    }
+
+    private static byte[] unpack(long high, long low, int length) {
+        byte[] ip = new byte[length];
+        for (int i = 0; i < length; i++) {
+            long packed = i < 8 ? high : low;
+            ip[i] = (byte) (packed >>> (56 - (i % 8) * 8));
+        }
+        return ip;
+    }
+
+    /**
+     * 后台格式化并批量写入日志文件的任务
+     */
+    private final class Flusher implements Runnable {
+
+        private final Writer writer;
+
+        private final int batchSize;
+
+        private final StringBuilder line = new StringBuilder(128);
+
+        /**
+         * 上一次写入日志文件的丢弃记录数
+         */
+        private long reportedDropped;
+
+        private Flusher(Writer writer, int batchSize) {
+            this.writer = writer;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    if (flushBatch() == 0) {
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    }
+                } catch (Exception e) {
+                    log.error(e.getMessage(), e);
+                }
+            }
+        }
+
+        /**
+         * 格式化一批记录并写入磁盘
+         *
+         * @return 本批写入的记录数
+         * @throws IOException io异常
+         */
+        private synchronized int flushBatch() throws IOException {
+            int drained = ringBuffer.drain(this::format, batchSize);
+            long droppedNow = dropped.sum();
+            boolean reportDropped = droppedNow != reportedDropped;
+            if (reportDropped) {
+                writer.write(String.format("%s dropped %d%n", TIME_FORMATTER.format(Instant.now()), droppedNow - reportedDropped));
+                reportedDropped = droppedNow;
+            }
+
+            // 一批记录只刷新一次磁盘
+            if (drained > 0 || reportDropped) {
+                writer.flush();
+            }
+            return drained;
+        }
+
+        private synchronized void drainAndClose() {
+            try {
+                while (flushBatch() > 0) {
+                    // 写完缓冲中剩余的所有记录
+                }
+                writer.close();
+            } catch (IOException e) {
+                log.error(e.getMessage(), e);
+            }
+        }
+
+        private void format(long[] records, int offset) {
+            long meta = records[offset + META];
+            line.setLength(0);
+            line.append(TIME_FORMATTER.format(Instant.ofEpochMilli(records[offset + TIMESTAMP])))
+                    .append(' ').append(AccessEvent.of((int) (meta & 0xff)).label())
+                    .append(' ').append(new UUID(records[offset + ID_MOST], records[offset + ID_LEAST]))
+                    .append(" [").append(hostAddress(records[offset + ADDRESS_HIGH], records[offset + ADDRESS_LOW], (int) ((meta >>> 24) & 0xff)))
+                    .append(':').append((meta >>> 8) & 0xffff)
+                    .append("] ").append(records[offset + VALUE])
+                    .append(System.lineSeparator());
+            try {
+                writer.append(line);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private String hostAddress(long high, long low, int length) {
+            if (length == 0) {
+                return "unknown";
+            }
+            try {
+                return InetAddress.getByAddress(unpack(high, low, length)).getHostAddress();
+            } catch (UnknownHostException e) {
+                return "unknown";
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package red.zyc.socket.core.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 多生产者单消费者的无锁环形缓冲，每个槽位存放一条固定{@link #RECORD_LONGS}个long大小的二进制记录。
+ * <ul>
+ *     <li>
+ *         生产者（reactor线程、业务线程）先通过CAS抢占一个序号，然后直接写入槽位数据，最后发布该槽位的序号，
+ *         整个过程不加锁也不分配对象。缓冲已满时{@link #claim()}立即返回-1，由调用方丢弃这条记录，永远不会阻塞生产者。
+ *     </li>
+ *     <li>
+ *         消费者只有一个后台线程，按序号顺序读取已发布的槽位，读完之后将槽位序号推进一圈以便生产者复用。
+ *     </li>
+ * </ul>
+ *
+ * @author zyc
+ */
+final class AccessLogRingBuffer {
+
+    /**
+     * 每条记录占用的long数量
+     */
+    static final int RECORD_LONGS = 8;
+
+    private static final int RECORD_SHIFT = 3;
+
+    private final int capacity;
+
+    private final int mask;
+
+    /**
+     * 所有槽位的记录数据，槽位i的数据位于[i * RECORD_LONGS, (i + 1) * RECORD_LONGS)
+     */
+    private final long[] records;
+
+    /**
+     * 每个槽位的序号。等于生产序号时代表槽位空闲，等于生产序号+1时代表记录已发布可以被消费
+     */
+    private final AtomicLongArray sequences;
+
+    /**
+     * 下一个可以被生产者抢占的序号
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * 下一个需要被消费的序号，只会被消费线程访问
+     */
+    private long head;
+
+    AccessLogRingBuffer(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("环形缓冲容量必须是2的幂: " + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.records = new long[capacity << RECORD_SHIFT];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * 抢占一个空闲槽位
+     *
+     * @return 抢占到的序号，缓冲已满时返回-1
+     */
+    long claim() {
+        while (true) {
+            long position = tail.get();
+            long sequence = sequences.get((int) (position & mask));
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+            } else if (sequence < position) {
+
+                // 消费者还没有读完上一圈的记录，缓冲已满
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * 写入已抢占槽位的某个字段
+     *
+     * @param position {@link #claim()}返回的序号
+     * @param field    字段下标，范围[0, RECORD_LONGS)
+     * @param value    字段值
+     */
+    void put(long position, int field, long value) {
+        records[(((int) (position & mask)) << RECORD_SHIFT) + field] = value;
+    }
+
+    /**
+     * 发布已写完的槽位，发布之后的记录才对消费者可见
+     *
+     * @param position {@link #claim()}返回的序号
+     */
+    void publish(long position) {
+        sequences.lazySet((int) (position & mask), position + 1);
+    }
+
+    /**
+     * 按顺序消费已发布的记录
+     *
+     * @param consumer 记录消费者
+     * @param limit    本次最多消费的记录数
+     * @return 实际消费的记录数
+     */
+    int drain(RecordConsumer consumer, int limit) {
+        int drained = 0;
+        while (drained < limit) {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+            consumer.accept(records, index << RECORD_SHIFT);
+            sequences.lazySet(index, head + capacity);
+            head++;
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * 二进制记录消费者
+     */
+    @FunctionalInterface
+    interface RecordConsumer {
+
+        /**
+         * @param records 所有槽位的记录数据
+         * @param offset  当前记录在records中的起始下标
+         */
+        void accept(long[] records, int offset);
+    }
+}
@@ -0,0 +1,36 @@
+package red.zyc.socket.core.log;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * 按照访问日志记录的格式打包好的客户端地址，连接建立时创建一次，之后每条访问日志直接写入这几个long，
+ * 不需要每次都通过{@link InetAddress#getAddress()}复制一份ip地址的字节数组。
+ *
+ * @param high ip地址的前8个字节，按大端序打包
+ * @param low  ip地址的后8个字节，按大端序打包，ipv4地址为0
+ * @param meta 端口号左移8位与ip地址长度左移24位的组合，记录时再与事件类型合并
+ * @author zyc
+ */
+public record PackedAddress(long high, long low, long meta) {
+
+    /**
+     * @param address 客户端地址
+     * @return 打包好的地址，没有解析出ip的地址长度为0
+     */
+    public static PackedAddress of(InetSocketAddress address) {
+        byte[] ip = address.getAddress() == null ? new byte[0] : address.getAddress().getAddress();
+        return new PackedAddress(pack(ip, 0), pack(ip, 8), ((long) address.getPort() << 8) | ((long) ip.length << 24));
+    }
+
+    /**
+     * 将ip地址中从from开始的至多8个字节按大端序打包成一个long
+     */
+    private static long pack(byte[] ip, int from) {
+        long packed = 0;
+        for (int i = from; i < from + 8; i++) {
+            packed = (packed << 8) | (i < ip.length ? ip[i] & 0xff : 0);
+        }
+        return packed;
+    }
+}
@@ -0,0 +1,112 @@
+package red.zyc.socket.core.message;
+
+import red.zyc.socket.core.codec.Frame;
+
+/**
+ * 请求帧、响应帧和推送帧的内容格式。一条消息由消息类型、字段数和若干个长度前缀的字段组成：
+ * <pre>
+ * +----------+----------------+------------+-----------+------------+-----------+-----+
+ * | type (1) | fieldCount (1) | length (2) | field (n) | length (2) | field (m) | ... |
+ * +----------+----------------+------------+-----------+------------+-----------+-----+
+ * </pre>
+ * 字段长度是无符号的short，字段内容是任意字节，字符串字段使用utf-8编码。帧头中已经有了帧类型和correlationId，消息中不再重复。
+ * 读消息使用{@link MessageDecoder}，直接从帧内容中按偏移量读取字段；写消息使用{@link MessageEncoder}，直接编码到待发送的缓冲中。
+ * <table>
+ *     <tr><th>消息类型</th><th>帧类型</th><th>字段</th></tr>
+ *     <tr><td>{@link #ECHO}</td><td>{@link Frame#REQUEST}</td><td>消息内容</td></tr>
+ *     <tr><td>{@link #ECHO}</td><td>{@link Frame#RESPONSE}</td><td>请求中的消息内容</td></tr>
+ *     <tr><td>{@link #JOIN}、{@link #LEAVE}</td><td>{@link Frame#REQUEST}</td><td>房间名</td></tr>
+ *     <tr><td>{@link #SEND}</td><td>{@link Frame#REQUEST}</td><td>房间名、消息内容</td></tr>
+ *     <tr><td>{@link #HISTORY}</td><td>{@link Frame#REQUEST}</td><td>房间名、起始偏移量(8)</td></tr>
+ *     <tr><td>{@link #OK}</td><td>{@link Frame#RESPONSE}</td><td>房间名，回复{@link #HISTORY}时还有下一次回放的起始偏移量(8)</td></tr>
+ *     <tr><td>{@link #ERROR}</td><td>{@link Frame#RESPONSE}</td><td>错误原因</td></tr>
+ *     <tr><td>{@link #MESSAGE}</td><td>{@link Frame#PUSH}</td><td>房间名、发送者uuid(16)、消息内容</td></tr>
+ * </table>
+ * 开启{@link red.zyc.socket.core.journal.Journal 消息日志}之后，{@link #MESSAGE}推送帧的correlationId是消息在房间中的偏移量。
+ *
+ * @author zyc
+ */
+public final class Message {
+
+    /**
+     * 普通消息，服务端原样回复消息内容
+     */
+    public static final byte ECHO = 1;
+
+    /**
+     * 加入房间
+     */
+    public static final byte JOIN = 2;
+
+    /**
+     * 离开房间
+     */
+    public static final byte LEAVE = 3;
+
+    /**
+     * 向房间内所有成员广播消息
+     */
+    public static final byte SEND = 4;
+
+    /**
+     * 房间命令执行成功
+     */
+    public static final byte OK = 5;
+
+    /**
+     * 请求执行失败
+     */
+    public static final byte ERROR = 6;
+
+    /**
+     * 房间广播的消息
+     */
+    public static final byte MESSAGE = 7;
+
+    /**
+     * 回放房间中从某个偏移量开始的历史消息
+     */
+    public static final byte HISTORY = 8;
+
+    /**
+     * 消息头的长度，包括type和fieldCount
+     */
+    public static final int HEADER_LENGTH = 2;
+
+    /**
+     * 字段长度前缀的长度
+     */
+    public static final int FIELD_LENGTH_LENGTH = 2;
+
+    /**
+     * 单个字段的最大长度
+     */
+    public static final int MAX_FIELD_LENGTH = 0xFFFF;
+
+    /**
+     * 一条消息最多包含的字段数
+     */
+    public static final int MAX_FIELDS = 0xFF;
+
+    /**
+     * uuid字段的长度
+     */
+    public static final int UUID_LENGTH = 16;
+
+    /**
+     * 偏移量字段的长度
+     */
+    public static final int OFFSET_LENGTH = 8;
+
+    private Message() {
+    }
+
+    /**
+     * @param fieldCount 字段数
+     * @param fieldBytes 所有字段内容的总长度
+     * @return 包含帧头在内的完整帧的长度，可以用来分配一个刚好能容纳整个帧的缓冲
+     */
+    public static int frameLength(int fieldCount, int fieldBytes) {
+        return Frame.HEADER_LENGTH + HEADER_LENGTH + fieldCount * FIELD_LENGTH_LENGTH + fieldBytes;
+    }
+}
@@ -0,0 +1,170 @@
+package red.zyc.socket.core.message;
+
+import red.zyc.socket.core.codec.CodecException;
+import red.zyc.socket.core.codec.CompositeBuffer;
+import red.zyc.socket.core.codec.Frame;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * {@link Message}的享元解码器。{@link #wrap(ByteBuffer)}只校验字段长度并记住消息的起始位置，
+ * 所有访问方法都通过绝对偏移量直接读取被包装的缓冲，不会移动缓冲的position，也不会把字段复制成字符串或者字节数组，
+ * {@link #field(int)}返回的是与原缓冲共享内容的视图。<br><br>
+ * 服务端收到的大帧由多个缓冲块组成，{@link #wrap(CompositeBuffer)}直接在{@link Frame#body()}上解码，不需要先把整个帧合并成连续的缓冲，
+ * 只有刚好跨越两个缓冲块边界的字段才会被复制，单个字段最长只有64KB。<br><br>
+ * 一个实例可以反复包装不同的消息，但不能被多个线程同时使用。字段视图和原缓冲共享内容，
+ * 原缓冲被复用之前（例如bio的读缓冲读到下一批数据之前）不能再访问它们。
+ *
+ * @author zyc
+ */
+public final class MessageDecoder {
+
+    /**
+     * 被包装的连续缓冲，包装{@link CompositeBuffer}时为null
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * 被包装的{@link CompositeBuffer}，包装连续缓冲时为null
+     */
+    private CompositeBuffer composite;
+
+    /**
+     * 消息在缓冲中的起始位置
+     */
+    private int offset;
+
+    private int fieldCount;
+
+    /**
+     * 包装一条消息并校验它的格式
+     *
+     * @param buffer 处于读模式的帧内容，消息从它的position开始，到limit结束
+     * @return 当前解码器
+     * @throws CodecException 消息格式不合法
+     */
+    public MessageDecoder wrap(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.composite = null;
+        return validate(buffer.position(), buffer.limit());
+    }
+
+    /**
+     * 包装一条由多个缓冲块组成的消息并校验它的格式
+     *
+     * @param body 帧内容，消息从索引0开始
+     * @return 当前解码器
+     * @throws CodecException 消息格式不合法
+     */
+    public MessageDecoder wrap(CompositeBuffer body) {
+        this.buffer = null;
+        this.composite = body;
+        return validate(0, body.remaining());
+    }
+
+    /**
+     * @return 消息类型
+     */
+    public byte type() {
+        return get(offset);
+    }
+
+    /**
+     * @return 字段数
+     */
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @param index 字段的索引
+     * @return 字段内容的长度
+     */
+    public int fieldLength(int index) {
+        return getUnsignedShort(fieldOffset(index));
+    }
+
+    /**
+     * @param index 字段的索引
+     * @return 与原缓冲共享内容的字段视图，position为0，limit为字段长度。字段跨越了缓冲块的边界时返回它的副本
+     */
+    public ByteBuffer field(int index) {
+        int fieldOffset = fieldOffset(index);
+        int start = fieldOffset + Message.FIELD_LENGTH_LENGTH;
+        int length = getUnsignedShort(fieldOffset);
+        return buffer != null ? buffer.slice(start, length) : composite.slice(start, length).toByteBuffer();
+    }
+
+    /**
+     * @param index 字段的索引
+     * @return 16字节的uuid字段
+     * @throws CodecException 字段长度不是16
+     */
+    public UUID uuid(int index) {
+        int fieldOffset = fieldOffset(index);
+        if (getUnsignedShort(fieldOffset) != Message.UUID_LENGTH) {
+            throw new CodecException(String.format("消息的第%d个字段不是uuid", index));
+        }
+        int start = fieldOffset + Message.FIELD_LENGTH_LENGTH;
+        return new UUID(getLong(start), getLong(start + Long.BYTES));
+    }
+
+    /**
+     * 校验消息头和所有字段的长度
+     *
+     * @param index 消息的起始位置
+     * @param limit 消息的结束位置
+     * @return 当前解码器
+     * @throws CodecException 消息格式不合法
+     */
+    private MessageDecoder validate(int index, int limit) {
+        if (limit - index < Message.HEADER_LENGTH) {
+            throw new CodecException(String.format("不合法的消息长度: %d", limit - index));
+        }
+        int start = index;
+        int count = Byte.toUnsignedInt(get(index + 1));
+        index += Message.HEADER_LENGTH;
+        for (int i = 0; i < count; i++) {
+            if (limit - index < Message.FIELD_LENGTH_LENGTH) {
+                throw new CodecException(String.format("消息的第%d个字段缺少长度", i));
+            }
+            index += Message.FIELD_LENGTH_LENGTH + getUnsignedShort(index);
+            if (index > limit) {
+                throw new CodecException(String.format("消息的第%d个字段超出了消息的长度", i));
+            }
+        }
+        this.offset = start;
+        this.fieldCount = count;
+        return this;
+    }
+
+    /**
+     * 字段数量很少，按顺序跳过前面的字段比为每条消息保存一个偏移量数组更省事
+     *
+     * @param index 字段的索引
+     * @return 字段长度前缀在缓冲中的位置
+     */
+    private int fieldOffset(int index) {
+        if (index < 0 || index >= fieldCount) {
+            throw new CodecException(String.format("消息只有%d个字段，没有第%d个字段", fieldCount, index));
+        }
+        int fieldOffset = offset + Message.HEADER_LENGTH;
+        for (int i = 0; i < index; i++) {
+            fieldOffset += Message.FIELD_LENGTH_LENGTH + getUnsignedShort(fieldOffset);
+        }
+        return fieldOffset;
+    }
+
+    private byte get(int index) {
+        return buffer != null ? buffer.get(index) : composite.get(index);
+    }
+
+    private int getUnsignedShort(int index) {
+        return Short.toUnsignedInt(buffer != null ? buffer.getShort(index) : composite.getShort(index));
+    }
+
+    private long getLong(int index) {
+        return buffer != null ? buffer.getLong(index) : composite.getLong(index);
+    }
+}
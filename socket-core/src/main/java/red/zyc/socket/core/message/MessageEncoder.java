@@ -0,0 +1,105 @@
+package red.zyc.socket.core.message;
+
+import red.zyc.socket.core.codec.CodecException;
+import red.zyc.socket.core.codec.Frame;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * {@link Message}编码器，把帧头和消息直接写入目标缓冲，帧长度和字段数在{@link #finish()}时回填，
+ * 所以不需要先把字段拼成字符串或者字节数组再复制一次。目标缓冲通常按照{@link Message#frameLength(int, int)}分配，
+ * 编码完成之后直接交给连接写出。<br><br>
+ * 一个实例可以反复编码不同的消息，但不能被多个线程同时使用。
+ *
+ * @author zyc
+ */
+public final class MessageEncoder {
+
+    private ByteBuffer target;
+
+    /**
+     * 帧在目标缓冲中的起始位置
+     */
+    private int frameStart;
+
+    private int fieldCount;
+
+    /**
+     * 开始编码一个帧
+     *
+     * @param target        目标缓冲，必须有足够的剩余空间
+     * @param frameType     帧类型
+     * @param correlationId 请求id
+     * @param messageType   消息类型
+     * @return 当前编码器
+     */
+    public MessageEncoder wrap(ByteBuffer target, byte frameType, long correlationId, byte messageType) {
+        this.target = target;
+        this.frameStart = target.position();
+        this.fieldCount = 0;
+
+        // 帧长度和字段数先占位，编码结束时回填
+        target.putInt(0).put(frameType).putLong(correlationId).put(messageType).put((byte) 0);
+        return this;
+    }
+
+    /**
+     * 写入一个字段，字段的position不会改变，所以同一个缓冲可以被编码到多条消息中
+     *
+     * @param value 处于读模式的字段内容
+     * @return 当前编码器
+     */
+    public MessageEncoder field(ByteBuffer value) {
+        int length = value.remaining();
+        putLength(length);
+        target.put(target.position(), value, value.position(), length);
+        target.position(target.position() + length);
+        return this;
+    }
+
+    /**
+     * 写入一个字段
+     *
+     * @param value 字段内容
+     * @return 当前编码器
+     */
+    public MessageEncoder field(byte[] value) {
+        putLength(value.length);
+        target.put(value);
+        return this;
+    }
+
+    /**
+     * 写入一个16字节的uuid字段
+     *
+     * @param value uuid
+     * @return 当前编码器
+     */
+    public MessageEncoder field(UUID value) {
+        putLength(Message.UUID_LENGTH);
+        target.putLong(value.getMostSignificantBits()).putLong(value.getLeastSignificantBits());
+        return this;
+    }
+
+    /**
+     * 回填帧长度和字段数
+     *
+     * @return 处于写模式的目标缓冲，position位于帧的末尾
+     */
+    public ByteBuffer finish() {
+        target.putInt(frameStart, target.position() - frameStart - Frame.LENGTH_FIELD_LENGTH);
+        target.put(frameStart + Frame.HEADER_LENGTH + 1, (byte) fieldCount);
+        return target;
+    }
+
+    private void putLength(int length) {
+        if (length > Message.MAX_FIELD_LENGTH) {
+            throw new CodecException(String.format("字段长度%d超过了上限%d", length, Message.MAX_FIELD_LENGTH));
+        }
+        if (++fieldCount > Message.MAX_FIELDS) {
+            throw new CodecException(String.format("字段数超过了上限%d", Message.MAX_FIELDS));
+        }
+        target.putShort((short) length);
+    }
+}
@@ -0,0 +1,167 @@
+package red.zyc.socket.core.timer;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 哈希时间轮。时间轮由固定数量的时间格组成，工作线程每隔一个tick前进一格并执行这一格中所有到期的任务，
+ * 添加和取消任务的时间复杂度都是O(1)，适合管理海量的、精度要求不高的超时任务，例如每个连接的心跳检测。<br><br>
+ * 任务在工作线程中执行，所以不能有阻塞操作，耗时的操作应当提交到其它线程执行。
+ *
+ * @author zyc
+ */
+@Slf4j
+public final class HashedWheelTimer {
+
+    /**
+     * 每个tick最多从{@link #pending}中转移的任务数，避免大量任务同时添加时工作线程长时间不能前进
+     */
+    private static final int MAX_TRANSFER_PER_TICK = 100_000;
+
+    private final long tickNanos;
+
+    /**
+     * 每个时间格的链表头
+     */
+    private final Timeout[] heads;
+
+    /**
+     * 每个时间格的链表尾
+     */
+    private final Timeout[] tails;
+
+    private final int mask;
+
+    /**
+     * 任意线程添加的任务先放入这个队列，由工作线程在每个tick转移到对应的时间格
+     */
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+
+    private final long startTime;
+
+    private long tick;
+
+    /**
+     * @param name      工作线程名称
+     * @param tick      每一格的时长
+     * @param unit      时长单位
+     * @param wheelSize 时间格数量，会被调整为2的幂
+     */
+    public HashedWheelTimer(String name, long tick, TimeUnit unit, int wheelSize) {
+        int size = Integer.highestOneBit(Math.max(wheelSize, 1) * 2 - 1);
+        this.tickNanos = unit.toNanos(tick);
+        this.heads = new Timeout[size];
+        this.tails = new Timeout[size];
+        this.mask = size - 1;
+        this.startTime = System.nanoTime();
+        Thread worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * 添加一个定时任务，可以在任意线程调用
+     *
+     * @param task  任务
+     * @param delay 延迟时长
+     * @param unit  时长单位
+     * @return 定时任务
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(delay));
+        pending.offer(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                waitForNextTick();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            transferPending();
+            expire((int) (tick & mask));
+            tick++;
+        }
+    }
+
+    private void waitForNextTick() throws InterruptedException {
+        long deadline = startTime + (tick + 1) * tickNanos;
+        long sleep;
+        while ((sleep = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(sleep);
+        }
+    }
+
+    /**
+     * 把新添加的任务放到对应的时间格中，已经过期的任务放到当前时间格，在本次tick中执行
+     */
+    private void transferPending() {
+        Timeout timeout;
+        for (int i = 0; i < MAX_TRANSFER_PER_TICK && (timeout = pending.poll()) != null; i++) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            long expiredTick = Math.max((timeout.deadline - startTime + tickNanos - 1) / tickNanos - 1, tick);
+            timeout.remainingRounds = (expiredTick - tick) / heads.length;
+            add((int) (expiredTick & mask), timeout);
+        }
+    }
+
+    /**
+     * 执行时间格中所有到期的任务，移除已取消的任务，其余任务的剩余圈数减一
+     *
+     * @param index 时间格下标
+     */
+    private void expire(int index) {
+        Timeout timeout = heads[index];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.isCancelled()) {
+                remove(index, timeout);
+            } else if (timeout.remainingRounds <= 0) {
+                remove(index, timeout);
+                if (timeout.expire()) {
+                    try {
+                        timeout.task.run();
+                    } catch (Throwable t) {
+                        log.error("定时任务执行失败", t);
+                    }
+                }
+            } else {
+                timeout.remainingRounds--;
+            }
+            timeout = next;
+        }
+    }
+
+    private void add(int index, Timeout timeout) {
+        if (heads[index] == null) {
+            heads[index] = tails[index] = timeout;
+        } else {
+            tails[index].next = timeout;
+            timeout.prev = tails[index];
+            tails[index] = timeout;
+        }
+    }
+
+    private void remove(int index, Timeout timeout) {
+        if (timeout.prev == null) {
+            heads[index] = timeout.next;
+        } else {
+            timeout.prev.next = timeout.next;
+        }
+        if (timeout.next == null) {
+            tails[index] = timeout.prev;
+        } else {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.next = null;
+        timeout.prev = null;
+    }
+}
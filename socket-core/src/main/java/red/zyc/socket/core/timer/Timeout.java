@@ -0,0 +1,66 @@
+package red.zyc.socket.core.timer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link HashedWheelTimer}中的一个定时任务。同一个时间格中的任务组成一个双向链表，链表只会被时间轮的工作线程访问。
+ *
+ * @author zyc
+ */
+public final class Timeout {
+
+    private static final int INIT = 0;
+
+    private static final int CANCELLED = 1;
+
+    private static final int EXPIRED = 2;
+
+    /**
+     * 任务状态，取消和到期只有一个能成功
+     */
+    private final AtomicInteger state = new AtomicInteger(INIT);
+
+    final Runnable task;
+
+    /**
+     * 到期时间，{@link System#nanoTime()}
+     */
+    final long deadline;
+
+    /**
+     * 还需要转几圈时间轮才会到期
+     */
+    long remainingRounds;
+
+    Timeout next;
+
+    Timeout prev;
+
+    Timeout(Runnable task, long deadline) {
+        this.task = task;
+        this.deadline = deadline;
+    }
+
+    /**
+     * 取消任务，可以在任意线程调用。已取消的任务会在时间轮下一次经过它所在的时间格时被移除
+     *
+     * @return 是否取消成功，任务已经到期执行时返回false
+     */
+    public boolean cancel() {
+        return state.compareAndSet(INIT, CANCELLED);
+    }
+
+    /**
+     * @return 任务是否已经被取消
+     */
+    public boolean isCancelled() {
+        return state.get() == CANCELLED;
+    }
+
+    /**
+     * @return 是否成功将任务置为到期状态
+     */
+    boolean expire() {
+        return state.compareAndSet(INIT, EXPIRED);
+    }
+}
@@ -0,0 +1,108 @@
+package red.zyc.socket.core.transport;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import red.zyc.socket.core.log.PackedAddress;
+
+import java.net.InetSocketAddress;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 三种传输层连接共有的状态，以及连接建立、断开时对{@link Handler}和{@link Metrics}的通知
+ *
+ * @author zyc
+ */
+@Getter
+public abstract class AbstractConnection implements Connection {
+
+    /**
+     * 当前连接的唯一标识
+     */
+    private final UUID uuid;
+
+    /**
+     * 当前连接的id
+     */
+    private final String id;
+
+    /**
+     * 进程内唯一的连接序号
+     */
+    private final long serialId;
+
+    /**
+     * 客户端的网络地址
+     */
+    private final InetSocketAddress inetSocketAddress;
+
+    /**
+     * 按照访问日志格式打包好的客户端地址，避免每条访问日志都复制一次ip地址
+     */
+    private final PackedAddress packedAddress;
+
+    /**
+     * 连接创建时间
+     */
+    private final LocalDateTime createdTime;
+
+    /**
+     * 处理当前连接请求的业务逻辑
+     */
+    private final Handler handler;
+
+    /**
+     * 连接是否已经断开，保证断开连接的逻辑只执行一次
+     */
+    @Getter(AccessLevel.NONE)
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    protected AbstractConnection(InetSocketAddress inetSocketAddress, Handler handler) {
+        this.uuid = UUID.randomUUID();
+        this.id = uuid.toString();
+        this.serialId = ConnectionRegistry.INSTANCE.nextSerialId();
+        this.inetSocketAddress = inetSocketAddress;
+        this.packedAddress = PackedAddress.of(inetSocketAddress);
+        this.createdTime = LocalDateTime.now();
+        this.handler = handler;
+    }
+
+    /**
+     * 连接建立之后由传输层调用一次，此时连接已经可以读写，连接会被注册到{@link ConnectionRegistry}中
+     */
+    public void connected() {
+        ConnectionRegistry.INSTANCE.register(this);
+
+        // 注册的同时连接可能已经断开了，这时不会再有人注销它
+        if (isClosed()) {
+            ConnectionRegistry.INSTANCE.unregister(this);
+        }
+        Metrics.INSTANCE.connected(this);
+        handler.connected(this);
+    }
+
+    @Override
+    public final void disconnect() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            close();
+        } finally {
+            ConnectionRegistry.INSTANCE.unregister(this);
+            Metrics.INSTANCE.disconnected(this);
+            handler.disconnected(this);
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * 关闭底层的socket并释放连接占用的资源，只会被调用一次
+     */
+    protected abstract void close();
+}
@@ -0,0 +1,36 @@
+package red.zyc.socket.core.transport;
+
+import red.zyc.socket.core.codec.Frame;
+
+import java.util.List;
+
+/**
+ * 一次处理一批请求的业务逻辑。nio的SubReactor在一轮事件循环中、aio在一次读回调中解码出的所有请求帧会作为一个任务
+ * 提交到业务线程池，业务逻辑一次拿到整批请求，可以把数据库写入、日志追加之类的下游操作合并成一次，
+ * 请求很多时也能大幅减少业务线程池的入队和线程唤醒次数。<br><br>
+ * 一批请求可能来自多个连接，同一个连接的请求按照接收的顺序排列，每批最多{@link RequestBatcher#MAX_SIZE}个请求。
+ * 没有实现这个接口的{@link Handler}仍然每个请求提交一次任务；bio没有批量的读，每次只会传入一个请求。
+ *
+ * @author zyc
+ */
+public interface BatchHandler extends Handler {
+
+    /**
+     * 处理一批请求，通过每个请求的{@link Request#connection()}写回响应帧。
+     * 和{@link Handler#handle(Connection, Frame)}一样，请求帧的内容只在方法返回之前有效
+     *
+     * @param requests 至少包含一个请求
+     */
+    void handle(List<Request> requests);
+
+    /**
+     * 把单个请求作为只有一个请求的批次处理
+     *
+     * @param connection 连接
+     * @param request    请求帧
+     */
+    @Override
+    default void handle(Connection connection, Frame request) {
+        handle(List.of(new Request(connection, request)));
+    }
+}
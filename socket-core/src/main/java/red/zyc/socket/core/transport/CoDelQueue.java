@@ -0,0 +1,326 @@
+package red.zyc.socket.core.transport;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 业务线程池的任务队列，按照CoDel（Controlled Delay）的思路根据请求在队列中的等待时间而不是队列长度判断是否过载。<br><br>
+ * 每次取任务时记录队头任务已经等待的时间，如果一个{@link #INTERVAL_NANOS}内的最小等待时间都超过了{@link #TARGET_NANOS}，
+ * 说明队列中一直有处理不完的积压（standing queue），进入过载状态。过载时：
+ * <ul>
+ *     <li>等待超过两倍{@link #TARGET_NANOS}的请求直接被丢弃并回复错误，客户端可以立即重试或者放弃，而不是等到超时</li>
+ *     <li>改为后进先出，优先处理刚到达的、客户端还在等待的请求，积压的旧请求随后被丢弃</li>
+ * </ul>
+ * 积压消失之后恢复先进先出。不论是否过载，等待超过{@link #DEADLINE_NANOS}的请求都会被丢弃，因为客户端已经不再等待它的响应。
+ * 队列已满时{@link #offer}返回false，由线程池的{@link RejectedRequestHandler}拒绝请求。<br><br>
+ * 只有{@link HandlerTask}记录了入队时间，提交到业务线程池的其它任务放在一个单独的先进先出队列中，优先于请求被取出，
+ * 它们不参与过载判断，也不会被丢弃。<br><br>
+ * 可以通过以下系统属性配置：
+ * <ul>
+ *     <li>socket.process.codel.target：目标等待毫秒数，默认5</li>
+ *     <li>socket.process.codel.interval：判断是否过载的时间窗口毫秒数，默认100</li>
+ *     <li>socket.process.timeout：请求的最长等待毫秒数，应当与客户端的请求超时时间一致，默认0代表不限制</li>
+ * </ul>
+ * {@link #iterator()}返回的是快照，不支持通过它删除任务。
+ *
+ * @author zyc
+ */
+final class CoDelQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    /**
+     * 目标等待时间
+     */
+    static final long TARGET_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("socket.process.codel.target", 5));
+
+    /**
+     * 判断是否过载的时间窗口
+     */
+    static final long INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("socket.process.codel.interval", 100));
+
+    /**
+     * 请求的最长等待时间，0代表不限制
+     */
+    static final long DEADLINE_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("socket.process.timeout", 0));
+
+    /**
+     * 过载时丢弃请求的等待时间阈值，高于{@link #TARGET_NANOS}，这样过载期间队头任务的等待时间会保持在目标之上，不会在两种状态之间来回切换
+     */
+    private static final long SHED_NANOS = TARGET_NANOS * 2;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    private final ArrayDeque<HandlerTask> tasks = new ArrayDeque<>();
+
+    /**
+     * 不是{@link HandlerTask}的其它任务，没有入队时间，始终先进先出
+     */
+    private final ArrayDeque<Runnable> others = new ArrayDeque<>();
+
+    private final int capacity;
+
+    /**
+     * 当前时间窗口内观察到的队头任务的最小等待时间
+     */
+    private long minSojourn = Long.MAX_VALUE;
+
+    /**
+     * 当前时间窗口结束的时间
+     */
+    private long intervalEnd = System.nanoTime() + INTERVAL_NANOS;
+
+    /**
+     * 上一个时间窗口是否过载
+     */
+    private boolean overloaded;
+
+    /**
+     * @param capacity 最多排队的任务数
+     */
+    CoDelQueue(int capacity) {
+        this.capacity = capacity;
+    }
+
+    @Override
+    public boolean offer(Runnable runnable) {
+        Objects.requireNonNull(runnable);
+        lock.lock();
+        try {
+            if (tasks.size() + others.size() >= capacity) {
+                return false;
+            }
+            if (runnable instanceof HandlerTask task) {
+                task.enqueuedNanos = System.nanoTime();
+                tasks.addLast(task);
+            } else {
+                others.addLast(runnable);
+            }
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable runnable, long timeout, TimeUnit unit) {
+        return offer(runnable);
+    }
+
+    @Override
+    public void put(Runnable runnable) {
+        if (!offer(runnable)) {
+            throw new IllegalStateException("业务线程池的任务队列已满");
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        while (true) {
+            List<HandlerTask> shed = new ArrayList<>(0);
+            Runnable task;
+            lock.lockInterruptibly();
+            try {
+                while ((task = dequeue(shed)) == null && shed.isEmpty()) {
+                    notEmpty.await();
+                }
+            } finally {
+                lock.unlock();
+            }
+            shed(shed);
+            if (task != null) {
+                return task;
+            }
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        while (true) {
+            List<HandlerTask> shed = new ArrayList<>(0);
+            Runnable task;
+            lock.lockInterruptibly();
+            try {
+                while ((task = dequeue(shed)) == null && shed.isEmpty()) {
+                    if (nanos <= 0) {
+                        return null;
+                    }
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+            } finally {
+                lock.unlock();
+            }
+            shed(shed);
+            if (task != null) {
+                return task;
+            }
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        while (true) {
+            List<HandlerTask> shed = new ArrayList<>(0);
+            Runnable task;
+            lock.lock();
+            try {
+                task = dequeue(shed);
+            } finally {
+                lock.unlock();
+            }
+            shed(shed);
+            if (task != null || shed.isEmpty()) {
+                return task;
+            }
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            if (!others.isEmpty()) {
+                return others.peekFirst();
+            }
+            return overloaded ? tasks.peekLast() : tasks.peekFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return tasks.size() + others.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - tasks.size() - others.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        lock.lock();
+        try {
+            return others.remove(o) || tasks.remove(o);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            List<Runnable> snapshot = new ArrayList<>(others.size() + tasks.size());
+            snapshot.addAll(others);
+            snapshot.addAll(tasks);
+            return snapshot.iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        lock.lock();
+        try {
+            int n = 0;
+            while (n < maxElements && !others.isEmpty()) {
+                c.add(others.pollFirst());
+                n++;
+            }
+            while (n < maxElements && !tasks.isEmpty()) {
+                c.add(tasks.pollFirst());
+                n++;
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 更新过载状态之后取出下一个任务，需要丢弃的任务放入shed中，由调用方在释放锁之后回复。只能在持有锁时调用
+     *
+     * @param shed 被丢弃的任务
+     * @return 下一个任务，没有任务时返回null
+     */
+    private Runnable dequeue(List<HandlerTask> shed) {
+        Runnable other = others.pollFirst();
+        if (other != null) {
+            return other;
+        }
+        long now = System.nanoTime();
+        HandlerTask head = tasks.peekFirst();
+
+        // 队列为空说明没有积压，这个时间窗口不会被判定为过载
+        long sojourn = head == null ? 0 : now - head.enqueuedNanos;
+        if (now - intervalEnd >= 0) {
+            overloaded = minSojourn > TARGET_NANOS;
+            minSojourn = sojourn;
+            intervalEnd = now + INTERVAL_NANOS;
+        } else {
+            minSojourn = Math.min(minSojourn, sojourn);
+        }
+        while (true) {
+            HandlerTask task = overloaded ? tasks.pollLast() : tasks.pollFirst();
+            if (task == null) {
+                return null;
+            }
+            long waited = now - task.enqueuedNanos;
+            if (DEADLINE_NANOS > 0 && waited > DEADLINE_NANOS) {
+                shed.add(task);
+                continue;
+            }
+            if (overloaded) {
+                // 后进先出时旧请求不会被取到，从队头丢弃所有等待太久的请求
+                while ((head = tasks.peekFirst()) != null && now - head.enqueuedNanos > SHED_NANOS) {
+                    shed.add(tasks.pollFirst());
+                }
+                if (waited > SHED_NANOS) {
+                    shed.add(task);
+                    continue;
+                }
+            }
+            return task;
+        }
+    }
+
+    /**
+     * 回复被丢弃的请求
+     *
+     * @param shed 被丢弃的任务
+     */
+    private void shed(List<HandlerTask> shed) {
+        for (HandlerTask task : shed) {
+            RejectedRequestHandler.shed(task, System.nanoTime() - task.enqueuedNanos);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package red.zyc.socket.core.transport;
+
+import red.zyc.socket.core.codec.Frame;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+/**
+ * 业务逻辑看到的客户端连接，bio、nio、aio三种传输层各自实现。
+ * 业务逻辑只通过这个接口读写连接，不关心连接底层使用的是阻塞的Socket、SocketChannel还是AsynchronousSocketChannel。
+ *
+ * @author zyc
+ */
+public interface Connection {
+
+    /**
+     * 在调用线程中直接执行任务的执行器，写操作本身就可以在任意线程调用的连接使用它作为{@link #eventLoop()}
+     */
+    Executor DIRECT = Runnable::run;
+
+    /**
+     * @return 当前连接的唯一标识
+     */
+    UUID getUuid();
+
+    /**
+     * @return 当前连接的id
+     */
+    String getId();
+
+    /**
+     * @return 进程内唯一的连接序号，从1开始递增，也是连接在{@link ConnectionRegistry}中的key
+     */
+    long getSerialId();
+
+    /**
+     * @return 客户端的网络地址
+     */
+    InetSocketAddress getInetSocketAddress();
+
+    /**
+     * 负责当前连接读写的执行器。同一个执行器上的多个连接可以在一个任务中一起写，
+     * 例如nio的SubReactor，在SubReactor线程中调用{@link #write(ByteBuffer)}不需要再提交一次任务。
+     *
+     * @return 负责当前连接读写的执行器
+     */
+    Executor eventLoop();
+
+    /**
+     * 将一个已编码的帧写给客户端，可以在任意线程调用。帧可能不会立即写出，调用方在写完之前不能再修改它
+     *
+     * @param frame 处于读模式的帧
+     */
+    void write(ByteBuffer frame);
+
+    /**
+     * 将文件中一段已编码的帧写给客户端，可以在任意线程调用，与{@link #write(ByteBuffer)}写的帧保持调用的先后顺序。
+     * 默认先把文件内容读到内存中再写，支持零拷贝的连接可以直接把文件内容发送到socket
+     *
+     * @param region 文件中的一段数据，写完之前不能关闭它的文件通道
+     * @throws IOException 读取文件失败
+     */
+    default void transfer(FileRegion region) throws IOException {
+        write(region.read());
+    }
+
+    /**
+     * 传输层提交的一个请求处理结束之后调用，无论业务逻辑是否回复、是否抛出异常，被拒绝或者被丢弃的请求也会调用一次。
+     * 需要按照未处理完的请求数做流控的连接可以在这里计数，默认什么也不做
+     *
+     * @param request 请求帧
+     */
+    default void handled(Frame request) {
+    }
+
+    /**
+     * 断开连接，多次调用只会生效一次
+     */
+    void disconnect();
+
+    /**
+     * @return 连接是否已经断开
+     */
+    boolean isClosed();
+
+    /**
+     * @return 客户端地址信息
+     */
+    default String clientAddress() {
+        InetSocketAddress inetSocketAddress = getInetSocketAddress();
+        return String.format("[%s:%s]", inetSocketAddress.getAddress().getHostAddress(), inetSocketAddress.getPort());
+    }
+}
@@ -0,0 +1,89 @@
+package red.zyc.socket.core.transport;
+
+import red.zyc.socket.core.concurrent.CpuQuota;
+import red.zyc.socket.core.concurrent.LongObjectMap;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 当前进程所有已建立的连接，key为{@link Connection#getSerialId() 连接序号}，不需要用字符串形式的uuid作为key，
+ * 用于需要检查所有连接的后台任务，例如bio的写超时检测。房间广播和集群转发直接持有成员连接的引用，不经过注册表。<br><br>
+ * 连接按照序号分散在{@link #SHARDS}个{@link LongObjectMap}中，连续的序号落在不同的分片上。
+ * 遍历不加锁；注册和注销只锁连接所在的分片，所以每个分片同一时刻只有一个写线程，不同分片的写互不影响。
+ *
+ * @author zyc
+ */
+public final class ConnectionRegistry {
+
+    /**
+     * 分片数，cpu数的4倍向上取整到2的幂
+     */
+    static final int SHARDS = Integer.highestOneBit(CpuQuota.availableProcessors() * 4 - 1) << 1;
+
+    /**
+     * 所有传输层共用的实例
+     */
+    public static final ConnectionRegistry INSTANCE = new ConnectionRegistry();
+
+    /**
+     * 上一个分配的连接序号
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final LongObjectMap<Connection>[] shards;
+
+    @SuppressWarnings("unchecked")
+    private ConnectionRegistry() {
+        shards = new LongObjectMap[SHARDS];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new LongObjectMap<>();
+        }
+    }
+
+    /**
+     * @return 新的连接序号，从1开始递增
+     */
+    long nextSerialId() {
+        return sequence.incrementAndGet();
+    }
+
+    /**
+     * 注册一个已经建立的连接
+     *
+     * @param connection 连接
+     */
+    void register(Connection connection) {
+        LongObjectMap<Connection> shard = shard(connection.getSerialId());
+        synchronized (shard) {
+            shard.put(connection.getSerialId(), connection);
+        }
+    }
+
+    /**
+     * 注销一个已经断开的连接
+     *
+     * @param connection 连接
+     */
+    void unregister(Connection connection) {
+        LongObjectMap<Connection> shard = shard(connection.getSerialId());
+        synchronized (shard) {
+            shard.remove(connection.getSerialId());
+        }
+    }
+
+    /**
+     * 遍历所有连接，结果是弱一致的
+     *
+     * @param action 对每个连接执行的操作
+     */
+    public void forEach(Consumer<Connection> action) {
+        for (LongObjectMap<Connection> shard : shards) {
+            shard.forEach(action);
+        }
+    }
+
+    private LongObjectMap<Connection> shard(long serialId) {
+        return shards[(int) serialId & (SHARDS - 1)];
+    }
+}
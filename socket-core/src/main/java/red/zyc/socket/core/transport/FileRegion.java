@@ -0,0 +1,117 @@
+package red.zyc.socket.core.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 文件中一段需要原样写给客户端的数据，例如{@link red.zyc.socket.core.journal.Journal 消息日志}中已经编码好的推送帧。
+ * 支持的连接通过{@link FileChannel#transferTo}直接把文件内容发送到socket，不需要先读到用户态的缓冲中。
+ * 只能被一个线程写，文件通道由创建者负责关闭，写完之前不能关闭。数据全部写出、读到内存中或者连接关闭时会调用一次{@link #release()}，
+ * 通知创建者这段数据不再需要文件通道。
+ *
+ * @author zyc
+ */
+public final class FileRegion {
+
+    private final FileChannel channel;
+
+    /**
+     * 数据结束的位置
+     */
+    private final long end;
+
+    /**
+     * 不再需要文件通道时的回调
+     */
+    private final Runnable onRelease;
+
+    /**
+     * 是否已经调用过{@link #onRelease}
+     */
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    /**
+     * 下一个要写的位置
+     */
+    private long position;
+
+    /**
+     * @param channel  文件通道
+     * @param position 数据开始的位置
+     * @param count    字节数
+     */
+    public FileRegion(FileChannel channel, long position, long count) {
+        this(channel, position, count, () -> {
+        });
+    }
+
+    /**
+     * @param channel   文件通道
+     * @param position  数据开始的位置
+     * @param count     字节数
+     * @param onRelease 不再需要文件通道时的回调，只会被调用一次
+     */
+    public FileRegion(FileChannel channel, long position, long count, Runnable onRelease) {
+        this.channel = channel;
+        this.position = position;
+        this.end = position + count;
+        this.onRelease = onRelease;
+    }
+
+    /**
+     * @return 还没有写出的字节数
+     */
+    public long remaining() {
+        return end - position;
+    }
+
+    /**
+     * 将剩余的数据尽可能多地直接发送到目标通道，目标通道是非阻塞的时候可能只写出一部分
+     *
+     * @param target 目标通道
+     * @return 本次写出的字节数
+     * @throws IOException io异常
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        long transferred = channel.transferTo(position, end - position, target);
+        position += transferred;
+        if (position == end) {
+            release();
+        }
+        return transferred;
+    }
+
+    /**
+     * 不支持{@link #transferTo}的连接把剩余的数据读到一个缓冲中再写
+     *
+     * @return 处于读模式的缓冲，包含剩余的全部数据
+     * @throws IOException io异常
+     */
+    public ByteBuffer read() throws IOException {
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(end - position));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException(String.format("文件只剩下%d字节，需要读取%d字节", buffer.position(), buffer.capacity()));
+                }
+            }
+            position = end;
+            return buffer.flip();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * 不再需要文件通道，数据写完或者连接关闭时调用，重复调用没有影响
+     */
+    public void release() {
+        if (released.compareAndSet(false, true)) {
+            onRelease.run();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package red.zyc.socket.core.transport;
+
+import red.zyc.socket.core.codec.Frame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 业务逻辑。同一个实现可以不加修改地运行在bio、nio、aio三种传输层上，
+ * 传输层负责读写、解码、心跳和限流，只把{@link Frame#REQUEST}帧交给业务逻辑。
+ *
+ * @author zyc
+ */
+public interface Handler {
+
+    /**
+     * 连接建立之后调用
+     *
+     * @param connection 连接
+     */
+    default void connected(Connection connection) {
+    }
+
+    /**
+     * 处理一个请求帧，通过{@link Connection#write}写回响应帧。
+     * nio、aio在业务线程池中调用，bio在连接自己的线程中调用，所以实现不能假设自己运行在哪个线程上。
+     * 请求帧的内容只在方法返回之前有效，需要在方法返回之后使用时应当复制一份。
+     *
+     * @param connection 连接
+     * @param request    请求帧
+     */
+    void handle(Connection connection, Frame request);
+
+    /**
+     * 开启{@link red.zyc.socket.core.cache.ResponseCache 响应缓存}之后，传输层在提交请求之前调用这个方法，
+     * 返回非null代表请求是幂等的，响应只取决于key而与连接无关，相同key的请求可以直接用缓存的响应帧回复。
+     * 在io线程中调用，实现不能有阻塞操作，通常直接返回请求帧的内容或者其中的一部分，不需要复制。
+     *
+     * @param request 请求帧
+     * @return 请求的key，返回null代表请求不能缓存
+     */
+    default ByteBuffer cacheKey(Frame request) {
+        return null;
+    }
+
+    /**
+     * 连接断开之后调用
+     *
+     * @param connection 连接
+     */
+    default void disconnected(Connection connection) {
+    }
+}
@@ -0,0 +1,119 @@
+package red.zyc.socket.core.transport;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import red.zyc.socket.core.cache.ResponseCache;
+import red.zyc.socket.core.codec.Frame;
+import red.zyc.socket.core.concurrent.NamedThreadFactory;
+import red.zyc.socket.core.jfr.DispatchEvent;
+import red.zyc.socket.core.jfr.HandleEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 调用{@link Handler}处理请求帧的任务，nio、aio提交到业务线程池中执行，bio直接在连接自己的线程中执行。
+ * 业务逻辑是{@link BatchHandler}时一个任务包含{@link RequestBatcher}攒下的一批请求，否则只包含一个请求
+ *
+ * @author zyc
+ */
+@Slf4j
+@Getter
+public class HandlerTask implements Runnable {
+
+    /**
+     * 任务包含的请求，至少有一个
+     */
+    private final List<Request> requests;
+
+    private final Handler handler;
+
+    /**
+     * 记录任务在队列中等待的时间，一批请求只记录第一个请求，没有开启jfr记录时为null
+     */
+    @Getter(AccessLevel.NONE)
+    private final DispatchEvent dispatchEvent;
+
+    /**
+     * 进入{@link CoDelQueue}的时间，由入队的线程在持有队列锁时写入
+     */
+    @Getter(AccessLevel.NONE)
+    long enqueuedNanos;
+
+    public HandlerTask(Connection connection, Frame request, Handler handler) {
+        this(List.of(new Request(connection, request)), handler);
+    }
+
+    public HandlerTask(List<Request> requests, Handler handler) {
+        this.requests = requests;
+        this.handler = handler;
+        this.dispatchEvent = DispatchEvent.start();
+    }
+
+    /**
+     * 是否使用{@link CoDelQueue}作为业务线程池的任务队列，关闭时使用先进先出的{@link LinkedBlockingQueue}
+     */
+    public static final boolean CODEL_ENABLED = Boolean.parseBoolean(System.getProperty("socket.process.codel.enabled", "true"));
+
+    /**
+     * 业务线程池的任务队列最多排队的任务数
+     */
+    private static final int QUEUE_CAPACITY = 1000;
+
+    /**
+     * @return 处理业务逻辑的线程池，任务队列已满时由{@link RejectedRequestHandler}拒绝请求
+     */
+    public static ThreadPoolExecutor newExecutor() {
+        BlockingQueue<Runnable> queue = CODEL_ENABLED ? new CoDelQueue(QUEUE_CAPACITY) : new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+        return new ThreadPoolExecutor(100, 100, 0, TimeUnit.SECONDS, queue, new NamedThreadFactory("Process"), new RejectedRequestHandler());
+    }
+
+    @Override
+    public void run() {
+        Request first = requests.get(0);
+        if (dispatchEvent != null) {
+            dispatchEvent.commit(first.connection(), first.frame().correlationId());
+        }
+        HandleEvent event = new HandleEvent();
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            if (handler instanceof BatchHandler batchHandler) {
+                batchHandler.handle(recording(batchHandler));
+            } else {
+                handler.handle(ResponseCache.INSTANCE.recording(first.connection(), first.frame(), handler), first.frame());
+            }
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+        } finally {
+
+            // 一批请求一起处理，每个请求都按照整批的执行时间统计
+            long nanos = System.nanoTime() - start;
+            for (Request request : requests) {
+                Metrics.INSTANCE.handled(request.connection(), nanos);
+                request.connection().handled(request.frame());
+            }
+            event.commit(first.connection(), first.frame().correlationId());
+        }
+    }
+
+    /**
+     * @param batchHandler 业务逻辑
+     * @return 传给业务逻辑的请求，可以缓存的请求换成记录响应帧的连接
+     */
+    private List<Request> recording(BatchHandler batchHandler) {
+        if (!ResponseCache.ENABLED) {
+            return requests;
+        }
+        List<Request> recording = new ArrayList<>(requests.size());
+        for (Request request : requests) {
+            recording.add(new Request(ResponseCache.INSTANCE.recording(request.connection(), request.frame(), batchHandler), request.frame()));
+        }
+        return recording;
+    }
+}
@@ -0,0 +1,37 @@
+package red.zyc.socket.core.transport;
+
+import lombok.extern.slf4j.Slf4j;
+import red.zyc.socket.core.chat.ChatHandler;
+import red.zyc.socket.core.chat.Room;
+import red.zyc.socket.core.cluster.Cluster;
+import red.zyc.socket.core.journal.Journal;
+
+import java.io.IOException;
+
+/**
+ * 根据配置选择传输层启动服务端，classpath中需要有对应的服务端模块。可以通过以下系统属性配置：
+ * <ul>
+ *     <li>socket.transport：传输层名称，bio、nio或aio，默认nio</li>
+ *     <li>socket.port：监听的端口，默认为传输层自己的端口，bio为9000，nio为9001，aio为9002</li>
+ * </ul>
+ * 配置了socket.cluster.port时{@link ChatHandler}以{@link Cluster 集群模式}启动，其它节点转发的房间消息交给{@link Room#deliver}；
+ * 配置了socket.journal.dir时开启{@link Journal 消息日志}，写线程在第一次追加消息时启动。这些都不依赖这个入口，
+ * 直接通过各个传输层模块的main方法启动也是一样的。
+ *
+ * @author zyc
+ */
+@Slf4j
+public class Launcher {
+
+    /**
+     * 传输层名称
+     */
+    private static final String TRANSPORT = System.getProperty("socket.transport", "nio");
+
+    public static void main(String[] args) throws IOException {
+        Transport transport = Transport.load(TRANSPORT);
+        int port = Integer.getInteger("socket.port", transport.defaultPort());
+        log.info("使用{}传输层，监听端口: {}", transport.name(), port);
+        transport.serve(port, new ChatHandler());
+    }
+}
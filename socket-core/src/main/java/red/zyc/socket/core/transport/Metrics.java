@@ -0,0 +1,84 @@
+package red.zyc.socket.core.transport;
+
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+/**
+ * 传输层的指标埋点，所有方法默认什么也不做。
+ * 需要收集指标时实现这个接口并通过{@link ServiceLoader}注册（META-INF/services/red.zyc.socket.core.transport.Metrics），
+ * 三种传输层会在相同的位置回调同一个实现，所以收集到的指标可以直接对比。
+ * 回调发生在io线程或者业务线程中，实现必须是线程安全的并且不能阻塞。
+ *
+ * @author zyc
+ */
+public interface Metrics {
+
+    /**
+     * 通过{@link ServiceLoader}加载的第一个实现，没有注册任何实现时为空实现
+     */
+    Metrics INSTANCE = load();
+
+    /**
+     * 连接建立
+     *
+     * @param connection 连接
+     */
+    default void connected(Connection connection) {
+    }
+
+    /**
+     * 一个请求已经被业务逻辑处理完
+     *
+     * @param connection 连接
+     * @param nanos      业务逻辑的执行时间
+     */
+    default void handled(Connection connection, long nanos) {
+    }
+
+    /**
+     * 请求命中了响应缓存，直接在io线程中回复
+     *
+     * @param connection 连接
+     */
+    default void cacheHit(Connection connection) {
+    }
+
+    /**
+     * 可以缓存的请求没有命中响应缓存，继续交给业务逻辑处理
+     *
+     * @param connection 连接
+     */
+    default void cacheMiss(Connection connection) {
+    }
+
+    /**
+     * 业务线程池已满，请求被拒绝
+     *
+     * @param connection 连接
+     */
+    default void rejected(Connection connection) {
+    }
+
+    /**
+     * 服务端过载，请求在业务线程池队列中等待太久被丢弃
+     *
+     * @param connection   连接
+     * @param sojournNanos 请求在队列中等待的时间
+     */
+    default void shed(Connection connection, long sojournNanos) {
+    }
+
+    /**
+     * 连接断开
+     *
+     * @param connection 连接
+     */
+    default void disconnected(Connection connection) {
+    }
+
+    private static Metrics load() {
+        Iterator<Metrics> iterator = ServiceLoader.load(Metrics.class).iterator();
+        return iterator.hasNext() ? iterator.next() : new Metrics() {
+        };
+    }
+}
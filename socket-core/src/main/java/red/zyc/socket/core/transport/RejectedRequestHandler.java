@@ -0,0 +1,103 @@
+package red.zyc.socket.core.transport;
+
+import lombok.extern.slf4j.Slf4j;
+import red.zyc.socket.core.codec.Frame;
+import red.zyc.socket.core.jfr.RejectEvent;
+import red.zyc.socket.core.jfr.ShedEvent;
+import red.zyc.socket.core.message.Message;
+import red.zyc.socket.core.message.MessageEncoder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 业务线程池任务队列已满时拒绝本次请求，{@link CoDelQueue}丢弃等待太久的请求时也通过这里回复客户端。
+ * 一个任务包含一批请求时，批次中的每个请求都会收到错误响应。<br><br>
+ * 过载时每秒可能拒绝成千上万个请求，每个请求都会计入{@link Metrics}并提交一个JFR事件，日志则每1024个请求只打印一次累计数量，
+ * 避免打印日志本身成为过载时的瓶颈。
+ *
+ * @author zyc
+ */
+@Slf4j
+public class RejectedRequestHandler implements RejectedExecutionHandler {
+
+    /**
+     * 拒绝请求时回复的错误原因
+     */
+    private static final byte[] REJECTED = "服务端负载已满，请求数据已被丢弃".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 丢弃等待太久的请求时回复的错误原因
+     */
+    private static final byte[] SHED = "服务端过载，请求等待超时已被丢弃".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 累计拒绝的请求数
+     */
+    private static final AtomicLong REJECTED_COUNT = new AtomicLong();
+
+    /**
+     * 累计丢弃的请求数
+     */
+    private static final AtomicLong SHED_COUNT = new AtomicLong();
+
+    @Override
+    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+        if (!(runnable instanceof HandlerTask task)) {
+            throw new RejectedExecutionException("业务线程池的任务队列已满");
+        }
+        for (Request request : task.getRequests()) {
+            Connection connection = request.connection();
+            long count = REJECTED_COUNT.incrementAndGet();
+            if ((count & 1023) == 1) {
+                log.error("服务端负载已满，累计已拒绝{}个请求，最近一个来自连接{}", count, connection.getId());
+            }
+            Metrics.INSTANCE.rejected(connection);
+            new RejectEvent().commit(connection, request.frame().correlationId(), executor.getQueue().size());
+            reply(request, REJECTED);
+        }
+    }
+
+    /**
+     * 丢弃一个在业务线程池队列中等待太久的请求
+     *
+     * @param task         被丢弃的任务
+     * @param sojournNanos 任务在队列中等待的时间
+     */
+    static void shed(HandlerTask task, long sojournNanos) {
+        for (Request request : task.getRequests()) {
+            Connection connection = request.connection();
+            long count = SHED_COUNT.incrementAndGet();
+            if ((count & 1023) == 1) {
+                log.warn("服务端过载，累计已丢弃{}个请求，最近一个来自连接{}，在队列中等待了{}ms", count, connection.getId(), TimeUnit.NANOSECONDS.toMillis(sojournNanos));
+            }
+            Metrics.INSTANCE.shed(connection, sojournNanos);
+            new ShedEvent().commit(connection, request.frame().correlationId(), sojournNanos);
+            reply(request, SHED);
+        }
+    }
+
+    /**
+     * 请求没有被处理但还是要发送一个响应帧告诉客户端本次请求结束了，同时通知连接请求已经结束
+     *
+     * @param request 被拒绝的请求
+     * @param reason  错误原因
+     */
+    private static void reply(Request request, byte[] reason) {
+
+        // 这个ByteBuffer不要设置为成员变量或者静态变量，因为写完之后它的position会被置为limit，
+        // 除非在写完之后调用flip方法才能再次写这个ByteBuffer。
+        ByteBuffer response = new MessageEncoder()
+                .wrap(ByteBuffer.allocate(Message.frameLength(1, reason.length)), Frame.RESPONSE, request.frame().correlationId(), Message.ERROR)
+                .field(reason)
+                .finish()
+                .flip();
+        request.connection().write(response);
+        request.connection().handled(request.frame());
+    }
+}
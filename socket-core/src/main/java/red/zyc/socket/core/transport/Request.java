@@ -0,0 +1,13 @@
+package red.zyc.socket.core.transport;
+
+import red.zyc.socket.core.codec.Frame;
+
+/**
+ * 一批请求中的一个请求，交给{@link BatchHandler}处理
+ *
+ * @param connection 发送请求的连接，响应帧通过它写回
+ * @param frame      请求帧
+ * @author zyc
+ */
+public record Request(Connection connection, Frame frame) {
+}
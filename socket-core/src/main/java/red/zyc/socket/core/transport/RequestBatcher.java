@@ -0,0 +1,69 @@
+package red.zyc.socket.core.transport;
+
+import red.zyc.socket.core.codec.Frame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * 把io线程解码出的请求提交到业务线程池。业务逻辑是{@link BatchHandler}时先攒在一起，
+ * 等io线程调用{@link #flush}或者攒够{@link #MAX_SIZE}个请求时作为一个{@link HandlerTask}提交；
+ * 否则每个请求直接提交一个任务。<br><br>
+ * 不是线程安全的，同一时刻只能有一个io线程使用，nio每个SubReactor一个，aio每个连接一个。
+ *
+ * @author zyc
+ */
+public final class RequestBatcher {
+
+    /**
+     * 一批最多包含的请求数，通过系统属性socket.batch.maxSize配置，默认64
+     */
+    public static final int MAX_SIZE = Math.max(1, Integer.getInteger("socket.batch.maxSize", 64));
+
+    private final Executor executor;
+
+    private final Handler handler;
+
+    /**
+     * 还没有提交的请求，业务逻辑不是{@link BatchHandler}时为null
+     */
+    private List<Request> requests;
+
+    public RequestBatcher(Executor executor, Handler handler) {
+        this.executor = executor;
+        this.handler = handler;
+        this.requests = handler instanceof BatchHandler ? new ArrayList<>() : null;
+    }
+
+    /**
+     * 提交或者暂存一个请求
+     *
+     * @param connection 连接
+     * @param frame      请求帧
+     */
+    public void add(Connection connection, Frame frame) {
+        if (requests == null) {
+            executor.execute(new HandlerTask(connection, frame, handler));
+            return;
+        }
+        requests.add(new Request(connection, frame));
+        if (requests.size() >= MAX_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * 把暂存的请求作为一个任务提交
+     */
+    public void flush() {
+        if (requests == null || requests.isEmpty()) {
+            return;
+        }
+
+        // 任务持有列表的引用，提交之后换成新的列表
+        List<Request> batch = requests;
+        requests = new ArrayList<>();
+        executor.execute(new HandlerTask(batch, handler));
+    }
+}
@@ -0,0 +1,51 @@
+package red.zyc.socket.core.transport;
+
+import red.zyc.socket.core.ServerException;
+
+import java.io.IOException;
+import java.util.ServiceLoader;
+
+/**
+ * 传输层，即一种io模型的服务端实现。bio、nio、aio三个服务端模块各自提供一个实现，
+ * 并通过{@link ServiceLoader}注册（META-INF/services/red.zyc.socket.core.transport.Transport），
+ * 这样部署时只需要通过配置选择io模型，业务逻辑{@link Handler}保持不变。
+ *
+ * @author zyc
+ */
+public interface Transport {
+
+    /**
+     * @return 传输层名称，例如bio、nio、aio
+     */
+    String name();
+
+    /**
+     * @return 默认监听的端口
+     */
+    int defaultPort();
+
+    /**
+     * 启动服务端，方法会一直阻塞直到服务端停止
+     *
+     * @param port    监听的端口
+     * @param handler 业务逻辑
+     * @throws IOException io异常
+     */
+    void serve(int port, Handler handler) throws IOException;
+
+    /**
+     * 从classpath中查找指定名称的传输层
+     *
+     * @param name 传输层名称
+     * @return 传输层
+     * @throws ServerException classpath中没有指定名称的传输层
+     */
+    static Transport load(String name) {
+        for (Transport transport : ServiceLoader.load(Transport.class)) {
+            if (transport.name().equals(name)) {
+                return transport;
+            }
+        }
+        throw new ServerException(String.format("classpath中没有名称为%s的传输层", name));
+    }
+}